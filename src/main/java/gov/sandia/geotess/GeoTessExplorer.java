@@ -32,8 +32,16 @@
  */
 package gov.sandia.geotess;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -46,6 +54,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gov.sandia.geotess.extensions.libcorr3d.LibCorr3DModel;
 import gov.sandia.geotess.extensions.rstt.GeoTessModelSLBM;
@@ -130,6 +142,18 @@ import gov.sandia.gmp.util.numerical.vector.VectorUnit;
  * last attribute. 'all' and '0-n' would both return all attributes. 
  * 'none' would return no values at all. The list may not include any spaces.
  * <p>
+ * The functions that interpolate values on a lat-lon grid, a slice or a 3D
+ * block (mapValuesDepth, mapValuesLayer, mapLayerBoundary, mapLayerThickness,
+ * slice, values3DBlock and vtk3DBlock, among others) evaluate their grids
+ * concurrently. The number of threads defaults to the number of available
+ * processors and can be set with an argument 'threads=n' placed anywhere after
+ * the function name. The argument is removed before the function's own
+ * arguments are parsed, and the output does not depend on the number of threads.
+ * getValuesFile also uses this number of threads to interpolate its points,
+ * which it visits in spatially sorted order. Each thread's GeoTessPosition is
+ * first set to the points that precede its share of that order, so the
+ * output of getValuesFile also does not depend on the number of threads.
+ * <p>
  * For most functions, the first two arguments after the function name are the 
  * name of the input model file and the relative path to the grid directory.  
  * Some models have the grid stored in the same file with the model while other
@@ -338,9 +362,14 @@ public class GeoTessExplorer
 			System.out.println("Note that when a function requests a 'list of attributes'\n" +
 					"specify a string like '0' or '0,2' or '0-2' or 'n' or '1-n' or 'all'\n" +
 					"where 'n' is interpreted to be the index of the last attribute\n");
+			System.out.println("Functions that interpolate maps, slices, 3D blocks or files of points use multiple\n" +
+					"threads. Add the argument 'threads=n' anywhere after the function name\n" +
+					"to change the number of threads (default is the number of processors).\n");
 			System.exit(0);
 		}
 
+		args = parseThreads(args);
+
 		String cmd = args[0];
 		if (cmd.equalsIgnoreCase("version"))
 			System.out.println("GeoTessJava."+GeoTessJava.getVersion());
@@ -452,6 +481,26 @@ public class GeoTessExplorer
 							args[0]));		
 	}
 
+	/**
+	 * Remove an optional 'threads=n' argument from the argument list and use it
+	 * to set the maximum number of threads used by GeoTessModelUtils to
+	 * evaluate maps, slices and 3D blocks.
+	 * 
+	 * @param args the command line arguments
+	 * @return the command line arguments without the 'threads=n' argument.
+	 */
+	protected static String[] parseThreads(String[] args)
+	{
+		ArrayList<String> list = new ArrayList<String>(args.length);
+		for (int i = 0; i < args.length; ++i)
+			if (i > 0 && args[i].toLowerCase().startsWith("threads="))
+				GeoTessModelUtils.setMaxThreads(Integer.parseInt(
+						args[i].substring("threads=".length()).trim()));
+			else
+				list.add(args[i]);
+		return list.toArray(new String[list.size()]);
+	}
+
 	protected void getClassName(String[] args) throws Exception
 	{
 		int nmin = 2;
@@ -1889,29 +1938,46 @@ public class GeoTessExplorer
 	}
 
 	/**
-	 * Output to standard out interpolated values at a single point.
+	 * Interpolate values at all the points in a file. Each record of the input
+	 * file contains lat, lon, depth and, optionally, a layer index. Points are
+	 * read in chunks of POINTS_PER_CHUNK records. Within a chunk, points are
+	 * sorted into latitude bands and serpentine longitude order and split
+	 * into contiguous ranges that are interpolated concurrently, each by its
+	 * own GeoTessPosition, so that successive triangle walks are short.
+	 * Before a range is interpolated its GeoTessPosition is set to the
+	 * PRIME_POINTS points that precede the range in sorted order (taken from
+	 * the previous chunk for the first range), so that each triangle walk
+	 * starts where it would in a single-threaded run and the output does not
+	 * depend on the number of threads. Results are written in input order.
+	 * <p>
+	 * Text output consists of each input record followed by the interpolated
+	 * values, and goes to standard out unless an output file is specified.
+	 * If the output file name ends with '.bin', output is instead written as
+	 * binary doubles (big-endian, as written by DataOutputStream), one value
+	 * per requested attribute for each input record. Records that cannot be
+	 * interpolated produce NaN values.
 	 * 
 	 * @param args
 	 *            <ol>
-	 *            <li>getValue
+	 *            <li>getValuesFile
 	 *            <li>input model file name
 	 *            <li>relative path to grid directory (not used if grid stored in model file)
-	 *            <li>name of file with input lat, lon, depth values
-	 *            <li>layer ID. Ignored if -1
+	 *            <li>name of file with input lat, lon, depth, layerIndex values
 	 *            <li>list of attribute indexes
 	 *            <li>interpolation type horizontal: linear or natural_neighbor (nn)
 	 *            <li>interpolation type radial: linear or cubic_spline (cs)
 	 *            <li>reciprocal (true or false)
+	 *            <li>optional output file name. Extension '.bin' selects binary output
 	 *            </ol>
 	 * @throws Exception
 	 */
 	public void getValuesFile(String[] args) throws Exception
 	{
 		int nmin = 8;
-		if (args.length != nmin)
+		if (args.length != nmin && args.length != nmin+1)
 		{
 			System.out .println(
-					String.format("%n%nMust supply %d arguments:%n"
+					String.format("%n%nMust supply %d or %d arguments:%n"
 							+ "  1  --  getValuesFile%n"
 							+ "  2  --  input model file name%n"
 							+ "  3  --  relative path to grid directory (not used if grid stored in model file)%n"
@@ -1921,7 +1987,10 @@ public class GeoTessExplorer
 							+ "  5  --  list of attribute indexes%n"
 							+ "  6  --  interpolation type horizontal: linear or natural_neighbor (nn)%n"
 							+ "  7  --  interpolation type radial: linear or cubic_spline (cs)%n"
-							+ "  8  --  reciprocal (true or false)", nmin));
+							+ "  8  --  reciprocal (true or false)%n"
+							+ "  9  --  optional output file name (default is standard out).%n"
+							+ "         If the name ends with '.bin' values are written as binary doubles%n"
+							+ "         (big-endian), one per attribute for each input record.", nmin, nmin+1));
 			System.exit(0);
 		}
 
@@ -1941,62 +2010,404 @@ public class GeoTessExplorer
 		if (s.equals("CS")) s = "CUBIC_SPLINE";
 		InterpolatorType radialType = InterpolatorType.valueOf(s);
 
-		boolean reciprocal = Boolean.parseBoolean(args[arg++]);
+		final boolean reciprocal = Boolean.parseBoolean(args[arg++]);
+
+		File outputFile = arg < args.length ? new File(args[arg++]) : null;
+		final boolean binary = outputFile != null 
+				&& outputFile.getName().toLowerCase().endsWith(".bin");
 
 		GeoTessModel model = GeoTessModel.getGeoTessModel(modelFile, gridDirectory);
-		DataType dataType = model.getMetaData().getDataType();
+		final DataType dataType = model.getMetaData().getDataType();
 
-		int[] attributes = parseList(attributeList, model.getMetaData()
+		final int[] attributes = parseList(attributeList, model.getMetaData()
 				.getNAttributes() - 1);
 
-		Scanner input = new Scanner(inputFile);
+		int nThreads = GeoTessModelUtils.getMaxThreads();
 
-		GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(model, horizontalType, radialType);
+		// one position per worker. Each is primed with the points that precede
+		// its range in sorted order before the range is interpolated.
+		final GeoTessPosition[] positions = new GeoTessPosition[nThreads];
+		for (int t = 0; t < nThreads; ++t)
+			positions[t] = GeoTessPosition.getGeoTessPosition(model, horizontalType, radialType);
 
-		int layerIndex;
-		double lat, lon, depth;
-		String record, separator;
-		String[] ss;
-		while (input.hasNext())
-		{
-			record = input.nextLine();
-			separator = record.contains(",") ? ", " : " ";
+		ExecutorService threadPool = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
 
-			ss = record.replaceAll(",", " ").split("\\s+");
-			if (ss.length >= 3)
+		BufferedReader input = new BufferedReader(new FileReader(inputFile), 1 << 16);
+
+		BufferedWriter textOutput = null;
+		DataOutputStream binaryOutput = null;
+		if (binary)
+			binaryOutput = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(outputFile), 1 << 16));
+		else
+			textOutput = new BufferedWriter(outputFile == null ? new OutputStreamWriter(System.out)
+					: new FileWriter(outputFile), 1 << 16);
+
+		final String[] records = new String[POINTS_PER_CHUNK];
+		final double[][] points = new double[POINTS_PER_CHUNK][];
+		final String[] lines = binary ? null : new String[POINTS_PER_CHUNK];
+		final double[][] values = binary ? new double[POINTS_PER_CHUNK][attributes.length] : null;
+		final long[] order = new long[POINTS_PER_CHUNK];
+
+		// the last PRIME_POINTS points of the previous chunk, in sorted order
+		final double[][] previous = new double[PRIME_POINTS][];
+
+		try
+		{
+			while (true)
 			{
-				try 
+				// read the next chunk of records and parse lat, lon, depth, layer
+				int n = 0;
+				String record;
+				while (n < POINTS_PER_CHUNK && (record = input.readLine()) != null)
+				{
+					records[n] = record;
+					points[n] = parsePoint(record);
+					++n;
+				}
+				if (n == 0)
+					break;
+
+				// sort the points of the chunk spatially. The key occupies the high 
+				// bits of each element of order and the record index the low bits.
+				for (int i = 0; i < n; ++i)
+					order[i] = (points[i] == null ? 0L : spatialKey(points[i][0], points[i][1])) 
+					* POINTS_PER_CHUNK + i;
+				Arrays.sort(order, 0, n);
+
+				// split the sorted points into one contiguous range per worker
+				final int count = n;
+				int nTasks = threadPool == null ? 1 : nThreads;
+				ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(nTasks);
+				for (int t = 0; t < nTasks; ++t)
 				{
-					lat = Double.parseDouble(ss[0]);
-					lon = Double.parseDouble(ss[1]);
-					depth = Double.parseDouble(ss[2]);
-					layerIndex = ss.length > 3 ? Integer.parseInt(ss[3]) : -1;
+					final GeoTessPosition pos = positions[t];
+					final int first = (int) ((long) count * t / nTasks);
+					final int last = (int) ((long) count * (t + 1) / nTasks);
+					final boolean prime = nTasks > 1;
+					Callable<Void> task = new Callable<Void>()
+					{
+						@Override
+						public Void call()
+						{
+							// a single worker simply continues from the previous chunk
+							if (prime)
+								for (int k = first - PRIME_POINTS; k < first; ++k)
+									setPosition(pos, k < 0 ? previous[PRIME_POINTS + k]
+											: points[(int) (order[k] % POINTS_PER_CHUNK)]);
+
+							StringBuilder line = new StringBuilder(128);
+							for (int k = first; k < last; ++k)
+							{
+								int i = (int) (order[k] % POINTS_PER_CHUNK);
+								if (binary)
+									interpolate(pos, points[i], attributes, reciprocal, values[i]);
+								else
+									lines[i] = interpolate(pos, points[i], records[i], attributes, 
+											reciprocal, dataType, line);
+							}
+							return null;
+						}
+					};
+					if (threadPool == null)
+						task.call();
+					else
+						futures.add(threadPool.submit(task));
+				}
+				for (Future<Void> f : futures)
+					f.get();
+
+				// save the last sorted points to prime the workers of the next chunk
+				for (int k = 0; k < PRIME_POINTS; ++k)
+					previous[k] = n - PRIME_POINTS + k < 0 ? previous[n + k]
+							: points[(int) (order[n - PRIME_POINTS + k] % POINTS_PER_CHUNK)];
 
-					pos.set(layerIndex, lat, lon, depth);
-					switch (dataType)
+				// write the results in input order
+				for (int i = 0; i < n; ++i)
+					if (binary)
 					{
-					case DOUBLE:
-						for (int j : attributes)
-							record += String.format("%s%1.16g", separator, reciprocal ? 1./ pos.getValue(j) : pos.getValue(j));
-						break;
-					case FLOAT:
-						for (int j : attributes)
-							record += String.format("%s%1.7g", separator, reciprocal ? 1./ pos.getValue(j) : pos.getValue(j));
-						break;
-					default:
-						for (int j : attributes)
-							record += String.format("%s%d", separator, reciprocal ? 
-									Math.round(1./ pos.getValue(j)) : Math.round(pos.getValue(j)));
-						break;
+						for (int j = 0; j < attributes.length; ++j)
+							binaryOutput.writeDouble(values[i][j]);
+					}
+					else
+					{
+						textOutput.write(lines[i]);
+						textOutput.newLine();
 					}
-				} 
-				catch (Exception e) 
+			}
+		}
+		finally
+		{
+			if (threadPool != null)
+				threadPool.shutdownNow();
+			input.close();
+			if (binaryOutput != null)
+				binaryOutput.close();
+			else if (outputFile != null)
+				textOutput.close();
+			else
+				textOutput.flush();
+		}
+	}
+
+	/**
+	 * Number of input records read and interpolated at a time by getValuesFile().
+	 */
+	private static final int POINTS_PER_CHUNK = 1 << 16;
+
+	/**
+	 * Number of preceding points to which each getValuesFile() worker sets its
+	 * GeoTessPosition before it interpolates its range of points.
+	 */
+	private static final int PRIME_POINTS = 8;
+
+	/**
+	 * Set pos to a point of getValuesFile() without interpolating any values.
+	 * Points that are null or cannot be set are ignored.
+	 */
+	private static void setPosition(GeoTessPosition pos, double[] point)
+	{
+		if (point == null)
+			return;
+		try
+		{
+			pos.set((int) point[3], point[0], point[1], point[2]);
+		}
+		catch (Exception e)
+		{
+		}
+	}
+
+	/**
+	 * Parse lat, lon, depth and optional layer index from a record of the
+	 * input file of getValuesFile().
+	 * 
+	 * @param record lat, lon, depth [, layerIndex] separated by commas and/or
+	 *            white space.
+	 * @return lat, lon, depth, layerIndex or null if the record could not be
+	 *         parsed.
+	 */
+	private static double[] parsePoint(String record)
+	{
+		String[] ss = record.replaceAll(",", " ").split("\\s+");
+		if (ss.length < 3)
+			return null;
+		try
+		{
+			return new double[] { Double.parseDouble(ss[0]), Double.parseDouble(ss[1]),
+					Double.parseDouble(ss[2]), ss.length > 3 ? Integer.parseInt(ss[3]) : -1 };
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * A sort key that orders points by 1 degree latitude band and then by
+	 * longitude, alternating the direction of increasing longitude from one
+	 * band to the next so that consecutive points are close together.
+	 * 
+	 * @param lat latitude in degrees
+	 * @param lon longitude in degrees
+	 * @return a non-negative key &lt; 2^32
+	 */
+	private static long spatialKey(double lat, double lon)
+	{
+		if (Double.isNaN(lat) || Double.isNaN(lon))
+			return 0L;
+		long band = Math.max(0, Math.min(179, (long) Math.floor(lat + 90.)));
+		lon = lon % 360.;
+		if (lon < 0.)
+			lon += 360.;
+		long x = Math.min(9999999L, (long) (lon * 1e4));
+		return band * 10000000L + ((band & 1) == 0 ? x : 9999999L - x);
+	}
+
+	/**
+	 * Interpolate values at a point and return the text output record of
+	 * getValuesFile(): the input record followed by the values. If the
+	 * point cannot be interpolated the input record is returned unchanged.
+	 * The record is assembled in line, which is reused from call to call.
+	 */
+	private static String interpolate(GeoTessPosition pos, double[] point, String record,
+			int[] attributes, boolean reciprocal, DataType dataType, StringBuilder line)
+	{
+		if (point == null)
+			return record;
+		try
+		{
+			pos.set((int) point[3], point[0], point[1], point[2]);
+
+			String separator = record.contains(",") ? ", " : " ";
+			line.setLength(0);
+			line.append(record);
+			switch (dataType)
+			{
+			case DOUBLE:
+				for (int j : attributes)
+					appendGeneral(line.append(separator), 
+							reciprocal ? 1./ pos.getValue(j) : pos.getValue(j), 16);
+				break;
+			case FLOAT:
+				for (int j : attributes)
+					appendGeneral(line.append(separator), 
+							reciprocal ? 1./ pos.getValue(j) : pos.getValue(j), 7);
+				break;
+			default:
+				for (int j : attributes)
+					line.append(separator).append(reciprocal ? 
+							Math.round(1./ pos.getValue(j)) : Math.round(pos.getValue(j)));
+				break;
+			}
+			return line.toString();
+		}
+		catch (Exception e)
+		{
+			return record;
+		}
+	}
+
+	/**
+	 * Append value to sb exactly as String.format("%1.<precision>g", value) 
+	 * would format it, without the cost of creating a Formatter and parsing a 
+	 * format string for every value. The shortest decimal digits of value 
+	 * (those of Double.toString(), which are also the digits that Formatter 
+	 * rounds) are rounded half up to precision significant digits, and written 
+	 * in fixed notation if the rounded decimal exponent is in [-4, precision), 
+	 * and in scientific notation otherwise. Values that are not finite, or
+	 * whose magnitude is at least 2^53 (where Formatter uses exact rather than 
+	 * shortest digits) are formatted with String.format().
+	 * 
+	 * @param sb the StringBuilder to which the value is appended.
+	 * @param value the value to format
+	 * @param precision number of significant digits, &gt; 0
+	 * @return sb
+	 */
+	private static StringBuilder appendGeneral(StringBuilder sb, double value, int precision)
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 0x1p53)
+			return sb.append(String.format("%1." + precision + "g", value));
+
+		if (value < 0. || (value == 0. && 1. / value < 0.))
+		{
+			sb.append('-');
+			value = -value;
+		}
+
+		// extract the significant digits and decimal exponent of value, such
+		// that value = d[0].d[1]d[2]... x 10^exp
+		char[] d = new char[precision + 1];
+		int nd = 0;
+		int exp = -1;
+		if (value != 0.)
+		{
+			String s = Double.toString(value);
+			int e = s.indexOf('E');
+			int end = e < 0 ? s.length() : e;
+			int point = s.indexOf('.');
+			boolean leading = true;
+			for (int i = 0; i < end; ++i)
+			{
+				char c = s.charAt(i);
+				if (c == '.')
+					continue;
+				if (leading)
 				{
+					if (c == '0')
+						continue;
+					leading = false;
+					exp = (i < point ? point - i : point - i + 1) - 1;
+				}
+				if (nd < d.length)
+					d[nd++] = c;
+			}
+			if (e >= 0)
+				exp += Integer.parseInt(s.substring(e + 1));
+
+			// round half up to precision digits
+			if (nd > precision)
+			{
+				boolean up = d[precision] >= '5';
+				nd = precision;
+				if (up)
+				{
+					int i = nd - 1;
+					while (i >= 0 && d[i] == '9')
+						--i;
+					if (i < 0)
+					{
+						d[0] = '1';
+						nd = 1;
+						++exp;
+					}
+					else
+					{
+						++d[i];
+						nd = i + 1;
+					}
 				}
 			}
-			System.out.println(record);
 		}
-		input.close();
+
+		if (value == 0. || (exp >= -4 && exp < precision))
+		{
+			// fixed notation with precision - exp - 1 fraction digits
+			int k = 0;
+			if (exp < 0)
+				sb.append('0');
+			else
+				for (int i = 0; i <= exp; ++i)
+					sb.append(k < nd ? d[k++] : '0');
+			int nFraction = value == 0. ? precision - 1 : precision - exp - 1;
+			if (nFraction > 0)
+			{
+				sb.append('.');
+				for (int i = -1; i > exp && nFraction > 0; --i, --nFraction)
+					sb.append('0');
+				for (; nFraction > 0; --nFraction)
+					sb.append(k < nd ? d[k++] : '0');
+			}
+		}
+		else
+		{
+			// scientific notation with precision - 1 fraction digits
+			sb.append(d[0]);
+			if (precision > 1)
+			{
+				sb.append('.');
+				for (int k = 1; k < precision; ++k)
+					sb.append(k < nd ? d[k] : '0');
+			}
+			sb.append(exp < 0 ? "e-" : "e+");
+			int a = Math.abs(exp);
+			if (a < 10)
+				sb.append('0');
+			sb.append(a);
+		}
+		return sb;
+	}
+
+	/**
+	 * Interpolate values at a point for the binary output of getValuesFile().
+	 * If the point cannot be interpolated values are set to NaN.
+	 */
+	private static void interpolate(GeoTessPosition pos, double[] point,
+			int[] attributes, boolean reciprocal, double[] values)
+	{
+		try
+		{
+			if (point == null)
+				throw new GeoTessException("Invalid input record");
+			pos.set((int) point[3], point[0], point[1], point[2]);
+			for (int j = 0; j < attributes.length; ++j)
+				values[j] = reciprocal ? 1./ pos.getValue(attributes[j]) 
+						: pos.getValue(attributes[j]);
+		}
+		catch (Exception e)
+		{
+			Arrays.fill(values, Double.NaN);
+		}
 	}
 
 	/**
@@ -37,6 +37,7 @@ import static gov.sandia.gmp.util.globals.Globals.readString;
 import static gov.sandia.gmp.util.globals.Globals.writeString;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.DataInputStream;
@@ -45,6 +46,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -55,6 +57,10 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -188,11 +194,23 @@ public class GeoTessGrid
 	private final Object spokeListLock = new Object(); 
 
 	/**
-	 * An nLevels x nVertices x n array that stores the indices of the n
-	 * triangles of which each vertex is a member. Lazy evaluation is used to
-	 * load these indices.
+	 * The indices of the triangles of which each vertex is a member, for each
+	 * level, in compressed sparse row form. The triangles on level l of which
+	 * vertex v is a member are vtxTriangles[l][i] for vtxTrianglePtr[l][v] &lt;=
+	 * i &lt; vtxTrianglePtr[l][v+1], in increasing order. Computed when the grid
+	 * is loaded.
 	 */
-	private ArrayListInt[][] vtxTriangles;
+	private int[][] vtxTrianglePtr;
+	private int[][] vtxTriangles;
+
+	/**
+	 * The neighbors of each vertex, for each level, in clockwise order when
+	 * viewed from outside the unit sphere. A vertex has as many neighbors as
+	 * triangles, so spokeVertices shares vtxTrianglePtr: the neighbors of
+	 * vertex v on level l are spokeVertices[l][i] for vtxTrianglePtr[l][v] &lt;=
+	 * i &lt; vtxTrianglePtr[l][v+1]. Computed when the grid is loaded.
+	 */
+	private int[][] spokeVertices;
 
 	/**
 	 * An nTriangles x 4 array that stores the circumCenters of each triangle in
@@ -1436,9 +1454,8 @@ public class GeoTessGrid
 	 * Retrieve a list of the triangles a particular vertex is a member of,
 	 * considering only triangles in the specified tessellation/level.
 	 * <p>
-	 * Lazy evaluation is used here. The list of indexes is initially empty and
-	 * is computed and stored on demand. Once computed the indexes remain in
-	 * memory for the next time they might be called.
+	 * A new list is returned on every call. Callers that visit many vertices
+	 * should use getNVertexTriangles() and getVertexTriangle() instead.
 	 * 
 	 * @param tessId
 	 *            tessellation index
@@ -1450,16 +1467,57 @@ public class GeoTessGrid
 	 */
 	public ArrayListInt getVertexTriangles(int tessId, int level, int vertex)
 	{
-		return vtxTriangles[tessellations[tessId][0] + level][vertex];
+		int lvl = tessellations[tessId][0] + level;
+		int first = vtxTrianglePtr[lvl][vertex], last = vtxTrianglePtr[lvl][vertex+1];
+		ArrayListInt list = new ArrayListInt(Math.max(1, last-first));
+		for (int i=first; i<last; ++i)
+			list.add(vtxTriangles[lvl][i]);
+		return list;
+	}
+
+	/**
+	 * Retrieve the number of triangles a particular vertex is a member of,
+	 * considering only triangles in the specified tessellation/level.
+	 * 
+	 * @param tessId
+	 *            tessellation index
+	 * @param level
+	 *            index of a level relative to the first level of the specified
+	 *            tessellation
+	 * @param vertex
+	 * @return number of triangles
+	 */
+	public int getNVertexTriangles(int tessId, int level, int vertex)
+	{
+		int lvl = tessellations[tessId][0] + level;
+		return vtxTrianglePtr[lvl][vertex+1] - vtxTrianglePtr[lvl][vertex];
+	}
+
+	/**
+	 * Retrieve the index of the i'th triangle a particular vertex is a member
+	 * of, considering only triangles in the specified tessellation/level.
+	 * Triangles are in increasing order of triangle index.
+	 * 
+	 * @param tessId
+	 *            tessellation index
+	 * @param level
+	 *            index of a level relative to the first level of the specified
+	 *            tessellation
+	 * @param vertex
+	 * @param i 0 &lt;= i &lt; getNVertexTriangles(tessId, level, vertex)
+	 * @return triangle index
+	 */
+	public int getVertexTriangle(int tessId, int level, int vertex, int i)
+	{
+		int lvl = tessellations[tessId][0] + level;
+		return vtxTriangles[lvl][vtxTrianglePtr[lvl][vertex] + i];
 	}
 
 	/**
 	 * Retrieve a list of the triangles a particular vertex is a member of,
 	 * considering only triangles in the top level of the specified tessellation.
 	 * <p>
-	 * Lazy evaluation is used here. The list of indexes is initially empty and
-	 * is computed and stored on demand. Once computed the indexes remain in
-	 * memory for the next time they might be called.
+	 * A new list is returned on every call.
 	 * 
 	 * @param tessId
 	 *            tessellation index
@@ -1490,20 +1548,8 @@ public class GeoTessGrid
 			throws GeoTessException
 	{
 		int lvl = getLevel(tessId, level);
-
-		computeSpokeLists(lvl);
-		Edge head = spokeList[lvl][vertex];
-		if (head == null)
-			return new int[0];
-
-		int n=0;
-		Edge spoke = head;
-		do { ++n; spoke = spoke.next; } while (spoke != head);
-		int[] neighbors = new int[n];
-		for (int i=0; i<n; ++i)
-		{ neighbors[i] = spoke.vk; spoke=spoke.next; }
-
-		return neighbors;
+		return Arrays.copyOfRange(spokeVertices[lvl], vtxTrianglePtr[lvl][vertex],
+				vtxTrianglePtr[lvl][vertex+1]);
 	}
 
 	/**
@@ -1539,10 +1585,10 @@ public class GeoTessGrid
 		{
 			for (Integer index : neighbors)
 			{
-				ArrayListInt tneighbors = getVertexTriangles(tessId, level, index);
-				for (int i = 0; i < tneighbors.size(); ++i)
+				int nt = getNVertexTriangles(tessId, level, index);
+				for (int i = 0; i < nt; ++i)
 				{
-					int t = tneighbors.get(i);
+					int t = getVertexTriangle(tessId, level, index, i);
 					temp.add(getTriangleVertexIndex(t, 0));
 					temp.add(getTriangleVertexIndex(t, 1));
 					temp.add(getTriangleVertexIndex(t, 2));
@@ -1574,11 +1620,11 @@ public class GeoTessGrid
 	{
 		HashSet<Integer> neighbors = new HashSet<Integer>();
 
-		ArrayListInt tneighbors = getVertexTriangles(tessId, level, vertex);
+		int nt = getNVertexTriangles(tessId, level, vertex);
 
-		for (int i = 0; i < tneighbors.size(); ++i)
+		for (int i = 0; i < nt; ++i)
 		{
-			int t = tneighbors.get(i);
+			int t = getVertexTriangle(tessId, level, vertex, i);
 			neighbors.add(getTriangleVertexIndex(t, 0));
 			neighbors.add(getTriangleVertexIndex(t, 1));
 			neighbors.add(getTriangleVertexIndex(t, 2));
@@ -1720,100 +1766,23 @@ public class GeoTessGrid
 	 */
 	protected void initialize()
 	{
-		vtxTriangles = new ArrayListInt[levels.length][vertices.length];
-		ArrayListInt[] vtxT;
-
-		for (int level=0; level < levels.length; ++level)
+		// build the vertex to triangle incidence of every level
+		vtxTrianglePtr = new int[levels.length][];
+		vtxTriangles = new int[levels.length][];
+		forEachLevel(new LevelTask()
 		{
-			vtxT = vtxTriangles[level];
-			for (int vertex=0; vertex<vertices.length; ++vertex)
-				vtxT[vertex] =  new ArrayListInt(6);
-
-			for (int t = levels[level][0]; t < levels[level][1]; ++t)
-				for (int c = 0; c < 3; ++c)
-				{
-					int v = triangles[t][c];
-
-					// Add the index of triangle t to the list of triangles that
-					// vertex belongs to.
-					vtxT[v].add(t);
-				}
-		}
+			@Override
+			public void run(int level) { computeVertexTriangles(level); }
+		});
 
-		int[][] neighbors = new int[triangles.length][3];
+		final int[][] neighbors = new int[triangles.length][3];
 
 		// First: find the 3 neighbors of each triangle.
-		// This is an implementation of the "Triangle neighbor identification"
-		// algorithm in Ballard, Hipp and Young, 2009,
-		// Efficient and Accurate Calculation of Ray Theory Seismic Travel
-		// Time through Variable Resolution 3D Earth Models, SRL, 80, 989-999.
-
-		int n, c, vj, vk;
-		int[] corners;
-
-		boolean[] marked = new boolean[triangles.length]; // initial values are
-		// all false
-
-		// loop over all the levels of all tessellations
-		for (int tess = 0; tess < tessellations.length; ++tess)
-			for (int level = tessellations[tess][0]; level < tessellations[tess][1]; ++level)
-			{
-				vtxT = vtxTriangles[level];
-				for (int t=levels[level][0]; t<levels[level][1]; ++t)
-				{
-
-					corners = triangles[t];
-
-					// t is the index of a triangle and corners are the indexes
-					// of the 3 vertices that reside at the corners of triangle
-					// t.
-					// Loop over corners of triangle t
-					for (c = 0; c < 3; ++c)
-					{
-						vj = corners[(c + 1) % 3];
-						vk = corners[(c + 2) % 3];
-						// c is the index of a corner of triangle t (c is one of
-						// 0,1,2).
-						// vj is the index of the vertex (not corner) that is
-						// found by
-						// moving clockwise around t from corner c.
-						// vk is the index of the vertex (not corner) that is
-						// found by
-						// moving clockwise around t from vj
-
-						// indexes of the triangles of which vj is a member
-						ArrayListInt tj = vtxT[vj];  
-
-						// indexes of the triangles of which vk is a member
-						ArrayListInt tk = vtxT[vk];
-
-						// mark all the triangles of which vertex vj is a member
-						for (n = 0; n < tj.size(); ++n)
-							marked[tj.get(n)] = true;
-
-						// loop over all the triangles of which vk is a member.
-						// Two of them will be marked. One of the ones that is
-						// marked is triangle t. The other one is the triangle
-						// that resides on the other side of the edge that
-						// connects
-						// vertices vj and vk. That second triangle is the
-						// neighbor
-						// of triangle t.
-						for (n = 0; n < tk.size(); ++n)
-							if (marked[tk.get(n)] && tk.get(n) != t)
-							{
-								neighbors[t][c] = tk.get(n);
-								break;
-							}
-
-						// unmark all the triangles that were recently marked.
-						for (n = 0; n < tj.size(); ++n)
-							marked[tj.get(n)] = false;
-					}
-				}
-			}
-		// done with marked
-		marked = null;
+		forEachLevel(new LevelTask()
+		{
+			@Override
+			public void run(int level) { computeNeighbors(level, neighbors); }
+		});
 
 		// compute the Edges for all the triangles.
 		edgeList = new Edge[triangles.length][3];
@@ -1847,7 +1816,13 @@ public class GeoTessGrid
 		}
 		spokeList=new Edge[levels.length][];
 
-		neighbors = null;
+		// order the spokes of every vertex on every level
+		spokeVertices = new int[levels.length][];
+		forEachLevel(new LevelTask()
+		{
+			@Override
+			public void run(int level) { computeSpokeVertices(level); }
+		});
 
 		// find the descendant of each triangle at the next higher
 		// tessellation level.
@@ -1857,6 +1832,7 @@ public class GeoTessGrid
 		Arrays.fill(descendants, -1);
 
 		double len;
+		int[] corners;
 		double[] v0, v1, v2, x = new double[3];
 		
 		// loop over all but the last level of each tessellations. The
@@ -1900,6 +1876,174 @@ public class GeoTessGrid
 			}
 	}
 
+	/**
+	 * A computation that is performed independently for each level of the
+	 * grid.
+	 */
+	private interface LevelTask
+	{
+		void run(int level);
+	}
+
+	/**
+	 * Perform a task for every level of the grid. Levels are processed
+	 * concurrently when more than one processor is available.
+	 */
+	private void forEachLevel(final LevelTask task)
+	{
+		int nThreads = Math.min(levels.length, Runtime.getRuntime().availableProcessors());
+		if (nThreads <= 1)
+		{
+			for (int level = 0; level < levels.length; ++level)
+				task.run(level);
+			return;
+		}
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		try
+		{
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>(levels.length);
+			for (int level = 0; level < levels.length; ++level)
+			{
+				final int lvl = level;
+				futures.add(threadPool.submit(new Runnable()
+				{
+					@Override
+					public void run() { task.run(lvl); }
+				}));
+			}
+			for (Future<?> f : futures)
+				f.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compute vtxTrianglePtr[level] and vtxTriangles[level] with a counting
+	 * sort of the corners of the triangles on the level.
+	 */
+	private void computeVertexTriangles(int level)
+	{
+		int[] ptr = new int[vertices.length+1];
+		for (int t = levels[level][0]; t < levels[level][1]; ++t)
+			for (int c = 0; c < 3; ++c)
+				++ptr[triangles[t][c]+1];
+		for (int v = 0; v < vertices.length; ++v)
+			ptr[v+1] += ptr[v];
+
+		int[] vtxT = new int[ptr[vertices.length]];
+		int[] next = Arrays.copyOf(ptr, vertices.length);
+		for (int t = levels[level][0]; t < levels[level][1]; ++t)
+			for (int c = 0; c < 3; ++c)
+				vtxT[next[triangles[t][c]]++] = t;
+
+		vtxTrianglePtr[level] = ptr;
+		vtxTriangles[level] = vtxT;
+	}
+
+	/**
+	 * Find the 3 neighbors of each triangle on the specified level.
+	 * This is an implementation of the "Triangle neighbor identification"
+	 * algorithm in Ballard, Hipp and Young, 2009,
+	 * Efficient and Accurate Calculation of Ray Theory Seismic Travel
+	 * Time through Variable Resolution 3D Earth Models, SRL, 80, 989-999.
+	 */
+	private void computeNeighbors(int level, int[][] neighbors)
+	{
+		int[] ptr = vtxTrianglePtr[level];
+		int[] vtxT = vtxTriangles[level];
+
+		// marked is indexed by triangle index relative to the first triangle
+		// on this level. Initial values are all false.
+		int t0 = levels[level][0];
+		boolean[] marked = new boolean[levels[level][1] - t0];
+
+		int n, c, vj, vk;
+		int[] corners;
+
+		for (int t=levels[level][0]; t<levels[level][1]; ++t)
+		{
+			corners = triangles[t];
+
+			// t is the index of a triangle and corners are the indexes
+			// of the 3 vertices that reside at the corners of triangle t.
+			// Loop over corners of triangle t
+			for (c = 0; c < 3; ++c)
+			{
+				// vj is the index of the vertex (not corner) that is found by
+				// moving clockwise around t from corner c. vk is the index of 
+				// the vertex (not corner) that is found by moving clockwise 
+				// around t from vj
+				vj = corners[(c + 1) % 3];
+				vk = corners[(c + 2) % 3];
+
+				// mark all the triangles of which vertex vj is a member
+				for (n = ptr[vj]; n < ptr[vj+1]; ++n)
+					marked[vtxT[n] - t0] = true;
+
+				// loop over all the triangles of which vk is a member.
+				// Two of them will be marked. One of the ones that is
+				// marked is triangle t. The other one is the triangle
+				// that resides on the other side of the edge that
+				// connects vertices vj and vk. That second triangle is the
+				// neighbor of triangle t.
+				for (n = ptr[vk]; n < ptr[vk+1]; ++n)
+					if (marked[vtxT[n] - t0] && vtxT[n] != t)
+					{
+						neighbors[t][c] = vtxT[n];
+						break;
+					}
+
+				// unmark all the triangles that were recently marked.
+				for (n = ptr[vj]; n < ptr[vj+1]; ++n)
+					marked[vtxT[n] - t0] = false;
+			}
+		}
+	}
+
+	/**
+	 * Compute spokeVertices[level]. For each vertex, start with the triangle
+	 * with the largest index and walk clockwise around the vertex from
+	 * triangle to triangle across the edges that contain the vertex. The
+	 * neighbors are recorded in the order in which they are visited, which is
+	 * the same order in which the spokes of the Edge spoke lists are linked.
+	 */
+	private void computeSpokeVertices(int level)
+	{
+		int[] ptr = vtxTrianglePtr[level];
+		int[] vtxT = vtxTriangles[level];
+		int[] spokes = new int[vtxT.length];
+
+		for (int v = 0; v < vertices.length; ++v)
+		{
+			if (ptr[v+1] == ptr[v])
+				continue;
+			int t = vtxT[ptr[v+1]-1];
+			for (int i = ptr[v]; i < ptr[v+1]; ++i)
+			{
+				int[] corners = triangles[t];
+				int j = corners[0] == v ? 0 : corners[1] == v ? 1 : 2;
+				spokes[i] = corners[(j+1)%3];
+				t = edgeList[t][(j+1)%3].tLeft;
+			}
+		}
+		spokeVertices[level] = spokes;
+	}
+
 	/**
 	 * Perform walking triangle search to find the index of the triangle that
 	 * contains position defined by vector and which has no descendant.
@@ -2117,6 +2261,102 @@ public class GeoTessGrid
 		return this;
 			}
 
+	/**
+	 * Read past a grid stored in binary format without building it.  Only the
+	 * header is parsed; the tessellation, level, vertex and triangle arrays
+	 * are skipped.  This is used when a model file that contains its own grid
+	 * is loaded and a grid with the same gridID is already in memory, so that
+	 * the stream is positioned exactly where it would have been had the grid
+	 * been loaded.
+	 * 
+	 * @param input
+	 * @return the gridID stored in the grid header.
+	 * @throws IOException
+	 */
+	static String skipGrid(DataInputStream input) throws IOException
+	{
+		// first 11 characters in the file are supposed to be 'GEOTESSGRID'
+		byte[] bytes = new byte[11];
+		input.readFully(bytes);
+		String s = new String(bytes);
+		if (!s.equals("GEOTESSGRID"))
+			throw new IOException(String.format(
+					"\nExpected GEOTESSGRID but found %s%n", s));
+
+		int gridFileFormat = input.readInt();
+		if (gridFileFormat != 2)
+			throw new IOException(gridFileFormat
+					+ " is not a recognized file format version");
+
+		readString(input);  // gridSoftwareVersion
+		readString(input);  // gridGenerationDate
+
+		String gridID = readString(input);
+
+		long nTessellations = input.readInt();
+		long nLevels = input.readInt();
+		long nTriangles = input.readInt();
+		long nVertices = input.readInt();
+
+		GeoTessUtils.skipBytes(input, 8L * nTessellations + 8L * nLevels 
+				+ 24L * nVertices + 12L * nTriangles);
+
+		return gridID;
+	}
+
+	/**
+	 * Read past a grid stored in ascii format without building it.  The
+	 * values are consumed as tokens but are not parsed into numbers, and the
+	 * grid is not initialized.  On return the Scanner is positioned exactly
+	 * where loadGrid(Scanner) would have left it.
+	 * 
+	 * @param input
+	 * @return the gridID stored in the grid header.
+	 * @throws IOException
+	 */
+	static String skipGrid(Scanner input) throws IOException
+	{
+		String comment = input.nextLine();
+		if (!comment.equals(("GEOTESSGRID")))
+			throw new IOException(String.format(
+					"\nExpected GEOTESSGRID but found %s%n", comment));
+
+		int gridFileFormat = input.nextInt();
+		input.nextLine();
+
+		if (gridFileFormat != 2)
+			throw new IOException("File format " + gridFileFormat
+					+ " is not supported by this version of GeoTessGridAscii");
+
+		input.nextLine();  // gridSoftwareVersion
+		input.nextLine();  // gridGenerationDate
+
+		input.nextLine();
+		String gridID = input.nextLine();
+		input.nextLine();
+
+		int nTessellations = input.nextInt();
+		int nLevels = input.nextInt();
+		int nTriangles = input.nextInt();
+		int nVertices = input.nextInt();
+
+		// each section is preceded by the end of the previous line and a
+		// comment line.
+		int[] nTokens = new int[] { 2 * nTessellations, 2 * nLevels,
+				3 * nVertices, 3 * nTriangles };
+		for (int n : nTokens)
+		{
+			input.nextLine();
+			input.nextLine();
+			for (int i = 0; i < n; ++i)
+				input.next();
+		}
+
+		input.nextLine();
+
+		return gridID;
+	}
+
 	/**
 	 * Write the 2D grid to a file.
 	 * 
@@ -2344,27 +2584,42 @@ public class GeoTessGrid
 		String gridID = null;
 		if (fileName.endsWith(".ascii"))
 		{
-			Scanner input = new Scanner(new File(fileName));
-			if (!input.nextLine().equals("GEOTESSGRID"))
+			// the gridID is on the 6th line of the file, following a comment.
+			// Read lines directly rather than tokenizing with a Scanner,
+			// which is much slower to construct and position.
+			BufferedReader input = new BufferedReader(new FileReader(fileName));
+			try
 			{
-				input.close();
-				throw new IOException("\n" + fileName
-						+ "\ndoes not appear to be a GeoTessGrid file "
-						+ "since it does not begin with 'GEOTESSGRID'");
+				if (!"GEOTESSGRID".equals(input.readLine()))
+					throw new IOException("\n" + fileName
+							+ "\ndoes not appear to be a GeoTessGrid file "
+							+ "since it does not begin with 'GEOTESSGRID'");
+
+				String line = input.readLine();
+				int gridFileFormat;
+				try
+				{
+					gridFileFormat = Integer.parseInt(line.trim());
+				}
+				catch (RuntimeException e)
+				{
+					throw new IOException(line
+							+ " is not a recognized file format version");
+				}
+				if (gridFileFormat != 2)
+					throw new IOException(gridFileFormat
+							+ " is not a recognized file format version");
+
+				input.readLine();  // gridSoftwareVersion
+				input.readLine();  // gridGenerationDate
+				input.readLine();  // #unique Grid ID:
+
+				gridID = input.readLine();
 			}
-			int gridFileFormat = input.nextInt();
-			if (gridFileFormat != 2)
+			finally
 			{
 				input.close();
-				throw new IOException(gridFileFormat
-						+ " is not a recognized file format version");
 			}
-
-			input.nextLine();
-			input.nextLine();
-
-			gridID = input.nextLine();
-			input.close();
 		}
 		//		else if (fileName.endsWith(".nc"))
 		//		{
@@ -33,6 +33,7 @@
 package gov.sandia.geotess;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.DataInputStream;
@@ -46,13 +47,23 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gov.sandia.geotess.extensions.amplitude.GeoTessModelAmplitude;
 import gov.sandia.geotess.extensions.libcorr3d.LibCorr3DModel;
@@ -189,9 +200,12 @@ public class GeoTessModel
 
 	/**
 	 * Grid reuse map enabling multiple models to use the same grid
-	 * instantiation.
+	 * instantiation.  Grids are keyed by gridID, which is a hash of their
+	 * content, so any model that references a grid with the same gridID,
+	 * in any thread, shares a single in-memory instance.
 	 */
-	private static HashMap<String, GeoTessGrid> reuseGridMap;
+	private static final ConcurrentHashMap<String, GeoTessGrid> reuseGridMap =
+			new ConcurrentHashMap<String, GeoTessGrid>();
 
 	/**
 	 * Pool of GradientCalculator objects used to compute attribute field
@@ -221,9 +235,6 @@ public class GeoTessModel
 	{
 		metaData = getNewMetaData();
 		metaData.setModelClassName(this.getClass().getSimpleName());
-
-		if (reuseGridMap == null)
-			reuseGridMap = new HashMap<String, GeoTessGrid>();
 	}
 
 	/**
@@ -421,9 +432,6 @@ public class GeoTessModel
 			this.metaData = metaData;
 			metaData.setModelClassName(this.getClass().getSimpleName());
 
-			if (reuseGridMap == null)
-				reuseGridMap = new HashMap<String, GeoTessGrid>();
-
 			// see if grid reuse is on
 
 			if (metaData.isGridReuseOn())
@@ -436,9 +444,8 @@ public class GeoTessModel
 				{
 					// not in map ... create and add
 
-					grid = new GeoTessGrid()
-							.loadGrid(gridFileName);
-					reuseGridMap.put(gridID, grid);
+					grid = shareGrid(new GeoTessGrid()
+							.loadGrid(gridFileName));
 				}
 			}
 			else
@@ -494,23 +501,12 @@ public class GeoTessModel
 		this.metaData = metaData;
 		metaData.setModelClassName(this.getClass().getSimpleName());
 
-		if (reuseGridMap == null)
-			reuseGridMap = new HashMap<String, GeoTessGrid>();
-
+		// if we already have a reference to a grid with same gridID
+		// we will use the grid we have a reference to instead of the 
+		// supplied grid. If not, save a reference to this grid in the 
+		// reuseGridMap.
 		if (metaData.isGridReuseOn())
-		{
-			// see if we already have a reference to a grid with the same gridID
-			GeoTessGrid savedGrid = reuseGridMap.get(grid.getGridID());
-
-			// if not, save a reference to this grid in the reuseGridMap
-			if (savedGrid == null)
-				reuseGridMap.put(grid.getGridID(), grid);
-			else
-				// if we already have a reference to a grid with same gridID
-				// we will use the grid we have a reference to instead of the 
-				// supplied grid.
-				grid = savedGrid;
-		}
+			grid = shareGrid(grid);
 
 		this.grid = grid;
 
@@ -533,8 +529,7 @@ public class GeoTessModel
 	 */
 	public static void clearReuseGridMap()
 	{
-		if (reuseGridMap != null)
-			reuseGridMap.clear();
+		reuseGridMap.clear();
 	}
 
 	/**
@@ -546,20 +541,33 @@ public class GeoTessModel
 	 */
 	public static int getReuseGridMapSize()
 	{
-		return reuseGridMap == null ? 0 : reuseGridMap.size();
+		return reuseGridMap.size();
 	}
 
 	/**
-	 * Retrieve a reference to the reuseGridMap.
+	 * Retrieve a reference to the reuseGridMap.  The map is thread-safe.
 	 * @return a reference to the reuseGridMap.
 	 */
-	static public HashMap<String, GeoTessGrid> getGridMap()
+	static public Map<String, GeoTessGrid> getGridMap()
 	{
-		if (reuseGridMap == null)
-			reuseGridMap = new HashMap<String, GeoTessGrid>();
 		return reuseGridMap;
 	}
 
+	/**
+	 * Retrieve the grid in the reuseGridMap that has the same gridID as the
+	 * supplied grid. If there is no such grid, the supplied grid is added to
+	 * the map and returned.  When several threads offer grids with the same
+	 * gridID at the same time, all of them receive the same instance.
+	 * 
+	 * @param grid
+	 * @return the shared grid with the same gridID as grid.
+	 */
+	static public GeoTessGrid shareGrid(GeoTessGrid grid)
+	{
+		GeoTessGrid savedGrid = reuseGridMap.putIfAbsent(grid.getGridID(), grid);
+		return savedGrid == null ? grid : savedGrid;
+	}
+
 	/**
 	 * Retrieve a GeoTessPosition object configured to interpolate data from the
 	 * model using linear interpolation in both the geographic and radial
@@ -3358,6 +3366,51 @@ public class GeoTessModel
 		pointMap = new PointMap(this);
 	}
 
+	/**
+	 * Load only the metadata from a binary model file and read past the 
+	 * profiles and the grid without building them, leaving the stream 
+	 * positioned where classes that extend GeoTessModel store additional 
+	 * data.  The grid, if stored in a separate file, is not read at all.
+	 * After this call only the metadata of this model is available.
+	 * 
+	 * @param input
+	 * @throws GeoTessException
+	 * @throws IOException
+	 *             if the data type is CUSTOM, whose size is unknown.
+	 */
+	protected void loadModelHeaderBinary(DataInputStream input)
+			throws GeoTessException, IOException
+	{
+		metaData.load(input);
+
+		if (metaData.getDataType() == DataType.CUSTOM)
+			throw new IOException("Cannot skip profiles with CUSTOM data type in "
+					+ metaData.getInputModelFile());
+
+		int dataSize = metaData.getNAttributes() * metaData.getDataType().nbytes;
+
+		int nVertices = metaData.getNVertices();
+		int nLayers = metaData.getNLayers();
+		for (int i = 0; i < nVertices; ++i)
+			for (int j = 0; j < nLayers; ++j)
+				Profile.skip(input, dataSize);
+
+		String inputGridFile = GeoTessUtils.readString(input, 1024);
+		String gridID = GeoTessUtils.readString(input, 32);
+		metaData.setGridInputFileName(inputGridFile);
+
+		if (inputGridFile.equals("*"))
+		{
+			String fileGridID = GeoTessGrid.skipGrid(input);
+			if (!fileGridID.equals(gridID))
+				throw new GeoTessException(String.format(
+						"gridIDs in model file and grid are not equal"
+								+ "%ngridID stored in Model file is %s"
+								+ "%ngridID stored in Grid  file is %s%n",
+								gridID, fileGridID));
+		}
+	}
+
 	/**
 	 * Load the grid.
 	 * 
@@ -3391,28 +3444,42 @@ public class GeoTessModel
 		
 		if (gridFileName.equals("*"))
 		{
-			// load the grid from this input file. The grid has to be read from
-			// the file, even if a reference was retrieved from the
-			// reuseGridMap,
-			// so that the file is positioned where classes that extend
-			// GeoTessModel can read additional data.
-			GeoTessGrid g = null;
-			// load the grid from this input file.
-			if (input instanceof Scanner)
-				g = new GeoTessGrid((Scanner) input);
-			else if (input instanceof DataInputStream)
-				g = new GeoTessGrid((DataInputStream) input);
-			// else if (input instanceof NetcdfFile)
-			// g = new GeoTessGrid((NetcdfFile) input,
+			// load the grid from this input file. If a reference was 
+			// retrieved from the reuseGridMap, the grid section of the file 
+			// is skipped instead, so that the file is positioned where classes 
+			// that extend GeoTessModel can read additional data without 
+			// building and initializing a grid that would be discarded.
+			if (grid != null)
+			{
+				String fileGridID;
+				if (input instanceof Scanner)
+					fileGridID = GeoTessGrid.skipGrid((Scanner) input);
+				else if (input instanceof DataInputStream)
+					fileGridID = GeoTessGrid.skipGrid((DataInputStream) input);
+				else
+					throw new GeoTessException("Cannot load grid from input device");
+
+				if (!fileGridID.equals(gridID))
+					throw new GeoTessException(String.format(
+							"gridIDs in model file and grid are not equal"
+									+ "%ngridID stored in Model file is %s"
+									+ "%ngridID stored in Grid  file is %s%n",
+									gridID, fileGridID));
+			}
 			else
-				throw new GeoTessException("Cannot load grid from input device");
-
-			if (grid == null)
 			{
-				grid = g;
+				GeoTessGrid g = null;
+				// load the grid from this input file.
+				if (input instanceof Scanner)
+					g = new GeoTessGrid((Scanner) input);
+				else if (input instanceof DataInputStream)
+					g = new GeoTessGrid((DataInputStream) input);
+				// else if (input instanceof NetcdfFile)
+				// g = new GeoTessGrid((NetcdfFile) input,
+				else
+					throw new GeoTessException("Cannot load grid from input device");
 
-				if (metaData.isGridReuseOn())
-					reuseGridMap.put(grid.getGridID(), grid);
+				grid = metaData.isGridReuseOn() ? shareGrid(g) : g;
 			}
 		}
 		else if (grid == null)
@@ -3437,7 +3504,7 @@ public class GeoTessModel
 					.loadGrid(gridFileName);
 
 			if (metaData.isGridReuseOn())
-				reuseGridMap.put(grid.getGridID(), grid);
+				grid = shareGrid(grid);
 
 			if (!grid.getGridID().equals(gridID))
 				throw new GeoTessException(String.format(
@@ -3471,14 +3538,7 @@ public class GeoTessModel
 		}
 
 		if (metaData.isGridReuseOn())
-		{
-			this.grid = reuseGridMap.get(newGrid.getGridID());
-			if (this.grid == null)
-			{
-				this.grid = newGrid;
-				reuseGridMap.put(this.grid.getGridID(), this.grid);
-			}
-		}
+			this.grid = shareGrid(newGrid);
 		else
 			this.grid = newGrid;
 	}
@@ -3505,12 +3565,20 @@ public class GeoTessModel
 	protected void writeModelBinary(String outputFile, String gridFileName)
 			throws IOException
 	{
-		DataOutputStream output = new DataOutputStream(
-				new BufferedOutputStream(new FileOutputStream(outputFile)));
+		// profile data is written directly to the FileChannel of the output file;
+		// everything else goes through the buffered stream.
+		FileOutputStream fos = new FileOutputStream(outputFile);
+		DataOutputStream output = new ProfileBinaryWriter.ChannelOutput(
+				new BufferedOutputStream(fos, 1 << 16), fos.getChannel());
 
-		writeModelBinary(output, gridFileName);
-
-		output.close();
+		try
+		{
+			writeModelBinary(output, gridFileName);
+		}
+		finally
+		{
+			output.close();
+		}
 	}
 
 	/**
@@ -3542,9 +3610,10 @@ public class GeoTessModel
 		}
 		metaData.writeModelBinary(output, grid.getNVertices());
 
-		for (Profile[] profiles : this.profiles)
-			for (Profile profile : profiles)
-				profile.write(output);
+		// serialize large models in parallel, overlapping serialization of
+		// upcoming vertices with the writing of the current ones.
+		ProfileBinaryWriter.write(profiles, output,
+				Runtime.getRuntime().availableProcessors());
 
 		GeoTessUtils.writeString(output, gridFileName);
 		GeoTessUtils.writeString(output, grid.getGridID());
@@ -3703,19 +3772,57 @@ public class GeoTessModel
 	public void testModelIntegrity() throws GeoTessException
 	{
 		ProfileType ptype = profiles[0][0].getType();
-		boolean isSurface = ptype == ProfileType.SURFACE || ptype == ProfileType.SURFACE_EMPTY;
+		final boolean isSurface = ptype == ProfileType.SURFACE || ptype == ProfileType.SURFACE_EMPTY;
 
 		if (isSurface && getNLayers() != 1)
 			throw new GeoTessException("Model comprised of profiles of type ProfileSurface must have exactly 1 layer.\n" +
 					"This model contains layers " + metaData.getLayerNamesString());
 
-		StringBuffer repairs = new StringBuffer();
+		final StringBuffer repairs = new StringBuffer();
 
-		for (int vertex = 0; vertex < profiles.length; ++vertex)
+		// ranges of vertices are tested concurrently.  Each test stops at the
+		// first problem in its range and the problem reported is the one at the
+		// lowest vertex, which is the one a serial test would have found.
+		forEachRange(profiles.length, new RangeTest()
 		{
-			Profile[] p = profiles[vertex];
+			@Override
+			public void test(int first, int last) throws GeoTessException
+			{
+				testProfiles(first, last, isSurface, repairs);
+			}
+		});
+
+		//System.out.print(repairs.toString());
+
+		forEachRange(profiles.length, new RangeTest()
+		{
+			@Override
+			public void test(int first, int last) throws GeoTessException
+			{
+				testInterfaces(first, last);
+			}
+		});
+
+		forEachRange(getPointMap().size(), new RangeTest()
+		{
+			@Override
+			public void test(int first, int last) throws GeoTessException
+			{
+				testPointData(first, last);
+			}
+		});
+	}
 
-			ptype = p[0].getType();
+	/**
+	 * Test, and repair if necessary, the profiles at vertices first to last-1.
+	 * See testModelIntegrity().
+	 */
+	private void testProfiles(int first, int last, boolean isSurface,
+			StringBuffer repairs) throws GeoTessException
+	{
+		for (int vertex = first; vertex < last; ++vertex)
+		{
+			Profile[] p = profiles[vertex];
 
 			for (int layer = 0; layer < p.length; ++layer)
 				if ((p[0].getType() == ProfileType.SURFACE || p[0].getType() == ProfileType.SURFACE_EMPTY) != isSurface)
@@ -3788,11 +3895,16 @@ public class GeoTessModel
 															getVertex(vertex)), getEarthShape()
 													.getLonDegrees(getVertex(vertex))));
 		}
+	}
 
-		//System.out.print(repairs.toString());
-
+	/**
+	 * Ensure that radii match exactly at every interface of vertices first to
+	 * last-1. See testModelIntegrity().
+	 */
+	private void testInterfaces(int first, int last) throws GeoTessException
+	{
 		// throw an exception if radii don't match exactly at any interface.		
-		for (int vertex = 0; vertex < profiles.length; ++vertex)
+		for (int vertex = first; vertex < last; ++vertex)
 		{
 			Profile[] p = profiles[vertex];
 
@@ -3814,9 +3926,15 @@ public class GeoTessModel
 											dr));
 			}
 		}
+	}
 
-		// ensure that every Data object is of the correct size and data type.
-		for (int p=0; p<getPointMap().size(); ++p)
+	/**
+	 * Ensure that the Data objects of points first to last-1 are of the correct
+	 * size and data type. See testModelIntegrity().
+	 */
+	private void testPointData(int first, int last) throws GeoTessException
+	{
+		for (int p=first; p<last; ++p)
 		{
 			if (pointMap.getPointData(p).size() != metaData.getNAttributes())
 				throw new GeoTessException(String.format("pointMap.getPointData().size() [%d] != metaData.getNAttributes() [%d] at pointIndex %d",
@@ -3827,6 +3945,75 @@ public class GeoTessModel
 		}
 	}
 
+	/**
+	 * A test applied to a range of vertex or point indices.
+	 */
+	private interface RangeTest
+	{
+		void test(int first, int last) throws GeoTessException;
+	}
+
+	/**
+	 * Apply test to the indices 0 to n-1, split into ranges that are tested
+	 * concurrently. If any range fails, the exception thrown by the range with
+	 * the smallest indices is rethrown.
+	 */
+	private static void forEachRange(int n, final RangeTest test) throws GeoTessException
+	{
+		int nThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+				n / 4096));
+		if (nThreads == 1)
+		{
+			test.test(0, n);
+			return;
+		}
+
+		int nTasks = 4 * nThreads;
+		ArrayList<Callable<GeoTessException>> tasks = new ArrayList<Callable<GeoTessException>>(nTasks);
+		for (int t = 0; t < nTasks; ++t)
+		{
+			final int first = (int) ((long) n * t / nTasks);
+			final int last = (int) ((long) n * (t + 1) / nTasks);
+			tasks.add(new Callable<GeoTessException>()
+			{
+				@Override
+				public GeoTessException call()
+				{
+					try
+					{
+						test.test(first, last);
+						return null;
+					}
+					catch (GeoTessException e)
+					{
+						return e;
+					}
+				}
+			});
+		}
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		try
+		{
+			for (Future<GeoTessException> f : threadPool.invokeAll(tasks))
+				if (f.get() != null)
+					throw f.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new GeoTessException(e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new GeoTessException(e.getCause());
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+	}
+
 	/**
 	 * Static factory method that determines the derived class of the specified
 	 * model in the specified inputFile and returns a model of that class.
@@ -4231,7 +4418,8 @@ public class GeoTessModel
 	}
 
 	/**
-	 * Force calculation of gradient information at many nodes.
+	 * Force calculation of gradient information at many nodes. Vertices are
+	 * processed concurrently using one thread per available processor.
 	 * 
 	 * @param attributeIndex The index of the attribute whose gradients are to be
 	 *                       calculated.
@@ -4245,8 +4433,106 @@ public class GeoTessModel
 			int[] layers)
 					throws GeoTessException
 	{
-		// loop over all vertices
-		for (int vrtx = 0; vrtx < getNVertices(); ++vrtx)
+		computeGradients(attributeIndex, reciprocal, layers, false,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Force calculation of gradient information at many nodes. The vertices
+	 * of the model are divided into contiguous ranges that are processed
+	 * concurrently, each with its own GradientCalculator. Gradients of
+	 * profiles that are skipped because they are outside the active region
+	 * are still computed on demand when they are requested.
+	 * 
+	 * @param attributeIndex The index of the attribute whose gradients are to be
+	 *                       calculated.
+	 * @param reciprocal     If true the gradient of the inverse attribute is
+	 *                       calcualted.
+	 * @param layers         The indexes of the layers where gradient calculations
+	 *                       are to be performed.
+	 * @param activeOnly     If true, only profiles that contain at least one
+	 *                       node in the current active region are computed.
+	 * @param nThreads       The maximum number of threads to use.
+	 * @throws GeoTessException
+	 */
+	public void computeGradients(final int attributeIndex, final boolean reciprocal,
+			final int[] layers, final boolean activeOnly, int nThreads)
+					throws GeoTessException
+	{
+		// make sure the point indices that define the active region are current
+		if (activeOnly)
+			getPointMap();
+
+		int nVertices = getNVertices();
+		nThreads = Math.max(1, Math.min(nThreads, nVertices / 64));
+		if (nThreads == 1)
+		{
+			GradientCalculator gc = getGradientCalculator();
+			computeGradients(0, nVertices, attributeIndex, reciprocal, layers,
+					activeOnly, gc);
+			returnGradientCalculator(gc);
+			return;
+		}
+
+		// several ranges per thread so that threads that finish early can help.
+		int nTasks = 4 * nThreads;
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nTasks);
+		for (int t = 0; t < nTasks; ++t)
+		{
+			final int first = (int) ((long) nVertices * t / nTasks);
+			final int last = (int) ((long) nVertices * (t + 1) / nTasks);
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws GeoTessException
+				{
+					GradientCalculator gc = getGradientCalculator();
+					try
+					{
+						computeGradients(first, last, attributeIndex, reciprocal, layers,
+								activeOnly, gc);
+					}
+					finally
+					{
+						returnGradientCalculator(gc);
+					}
+					return null;
+				}
+			});
+		}
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		try
+		{
+			for (Future<Void> f : threadPool.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new GeoTessException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof GeoTessException)
+				throw (GeoTessException) e.getCause();
+			throw new GeoTessException(e.getCause());
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compute gradients for vertices first to last-1 using the supplied
+	 * GradientCalculator.
+	 */
+	private void computeGradients(int first, int last, int attributeIndex,
+			boolean reciprocal, int[] layers, boolean activeOnly,
+			GradientCalculator gc) throws GeoTessException
+	{
+		for (int vrtx = first; vrtx < last; ++vrtx)
 		{
 			// loop over all layers
 			Profile[] pLayers = profiles[vrtx];
@@ -4255,12 +4541,253 @@ public class GeoTessModel
 			{
 				// get the profile for this vertex/layer and compute its gradients
 				Profile pL = pLayers[layers[layer]];
-				pL.computeGradients(this, attributeIndex, vrtxUnitVec,
-						layers[layer], reciprocal);
+				if (!activeOnly || isActive(pL))
+					pL.computeGradients(this, attributeIndex, vrtxUnitVec,
+							layers[layer], reciprocal, gc);
 			}
 		}
 	}
 
+	/**
+	 * Returns true if any node of the profile is in the active region.
+	 */
+	private static boolean isActive(Profile p)
+	{
+		for (int n = 0; n < p.getNData(); ++n)
+			if (p.getPointIndex(n) >= 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Compute gradients the same way as computeGradients(attributeIndex,
+	 * reciprocal, layers, activeOnly, nThreads) but first try to load them from
+	 * gradientsFile. If the file does not exist or does not match this model,
+	 * the gradients are computed and then written to gradientsFile so that
+	 * subsequent runs can load them.
+	 * 
+	 * @param attributeIndex The index of the attribute whose gradients are to be
+	 *                       calculated.
+	 * @param reciprocal     If true the gradient of the inverse attribute is
+	 *                       calcualted.
+	 * @param layers         The indexes of the layers where gradient calculations
+	 *                       are to be performed.
+	 * @param activeOnly     If true, only profiles that contain at least one
+	 *                       node in the current active region are computed.
+	 * @param nThreads       The maximum number of threads to use.
+	 * @param gradientsFile  The file from which gradients are loaded, or to which
+	 *                       they are written. See getGradientsFile().
+	 * @return true if the gradients were loaded from gradientsFile, false if
+	 *         they were computed.
+	 * @throws GeoTessException
+	 * @throws IOException if gradientsFile could not be written.
+	 */
+	public boolean computeGradients(int attributeIndex, boolean reciprocal,
+			int[] layers, boolean activeOnly, int nThreads, File gradientsFile)
+					throws GeoTessException, IOException
+	{
+		// make sure the point indices that define the active region are current
+		if (activeOnly)
+			getPointMap();
+
+		if (gradientsFile.exists() && readGradients(gradientsFile, attributeIndex,
+				reciprocal, layers, activeOnly))
+			return true;
+
+		computeGradients(attributeIndex, reciprocal, layers, activeOnly, nThreads);
+		writeGradients(gradientsFile, attributeIndex, layers, activeOnly);
+		return false;
+	}
+
+	/**
+	 * Retrieve the default name of the file in which the gradients of the
+	 * specified attribute are stored: the name of the file from which this
+	 * model was loaded, followed by the attribute name and extension
+	 * 'gradients'. For example, model.geotess.PSLOWNESS.inv.gradients.
+	 * 
+	 * @param attributeIndex
+	 * @param reciprocal
+	 * @return the gradients file, or null if this model was not loaded from a
+	 *         file.
+	 */
+	public File getGradientsFile(int attributeIndex, boolean reciprocal)
+	{
+		File modelFile = getMetaData().getInputModelFile();
+		if (modelFile == null)
+			return null;
+		return new File(modelFile.getPath() + "."
+				+ getMetaData().getAttributeName(attributeIndex)
+				+ (reciprocal ? ".inv" : "") + ".gradients");
+	}
+
+	/**
+	 * Write all the gradients of the specified attribute that have been
+	 * computed to a binary file. The file records the grid ID, the size and
+	 * modification time of the model file, the gradient calculator
+	 * tetrahedron size, and the layers and active region restriction with
+	 * which the gradients were computed, so that readGradients() can reject a
+	 * file that does not belong to this model or to the requested computation.
+	 * The file is written to a temporary file in the same directory that is
+	 * then renamed to outputFile, so that concurrent readers never see a
+	 * partially written file.
+	 * 
+	 * @param outputFile
+	 * @param attributeIndex
+	 * @param layers the layers for which the gradients were computed.
+	 * @param activeOnly true if only profiles in the active region were computed.
+	 * @throws IOException
+	 */
+	public void writeGradients(File outputFile, int attributeIndex, int[] layers,
+			boolean activeOnly) throws IOException
+	{
+		File directory = outputFile.getAbsoluteFile().getParentFile();
+		File tmpFile = File.createTempFile(outputFile.getName() + ".", ".tmp", directory);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile)));
+		boolean written = false;
+		try
+		{
+			boolean reciprocal = false;
+			for (int v = 0; v < getNVertices() && !reciprocal; ++v)
+				for (int layer = 0; layer < getNLayers() && !reciprocal; ++layer)
+					if (profiles[v][layer].isGradientSet(attributeIndex))
+						reciprocal = profiles[v][layer].getGradientReciprocalFlag(attributeIndex);
+
+			writeGradientsHeader(output, attributeIndex, reciprocal, layers, activeOnly);
+
+			for (int v = 0; v < getNVertices(); ++v)
+				for (int layer = 0; layer < getNLayers(); ++layer)
+				{
+					Profile p = profiles[v][layer];
+					double[][] g = p.getGradients(attributeIndex);
+					if (g == null || p.getGradientReciprocalFlag(attributeIndex) != reciprocal)
+						continue;
+					output.writeInt(v);
+					output.writeInt(layer);
+					output.writeInt(g.length);
+					for (double[] gi : g)
+					{
+						output.writeDouble(gi[0]);
+						output.writeDouble(gi[1]);
+						output.writeDouble(gi[2]);
+					}
+				}
+			output.writeInt(-1);
+			output.close();
+
+			try
+			{
+				Files.move(tmpFile.toPath(), outputFile.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(tmpFile.toPath(), outputFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			written = true;
+		}
+		finally
+		{
+			output.close();
+			if (!written)
+				tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Load gradients written by writeGradients(). Nothing is loaded if the
+	 * file was written for a different model, attribute, reciprocal flag,
+	 * tetrahedron size, set of layers or active region restriction.
+	 * 
+	 * @param inputFile
+	 * @param attributeIndex
+	 * @param reciprocal
+	 * @param layers the layers for which gradients are requested.
+	 * @param activeOnly true if gradients are requested only for profiles in
+	 *        the active region.
+	 * @return true if the gradients were loaded, false if the file does not
+	 *         match this model.
+	 * @throws IOException
+	 */
+	public boolean readGradients(File inputFile, int attributeIndex,
+			boolean reciprocal, int[] layers, boolean activeOnly) throws IOException
+	{
+		DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(inputFile)));
+		try
+		{
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			writeGradientsHeader(new DataOutputStream(expected), attributeIndex, reciprocal,
+					layers, activeOnly);
+			byte[] header = new byte[expected.size()];
+			input.readFully(header);
+			if (!Arrays.equals(header, expected.toByteArray()))
+				return false;
+
+			// read everything before modifying any profile so that a truncated 
+			// file leaves the model unchanged.
+			ArrayList<int[]> indices = new ArrayList<int[]>();
+			ArrayList<double[][]> gradients = new ArrayList<double[][]>();
+			int v;
+			while ((v = input.readInt()) >= 0)
+			{
+				int layer = input.readInt();
+				double[][] g = new double[input.readInt()][3];
+				for (double[] gi : g)
+				{
+					gi[0] = input.readDouble();
+					gi[1] = input.readDouble();
+					gi[2] = input.readDouble();
+				}
+				if (v >= getNVertices() || layer >= getNLayers())
+					return false;
+				indices.add(new int[] {v, layer});
+				gradients.add(g);
+			}
+
+			for (int i = 0; i < indices.size(); ++i)
+				profiles[indices.get(i)[0]][indices.get(i)[1]].setGradients(
+						attributeIndex, reciprocal, gradients.get(i));
+			return true;
+		}
+		catch (EOFException e)
+		{
+			return false;
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+
+	/**
+	 * Write the header of a gradients file. readGradients() compares the
+	 * header of a file with the header this model would write. If activeOnly
+	 * is true the number of points in the active region is also recorded.
+	 */
+	private void writeGradientsHeader(DataOutputStream output, int attributeIndex,
+			boolean reciprocal, int[] layers, boolean activeOnly) throws IOException
+	{
+		File modelFile = getMetaData().getInputModelFile();
+		GeoTessUtils.writeString(output, "GEOTESSGRADIENTS");
+		output.writeInt(2);
+		GeoTessUtils.writeString(output, grid.getGridID());
+		output.writeLong(modelFile == null ? -1L : modelFile.length());
+		output.writeLong(modelFile == null ? -1L : modelFile.lastModified());
+		output.writeInt(getNVertices());
+		output.writeInt(getNLayers());
+		GeoTessUtils.writeString(output, getMetaData().getAttributeName(attributeIndex));
+		output.writeBoolean(reciprocal);
+		output.writeDouble(getMetaData().getGradientCalculatorTetSize());
+		output.writeInt(layers.length);
+		for (int layer : layers)
+			output.writeInt(layer);
+		output.writeBoolean(activeOnly);
+		if (activeOnly)
+			output.writeInt(getNPoints());
+	}
+
 	/**
 	 * Retrieve the requested attribute gradient at the specified active point
 	 * index. If reciprocal is true the gradient of the inverse attribute is
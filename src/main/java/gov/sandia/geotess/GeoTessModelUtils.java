@@ -54,6 +54,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gov.sandia.gmp.util.colormap.ColorMap;
 import gov.sandia.gmp.util.colormap.SimpleColorMap;
@@ -73,6 +78,7 @@ import gov.sandia.gmp.util.numerical.vector.Vector3D;
 import gov.sandia.gmp.util.numerical.vector.VectorUnit;
 import gov.sandia.gmp.util.vtk.VTKCell;
 import gov.sandia.gmp.util.vtk.VTKCellType;
+import gov.sandia.gmp.util.vtk.VTKStreamWriter;
 import gov.sandia.gmp.util.vtk.VTKDataSet;
 
 /**
@@ -150,6 +156,43 @@ public class GeoTessModelUtils
 
 	}
 
+	/**
+	 * Maximum number of threads used by getMapValuesDepth(), getMapValuesLayer(),
+	 * getMapLayerBoundary(), getMapLayerThickness(), getSlice() and getValues3D()
+	 * (and the functions that call them). Defaults to the number of available
+	 * processors.
+	 */
+	private static int maxThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Number of preceding points used to prime the GeoTessPosition of each
+	 * getSlice() worker and of each chunk of vtk point data.
+	 */
+	private static final int PRIME_POINTS = 8;
+
+	/**
+	 * Set the maximum number of threads used by the map, slice and 3D block
+	 * functions of this class. Results are identical for any number of threads.
+	 * 
+	 * @param nThreads the maximum number of threads. Values &lt; 1 are
+	 * treated as 1.
+	 */
+	public static void setMaxThreads(int nThreads)
+	{
+		maxThreads = max(1, nThreads);
+	}
+
+	/**
+	 * Retrieve the maximum number of threads used by the map, slice and 3D block
+	 * functions of this class.
+	 * 
+	 * @return the maximum number of threads.
+	 */
+	public static int getMaxThreads()
+	{
+		return maxThreads;
+	}
+
 	/**
 	 * Retrieve a map of attribute values at a constant specified depth on a
 	 * regular latitude-longitude grid.
@@ -190,50 +233,66 @@ public class GeoTessModelUtils
 	 * @throws GeoTessException
 	 */
 	static public double[][][] getMapValuesDepth(GeoTessModel model,
-			double[] latitudes, double[] longitudes, int layerId, double depth,
-			InterpolatorType horizontalType, InterpolatorType radialType,
-			boolean reciprocal, int[] attributes) throws GeoTessException
+			final double[] latitudes, final double[] longitudes, final int layerId,
+			final double depth, InterpolatorType horizontalType,
+			InterpolatorType radialType, final boolean reciprocal, int[] attributes)
+					throws GeoTessException
 	{
 		int nlat = latitudes.length;
-		int nlon = longitudes.length;
+		final int nlon = longitudes.length;
 		if (attributes == null)
 		{
 			attributes = new int[model.getMetaData().getNAttributes()];
 			for (int i = 1; i < attributes.length; ++i)
 				attributes[i] = i;
 		}
-		double[][][] map = new double[nlat][nlon][attributes.length];
+		final int[] attrs = attributes;
+		final double[][][] map = new double[nlat][nlon][attributes.length];
 
 		GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(model,
 				horizontalType, radialType);
 
-		if (layerId >= 0)
-			for (int i = 0; i < nlat; ++i)
-				for (int j = 0; j < nlon; ++j)
-				{
-					pos.set(layerId, latitudes[i], longitudes[j], depth);
-					for (int k = 0; k < attributes.length; ++k)
-						map[i][j][k] = reciprocal ? 1. / pos
-								.getValue(attributes[k]) : pos
-								.getValue(attributes[k]);
-				}
-		else
+		evaluateRows(pos, nlat, 1, new RowEvaluator()
 		{
-			for (int i = 0; i < nlat; ++i)
-				for (int j = 0; j < nlon; ++j)
-				{
-					pos.set(latitudes[i], longitudes[j], depth);
-					double radius = pos.getEarthRadius()-depth;
-					if (radius < pos.getRadiusBottom(0) || radius > pos.getRadiusTop(pos.getNLayers()-1))
-						for (int k = 0; k < attributes.length; ++k)
-							map[i][j][k] = Double.NaN;
-					else
-						for (int k = 0; k < attributes.length; ++k)
+			@Override
+			public void prime(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				if (i >= 0)
+					for (int j = 0; j < nlon; ++j)
+						if (layerId >= 0)
+							pos.set(layerId, latitudes[i], longitudes[j], depth);
+						else
+							pos.set(latitudes[i], longitudes[j], depth);
+			}
+
+			@Override
+			public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				if (layerId >= 0)
+					for (int j = 0; j < nlon; ++j)
+					{
+						pos.set(layerId, latitudes[i], longitudes[j], depth);
+						for (int k = 0; k < attrs.length; ++k)
 							map[i][j][k] = reciprocal ? 1. / pos
-									.getValue(attributes[k]) : pos
-									.getValue(attributes[k]);
-				}
-		}
+									.getValue(attrs[k]) : pos
+									.getValue(attrs[k]);
+					}
+				else
+					for (int j = 0; j < nlon; ++j)
+					{
+						pos.set(latitudes[i], longitudes[j], depth);
+						double radius = pos.getEarthRadius()-depth;
+						if (radius < pos.getRadiusBottom(0) || radius > pos.getRadiusTop(pos.getNLayers()-1))
+							for (int k = 0; k < attrs.length; ++k)
+								map[i][j][k] = Double.NaN;
+						else
+							for (int k = 0; k < attrs.length; ++k)
+								map[i][j][k] = reciprocal ? 1. / pos
+										.getValue(attrs[k]) : pos
+										.getValue(attrs[k]);
+					}
+			}
+		});
 		return map;
 	}
 
@@ -268,34 +327,50 @@ public class GeoTessModelUtils
 	 * @throws GeoTessException
 	 */
 	static public double[][][] getMapValuesLayer(GeoTessModel model,
-			double[] latitudes, double[] longitudes, int layerId,
-			double fractionalRadius, InterpolatorType horizontalType,
-			InterpolatorType radialType, boolean reciprocal, int[] attributes)
+			final double[] latitudes, final double[] longitudes, final int layerId,
+			final double fractionalRadius, InterpolatorType horizontalType,
+			InterpolatorType radialType, final boolean reciprocal, int[] attributes)
 					throws GeoTessException
 	{
 		int nlat = latitudes.length;
-		int nlon = longitudes.length;
+		final int nlon = longitudes.length;
 		if (attributes == null)
 		{
 			attributes = new int[model.getMetaData().getNAttributes()];
 			for (int i = 1; i < attributes.length; ++i)
 				attributes[i] = i;
 		}
-		double[][][] map = new double[nlat][nlon][attributes.length];
+		final int[] attrs = attributes;
+		final double[][][] map = new double[nlat][nlon][attributes.length];
 
 		GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(model,
 				horizontalType, radialType);
-		for (int i = 0; i < nlat; ++i)
-			for (int j = 0; j < nlon; ++j)
+
+		evaluateRows(pos, nlat, 1, new RowEvaluator()
+		{
+			@Override
+			public void prime(GeoTessPosition pos, int i) throws GeoTessException
 			{
-				pos.set(layerId, latitudes[i], longitudes[j], 0.);
-				pos.setRadius(layerId, pos.getRadiusBottom()
-						+ (float) (fractionalRadius * pos.getLayerThickness()));
-				for (int k = 0; k < attributes.length; ++k)
-					map[i][j][k] = reciprocal ? 1. / pos
-							.getValue(attributes[k]) : pos
-							.getValue(attributes[k]);
+				if (i >= 0)
+					for (int j = 0; j < nlon; ++j)
+						pos.set(layerId, latitudes[i], longitudes[j], 0.);
 			}
+
+			@Override
+			public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				for (int j = 0; j < nlon; ++j)
+				{
+					pos.set(layerId, latitudes[i], longitudes[j], 0.);
+					pos.setRadius(layerId, pos.getRadiusBottom()
+							+ (float) (fractionalRadius * pos.getLayerThickness()));
+					for (int k = 0; k < attrs.length; ++k)
+						map[i][j][k] = reciprocal ? 1. / pos
+								.getValue(attrs[k]) : pos
+								.getValue(attrs[k]);
+				}
+			}
+		});
 		return map;
 	}
 
@@ -338,10 +413,10 @@ public class GeoTessModelUtils
 	 * @throws GeoTessException
 	 */
 	static public double[][][][] getValues3D(GeoTessModel model,
-			double[] latitudes, double[] longitudes, int firstLayer,
-			int lastLayer, String radialDimension, double maxRadialSpacing,
+			double[] latitudes, double[] longitudes, final int firstLayer,
+			final int lastLayer, String radialDimension, final double maxRadialSpacing,
 			InterpolatorType horizontalType, InterpolatorType radialType,
-			boolean reciprocal, int[] attributes) throws GeoTessException
+			final boolean reciprocal, int[] attributes) throws GeoTessException
 	{
 		if (attributes == null)
 		{
@@ -349,14 +424,16 @@ public class GeoTessModelUtils
 			for (int i = 1; i < attributes.length; ++i)
 				attributes[i] = i;
 		}
+		final int[] attrs = attributes;
 
-		int nlat = latitudes.length;
-		int nlon = longitudes.length;
+		final int nlat = latitudes.length;
+		final int nlon = longitudes.length;
+		final int nLayers = model.getNLayers();
 		int nradii = 0;
-		int[] pointsPerLayer = new int[model.getNLayers()];
+		final int[] pointsPerLayer = new int[nLayers];
 
 		// convert all the latitudes and longitudes to unit vectors.
-		double[][][] map = new double[nlon][nlat][];
+		final double[][][] map = new double[nlon][nlat][];
 		for (int i = 0; i < nlon; ++i)
 			for (int j = 0; j < nlat; ++j)
 				map[i][j] = model.getEarthShape().getVectorDegrees(
@@ -365,7 +442,7 @@ public class GeoTessModelUtils
 		GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(model,
 				horizontalType, radialType);
 
-		int rdim = -1;
+		final int rdim;
 		if (radialDimension.toLowerCase().startsWith("lay"))
 			rdim = 0;
 		else if (radialDimension.toLowerCase().startsWith("dep"))
@@ -390,68 +467,117 @@ public class GeoTessModelUtils
 			}
 		}
 		else
-			for (int i = 0; i < nlon; ++i)
-				for (int j = 0; j < nlat; ++j)
+		{
+			// find the points per layer required by each longitude and then
+			// retain the maximum over all longitudes.
+			final int[][] lonPointsPerLayer = new int[nlon][nLayers];
+			evaluateRows(pos, nlon, 1, new RowEvaluator()
+			{
+				@Override
+				public void prime(GeoTessPosition pos, int i) throws GeoTessException
+				{
+					if (i >= 0)
+						for (int j = 0; j < nlat; ++j)
+							pos.setTop(nLayers - 1, map[i][j]);
+				}
+
+				@Override
+				public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
 				{
-					pos.setTop(model.getNLayers() - 1, map[i][j]);
-					nradii = updatePointsPerLayer(pos, firstLayer, lastLayer,
-							maxRadialSpacing, pointsPerLayer);
+					for (int j = 0; j < nlat; ++j)
+					{
+						pos.setTop(nLayers - 1, map[i][j]);
+						updatePointsPerLayer(pos, firstLayer, lastLayer,
+								maxRadialSpacing, lonPointsPerLayer[i]);
+					}
 				}
+			});
 
-		double[][][][] values = new double[nlon][nlat][nradii][attributes.length + 1];
-		double[][][] vlon;
-		double[][] vlat;
-		double[] vradii;
+			for (int i = 0; i < nlon; ++i)
+				for (int layer = 0; layer < nLayers; ++layer)
+					if (lonPointsPerLayer[i][layer] > pointsPerLayer[layer])
+						pointsPerLayer[layer] = lonPointsPerLayer[i][layer];
 
-		double dr, rbot;
-		for (int i = 0; i < nlon; ++i)
+			for (int layer = 0; layer < nLayers; ++layer)
+				nradii += pointsPerLayer[layer];
+		}
+
+		final double[][][][] values = new double[nlon][nlat][nradii][attributes.length + 1];
+
+		evaluateRows(pos, nlon, 1, new RowEvaluator()
 		{
-			vlon = values[i];
-			for (int j = 0; j < nlat; ++j)
+			@Override
+			public void prime(GeoTessPosition pos, int i) throws GeoTessException
 			{
-				vlat = vlon[j];
-
-				nradii = 0;
-				for (int layer = firstLayer; layer <= lastLayer; ++layer)
+				// the serial evaluation starts this pass where the points per
+				// layer pass ended.
+				if (i >= 0)
 				{
+					for (int j = 0; j < nlat; ++j)
+						for (int layer = firstLayer; layer <= lastLayer; ++layer)
+							pos.set(layer, map[i][j], 6371.);
+				}
+				else if (rdim != 0)
+					for (int j = 0; j < nlat; ++j)
+						pos.setTop(nLayers - 1, map[nlon - 1][j]);
+			}
 
-					pos.set(layer, map[i][j], 6371.);
+			@Override
+			public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				double[][][] vlon;
+				double[][] vlat;
+				double[] vradii;
 
-					rbot = pos.getRadiusBottom(layer);
-					dr = (pos.getRadiusTop(layer) - rbot)
-							/ (pointsPerLayer[layer] - 1);
-					for (int k = 0; k < pointsPerLayer[layer]; ++k)
+				double dr, rbot;
+				int nradii;
+				vlon = values[i];
+				for (int j = 0; j < nlat; ++j)
+				{
+					vlat = vlon[j];
+
+					nradii = 0;
+					for (int layer = firstLayer; layer <= lastLayer; ++layer)
 					{
-						vradii = vlat[nradii++];
 
-						pos.set(layer, map[i][j], rbot + k * dr);
+						pos.set(layer, map[i][j], 6371.);
 
-						switch (rdim)
+						rbot = pos.getRadiusBottom(layer);
+						dr = (pos.getRadiusTop(layer) - rbot)
+								/ (pointsPerLayer[layer] - 1);
+						for (int k = 0; k < pointsPerLayer[layer]; ++k)
 						{
-						case 0:
-							// set radial dimension value to fractional layer
-							// index.
-							vradii[0] = layer + ((double) k)
-							/ (pointsPerLayer[layer] - 1);
-							break;
-						case 1:
-							// set radial dimension value to depth in km.
-							vradii[0] = pos.getDepth();
-							break;
-						default:
-							// set radial dimension value to radius in km.
-							vradii[0] = pos.getRadius();
-							break;
+							vradii = vlat[nradii++];
+
+							pos.set(layer, map[i][j], rbot + k * dr);
+
+							switch (rdim)
+							{
+							case 0:
+								// set radial dimension value to fractional layer
+								// index.
+								vradii[0] = layer + ((double) k)
+								/ (pointsPerLayer[layer] - 1);
+								break;
+							case 1:
+								// set radial dimension value to depth in km.
+								vradii[0] = pos.getDepth();
+								break;
+							default:
+								// set radial dimension value to radius in km.
+								vradii[0] = pos.getRadius();
+								break;
+							}
+
+							for (int a = 0; a < attrs.length; ++a)
+								vradii[a + 1] = reciprocal ? 1. / pos
+										.getValue(attrs[a]) : pos
+										.getValue(attrs[a]);
 						}
-
-						for (int a = 0; a < attributes.length; ++a)
-							vradii[a + 1] = reciprocal ? 1. / pos
-									.getValue(attributes[a]) : pos
-									.getValue(attributes[a]);
 					}
 				}
 			}
-		}
+		});
 		return values;
 	}
 
@@ -478,30 +604,46 @@ public class GeoTessModelUtils
 	 * @return map of layer thicknesses in an nLat x nLon array.
 	 * @throws GeoTessException
 	 */
-	public static double[][] getMapLayerThickness(GeoTessModel model,
-			double[] latitudes, double[] longitudes, int firstLayer,
-			int lastLayer, InterpolatorType horizontalType)
+	public static double[][] getMapLayerThickness(final GeoTessModel model,
+			final double[] latitudes, final double[] longitudes,
+			final int firstLayer, int lastLayer, InterpolatorType horizontalType)
 					throws GeoTessException
 	{
 		int nlat = latitudes.length;
-		int nlon = longitudes.length;
+		final int nlon = longitudes.length;
 
 		if (lastLayer >= model.getNLayers())
 			lastLayer = model.getNLayers() - 1;
+		final int lastLyr = lastLayer;
 
-		double[][] map = new double[nlat][nlon];
+		final double[][] map = new double[nlat][nlon];
 
 		GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(model,
 				horizontalType);
 
-		for (int i = 0; i < nlat; ++i)
-			for (int j = 0; j < nlon; ++j)
+		evaluateRows(pos, nlat, 1, new RowEvaluator()
+		{
+			@Override
+			public void prime(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				if (i >= 0)
+					for (int j = 0; j < nlon; ++j)
+						pos.setTop(model.getNLayers() - 1, model.getEarthShape()
+								.getVectorDegrees(latitudes[i], longitudes[j]));
+			}
+
+			@Override
+			public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
 			{
-				pos.setTop(model.getNLayers() - 1, model.getEarthShape()
-						.getVectorDegrees(latitudes[i], longitudes[j]));
-				map[i][j] = pos.getRadiusTop(lastLayer)
-						- pos.getRadiusBottom(firstLayer);
+				for (int j = 0; j < nlon; ++j)
+				{
+					pos.setTop(model.getNLayers() - 1, model.getEarthShape()
+							.getVectorDegrees(latitudes[i], longitudes[j]));
+					map[i][j] = pos.getRadiusTop(lastLyr)
+							- pos.getRadiusBottom(firstLayer);
+				}
 			}
+		});
 		return map;
 	}
 
@@ -529,26 +671,41 @@ public class GeoTessModelUtils
 	 * @throws GeoTessException
 	 */
 	static public double[][] getMapLayerBoundary(GeoTessModel model,
-			double[] latitudes, double[] longitudes, int layerId, boolean top,
-			boolean convertToDepth, InterpolatorType horizontalType)
-					throws GeoTessException
+			final double[] latitudes, final double[] longitudes, final int layerId,
+			final boolean top, final boolean convertToDepth,
+			InterpolatorType horizontalType) throws GeoTessException
 	{
 		int nlat = latitudes.length;
-		int nlon = longitudes.length;
-		double[][] map = new double[nlat][nlon];
+		final int nlon = longitudes.length;
+		final double[][] map = new double[nlat][nlon];
 
 		GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(model,
 				horizontalType);
-		for (int i = 0; i < nlat; ++i)
-			for (int j = 0; j < nlon; ++j)
+
+		evaluateRows(pos, nlat, 1, new RowEvaluator()
+		{
+			@Override
+			public void prime(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				if (i >= 0)
+					for (int j = 0; j < nlon; ++j)
+						pos.set(layerId, latitudes[i], longitudes[j], 0);
+			}
+
+			@Override
+			public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
 			{
-				pos.set(layerId, latitudes[i], longitudes[j], 0);
-				if (convertToDepth)
-					map[i][j] = top ? pos.getDepthTop() : pos.getDepthBottom();
+				for (int j = 0; j < nlon; ++j)
+				{
+					pos.set(layerId, latitudes[i], longitudes[j], 0);
+					if (convertToDepth)
+						map[i][j] = top ? pos.getDepthTop() : pos.getDepthBottom();
 					else
 						map[i][j] = top ? pos.getRadiusTop() : pos
 								.getRadiusBottom();
+				}
 			}
+		});
 		return map;
 	}
 
@@ -605,11 +762,11 @@ public class GeoTessModelUtils
 	 *         Subsequent elements are interpolated values of the attributes.
 	 * @throws GeoTessException
 	 */
-	static public double[][][] getSlice(GeoTessModel model,
-			GreatCircle greatCircle, int nx, double maxRadialSpacing,
-			int firstLayer, int lastLayer, InterpolatorType horizontalType,
+	static public double[][][] getSlice(final GeoTessModel model,
+			final GreatCircle greatCircle, int nx, final double maxRadialSpacing,
+			final int firstLayer, int lastLayer, InterpolatorType horizontalType,
 			InterpolatorType radialType, String spatialCoordinates,
-			boolean reciprocal, int[] attributes) throws GeoTessException
+			final boolean reciprocal, int[] attributes) throws GeoTessException
 	{
 
 		if (attributes == null)
@@ -618,20 +775,23 @@ public class GeoTessModelUtils
 			for (int i = 1; i < attributes.length; ++i)
 				attributes[i] = i;
 		}
+		final int[] attrs = attributes;
 
 		if (lastLayer >= model.getMetaData().getNLayers())
 			lastLayer = model.getMetaData().getNLayers() - 1;
+		final int lastLyr = lastLayer;
 
-		String[] coordinates = spatialCoordinates.split(",");
+		final String[] coordinates = spatialCoordinates.split(",");
 
-		int[] pointsPerLayer = new int[model.getMetaData().getNLayers()];
+		final int nLayers = model.getMetaData().getNLayers();
+		final int[] pointsPerLayer = new int[nLayers];
 
 		// delta is total distance in radians between x0 and x1
 		// double delta = greatCircle.getDistance();
 
 		// dx is path increment that returns nx equally spaced points
 		// along the great circle (radians).
-		double dx = greatCircle.getDistance() / (nx - 1);
+		final double dx = greatCircle.getDistance() / (nx - 1);
 
 		// find great circle, which consists of two unit vectors.
 		// First one is a copy of x0, and second one is on the
@@ -639,29 +799,29 @@ public class GeoTessModelUtils
 		// away from x0.
 		// double[][] greatCircle = GeoTessUtils.getGreatCircle(x0, x1);
 
-		boolean flipOrder = true;
+		boolean flip = true;
 		for (int i = 0; i < coordinates.length; ++i)
 		{
 			String coord = coordinates[i].toLowerCase().trim();
 			if (coord.equals("radius"))
 			{
-				flipOrder = false;
+				flip = false;
 				break;
 			}
 		}
+		final boolean flipOrder = flip;
 
-		double[][] transform = null;
-		double[] g = null;
+		double[][] xform = null;
 		for (int i = 0; i < coordinates.length; ++i)
 		{
 			String coord = coordinates[i].toLowerCase().trim();
 			if (coord.equals("x") || coord.equals("y") || coord.equals("z"))
 			{
-				transform = greatCircle.getTransform();
-				g = new double[3];
+				xform = greatCircle.getTransform();
 				break;
 			}
 		}
+		final double[][] transform = xform;
 
 		// intantiate a GeoTessPosition object to use for interpolation.
 		GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(model,
@@ -671,99 +831,141 @@ public class GeoTessModelUtils
 		// nodes are required in each layer so that (1) the number of
 		// nodes in a given layer will be constant along the slice, and
 		// (2) the radial node spacing in a given layer will not exceed
-		// maxSpacing.
-		double[] u = new double[3];
-		for (int i = 0; i < nx; ++i)
+		// maxSpacing.  Each point accumulates its own estimate and the
+		// maximum over all points is retained.
+		final int[][] pointPointsPerLayer = new int[nx][nLayers];
+		evaluateRows(pos, nx, PRIME_POINTS, new RowEvaluator()
 		{
-			// find unit vector for current point.
-			greatCircle.getPoint(i * dx, u);
+			@Override
+			public void prime(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				if (i >= 0)
+				{
+					double[] u = greatCircle.getPoint(i * dx);
+					for (int j = firstLayer; j <= lastLyr; ++j)
+						pos.setTop(j, u);
+				}
+			}
 
-			// loop over the requested layers
-			for (int j = firstLayer; j <= lastLayer; ++j)
+			@Override
+			public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
 			{
-				// set the interpolation point
-				pos.setTop(j, u);
+				// find unit vector for current point.
+				double[] u = greatCircle.getPoint(i * dx);
+
+				// loop over the requested layers
+				for (int j = firstLayer; j <= lastLyr; ++j)
+				{
+					// set the interpolation point
+					pos.setTop(j, u);
 
-				// update pointsPerLayer
-				updatePointsPerLayer(pos, j, j, maxRadialSpacing,
-						pointsPerLayer);
+					// update pointsPerLayer
+					updatePointsPerLayer(pos, j, j, maxRadialSpacing,
+							pointPointsPerLayer[i]);
+				}
 			}
-		}
+		});
+
+		for (int i = 0; i < nx; ++i)
+			for (int j = 0; j < nLayers; ++j)
+				if (pointPointsPerLayer[i][j] > pointsPerLayer[j])
+					pointsPerLayer[j] = pointPointsPerLayer[i][j];
 
-		ArrayListDouble output = new ArrayListDouble();
-		double[][][] transect = new double[nx][][];
-		int layerid = model.getMetaData().getNLayers() - 1;
+		final double[][][] transect = new double[nx][][];
+		final int layerid = nLayers - 1;
+		final int nLast = nx - 1;
 
 		// loop over all the points along the great circle and populate the
 		// data values.
-		for (int i = 0; i < nx; ++i)
+		evaluateRows(pos, nx, PRIME_POINTS, new RowEvaluator()
 		{
-			double distance = i * dx;
+			@Override
+			public void prime(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				// the serial evaluation starts this pass where the points per
+				// layer pass ended.
+				if (i >= 0)
+					pos.setTop(layerid, greatCircle.getPoint(i * dx));
+				else
+					for (int n = Math.max(0, nLast - PRIME_POINTS); n <= nLast; ++n)
+					{
+						double[] u = greatCircle.getPoint(n * dx);
+						for (int j = firstLayer; j <= lastLyr; ++j)
+							pos.setTop(j, u);
+					}
+			}
 
-			// find unit vector for current point.
-			greatCircle.getPoint(distance, u);
+			@Override
+			public void evaluate(GeoTessPosition pos, int i) throws GeoTessException
+			{
+				ArrayListDouble output = new ArrayListDouble();
+				double[] g = transform == null ? null : new double[3];
+				double distance = i * dx;
 
-			// set the interpolation point
-			pos.setTop(layerid, u);
+				// find unit vector for current point.
+				double[] u = greatCircle.getPoint(distance);
 
-			// get borehole at this position. First element is radius,
-			// followed by attribute values.
-			transect[i] = getBorehole(pos, pointsPerLayer, false, reciprocal,
-					attributes);
+				// set the interpolation point
+				pos.setTop(layerid, u);
 
-			if (flipOrder)
-				for (int j = 0; j < transect[i].length / 2; ++j)
-				{
-					int k = transect[i].length - 1 - j;
-					double[] tmp = transect[i][j];
-					transect[i][j] = transect[i][k];
-					transect[i][k] = tmp;
-				}
+				// get borehole at this position. First element is radius,
+				// followed by attribute values.
+				transect[i] = getBorehole(pos, pointsPerLayer, false, reciprocal,
+						attrs);
 
-			for (int j = 0; j < transect[i].length; ++j)
-			{
-				output.clear();
-				pos.setRadius(layerid, transect[i][j][0]);
+				if (flipOrder)
+					for (int j = 0; j < transect[i].length / 2; ++j)
+					{
+						int k = transect[i].length - 1 - j;
+						double[] tmp = transect[i][j];
+						transect[i][j] = transect[i][k];
+						transect[i][k] = tmp;
+					}
 
-				if (transform != null)
+				for (int j = 0; j < transect[i].length; ++j)
 				{
-					double[] xx = pos.getVector().clone();
-					for (int k = 0; k < 3; ++k)
-						xx[k] *= pos.getRadius();
-					GeoTessUtils.transform(xx, transform, g);
-				}
+					output.clear();
+					pos.setRadius(layerid, transect[i][j][0]);
 
-				for (int k = 0; k < coordinates.length; ++k)
-				{
-					String coord = coordinates[k].toLowerCase().trim();
-					if (coord.equals("x"))
-						output.add(g[0]);
-					else if (coord.equals("y"))
-						output.add(g[1]);
-					else if (coord.equals("z"))
-						output.add(g[2]);
-					else if (coord.equals("distance"))
-						output.add(Math.toDegrees(distance));
-					else if (coord.equals("depth"))
-						output.add(pos.getDepth());
-					else if (coord.equals("radius"))
-						output.add(pos.getRadius());
-					else if (coord.equals("lat"))
-						output.add(model.getEarthShape().getLatDegrees(
-								pos.getVector()));
-					else if (coord.equals("lon"))
-						output.add(model.getEarthShape().getLonDegrees(
-								pos.getVector()));
-					else
-						output.add(Double.NaN);
-				}
-				for (int k = 1; k < transect[i][j].length; ++k)
-					output.add(transect[i][j][k]);
+					if (transform != null)
+					{
+						double[] xx = pos.getVector().clone();
+						for (int k = 0; k < 3; ++k)
+							xx[k] *= pos.getRadius();
+						GeoTessUtils.transform(xx, transform, g);
+					}
 
-				transect[i][j] = output.toArray();
-			}
+					for (int k = 0; k < coordinates.length; ++k)
+					{
+						String coord = coordinates[k].toLowerCase().trim();
+						if (coord.equals("x"))
+							output.add(g[0]);
+						else if (coord.equals("y"))
+							output.add(g[1]);
+						else if (coord.equals("z"))
+							output.add(g[2]);
+						else if (coord.equals("distance"))
+							output.add(Math.toDegrees(distance));
+						else if (coord.equals("depth"))
+							output.add(pos.getDepth());
+						else if (coord.equals("radius"))
+							output.add(pos.getRadius());
+						else if (coord.equals("lat"))
+							output.add(model.getEarthShape().getLatDegrees(
+									pos.getVector()));
+						else if (coord.equals("lon"))
+							output.add(model.getEarthShape().getLonDegrees(
+									pos.getVector()));
+						else
+							output.add(Double.NaN);
+					}
+					for (int k = 1; k < transect[i][j].length; ++k)
+						output.add(transect[i][j][k]);
 
-		}
+					transect[i][j] = output.toArray();
+				}
+			}
+		});
 		return transect;
 	}
 
@@ -1049,6 +1251,115 @@ public class GeoTessModelUtils
 		return nTotal;
 	}
 
+	/**
+	 * Evaluates the rows of an output array of one of the map, slice or 3D
+	 * block functions. Each worker thread owns a GeoTessPosition object.
+	 */
+	private interface RowEvaluator
+	{
+		/**
+		 * Move pos through the positions that a serial evaluation visits while
+		 * evaluating the specified row, without interpolating any values, so
+		 * that the walking triangle algorithm reaches the following row from the
+		 * same triangle that the serial evaluation would have used. Row -1
+		 * refers to the positions visited before the first row.
+		 * 
+		 * @param pos the GeoTessPosition object owned by the calling worker
+		 * @param row the row index, or -1
+		 * @throws GeoTessException
+		 */
+		void prime(GeoTessPosition pos, int row) throws GeoTessException;
+
+		/**
+		 * Evaluate all the elements of the specified row.
+		 * 
+		 * @param pos the GeoTessPosition object owned by the calling worker
+		 * @param row the row index
+		 * @throws GeoTessException
+		 */
+		void evaluate(GeoTessPosition pos, int row) throws GeoTessException;
+	}
+
+	/**
+	 * Evaluate rows 0 to nRows-1 with the supplied evaluator. If maxThreads
+	 * is 1, or there is only a single row, all rows are evaluated in order
+	 * in the calling thread using pos. Otherwise, the rows are divided into
+	 * contiguous ranges, a few per thread, and each range is evaluated in
+	 * order by a worker with its own copy of pos. Before evaluating its first
+	 * row, each worker primes its position with the nPrimeRows rows that
+	 * precede it so that its triangle walk follows the serial one. Every row
+	 * is written by a single worker so the output does not depend on the
+	 * number of threads.
+	 * 
+	 * @param pos GeoTessPosition object used directly for serial evaluation
+	 * and as the template for the position objects of the workers.
+	 * @param nRows number of rows to evaluate
+	 * @param nPrimeRows number of preceding rows used to prime each worker
+	 * @param evaluator the row evaluator
+	 * @throws GeoTessException
+	 */
+	private static void evaluateRows(final GeoTessPosition pos, int nRows,
+			final int nPrimeRows, final RowEvaluator evaluator)
+					throws GeoTessException
+	{
+		int nThreads = Math.min(maxThreads, nRows);
+		if (nThreads <= 1)
+		{
+			for (int i = 0; i < nRows; ++i)
+				evaluator.evaluate(pos, i);
+			return;
+		}
+
+		int nTasks = Math.min(nRows, 4 * nThreads);
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		try
+		{
+			ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(nTasks);
+			for (int t = 0; t < nTasks; ++t)
+			{
+				final int first = (int) ((long) nRows * t / nTasks);
+				final int last = (int) ((long) nRows * (t + 1) / nTasks);
+				futures.add(threadPool.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws GeoTessException
+					{
+						GeoTessPosition p = GeoTessPosition.getGeoTessPosition(pos);
+						int row = first - nPrimeRows;
+						if (row <= 0)
+						{
+							evaluator.prime(p, -1);
+							row = 0;
+						}
+						for (; row < first; ++row)
+							evaluator.prime(p, row);
+						for (int i = first; i < last; ++i)
+							evaluator.evaluate(p, i);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> f : futures)
+				f.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new GeoTessException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof GeoTessException)
+				throw (GeoTessException) e.getCause();
+			throw new GeoTessException(e.getCause());
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+	}
+
 	/**
 	 * Retrieve array of latitude values.
 	 * 
@@ -1660,7 +1971,8 @@ public class GeoTessModelUtils
 	 *            a reference to the model
 	 * @param fileName
 	 *            the name of the file to which output should be written. Must
-	 *            end with extension 'vtk'.
+	 *            end with extension 'vtk' (legacy binary) or 'vtu' (VTK XML,
+	 *            compressed).
 	 * @param horizontalType
 	 *            either InterpolatorType.LINEAR or
 	 *            InterpolatorType.NATURAL_NEIGHBOR
@@ -1676,14 +1988,11 @@ public class GeoTessModelUtils
 	 * @throws IOException
 	 * @throws GeoTessException
 	 */
-	public static void vtkDepths(GeoTessModel model, String fileName,
+	public static void vtkDepths(final GeoTessModel model, String fileName,
 			InterpolatorType horizontalType, InterpolatorType radialType,
 			int layerId, double[] depths, boolean reciprocal, int[] attributes)
 					throws IOException, GeoTessException
 	{
-		if (!fileName.toLowerCase().trim().endsWith(".vtk"))
-			throw new IOException("\nOutput file name must have .vtk extension");
-
 		if (attributes == null)
 		{
 			attributes = new int[model.getMetaData().getNAttributes()];
@@ -1691,48 +2000,53 @@ public class GeoTessModelUtils
 				attributes[i] = i;
 		}
 
-		DataOutputStream output = new DataOutputStream(
-				new BufferedOutputStream(new FileOutputStream(
-						new File(fileName))));
-		
-		GeoTessGrid grid = model.getGridRotated();
-
-		int tessid = layerId < 0 ? grid.getNTessellations() - 1
-				: model.getMetaData().getTessellation(layerId);
-
-		int level = grid.getNLevels(tessid) - 1;
+		VTKStreamWriter output = vtkWriter(fileName, "GeoTessLayerThickness");
 
-		int[] vertices = vtkGrid(grid, tessid, level, output);
+		try
+		{
+			GeoTessGrid grid = model.getGridRotated();
 
-		output.writeBytes(String.format("POINT_DATA %d%n", vertices.length));
+			int tessid = layerId < 0 ? grid.getNTessellations() - 1
+					: model.getMetaData().getTessellation(layerId);
 
-		GeoTessPosition pos = model.getGeoTessPosition(horizontalType,
-				radialType);
+			int level = grid.getNLevels(tessid) - 1;
 
-		for (int a = 0; a < attributes.length; ++a)
-		{
-			String attributeName = vtkName(model, attributes[a], reciprocal);
+			final int[] vertices = vtkGrid(grid, tessid, level, output);
 
-			for (int z = 0; z < depths.length; ++z)
+			for (int a = 0; a < attributes.length; ++a)
 			{
-				output.writeBytes(String.format(
-						"SCALARS %s_%1.0f_km float 1%n", attributeName,
-						depths[z]));
-				output.writeBytes(String.format("LOOKUP_TABLE default%n"));
+				String attributeName = vtkName(model, attributes[a], reciprocal);
 
-				for (int i = 0; i < vertices.length; ++i)
+				for (int z = 0; z < depths.length; ++z)
 				{
-					double[] v = model.getVertex(vertices[i]);
-					pos.set(layerId, v,
-							model.getEarthShape().getEarthRadius(vertices[i]) - depths[z]);
+					final int attribute = attributes[a];
+					final double depth = depths[z];
+					final int layer = layerId;
+					final boolean inverse = reciprocal;
+					output.writePointData(String.format("%s_%1.0f_km", attributeName,
+							depths[z]), new VertexValues(model, horizontalType, radialType)
+					{
+						@Override
+						void set(GeoTessPosition pos, int i) throws GeoTessException
+						{
+							pos.set(layer, model.getVertex(vertices[i]),
+									model.getEarthShape().getEarthRadius(vertices[i]) - depth);
+						}
 
-					output.writeFloat((float) (reciprocal ? 1 / pos
-							.getValue(attributes[a]) : pos
-							.getValue(attributes[a])));
+						@Override
+						double value(GeoTessPosition pos) throws GeoTessException
+						{
+							return inverse ? 1 / pos.getValue(attribute) : pos
+									.getValue(attribute);
+						}
+					});
 				}
 			}
 		}
-		output.close();
+		finally
+		{
+			output.close();
+		}
 	}
 
 	public static void vtkDepths(GeoTessModel model, String outputFile,
@@ -1765,58 +2079,57 @@ public class GeoTessModelUtils
 	 * 
 	 * @param model
 	 * @param fileName
+	 *            the name of the output file. Extension 'vtk' produces legacy
+	 *            binary output, 'vtu' compressed VTK XML output.
 	 * @param z
 	 *            either "depth" or "elevation"
 	 * @param horizontalType
 	 * @throws IOException
 	 * @throws GeoTessException
 	 */
-	public static void vtkLayerBoundary(GeoTessModel model, String fileName,
+	public static void vtkLayerBoundary(final GeoTessModel model, String fileName,
 			String z, InterpolatorType horizontalType) throws IOException,
 	GeoTessException
 	{
-		if (!fileName.toLowerCase().trim().endsWith(".vtk"))
-			throw new IOException("\nOutput file name must have .vtk extension");
-
-		DataOutputStream output = new DataOutputStream(
-				new BufferedOutputStream(new FileOutputStream(
-						new File(fileName))));
-
-		int tessid = model.getMetaData()
-				.getTessellation(model.getNLayers() - 1);
-		
-		GeoTessGrid grid = model.getGridRotated();
+		VTKStreamWriter output = vtkWriter(fileName, "GeoTessLayerThickness");
 
-		int level = grid.getNLevels(tessid) - 1;
-
-		int[] vertices = vtkGrid(grid, tessid, level, output);
-
-		double[] vertex;
-
-		output.writeBytes(String.format("POINT_DATA %d%n", vertices.length));
+		try
+		{
+			int tessid = model.getMetaData()
+					.getTessellation(model.getNLayers() - 1);
 
-		GeoTessPosition pos = model.getGeoTessPosition(horizontalType);
+			final GeoTessGrid grid = model.getGridRotated();
 
-		int sign = z.toLowerCase().startsWith("e") ? -1 : 1;
+			int level = grid.getNLevels(tessid) - 1;
 
-		for (int layer = 0; layer < model.getNLayers(); ++layer)
-		{
-			output.writeBytes(String
-					.format("SCALARS %s_%d float 1\n", z, layer));
+			final int[] vertices = vtkGrid(grid, tessid, level, output);
 
-			output.writeBytes(String.format("LOOKUP_TABLE default%n"));
+			final int sign = z.toLowerCase().startsWith("e") ? -1 : 1;
 
-			for (int i = 0; i < vertices.length; ++i)
+			for (int layer = 0; layer < model.getNLayers(); ++layer)
 			{
-				vertex = grid.getVertex(vertices[i]);
-				pos.setTop(model.getNLayers() - 1, vertex);
+				final int layerId = layer;
+				output.writePointData(String.format("%s_%d", z, layer),
+						new VertexValues(model, horizontalType, null)
+				{
+					@Override
+					void set(GeoTessPosition pos, int i) throws GeoTessException
+					{
+						pos.setTop(model.getNLayers() - 1, grid.getVertex(vertices[i]));
+					}
 
-				output.writeFloat((float) (sign * (layer < 0 ? pos
-						.getDepthBottom(0) : pos.getDepthTop(layer))));
+					@Override
+					double value(GeoTessPosition pos) throws GeoTessException
+					{
+						return sign * pos.getDepthTop(layerId);
+					}
+				});
 			}
 		}
-
-		output.close();
+		finally
+		{
+			output.close();
+		}
 	}
 
 	/**
@@ -1827,7 +2140,8 @@ public class GeoTessModelUtils
 	 *            a reference to the model
 	 * @param fileName
 	 *            the name of the file to which output should be written. Must
-	 *            end with extension 'vtk'.
+	 *            end with extension 'vtk' (legacy binary) or 'vtu' (VTK XML,
+	 *            compressed).
 	 * @param firstLayer
 	 *            index of first layer
 	 * @param lastLayer
@@ -1838,48 +2152,47 @@ public class GeoTessModelUtils
 	 * @throws IOException
 	 * @throws GeoTessException
 	 */
-	public static void vtkLayerThickness(GeoTessModel model, String fileName,
+	public static void vtkLayerThickness(final GeoTessModel model, String fileName,
 			int firstLayer, int lastLayer, InterpolatorType horizontalType)
 					throws IOException, GeoTessException
 	{
-		if (!fileName.toLowerCase().trim().endsWith(".vtk"))
-			throw new IOException("\nOutput file name must have .vtk extension");
-
 		if (lastLayer >= model.getNLayers())
 			lastLayer = model.getNLayers() - 1;
 
-		DataOutputStream output = new DataOutputStream(
-				new BufferedOutputStream(new FileOutputStream(
-						new File(fileName))));
+		VTKStreamWriter output = vtkWriter(fileName, "GeoTessLayerThickness");
 
-		int tessid = model.getMetaData()
-				.getTessellation(model.getNLayers() - 1);
-		
-		GeoTessGrid grid = model.getGridRotated();
-
-		int level = grid.getNLevels(tessid) - 1;
-
-		int[] vertices = vtkGrid(grid, tessid, level, output);
+		try
+		{
+			int tessid = model.getMetaData()
+					.getTessellation(model.getNLayers() - 1);
 
-		double[] vertex;
+			final GeoTessGrid grid = model.getGridRotated();
 
-		output.writeBytes(String.format("POINT_DATA %d%n", vertices.length));
+			int level = grid.getNLevels(tessid) - 1;
 
-		GeoTessPosition pos = model.getGeoTessPosition(horizontalType);
+			final int[] vertices = vtkGrid(grid, tessid, level, output);
 
-		output.writeBytes("SCALARS Layer_Thickness float 1\n");
-		output.writeBytes(String.format("LOOKUP_TABLE default%n"));
+			final int first = firstLayer, last = lastLayer;
+			output.writePointData("Layer_Thickness",
+					new VertexValues(model, horizontalType, null)
+			{
+				@Override
+				void set(GeoTessPosition pos, int i) throws GeoTessException
+				{
+					pos.setTop(model.getNLayers() - 1, grid.getVertex(vertices[i]));
+				}
 
-		for (int i = 0; i < vertices.length; ++i)
+				@Override
+				double value(GeoTessPosition pos) throws GeoTessException
+				{
+					return pos.getRadiusTop(last) - pos.getRadiusBottom(first);
+				}
+			});
+		}
+		finally
 		{
-			vertex = grid.getVertex(vertices[i]);
-			pos.setTop(model.getNLayers() - 1, vertex);
-
-			output.writeFloat((float) (pos.getRadiusTop(lastLayer) - pos
-					.getRadiusBottom(firstLayer)));
+			output.close();
 		}
-
-		output.close();
 	}
 
 	/**
@@ -2186,6 +2499,145 @@ public class GeoTessModelUtils
 		return vertices;
 	}
 
+	/**
+	 * This just writes the grid to a VTKStreamWriter. Only includes the
+	 * geometry and topology of the specified tessellation.
+	 * 
+	 * @param grid
+	 * @param tessid
+	 * @param level index of level relative to first level of the specified 
+	 * tessellation.
+	 * @param output
+	 * @return the indices of the vertices used in the plot.
+	 * @throws IOException
+	 */
+	public static int[] vtkGrid(final GeoTessGrid grid, int tessid, int level,
+			VTKStreamWriter output) throws IOException
+	{
+		// get the indexes of the vertices on desired level.
+		HashSetInteger s = grid.getVertexIndices(tessid, level);
+		final int[] vertices = new int[s.size()];
+		{
+			int n = 0;
+			Iterator it = s.iterator();
+			while (it.hasNext())
+				vertices[n++] = it.next();
+		}
+
+		// build a map from vertexIndex to index in the new vertices array.
+		final int[] vmap = new int[grid.getNVertices()];
+		Arrays.fill(vmap, -1);
+		for (int i = 0; i < vertices.length; ++i)
+			vmap[vertices[i]] = i;
+
+		output.writePoints(vertices.length, new VTKStreamWriter.DoubleSource()
+		{
+			@Override
+			public void get(int first, int count, double[] values)
+			{
+				for (int i = 0; i < count; ++i)
+				{
+					double[] vertex = grid.getVertex(vertices[first + i]);
+					values[3 * i] = vertex[0];
+					values[3 * i + 1] = vertex[1];
+					values[3 * i + 2] = vertex[2];
+				}
+			}
+		});
+
+		final int firstTriangle = grid.getFirstTriangle(tessid, level);
+		output.writeCells(grid.getNTriangles(tessid, level),
+				VTKCellType.VTK_TRIANGLE, new VTKStreamWriter.IntSource()
+		{
+			@Override
+			public void get(int first, int count, int[] values)
+			{
+				for (int i = 0; i < count; ++i)
+				{
+					int[] triangle = grid.getTriangles()[firstTriangle + first + i];
+					values[3 * i] = vmap[triangle[0]];
+					values[3 * i + 1] = vmap[triangle[1]];
+					values[3 * i + 2] = vmap[triangle[2]];
+				}
+			}
+		});
+
+		return vertices;
+	}
+
+	/**
+	 * Open a VTKStreamWriter. Files with extension 'vtk' are written in the
+	 * legacy binary format, files with extension 'vtu' in the compressed VTK
+	 * XML format. Point data is evaluated with up to getMaxThreads() threads.
+	 * 
+	 * @param fileName name of the output file
+	 * @param title title of the legacy output file
+	 * @return a new VTKStreamWriter
+	 * @throws IOException if the extension is not 'vtk' or 'vtu'
+	 */
+	private static VTKStreamWriter vtkWriter(String fileName, String title)
+			throws IOException
+	{
+		String name = fileName.toLowerCase().trim();
+		if (!name.endsWith(".vtk") && !name.endsWith(".vtu"))
+			throw new IOException("\nOutput file name must have .vtk or .vtu extension");
+
+		return new VTKStreamWriter(new File(fileName), title)
+				.setThreads(maxThreads).setCompression(true);
+	}
+
+	/**
+	 * Supplies one value per vertex to a VTKStreamWriter. Each chunk of
+	 * vertices is evaluated with its own GeoTessPosition, which is first set to
+	 * the PRIME_POINTS vertices that precede the chunk so that the triangle
+	 * walk, and hence the interpolated values, match those of a single position
+	 * that visits every vertex in order.
+	 */
+	private static abstract class VertexValues implements VTKStreamWriter.FloatSource
+	{
+		private final GeoTessModel model;
+		private final InterpolatorType horizontalType;
+		private final InterpolatorType radialType;
+
+		/**
+		 * @param model the model
+		 * @param horizontalType horizontal interpolator
+		 * @param radialType radial interpolator, or null for the model default
+		 */
+		VertexValues(GeoTessModel model, InterpolatorType horizontalType,
+				InterpolatorType radialType)
+		{
+			this.model = model;
+			this.horizontalType = horizontalType;
+			this.radialType = radialType;
+		}
+
+		/**
+		 * Move pos to the i'th vertex.
+		 */
+		abstract void set(GeoTessPosition pos, int i) throws GeoTessException;
+
+		/**
+		 * Return the value at the current location of pos.
+		 */
+		abstract double value(GeoTessPosition pos) throws GeoTessException;
+
+		@Override
+		public void get(int first, int count, float[] values) throws Exception
+		{
+			GeoTessPosition pos = radialType == null ? model
+					.getGeoTessPosition(horizontalType) : model.getGeoTessPosition(
+							horizontalType, radialType);
+			for (int i = max(0, first - PRIME_POINTS); i < first; ++i)
+				set(pos, i);
+			for (int i = 0; i < count; ++i)
+			{
+				set(pos, first + i);
+				values[i] = (float) value(pos);
+			}
+		}
+	}
+
 	//	/**
 	//	 * This just writes the grid to the vtk file. Only includes the geometry and
 	//	 * topology of the specified tessellation.
@@ -2291,15 +2743,12 @@ public class GeoTessModelUtils
 	 * @throws GeoTessException
 	 * @throws IOException
 	 */
-	public static void vtkSolid(GeoTessModel model, String fileName,
+	public static void vtkSolid(final GeoTessModel model, String fileName,
 			double maxSpacing, int firstLayerIndex, int lastLayerIndex,
-			InterpolatorType horizontalType, InterpolatorType radialType,
-			boolean reciprocal, int[] attributes) throws GeoTessException,
+			InterpolatorType horizontalType, final InterpolatorType radialType,
+			final boolean reciprocal, int[] attributes) throws GeoTessException,
 	IOException
 	{
-		if (!fileName.toLowerCase().trim().endsWith(".vtk"))
-			throw new IOException("\nOutput file name must have .vtk extension");
-
 		if (attributes == null)
 		{
 			attributes = new int[model.getMetaData().getNAttributes()];
@@ -2307,49 +2756,45 @@ public class GeoTessModelUtils
 				attributes[i] = i;
 		}
 
-		int v0, v1, v2, nLayers = model.getMetaData().getNLayers();
+		int nLayers = model.getMetaData().getNLayers();
 
 		if (lastLayerIndex >= nLayers)
 			lastLayerIndex = nLayers - 1;
 
-		File outputFile = new File(fileName);
-
-		GeoTessGrid grid = model.getGrid();
-
-		// points are the 3D positions of all the points in the model.
-		ArrayList<double[]> points = new ArrayList<double[]>();
-		// values are the values at the points. Points and values will
-		// be the same size. values only includes attributes in the
-		// attribute list. Reciprocal has been applied.
-		ArrayList<float[]> values = new ArrayList<float[]>();
+		final GeoTessGrid grid = model.getGrid();
 
-		// the indexes of the points that form the edges of the wedges.
-		// The number of wedges will be wedges.size()/6
-		ArrayListInt wedges = new ArrayListInt();
+		// the points of each layer are the nr points along the radial profile
+		// at each vertex, ordered by vertex then radius. Each triangle of
+		// the layer generates nr-1 wedges. Only the layout of the points
+		// and wedges is computed here; the positions, connectivity and values
+		// are evaluated one chunk at a time as they are written.
+		final ArrayList<SolidLayer> layers = new ArrayList<SolidLayer>();
+		int nPoints = 0, nWedges = 0;
 
 		for (int layerId = firstLayerIndex; layerId <= lastLayerIndex; ++layerId)
 		{
+			SolidLayer layer = new SolidLayer();
+			layer.layerId = layerId;
 
 			int tessid = model.getMetaData().getLayerTessIds()[layerId];
 			int level = grid.getNLevels(tessid) - 1;
-			int nPoints = points.size();
 
 			// get the indexes of the vertices on desired level.
 			HashSetInteger s = grid.getVertexIndicesTopLevel(tessid);
-			int[] vertices = new int[s.size()];
+			layer.vertices = new int[s.size()];
 			{
 				int n = 0;
 				Iterator it = s.iterator();
 				while (it.hasNext())
-					vertices[n++] = it.next();
+					layer.vertices[n++] = it.next();
 			}
 
 			// build a map from vertexIndex in real grid to index in the new
 			// vertices array.
-			int[] vmap = new int[grid.getNVertices()];
-			Arrays.fill(vmap, -1);
-			for (int i = 0; i < vertices.length; ++i)
-				vmap[vertices[i]] = i;
+			layer.vmap = new int[grid.getNVertices()];
+			Arrays.fill(layer.vmap, -1);
+			for (int i = 0; i < layer.vertices.length; ++i)
+				layer.vmap[layer.vertices[i]] = i;
 
 			int n, nr = 2;
 			for (int i = 0; i < model.getGrid().getNVertices(); ++i)
@@ -2362,101 +2807,144 @@ public class GeoTessModelUtils
 				if (n > nr)
 					nr = n;
 			}
+			layer.nr = nr;
 
-			for (int i = 0; i < vertices.length; ++i)
+			layer.firstTriangle = grid.getFirstTriangle(tessid, level);
+
+			layer.firstPoint = nPoints;
+			nPoints += layer.vertices.length * nr;
+
+			layer.firstWedge = nWedges;
+			nWedges += grid.getNTriangles(tessid, level) * (nr - 1);
+
+			layers.add(layer);
+		}
+
+		VTKStreamWriter output = vtkWriter(fileName, "GeoTess");
+		try
+		{
+			output.writePoints(nPoints, new VTKStreamWriter.DoubleSource()
 			{
-				Profile p = model.getProfile(vertices[i], layerId);
-				double r, r0 = p.getRadiusBottom();
-				double dr = ((double) p.getRadiusTop() - r0) / (nr - 1);
-				double[] vertex = model.getVertex(vertices[i]);
-				for (int j = 0; j < nr; ++j)
+				@Override
+				public void get(int first, int count, double[] values)
 				{
-					r = r0 + j * dr;
-					points.add(new double[] { vertex[0] * r, vertex[1] * r,
-							vertex[2] * r });
-
-					float[] vals = new float[attributes.length];
-					for (int k = 0; k < attributes.length; ++k)
-						vals[k] = (float) (reciprocal ? 1. / p.getValue(
-								radialType, attributes[k], r, true) : p
-								.getValue(radialType, attributes[k], r, true));
-					values.add(vals);
+					for (int i = 0; i < count; ++i)
+					{
+						int point = first + i;
+						SolidLayer layer = SolidLayer.get(layers, point);
+						int vertex = layer.vertices[(point - layer.firstPoint) / layer.nr];
+						double r = layer.radius(model.getProfile(vertex, layer.layerId),
+								(point - layer.firstPoint) % layer.nr);
+						double[] u = model.getVertex(vertex);
+						values[3 * i] = u[0] * r;
+						values[3 * i + 1] = u[1] * r;
+						values[3 * i + 2] = u[2] * r;
+					}
 				}
-			}
+			});
 
-			// determine point connectivity (wedges).
-			for (int t = grid.getFirstTriangle(tessid, level); t <= grid
-					.getLastTriangle(tessid, level); ++t)
+			output.writeCells(nWedges, VTKCellType.VTK_WEDGE,
+					new VTKStreamWriter.IntSource()
 			{
-				int[] triangle = grid.getTriangles()[t];
-				v0 = vmap[triangle[0]];
-				v1 = vmap[triangle[1]];
-				v2 = vmap[triangle[2]];
-
-				for (int j = 0; j < nr - 1; ++j)
+				@Override
+				public void get(int first, int count, int[] values)
 				{
-					wedges.add(nPoints + v0 * nr + j);
-					wedges.add(nPoints + v1 * nr + j);
-					wedges.add(nPoints + v2 * nr + j);
-					wedges.add(nPoints + v0 * nr + j + 1);
-					wedges.add(nPoints + v1 * nr + j + 1);
-					wedges.add(nPoints + v2 * nr + j + 1);
+					for (int i = 0; i < count; ++i)
+					{
+						int wedge = first + i;
+						SolidLayer layer = null;
+						for (SolidLayer l : layers)
+							if (wedge >= l.firstWedge)
+								layer = l;
+						int nr = layer.nr;
+						int j = (wedge - layer.firstWedge) % (nr - 1);
+						int[] triangle = grid.getTriangles()[layer.firstTriangle
+						                                     + (wedge - layer.firstWedge) / (nr - 1)];
+						int v0 = layer.firstPoint + layer.vmap[triangle[0]] * nr + j;
+						int v1 = layer.firstPoint + layer.vmap[triangle[1]] * nr + j;
+						int v2 = layer.firstPoint + layer.vmap[triangle[2]] * nr + j;
+						values[6 * i] = v0;
+						values[6 * i + 1] = v1;
+						values[6 * i + 2] = v2;
+						values[6 * i + 3] = v0 + 1;
+						values[6 * i + 4] = v1 + 1;
+						values[6 * i + 5] = v2 + 1;
+					}
 				}
+			});
+
+			for (int a = 0; a < attributes.length; ++a)
+			{
+				final int attribute = attributes[a];
+				output.writePointData(vtkName(model, attribute, reciprocal),
+						new VTKStreamWriter.FloatSource()
+				{
+					@Override
+					public void get(int first, int count, float[] values)
+							throws GeoTessException
+					{
+						for (int i = 0; i < count; ++i)
+						{
+							int point = first + i;
+							SolidLayer layer = SolidLayer.get(layers, point);
+							Profile p = model.getProfile(
+									layer.vertices[(point - layer.firstPoint) / layer.nr],
+									layer.layerId);
+							double r = layer.radius(p, (point - layer.firstPoint) % layer.nr);
+							values[i] = (float) (reciprocal ? 1. / p.getValue(
+									radialType, attribute, r, true) : p
+									.getValue(radialType, attribute, r, true));
+						}
+					}
+				});
 			}
 		}
+		finally
+		{
+			output.close();
+		}
+	}
 
-		DataOutputStream output = new DataOutputStream(
-				new BufferedOutputStream(new FileOutputStream(outputFile)));
+	/**
+	 * The layout of the points and wedges of one layer of the output of
+	 * vtkSolid().
+	 */
+	private static class SolidLayer
+	{
+		int layerId;
 
-		output.writeBytes(String.format("# vtk DataFile Version 2.0%n"));
-		output.writeBytes(String.format("GeoTess%n"));
-		output.writeBytes(String.format("BINARY%n"));
+		/**
+		 * Grid indices of the vertices of the layer and the map from grid vertex
+		 * index to index in vertices.
+		 */
+		int[] vertices, vmap;
 
-		output.writeBytes(String.format("DATASET UNSTRUCTURED_GRID%n"));
+		/**
+		 * Number of points along the radial profile at each vertex.
+		 */
+		int nr;
 
-		output.writeBytes(String.format("POINTS %d double%n", points.size()));
+		int firstTriangle, firstPoint, firstWedge;
 
-		// iterate over all the grid vertices and write out their position
-		for (int i = 0; i < points.size(); ++i)
+		/**
+		 * Radius of the j'th of nr equally spaced points along profile p.
+		 */
+		double radius(Profile p, int j)
 		{
-			double[] vertex = points.get(i);
-			output.writeDouble(vertex[0]);
-			output.writeDouble(vertex[1]);
-			output.writeDouble(vertex[2]);
+			double r0 = p.getRadiusBottom();
+			return r0 + j * (((double) p.getRadiusTop() - r0) / (nr - 1));
 		}
 
-		int nWedges = wedges.size() / 6;
-		output.writeBytes(String.format("CELLS %d %d%n", nWedges, nWedges * 7));
-		int w = 0;
-		for (int j = 0; j < nWedges; ++j)
-		{
-			output.writeInt(6);
-			output.writeInt(wedges.get(w++));
-			output.writeInt(wedges.get(w++));
-			output.writeInt(wedges.get(w++));
-			output.writeInt(wedges.get(w++));
-			output.writeInt(wedges.get(w++));
-			output.writeInt(wedges.get(w++));
-		}
-
-		output.writeBytes(String.format("CELL_TYPES %d%n", nWedges));
-		for (int t = 0; t < nWedges; ++t)
-			output.writeInt(13);
-
-		output.writeBytes(String.format("POINT_DATA %d%n", values.size()));
-
-		for (int a = 0; a < attributes.length; ++a)
+		/**
+		 * Find the layer that contains the specified point.
+		 */
+		static SolidLayer get(ArrayList<SolidLayer> layers, int point)
 		{
-			String attributeName = vtkName(model, attributes[a], reciprocal);
-			output.writeBytes(String.format("SCALARS %s float 1%n",
-					attributeName));
-
-			output.writeBytes(String.format("LOOKUP_TABLE default%n"));
-
-			for (int i = 0; i < values.size(); ++i)
-				output.writeFloat(values.get(i)[a]);
+			SolidLayer layer = layers.get(0);
+			for (int i = 1; i < layers.size() && point >= layers.get(i).firstPoint; ++i)
+				layer = layers.get(i);
+			return layer;
 		}
-		output.close();
 	}
 
 	/**
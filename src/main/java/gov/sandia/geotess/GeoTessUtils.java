@@ -179,6 +179,32 @@ public class GeoTessUtils extends VectorUnit
 		return new String(bytes);
 	}
 
+	/**
+	 * Skip exactly nBytes bytes of a binary file.  DataInputStream.skipBytes()
+	 * is allowed to skip fewer bytes than requested, so this method falls back
+	 * on reading when skipBytes() makes no progress.
+	 * 
+	 * @param input
+	 *            DataInputStream
+	 * @param nBytes
+	 *            number of bytes to skip
+	 * @throws IOException
+	 *             if the end of the file is reached first.
+	 */
+	public static void skipBytes(DataInputStream input, long nBytes) throws IOException
+	{
+		while (nBytes > 0)
+		{
+			int n = input.skipBytes((int) Math.min(nBytes, Integer.MAX_VALUE));
+			if (n <= 0)
+			{
+				input.readByte();
+				n = 1;
+			}
+			nBytes -= n;
+		}
+	}
+
 	/**
 	 * Write a String to a binary file. First write the length of the String
 	 * (int number of characters) then write that many characters.
@@ -245,6 +245,51 @@ public abstract class Profile
 		}
 	}
 
+	/**
+	 * Read past a Profile stored in a binary file without building it.
+	 * 
+	 * @param input
+	 * @param dataSize
+	 *            the number of bytes occupied by one Data object, i.e.,
+	 *            nAttributes * dataType.nbytes
+	 * @throws GeoTessException
+	 * @throws IOException
+	 */
+	protected static void skip(DataInputStream input, int dataSize)
+			throws GeoTessException, IOException
+	{
+		int profileType = input.readByte();
+		switch (profileType)
+		{
+		case 0:
+			// EMPTY: two radii
+			GeoTessUtils.skipBytes(input, 8);
+			break;
+		case 1:
+			// THIN: one radius and one data
+			GeoTessUtils.skipBytes(input, 4 + dataSize);
+			break;
+		case 2:
+			// CONSTANT: two radii and one data
+			GeoTessUtils.skipBytes(input, 8 + dataSize);
+			break;
+		case 3:
+			// NPOINT: nRadii radius-data pairs
+			GeoTessUtils.skipBytes(input, (long) input.readInt() * (4 + dataSize));
+			break;
+		case 4:
+			// SURFACE: one data
+			GeoTessUtils.skipBytes(input, dataSize);
+			break;
+		case 5:
+			// SURFACE_EMPTY: nothing
+			break;
+		default:
+			throw new GeoTessException(profileType
+					+ " is not a recognized ProfileType");
+		}
+	}
+
 	/**
 	 * One of EMPTY, THIN, CONSTANT, NPOINT, SURFACE
 	 * 
@@ -683,6 +728,59 @@ public abstract class Profile
 	  // do nothing
 	}
 
+	/**
+	 * Same as computeGradients(model, attributeIndex, vertexUnitVector, layerId,
+	 * reciprocal) except that the supplied GradientCalculator is used instead of
+	 * one borrowed from the model's pool. Used by callers that compute gradients
+	 * for many profiles and own one calculator per thread.
+	 * 
+	 * @param model           GeoTessModel for which gradients are evaluated.
+	 * @param attributeIndex  The attribute for which gradients are calculated.
+	 * @param vertexUnitVector
+	 * @param layerId
+	 * @param reciprocal      A boolean flag, that if true, stores the calculates
+	 *                        gradient.
+	 * @param gc              The GradientCalculator to use. If null, one is
+	 *                        borrowed from the model's pool.
+	 * @throws GeoTessException
+	 */
+	protected synchronized void computeGradients(GeoTessModel model, int attributeIndex,
+			                            						 double[] vertexUnitVector,
+			                            						 int layerId, boolean reciprocal,
+			                            						 GradientCalculator gc)
+	               throws GeoTessException
+	{
+	  // do nothing
+	}
+
+	/**
+	 * Retrieve the computed gradients of the specified attribute, one gradient
+	 * per node for which gradients are stored.
+	 * 
+	 * @param attributeIndex
+	 * @return the gradients, or null if they have not been computed or are
+	 * undefined for this profile type.
+	 */
+	protected double[][] getGradients(int attributeIndex)
+	{
+		return null;
+	}
+
+	/**
+	 * Replace the gradients of the specified attribute with gradients that were
+	 * computed previously, for example gradients loaded from a file. Ignored
+	 * by profile types that do not define gradients.
+	 * 
+	 * @param attributeIndex
+	 * @param reciprocal true if the gradients are those of the inverse attribute.
+	 * @param gradients one gradient per node, as returned by getGradients().
+	 */
+	protected void setGradients(int attributeIndex, boolean reciprocal,
+			double[][] gradients)
+	{
+		// do nothing
+	}
+
 	protected void addToGradient(int attributeIndex, double radius,
 			                         double coefficient, double[] gradient)
 	{
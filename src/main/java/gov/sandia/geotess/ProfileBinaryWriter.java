@@ -0,0 +1,268 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.geotess;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the Profile data of a GeoTessModel in binary format. Ranges of
+ * vertices (chunks) are serialized concurrently into large direct ByteBuffers
+ * and the buffers are written, in vertex order, to a channel while the
+ * following chunks are being serialized. The bytes written are identical to
+ * those produced by calling Profile.write(DataOutputStream) for every profile
+ * in order.
+ * 
+ * <p>
+ * If the output stream is a ChannelOutput, which is what
+ * GeoTessModel.writeModelBinary(String, String) supplies, the buffers are
+ * written directly to the FileChannel of the output file. Otherwise they are
+ * written to the stream through Channels.newChannel().
+ */
+class ProfileBinaryWriter
+{
+	/**
+	 * Approximate number of bytes serialized per chunk.
+	 */
+	static final int CHUNK_BYTES = 1 << 22;
+
+	/**
+	 * Models whose profiles serialize to fewer bytes than this are written
+	 * directly to the output stream.
+	 */
+	static final long MIN_PARALLEL_BYTES = 2L * CHUNK_BYTES;
+
+	/**
+	 * A DataOutputStream that also provides access to the FileChannel of the
+	 * file to which it writes.
+	 */
+	static class ChannelOutput extends DataOutputStream
+	{
+		private final FileChannel channel;
+
+		ChannelOutput(OutputStream out, FileChannel channel)
+		{
+			super(out);
+			this.channel = channel;
+		}
+
+		FileChannel getChannel()
+		{
+			return channel;
+		}
+	}
+
+	/**
+	 * An OutputStream that writes to a direct ByteBuffer, replacing the buffer
+	 * with a larger one when it fills.
+	 */
+	private static class BufferOutput extends OutputStream
+	{
+		private ByteBuffer buffer;
+
+		BufferOutput(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		private void ensure(int n)
+		{
+			if (buffer.remaining() < n)
+			{
+				ByteBuffer b = ByteBuffer.allocateDirect(
+						Math.max(2 * buffer.capacity(), buffer.position() + n));
+				buffer.flip();
+				b.put(buffer);
+				buffer = b;
+			}
+		}
+
+		@Override
+		public void write(int b)
+		{
+			if (!buffer.hasRemaining())
+				ensure(1);
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			ensure(len);
+			buffer.put(b, off, len);
+		}
+	}
+
+	/**
+	 * An OutputStream that only counts the bytes written to it.
+	 */
+	private static class CountOutput extends OutputStream
+	{
+		private long count;
+
+		@Override
+		public void write(int b)
+		{
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+
+	private ProfileBinaryWriter()
+	{
+	}
+
+	/**
+	 * Write all the profiles, in vertex then layer order, to output.
+	 * 
+	 * @param profiles
+	 *            the nVertices x nLayers array of profiles.
+	 * @param output
+	 *            the stream to which the profiles are written.
+	 * @param nThreads
+	 *            the maximum number of threads used to serialize profiles.
+	 * @throws IOException
+	 */
+	static void write(final Profile[][] profiles, DataOutputStream output,
+			int nThreads) throws IOException
+	{
+		int nVertices = profiles.length;
+
+		// estimate the serialized size of the profiles from a sample of up to 64
+		// vertices.
+		int nSample = Math.min(64, nVertices);
+		CountOutput counter = new CountOutput();
+		DataOutputStream sample = new DataOutputStream(counter);
+		for (int i = 0; i < nSample; ++i)
+			for (Profile p : profiles[(int) ((long) i * nVertices / nSample)])
+				p.write(sample);
+		double bytesPerVertex = Math.max(1., (double) counter.count / Math.max(1, nSample));
+
+		if (nThreads < 1 || bytesPerVertex * nVertices < MIN_PARALLEL_BYTES)
+		{
+			for (Profile[] vertexProfiles : profiles)
+				for (Profile profile : vertexProfiles)
+					profile.write(output);
+			return;
+		}
+
+		final int chunkVertices = (int) Math.max(1, Math.min(nVertices,
+				CHUNK_BYTES / bytesPerVertex));
+		final int bufferSize = (int) Math.min(Integer.MAX_VALUE - 8,
+				(long) (1.25 * chunkVertices * bytesPerVertex) + 1024);
+		int nChunks = (nVertices + chunkVertices - 1) / chunkVertices;
+		nThreads = Math.min(nThreads, nChunks);
+
+		// everything written to output so far must precede the profile data.
+		output.flush();
+		WritableByteChannel channel = output instanceof ChannelOutput
+				? ((ChannelOutput) output).getChannel()
+				: Channels.newChannel(output);
+
+		// buffers that have been written and can be reused.
+		final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		ArrayDeque<Future<ByteBuffer>> window = new ArrayDeque<Future<ByteBuffer>>();
+		try
+		{
+			int next = 0;
+			while (next < nChunks || !window.isEmpty())
+			{
+				// keep up to 2 chunks per thread serializing ahead of the writer
+				while (next < nChunks && window.size() < 2 * nThreads)
+				{
+					final int first = next * chunkVertices;
+					final int last = Math.min(nVertices, first + chunkVertices);
+					window.add(threadPool.submit(new Callable<ByteBuffer>()
+					{
+						@Override
+						public ByteBuffer call() throws IOException
+						{
+							ByteBuffer b = free.poll();
+							if (b == null)
+								b = ByteBuffer.allocateDirect(bufferSize);
+							BufferOutput out = new BufferOutput(b);
+							DataOutputStream dos = new DataOutputStream(out);
+							for (int v = first; v < last; ++v)
+								for (Profile profile : profiles[v])
+									profile.write(dos);
+							return out.buffer;
+						}
+					}));
+					++next;
+				}
+
+				// write the oldest chunk while the others are serialized
+				ByteBuffer b = window.poll().get();
+				b.flip();
+				while (b.hasRemaining())
+					channel.write(b);
+				b.clear();
+				free.add(b);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+	}
+}
@@ -439,6 +439,15 @@ public class ProfileConstant extends Profile
 																							 double[] unitVector, int layerId,
 																							 boolean reciprocal) 
                  throws GeoTessException
+  {
+		computeGradients(model, attributeIndex, unitVector, layerId, reciprocal, null);
+  }
+
+	@Override
+	protected synchronized void computeGradients(GeoTessModel model, int attributeIndex,
+																							 double[] unitVector, int layerId,
+																							 boolean reciprocal, GradientCalculator gc) 
+                 throws GeoTessException
   {
 		// create gradients array for each attribute if null
 		if (gradients == null)
@@ -462,12 +471,31 @@ public class ProfileConstant extends Profile
 		double[] g = gradients[attributeIndex];
 
 		// retrieve gradient calculator, get average radius and compute gradient
-		GradientCalculator gc = model.getGradientCalculator();
+		GradientCalculator calc = gc == null ? model.getGradientCalculator() : gc;
 		double radius = 0.5 * (radiusBottom + radiusTop);
-	  gc.getGradient(unitVector, radius,	attributeIndex,
+	  calc.getGradient(unitVector, radius,	attributeIndex,
 	  		            layerId, reciprocal, g);
-		model.returnGradientCalculator(gc);
+		if (gc == null) model.returnGradientCalculator(calc);
   }
+
+	@Override
+	protected synchronized double[][] getGradients(int attributeIndex)
+	{
+		return isGradientSet(attributeIndex) ? new double[][] {gradients[attributeIndex]} : null;
+	}
+
+	@Override
+	protected synchronized void setGradients(int attributeIndex, boolean reciprocal,
+			double[][] g)
+	{
+		if (gradients == null)
+		{
+			gradients = new double[data.size()][];
+			gradientReciprocal = new boolean [data.size()];
+		}
+		gradients[attributeIndex] = g[0];
+		gradientReciprocal[attributeIndex] = reciprocal;
+	}
 	
 	@Override
 	protected void addToGradient(int attributeIndex, int nodeIndex,
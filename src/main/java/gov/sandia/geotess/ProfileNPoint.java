@@ -804,6 +804,15 @@ public class ProfileNPoint extends Profile
 																							 double[] unitVector, int layerId,
 																							 boolean reciprocal) 
                  throws GeoTessException
+  {
+		computeGradients(model, attributeIndex, unitVector, layerId, reciprocal, null);
+  }
+
+	@Override
+	protected synchronized void computeGradients(GeoTessModel model, int attributeIndex,
+																							 double[] unitVector, int layerId,
+																							 boolean reciprocal, GradientCalculator gc) 
+                 throws GeoTessException
   {
 		// create gradients array for each attribute if null
 		if (gradients == null)
@@ -827,12 +836,31 @@ public class ProfileNPoint extends Profile
 		double[][] g = gradients[attributeIndex];
 
 		// retrieve gradient calculator, and loop over each radii and compute gradient
-		GradientCalculator gc = model.getGradientCalculator();
+		GradientCalculator calc = gc == null ? model.getGradientCalculator() : gc;
 		for (int i=0; i<radii.length; ++i)
-			gc.getGradient(unitVector, radii[i],	attributeIndex,
+			calc.getGradient(unitVector, radii[i],	attributeIndex,
 					            layerId, reciprocal, g[i]);
-		model.returnGradientCalculator(gc);
+		if (gc == null) model.returnGradientCalculator(calc);
   }
+
+	@Override
+	protected synchronized double[][] getGradients(int attributeIndex)
+	{
+		return isGradientSet(attributeIndex) ? gradients[attributeIndex] : null;
+	}
+
+	@Override
+	protected synchronized void setGradients(int attributeIndex, boolean reciprocal,
+			double[][] g)
+	{
+		if (gradients == null)
+		{
+			gradients = new double[data[0].size()][][];
+			gradientReciprocal = new boolean [data[0].size()];
+		}
+		gradients[attributeIndex] = g;
+		gradientReciprocal[attributeIndex] = reciprocal;
+	}
 	
 	@Override
 	protected void addToGradient(int attributeIndex, int nodeIndex,
@@ -34,6 +34,7 @@ package gov.sandia.geotess.extensions.libcorr3d;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import gov.sandia.geotess.GeoTessException;
 import gov.sandia.geotess.GeoTessPosition;
@@ -301,6 +302,23 @@ public class LibCorr3D
 
 		gtpos.set(0, sourcePosition, sourceRadius);
 
+		return getPathCorrDerivRadial(gtpos, sourceRadius);
+	}
+
+	/**
+	 * Compute the derivative of the path correction with respect to source radius
+	 * using a GeoTessPosition that has already been set to the source position.
+	 * Only the radius of gtpos is modified; the horizontal interpolation
+	 * coefficients are reused.
+	 * 
+	 * @param gtpos a GeoTessPosition set to the source position
+	 * @param sourceRadius
+	 * @return derivative of the path correction with respect to source radius.
+	 * @throws GeoTessException
+	 */
+	private static double getPathCorrDerivRadial(GeoTessPosition gtpos, double sourceRadius)
+			throws GeoTessException
+	{
 		// if layer thickness is zero return zero
 		double thick = gtpos.getLayerThickness();
 		if (thick < 1e-2)
@@ -340,6 +358,147 @@ public class LibCorr3D
 		return (gtpos.getValue(0) - pc) / dr;
 	}
 
+	/**
+	 * Retrieve path corrections, and optionally uncertainties and derivatives,
+	 * for many source positions that are all supported by the same model.
+	 * <p>
+	 * Results are identical to calling getPathCorrection(), getUncertainty()
+	 * and the getPathCorrDeriv*() methods one source at a time, but sources
+	 * are visited in spatial order so that each triangle walk starts near the
+	 * previous source, and the value at the source position is interpolated
+	 * only once and shared by the correction, uncertainty and all the
+	 * derivative stencils. The radial derivative reuses the horizontal
+	 * interpolation coefficients of the source position.
+	 * <p>
+	 * Evaluation uses a private GeoTessPosition, so concurrent calls for the
+	 * same lookupIndex do not interfere with each other.
+	 * <p>
+	 * Any of the output arrays may be null, in which case that quantity is not
+	 * computed. Non-null output arrays must have the same length as
+	 * sourcePositions. If lookupIndex is not supported, all requested outputs
+	 * are filled with NaN.
+	 * 
+	 * @param lookupIndex
+	 * @param sourcePositions source unit vectors
+	 * @param sourceRadii source radii in km
+	 * @param corrections (output) path corrections
+	 * @param uncertainties (output) path correction uncertainties
+	 * @param derivHorizontal (output) derivatives wrt source-receiver separation
+	 * @param derivLat (output) derivatives wrt source latitude
+	 * @param derivLon (output) derivatives wrt source longitude
+	 * @param derivRadial (output) derivatives wrt source radius
+	 * @throws Exception
+	 */
+	public void getPathCorrections(int lookupIndex, double[][] sourcePositions, double[] sourceRadii,
+			double[] corrections, double[] uncertainties, double[] derivHorizontal,
+			double[] derivLat, double[] derivLon, double[] derivRadial) throws Exception
+	{
+		GeoTessPosition model = libcorrModels.getModel(lookupIndex);
+
+		if (model == null)
+		{
+			for (double[] x : new double[][] {corrections, uncertainties, derivHorizontal,
+				derivLat, derivLon, derivRadial})
+				if (x != null)
+					Arrays.fill(x, 0, sourcePositions.length, Double.NaN);
+			return;
+		}
+
+		GeoTessPosition gtpos = GeoTessPosition.getGeoTessPosition(model);
+
+		double[] site = derivHorizontal == null ? null
+				: ((LibCorr3DModel) gtpos.getModel()).getSite().getUnitVector();
+
+		boolean horizontalDerivs = derivHorizontal != null || derivLat != null || derivLon != null;
+
+		for (int i : getSpatialOrder(sourcePositions))
+		{
+			double[] u = sourcePositions[i];
+			double r = sourceRadii[i];
+
+			gtpos.set(0, u, r);
+			double sval = gtpos.getValue(0);
+
+			if (corrections != null)
+				corrections[i] = sval;
+
+			if (uncertainties != null)
+				uncertainties[i] = gtpos.getValue(1);
+
+			if (derivRadial != null)
+				derivRadial[i] = getPathCorrDerivRadial(gtpos, r);
+
+			if (!horizontalDerivs)
+				continue;
+
+			boolean pole = VectorGeo.isPole(u);
+
+			if (derivHorizontal != null)
+			{
+				double az = pole ? Double.NaN : VectorUnit.azimuth(u, site, Double.NaN);
+				derivHorizontal[i] = Double.isNaN(az) ? Double.NaN
+						: (gtpos.set(0, VectorUnit.move(u, 1e-3, az + Math.PI), r).getValue(0) - sval) / 1e-3;
+			}
+
+			if (derivLat != null)
+				derivLat[i] = pole ? Double.NaN
+						: (gtpos.set(0, VectorUnit.moveNorth(u, 1e-3), r).getValue(0) - sval) / 1e-3;
+
+			if (derivLon != null)
+				derivLon[i] = pole ? Double.NaN
+						: (gtpos.set(0, VectorUnit.move(u, 1e-3, Math.PI/2), r).getValue(0) - sval) / 1e-3;
+		}
+	}
+
+	/**
+	 * Retrieve path corrections and uncertainties for many source positions
+	 * that are all supported by the same model. See
+	 * {@link #getPathCorrections(int, double[][], double[], double[], double[], double[], double[], double[], double[])}.
+	 * 
+	 * @param lookupIndex
+	 * @param sourcePositions source unit vectors
+	 * @param sourceRadii source radii in km
+	 * @param corrections (output) path corrections; may be null
+	 * @param uncertainties (output) path correction uncertainties; may be null
+	 * @throws Exception
+	 */
+	public void getPathCorrections(int lookupIndex, double[][] sourcePositions, double[] sourceRadii,
+			double[] corrections, double[] uncertainties) throws Exception
+	{
+		getPathCorrections(lookupIndex, sourcePositions, sourceRadii, corrections, uncertainties,
+				null, null, null, null);
+	}
+
+	/**
+	 * Return the indexes of the supplied unit vectors ordered along a
+	 * serpentine path through one degree latitude bands, alternating
+	 * eastward and westward.  Consecutive points are generally close to each
+	 * other, which keeps GeoTessPosition triangle walks short.
+	 * 
+	 * @param u unit vectors
+	 * @return indexes into u in spatial order.
+	 */
+	private static int[] getSpatialOrder(double[][] u)
+	{
+		// key = band (8 bits) | longitude bin (19 bits) | index (32 bits)
+		long[] keys = new long[u.length];
+		for (int i = 0; i < u.length; ++i)
+		{
+			double[] v = u[i];
+			long band = Math.min(179, (long) Math.floor(Math.toDegrees(Math.asin(Math.max(-1., Math.min(1., v[2])))) + 90.));
+			long lon = Math.min(359999, (long) Math.floor((Math.toDegrees(Math.atan2(v[1], v[0])) + 180.) * 1000.));
+			if ((band & 1) == 1)
+				lon = 359999 - lon;
+			keys[i] = (((band << 19) | lon) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] order = new int[u.length];
+		for (int i = 0; i < u.length; ++i)
+			order[i] = (int) keys[i];
+		return order;
+	}
+
 	public InterpolatorType getPathCorrInterpolatorTypeHorizontal()
 	{
 		return interpTypeHorz;
@@ -254,6 +254,51 @@ public class LibCorr3DModel extends GeoTessModel
 		}
 	}
 
+	/**
+	 * Load only the information needed to discover what a model file
+	 * supports: the metadata, the station and the supported phases.  For
+	 * binary files the profiles and the grid are read past without being
+	 * built and a grid stored in a separate file is not read at all, so the
+	 * returned model has no grid or profiles and may only be queried with
+	 * getMetaData(), getSite(), getSupportedPhases() and the like.
+	 * If the header cannot be read that way (ascii files, CUSTOM data types,
+	 * LibCorr2D files), the full model is loaded instead.
+	 * 
+	 * @param inputFile
+	 * @param relativeGridPath used only if the full model has to be loaded.
+	 * @return a LibCorr3DModel containing only the header information.
+	 * @throws IOException
+	 */
+	public static LibCorr3DModel loadHeader(File inputFile, String relativeGridPath)
+			throws IOException
+	{
+		if (!inputFile.getName().endsWith(".ascii"))
+		{
+			LibCorr3DModel model = new LibCorr3DModel();
+			model.getMetaData().setInputModelFile(inputFile);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(inputFile)));
+			try
+			{
+				model.loadModelHeaderBinary(input);
+				model.loadLibCorrDataBinary(input);
+				return model;
+			}
+			catch (Exception e)
+			{
+				if (e.getMessage() != null 
+						&& e.getMessage().contains("Expected file to start with GEOTESSMODEL"))
+					throw new IOException(e.getMessage());
+				// otherwise fall through and load the whole model.
+			}
+			finally
+			{
+				input.close();
+			}
+		}
+		return new LibCorr3DModel(inputFile, relativeGridPath);
+	}
+
 	/**
 	 * Overridden IO method.
 	 */
@@ -291,6 +336,19 @@ public class LibCorr3DModel extends GeoTessModel
 			}
 		}
 
+		loadLibCorrDataBinary(input);
+	}
+
+	/**
+	 * Load the station, phase and descriptive information that is stored
+	 * after the base class data in a binary file.  If there is none, try to
+	 * extract it from the metadata description.
+	 * 
+	 * @param input
+	 * @throws IOException
+	 */
+	private void loadLibCorrDataBinary(DataInputStream input) throws IOException
+	{
 		initializeVars();
 		
 		String firstWord="";
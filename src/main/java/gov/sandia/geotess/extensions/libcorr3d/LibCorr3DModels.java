@@ -40,14 +40,21 @@ import java.io.Writer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gov.sandia.geotess.GeoTessJava;
 import gov.sandia.geotess.GeoTessModel;
@@ -225,59 +232,11 @@ public class LibCorr3DModels
 					if (logger != null && logger.getVerbosity() > 0)
 						logger.writeln("LibCorr3DModels is generating default _supportMap.txt file.");
 
-					// load all the files and extract station, phase, attribute
-					// information
+					// read the headers of all the files in this directory, in 
+					// parallel, and extract station, phase, attribute information.
 					ArrayList<File> files = new ArrayList<File>(500);
-					discoverFiles(rootDirectory, files);
-					for (File modelFile : files)
-					{
-						try
-						{
-							LibCorr3DModel model = new LibCorr3DModel(
-									modelFile, relGridPath);
-
-							// ++nModels;
-
-							stations.add(model.getSite());
-							supportedPhases.addAll(model.getSupportedPhases());
-							model.getMetaData().getAttributeNames(
-									supportedAttributes);
-
-							for (String phase : model.getSupportedPhases())
-								for (String attribute : model.getMetaData()
-										.getAttributeNames())
-								{
-									int index = supportMap.addEntry(
-											model.getSite(), phase,
-											attribute);
-									while (models.size() <= index)
-									{
-										models.add(null);
-										modelFileNames.add(null);
-									}
-
-									modelFileNames.set(index, modelFile);
-
-									ArrayListInt indices = modelIndexes
-											.get(modelFile);
-									if (indices == null)
-									{
-										indices = new ArrayListInt();
-										modelIndexes.put(modelFile, indices);
-									}
-									indices.add(index);
-
-									if (preloadModels)
-										models.set(index, model.getGeoTessPosition(interpTypeHorz, interpTypeRadial));
-								}
-						}
-						catch (IOException e)
-						{
-							if (!e.getMessage().contains(
-									"Expected file to start with GEOTESSMODEL"))
-								throw new IOException(e);
-						}
-					}
+					discoverFiles(directory, files, Long.MIN_VALUE);
+					ArrayListInt indexes = addModels(files, relGridPath, preloadModels, stations);
 
 					timer = System.nanoTime() - timer;
 					if (logger != null && logger.getVerbosity() > 0)
@@ -292,43 +251,10 @@ public class LibCorr3DModels
 					// write the supportMap.txt file
 					try
 					{
-						Writer output = new BufferedWriter(new FileWriter(supportFile));
-						output.write(String.format("# Generated automatically by LibCorr3DModels.java %s %s\n",
-								System.getProperty("user.name", "???"), GMTFormat.getNow()));
-						output.write(String.format("# LibCorr3D model directory: %s\n", rootDirectory.getCanonicalPath()));
-						output.write("# Every LibCorr3D model is associated only to a station corresponding to the station used to generate the model. \n");
-						output.write(String.format("%-29s %-6s %-6s %7s %7s %13s %14s %9s %-9s %s%n",
-								"# model", "sta", "refsta", "ondate",
-								"offdate", "lat", "lon", "elev", "ph",
-								"attribute"));
-
-						ArrayList<String> records = new ArrayList<String>(stations.size()*supportedPhases.size()*supportedAttributes.size());
-
-						for (Site station : stations)
-							for (String phase : supportedPhases)
-								for (String attribute : supportedAttributes)
-								{
-									int index = supportMap.getIndex(station, phase, attribute);
-									if (index >= 0)
-									{
-										Path modelPath = Paths.get(modelFileNames.get(index).getAbsolutePath());
-
-										records.add(String.format("%-29s %-6s %-6s %7d %7d %13.6f %14.6f %9.3f %-6s %s%n",
-												dirPath.relativize(modelPath), 
-												station.getSta(), station.getRefsta(), station.getOndate(), station.getOffdate(), station.getLat(),
-												station.getLon(), station.getElev(),
-												phase, attribute));
-									}
-								}
-						Collections.sort(records);
-
-						for (String record : records)
-							output.write(record);
-
-						output.close();
+						int nRecords = writeSupportMap(supportFile, dirPath, indexes, false);
 						if (logger != null && logger.getVerbosity() > 0)
 							logger.writeln(String.format("LibCorr3DModels constructor wrote file _supportMap.txt with %d stations and %d records",
-									stations.size(), records.size()));
+									stations.size(), nRecords));
 					}
 					catch (Exception ex)
 					{
@@ -447,6 +373,37 @@ public class LibCorr3DModels
 								models.set(entry.getValue().get(i), model.getGeoTessPosition(interpTypeHorz, interpTypeRadial));
 						}
 
+					// models added to this directory after the supportMap.txt
+					// file was written are discovered, added to the support map
+					// and appended to supportMap.txt. Only directories modified
+					// after supportMap.txt are searched. A directory's modification
+					// time only changes when entries are added, removed or renamed,
+					// so files that overwrite an existing model in place, or that are
+					// copied in with their original modification times preserved into
+					// a directory that is otherwise unchanged, are not found. Delete
+					// _supportMap.txt to force a full rebuild in those cases.
+					ArrayList<File> newFiles = new ArrayList<File>();
+					discoverFiles(directory, newFiles, supportFile.lastModified());
+					for (int i = newFiles.size() - 1; i >= 0; --i)
+						if (modelIndexes.containsKey(newFiles.get(i)))
+							newFiles.remove(i);
+					if (!newFiles.isEmpty())
+					{
+						ArrayListInt indexes = addModels(newFiles, relGridPath, preloadModels, stations);
+						try
+						{
+							int nRecords = writeSupportMap(supportFile, dirPath, indexes, true);
+							if (logger != null && logger.getVerbosity() > 0)
+								logger.writeln(String.format("LibCorr3DModels constructor appended %d records "
+										+ "for %d new models to %s", nRecords, newFiles.size(), 
+										supportFile.getCanonicalPath()));
+						}
+						catch (Exception ex)
+						{
+							System.out.println("LibCorr3DModels constructor: updating file _supportMap.txt failed");
+						}
+					}
+
 					timer = System.nanoTime() - timer;
 
 					if (missingModels.size() > 0)
@@ -876,12 +833,17 @@ public class LibCorr3DModels
 	/**
 	 * Find all the GeoTessModel Files in the specified directory, and all of its
 	 * subdirectories. Return all the Files in the supplied array of Files.
+	 * The returned Files are absolute so that they match the model files
+	 * resolved from _supportMap.txt, even if directory is relative.
+	 * Only files in directories modified after modifiedAfter are returned.
 	 * 
 	 * @param directory
 	 * @param files
+	 * @param modifiedAfter
 	 * @throws IOException 
 	 */
-	private void discoverFiles(File directory, ArrayList<File> files) throws IOException
+	private void discoverFiles(File directory, ArrayList<File> files, long modifiedAfter) 
+			throws IOException
 	{
 		if (!directory.exists())
 			throw new IOException(directory.getAbsolutePath()+" does not exist.");
@@ -889,11 +851,190 @@ public class LibCorr3DModels
 		if (!directory.isDirectory())
 			throw new IOException(directory.getAbsolutePath()+" is not a directory.");
 
-		for (File file : directory.listFiles())
+		// adding a file to a directory updates the directory's modification
+		// time, so files need only be examined in directories modified 
+		// after modifiedAfter.
+		boolean modified = directory.lastModified() > modifiedAfter;
+
+		File[] list = directory.listFiles();
+		Arrays.sort(list);
+		for (File file : list)
 			if (file.isDirectory())
-				discoverFiles(file, files);
-			else if (file.isFile() && GeoTessModel.isGeoTessModel(file))
-				files.add(file);
+				discoverFiles(file, files, modifiedAfter);
+			else if (modified && file.isFile() && GeoTessModel.isGeoTessModel(file))
+				files.add(file.getAbsoluteFile());
+	}
+
+	/**
+	 * Load the specified model files and add the station, phase and 
+	 * attributes that each supports to the support map, in the order of
+	 * files.  Files are read in parallel.  Unless preloadModels is true, 
+	 * only the headers of the files are read.
+	 * 
+	 * @param files
+	 * @param relGridPath
+	 * @param preloadModels
+	 * @param stations set to which the model stations are added.
+	 * @return the support map indexes of the entries that were added
+	 * @throws Exception
+	 */
+	private ArrayListInt addModels(List<File> files, String relGridPath, 
+			boolean preloadModels, TreeSet<Site> stations) throws Exception
+	{
+		ArrayList<LibCorr3DModel> loaded = loadModels(files, relGridPath, preloadModels);
+		ArrayListInt indexes = new ArrayListInt();
+		for (int f = 0; f < files.size(); ++f)
+		{
+			File modelFile = files.get(f);
+			LibCorr3DModel model = loaded.get(f);
+			if (model == null)
+				continue;
+
+			stations.add(model.getSite());
+			supportedPhases.addAll(model.getSupportedPhases());
+			model.getMetaData().getAttributeNames(supportedAttributes);
+
+			for (String phase : model.getSupportedPhases())
+				for (String attribute : model.getMetaData().getAttributeNames())
+				{
+					int index = supportMap.addEntry(model.getSite(), phase, attribute);
+					while (models.size() <= index)
+					{
+						models.add(null);
+						modelFileNames.add(null);
+					}
+
+					modelFileNames.set(index, modelFile);
+
+					ArrayListInt indices = modelIndexes.get(modelFile);
+					if (indices == null)
+					{
+						indices = new ArrayListInt();
+						modelIndexes.put(modelFile, indices);
+					}
+					indices.add(index);
+					indexes.add(index);
+
+					if (preloadModels)
+						models.set(index, model.getGeoTessPosition(interpTypeHorz, interpTypeRadial));
+				}
+		}
+		return indexes;
+	}
+
+	/**
+	 * Load models from the specified files in parallel.  If fullModels is
+	 * false only the headers are read (see LibCorr3DModel.loadHeader()).
+	 * 
+	 * @param files
+	 * @param relGridPath
+	 * @param fullModels
+	 * @return models in the same order as files. Elements are null for 
+	 * files that turned out not to be GeoTessModels.
+	 * @throws Exception
+	 */
+	private static ArrayList<LibCorr3DModel> loadModels(List<File> files, 
+			final String relGridPath, final boolean fullModels) throws Exception
+	{
+		ArrayList<Callable<LibCorr3DModel>> tasks = new ArrayList<Callable<LibCorr3DModel>>(files.size());
+		for (final File file : files)
+			tasks.add(new Callable<LibCorr3DModel>()
+			{
+				@Override
+				public LibCorr3DModel call() throws Exception
+				{
+					try
+					{
+						return fullModels ? new LibCorr3DModel(file, relGridPath)
+								: LibCorr3DModel.loadHeader(file, relGridPath);
+					}
+					catch (IOException e)
+					{
+						if (e.getMessage() == null || !e.getMessage().contains(
+								"Expected file to start with GEOTESSMODEL"))
+							throw new IOException(e);
+						return null;
+					}
+				}
+			});
+
+		ArrayList<LibCorr3DModel> loaded = new ArrayList<LibCorr3DModel>(files.size());
+		int nThreads = Math.min(Runtime.getRuntime().availableProcessors(), files.size());
+		if (nThreads <= 1)
+		{
+			for (Callable<LibCorr3DModel> task : tasks)
+				loaded.add(task.call());
+			return loaded;
+		}
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		try
+		{
+			for (Future<LibCorr3DModel> f : threadPool.invokeAll(tasks))
+				try
+				{
+					loaded.add(f.get());
+				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+		}
+		finally
+		{
+			threadPool.shutdown();
+		}
+		return loaded;
+	}
+
+	/**
+	 * Write the support map records of the specified support map indexes
+	 * to a _supportMap.txt file.
+	 * 
+	 * @param supportFile
+	 * @param dirPath model file paths are written relative to this path.
+	 * @param indexes
+	 * @param append if true, records are appended to an existing file. 
+	 * Otherwise a new file, with header, is written.
+	 * @return the number of records written.
+	 * @throws IOException
+	 */
+	private int writeSupportMap(File supportFile, Path dirPath, ArrayListInt indexes,
+			boolean append) throws IOException
+	{
+		TreeSet<String> records = new TreeSet<String>();
+		for (int i = 0; i < indexes.size(); ++i)
+		{
+			int index = indexes.get(i);
+			Object[] keys = supportMap.getKeys(index);
+			Site station = (Site) keys[0];
+			Path modelPath = Paths.get(modelFileNames.get(index).getAbsolutePath());
+
+			records.add(String.format("%-29s %-6s %-6s %7d %7d %13.6f %14.6f %9.3f %-6s %s%n",
+					dirPath.relativize(modelPath), 
+					station.getSta(), station.getRefsta(), station.getOndate(), station.getOffdate(), station.getLat(),
+					station.getLon(), station.getElev(),
+					keys[1], keys[2]));
+		}
+
+		Writer output = new BufferedWriter(new FileWriter(supportFile, append));
+		if (!append)
+		{
+			output.write(String.format("# Generated automatically by LibCorr3DModels.java %s %s\n",
+					System.getProperty("user.name", "???"), GMTFormat.getNow()));
+			output.write(String.format("# LibCorr3D model directory: %s\n", rootDirectory.getCanonicalPath()));
+			output.write("# Every LibCorr3D model is associated only to a station corresponding to the station used to generate the model. \n");
+			output.write(String.format("%-29s %-6s %-6s %7s %7s %13s %14s %9s %-9s %s%n",
+					"# model", "sta", "refsta", "ondate",
+					"offdate", "lat", "lon", "elev", "ph",
+					"attribute"));
+		}
+		for (String record : records)
+			output.write(record);
+		output.close();
+		return records.size();
 	}
 
 	/**
@@ -36,9 +36,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
 
 import gov.sandia.gmp.baseobjects.geovector.GeoVector;
 import gov.sandia.gmp.baseobjects.globals.SeismicPhase;
@@ -91,9 +91,44 @@ public class EllipticityCorrections {
 		 * ellipticity coefficients at various distances and depths.
 		 */
 		float[][][] coeff;
+
+		/**
+		 * First distance and inverse of the distance spacing, or 0 if the
+		 * distances are not uniformly spaced. See bracket().
+		 */
+		double distanceStart, distanceStepInverse;
+
+		/**
+		 * First depth and inverse of the depth spacing, or 0 if the depths 
+		 * are not uniformly spaced. See bracket().
+		 */
+		double depthStart, depthStepInverse;
+
+		/**
+		 * Compute the axis spacing information once the axes have been read.
+		 */
+		void initialize() {
+			distanceStart = distance[0];
+			distanceStepInverse = uniformStepInverse(distance);
+			depthStart = depth[0];
+			depthStepInverse = uniformStepInverse(depth);
+		}
 	}
 
-	private Map<SeismicPhase, Tau> tauMap = new HashMap<SeismicPhase, Tau>();
+	/**
+	 * Map from phase to the ellipticity coefficients of that phase. Tau 
+	 * objects are fully populated before they are added to the map and are
+	 * never modified afterward, so they can be read by many threads without
+	 * synchronization.
+	 */
+	private Map<SeismicPhase, Tau> tauMap = new ConcurrentHashMap<SeismicPhase, Tau>();
+
+	/**
+	 * Instances shared by all the predictors in this process, keyed by
+	 * absolute directory path. See getEllipticityCorrections().
+	 */
+	private static final Map<String, EllipticityCorrections> sharedInstances = 
+			new ConcurrentHashMap<String, EllipticityCorrections>();
 
 	private final static double SQRT3_OVER2 = Math.sqrt(3.) / 2.;
 
@@ -126,6 +161,31 @@ public class EllipticityCorrections {
 //				supportedPhases.add(phase);
 //	}
 
+	/**
+	 * Retrieve an instance of EllipticityCorrections for the specified
+	 * directory that is shared by every caller in this process. Since
+	 * the coefficients of each phase are loaded only once and never 
+	 * modified, the instance can be used concurrently by any number of 
+	 * predictors and threads.
+	 * 
+	 * @param directory
+	 * @return the shared EllipticityCorrections for directory
+	 * @throws FileNotFoundException
+	 */
+	public static EllipticityCorrections getEllipticityCorrections(File directory) 
+			throws FileNotFoundException {
+		String key = directory.getAbsolutePath();
+		EllipticityCorrections ec = sharedInstances.get(key);
+		if (ec == null) {
+			EllipticityCorrections newEc = new EllipticityCorrections(directory);
+			ec = ((ConcurrentHashMap<String, EllipticityCorrections>) sharedInstances)
+					.putIfAbsent(key, newEc);
+			if (ec == null)
+				ec = newEc;
+		}
+		return ec;
+	}
+
 	private File getFile(SeismicPhase phase) throws FileNotFoundException {
 		File f = new File(directory, "ec_ak135." + phase.getFileName());
 
@@ -163,14 +223,42 @@ public class EllipticityCorrections {
 	 * @throws IOException
 	 */
 	public double getEllipCorr(SeismicPhase phase, GeoVector receiver, GeoVector event) throws IOException {
+		return getEllipCorr(getTau(phase), receiver, event);
+	}
+
+	/**
+	 * Compute ellipticity corrections for many source-receiver pairs of a
+	 * single phase. The coefficients of the phase are retrieved only once.
+	 * Each correction is identical to the value returned by 
+	 * getEllipCorr(phase, receiver, event).
+	 * 
+	 * @param phase
+	 * @param receivers either a single receiver, which is used for every 
+	 * event, or one receiver per event.
+	 * @param events
+	 * @param corrections on output, the ellipticity correction in seconds
+	 * of each event. Must have length events.length.
+	 * @throws IOException
+	 */
+	public void getEllipCorr(SeismicPhase phase, GeoVector[] receivers, GeoVector[] events,
+			double[] corrections) throws IOException {
+		if (receivers.length != 1 && receivers.length != events.length)
+			throw new IllegalArgumentException(String.format(
+					"receivers.length (%d) must be 1 or equal to events.length (%d)",
+					receivers.length, events.length));
+
 		Tau tau = getTau(phase);
+		for (int i = 0; i < events.length; ++i)
+			corrections[i] = getEllipCorr(tau, receivers.length == 1 ? receivers[0] : receivers[i], 
+					events[i]);
+	}
 
+	private double getEllipCorr(Tau tau, GeoVector receiver, GeoVector event) {
 		double ev_sta_dist = event.distanceDegrees(receiver);
 		double ev_sta_azim = event.azimuth(receiver);
 		double ev_geoc_co_lat = Math.PI / 2. - event.getGeocentricLat();
 		double ev_depth = Math.max(0., event.getDepth());
 
-		int ix, iz, n;
 		int ix1, ix2, iz1, iz2;
 		double ellip_corr = 0.0;
 		double dist_fac, depth_fac;
@@ -187,22 +275,10 @@ public class EllipticityCorrections {
 		// --------------------------------------------------------------------
 		// Find high-ends of both distance (ix2) and depth (iz2) indexes.
 		// --------------------------------------------------------------------
-		n = tau.distance.length;
-		for (ix2 = n - 1, ix = 1; ix < n; ix++) {
-			if (ev_sta_dist < tau.distance[ix]) {
-				ix2 = ix;
-				break;
-			}
-		}
+		ix2 = bracket(tau.distance, tau.distanceStart, tau.distanceStepInverse, ev_sta_dist);
 		ix1 = ix2 - 1; // Low-end distance index
 
-		n = tau.depth.length;
-		for (iz2 = n - 1, iz = 1; iz < n; iz++) {
-			if (ev_depth < tau.depth[iz]) {
-				iz2 = iz;
-				break;
-			}
-		}
+		iz2 = bracket(tau.depth, tau.depthStart, tau.depthStepInverse, ev_depth);
 		iz1 = iz2 - 1; // Low-end depth index
 
 		dist_fac = (ev_sta_dist - tau.distance[ix1]) / (tau.distance[ix2] - tau.distance[ix1]);
@@ -242,7 +318,70 @@ public class EllipticityCorrections {
 
 	} // END table_correction
 
-	private synchronized Tau getTau(SeismicPhase phase) throws IOException {
+	/**
+	 * Find the index of the first element of axis, starting at element 1,
+	 * that is greater than x, or axis.length-1 if there is none. When the
+	 * axis is uniformly spaced (inverseStep != 0) the index is computed
+	 * directly and then corrected by at most a step or two, otherwise it is
+	 * found by bisection. Equivalent to scanning the axis from element 1.
+	 * 
+	 * @param axis monotonically increasing values
+	 * @param start axis[0]
+	 * @param inverseStep inverse of the uniform spacing of axis, or 0.
+	 * @param x
+	 * @return index of the high end of the bracket containing x.
+	 */
+	private static int bracket(float[] axis, double start, double inverseStep, double x) {
+		int last = axis.length - 1;
+		if (!(x < axis[last]))
+			return last;
+		if (x < axis[1])
+			return 1;
+
+		int i;
+		if (inverseStep != 0.) {
+			i = Math.max(1, Math.min(last, (int) ((x - start) * inverseStep) + 1));
+			while (x < axis[i - 1])
+				--i;
+			while (!(x < axis[i]))
+				++i;
+		} else {
+			// axis[lo] <= x < axis[hi]
+			int lo = 1, hi = last;
+			while (hi - lo > 1) {
+				int k = (lo + hi) >>> 1;
+				if (x < axis[k])
+					hi = k;
+				else
+					lo = k;
+			}
+			i = hi;
+		}
+		return i;
+	}
+
+	/**
+	 * If the values in x are (nearly) uniformly spaced, return the inverse of
+	 * the average spacing, otherwise return 0.
+	 */
+	private static double uniformStepInverse(float[] x) {
+		if (x.length < 3)
+			return 0.;
+		double step = ((double) x[x.length - 1] - x[0]) / (x.length - 1);
+		if (!(step > 0.))
+			return 0.;
+		for (int i = 1; i < x.length; ++i)
+			if (Math.abs(x[i] - x[0] - i * step) > 0.01 * step)
+				return 0.;
+		return 1. / step;
+	}
+
+	private Tau getTau(SeismicPhase phase) throws IOException {
+		Tau tau = tauMap.get(phase);
+		return tau != null ? tau : loadTau(phase);
+	}
+
+	private synchronized Tau loadTau(SeismicPhase phase) throws IOException {
 		if (!tauMap.containsKey(phase))
 			read_table(phase);
 
@@ -275,8 +414,6 @@ public class EllipticityCorrections {
 
 		Tau tau = new Tau();
 
-		tauMap.put(phase, tau);
-
 		tau.depth = new float[ntbz];
 
 		// read depths
@@ -322,6 +459,10 @@ public class EllipticityCorrections {
 		// close stream and exit
 		inputStream.close();
 		scn.close();
+
+		// publish only after the coefficients are fully populated.
+		tau.initialize();
+		tauMap.put(phase, tau);
 	}
 
 //		/**
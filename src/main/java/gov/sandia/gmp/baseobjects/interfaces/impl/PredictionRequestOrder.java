@@ -0,0 +1,216 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.baseobjects.interfaces.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import gov.sandia.gmp.baseobjects.geovector.GeoVector;
+import gov.sandia.gmp.baseobjects.interfaces.PredictionRequestInterface;
+import gov.sandia.gmp.baseobjects.interfaces.ReceiverInterface;
+
+/**
+ * Computes a spatially coherent processing order for a batch of
+ * PredictionRequests. Requests are grouped by receiver, receivers are ordered
+ * along a Hilbert curve, and the requests of each receiver are ordered along
+ * the same Hilbert curve by source position. Consecutive requests are then
+ * generally close to each other, which keeps GeoTessPosition triangle walks
+ * short and lets per-receiver state and caches be reused.
+ * 
+ * <p>
+ * The Hilbert curve is defined on the six faces of a cube circumscribing the
+ * unit sphere, with 2^14 cells along each face edge (about 0.3 to 0.8 km at the
+ * surface of the Earth).
+ */
+public final class PredictionRequestOrder {
+
+	/**
+	 * Number of bits per axis of the Hilbert curve on each cube face.
+	 */
+	private static final int ORDER = 14;
+
+	/**
+	 * Number of cells along each edge of a cube face.
+	 */
+	private static final int N = 1 << ORDER;
+
+	private PredictionRequestOrder() {
+	}
+
+	/**
+	 * Return the indexes of the supplied requests in processing order. Requests
+	 * are grouped by receiver (using ReceiverInterface equals()), the groups are
+	 * ordered by the Hilbert key of the receiver position and, within each group,
+	 * requests are ordered by the Hilbert key of the source position. Requests
+	 * with equal keys retain their original relative order.
+	 * 
+	 * @param requests
+	 * @return order[k] is the index in requests of the k'th request to process.
+	 */
+	public static int[] getOrder(List<? extends PredictionRequestInterface> requests) {
+		int n = requests.size();
+
+		// assign each request to a receiver group
+		HashMap<ReceiverInterface, Integer> groupMap = new HashMap<ReceiverInterface, Integer>();
+		ArrayList<ReceiverInterface> receivers = new ArrayList<ReceiverInterface>();
+		int[] group = new int[n];
+		for (int i = 0; i < n; ++i) {
+			ReceiverInterface receiver = requests.get(i).getReceiver();
+			Integer g = groupMap.get(receiver);
+			if (g == null) {
+				g = receivers.size();
+				groupMap.put(receiver, g);
+				receivers.add(receiver);
+			}
+			group[i] = g;
+		}
+
+		// order the receiver groups by Hilbert key: key (31 bits) | group (32 bits)
+		int nGroups = receivers.size();
+		long[] receiverKeys = new long[nGroups];
+		for (int g = 0; g < nGroups; ++g)
+			receiverKeys[g] = (getHilbertKey(receivers.get(g) == null ? null
+					: receivers.get(g).getPosition()) << 32) | g;
+		Arrays.sort(receiverKeys);
+
+		int[] rank = new int[nGroups];
+		for (int r = 0; r < nGroups; ++r)
+			rank[(int) receiverKeys[r]] = r;
+
+		// bucket the requests by receiver rank, then sort each bucket by
+		// source key (31 bits) | request index (32 bits)
+		int[] start = new int[nGroups + 1];
+		for (int i = 0; i < n; ++i)
+			++start[rank[group[i]] + 1];
+		for (int r = 0; r < nGroups; ++r)
+			start[r + 1] += start[r];
+
+		int[] next = Arrays.copyOf(start, nGroups);
+		long[] keys = new long[n];
+		for (int i = 0; i < n; ++i) {
+			PredictionRequestInterface request = requests.get(i);
+			keys[next[rank[group[i]]]++] = (getHilbertKey(request.getSource() == null ? null
+					: request.getSource().getPosition()) << 32) | i;
+		}
+
+		for (int r = 0; r < nGroups; ++r)
+			Arrays.sort(keys, start[r], start[r + 1]);
+
+		int[] order = new int[n];
+		for (int k = 0; k < n; ++k)
+			order[k] = (int) keys[k];
+		return order;
+	}
+
+	/**
+	 * Return the Hilbert key of the supplied position, or 0 if position is null.
+	 * 
+	 * @param position
+	 * @return Hilbert key in the range [0, 6 * 2^28).
+	 */
+	private static long getHilbertKey(GeoVector position) {
+		return position == null ? 0L : getHilbertKey(position.getUnitVector());
+	}
+
+	/**
+	 * Return the Hilbert key of the supplied unit vector. The unit vector is
+	 * projected onto the face of the cube that it intersects and the cell that
+	 * contains the projected point is located along a Hilbert curve on that
+	 * face. Cells near the face centers are up to about three times as large on the
+	 * sphere as cells near the face corners, which does not matter for
+	 * ordering.
+	 * 
+	 * @param u unit vector
+	 * @return face (3 bits) | Hilbert index on that face (28 bits).
+	 */
+	public static long getHilbertKey(double[] u) {
+		double ax = Math.abs(u[0]), ay = Math.abs(u[1]), az = Math.abs(u[2]);
+		int face;
+		double a, b;
+		if (ax >= ay && ax >= az) {
+			face = u[0] >= 0. ? 0 : 1;
+			a = u[1] / ax;
+			b = u[2] / ax;
+		} else if (ay >= az) {
+			face = u[1] >= 0. ? 2 : 3;
+			a = u[2] / ay;
+			b = u[0] / ay;
+		} else {
+			face = u[2] >= 0. ? 4 : 5;
+			a = u[0] / az;
+			b = u[1] / az;
+		}
+
+		// map face coordinates from [-1, 1] to cell indexes [0, N-1]
+		int x = cell(a);
+		int y = cell(b);
+
+		return ((long) face << (2 * ORDER)) | hilbertIndex(x, y);
+	}
+
+	/**
+	 * Map a coordinate in [-1, 1] to a cell index in [0, N-1]. NaN maps to 0.
+	 */
+	private static int cell(double c) {
+		int i = (int) ((c + 1.) * 0.5 * N);
+		return i < 0 ? 0 : i >= N ? N - 1 : i;
+	}
+
+	/**
+	 * Return the distance along a Hilbert curve of order ORDER of the cell at x,
+	 * y.
+	 */
+	private static long hilbertIndex(int x, int y) {
+		long d = 0;
+		for (int s = N >> 1; s > 0; s >>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+
+			// rotate the quadrant
+			if (ry == 0) {
+				if (rx == 1) {
+					x = N - 1 - x;
+					y = N - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+}
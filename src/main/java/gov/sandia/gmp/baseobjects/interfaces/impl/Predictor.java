@@ -47,6 +47,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -65,6 +66,7 @@ import gov.sandia.gmp.baseobjects.interfaces.UncertaintyInterface;
 import gov.sandia.gmp.baseobjects.tttables.UncertaintyDistanceDependent;
 import gov.sandia.gmp.util.exceptions.GMPException;
 import gov.sandia.gmp.util.numerical.vector.VectorGeo;
+import gov.sandia.gmp.util.profiler.PhaseTimer;
 
 /**
  * If method getPrediction(PredictionRequestInterface) is called then a
@@ -96,6 +98,14 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 
 	protected final int maxProcessors;
 
+	/**
+	 * If true, getPredictions() processes the requests in the spatially coherent
+	 * order computed by PredictionRequestOrder (grouped by receiver, then sorted
+	 * along a Hilbert curve by source position) and returns the predictions in
+	 * the original request order.
+	 */
+	private boolean spatialOrdering = false;
+
 	/**
 	 * Here to facilitate interactions with database. Getter and setter provided but
 	 * value is never modified by this class.
@@ -162,6 +172,8 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 		this.predictionsPerTask = predictionsPerTask;
 
 		this.predictorVerbosity = properties.getInt("predictorVerbosity", 0);
+
+		this.spatialOrdering = properties.getBoolean("predictorSpatialOrdering", false);
 	}
 
 	protected Predictor(UncertaintyInterface uncertaintyInterface, int maxProcessors, int predictionsPerTask,
@@ -189,6 +201,36 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 	@Override
 	public ArrayList<PredictionInterface> getPredictions(
 			Collection<? extends PredictionRequestInterface> predictionRequests) throws GMPException {
+		if (!spatialOrdering || predictionRequests.size() < 2)
+			return computePredictions(predictionRequests);
+
+		// process the requests in spatial order and return the predictions
+		// in the original order.
+		List<? extends PredictionRequestInterface> requests = predictionRequests instanceof List
+				? (List<? extends PredictionRequestInterface>) predictionRequests
+				: new ArrayList<PredictionRequestInterface>(predictionRequests);
+
+		int[] order = PredictionRequestOrder.getOrder(requests);
+
+		ArrayList<PredictionRequestInterface> orderedRequests = new ArrayList<PredictionRequestInterface>(
+				order.length);
+		for (int i : order)
+			orderedRequests.add(requests.get(i));
+
+		ArrayList<PredictionInterface> orderedPredictions = computePredictions(orderedRequests);
+
+		PredictionInterface[] predictions = new PredictionInterface[order.length];
+		for (int k = 0; k < order.length; ++k)
+			predictions[order[k]] = orderedPredictions.get(k);
+		return new ArrayList<PredictionInterface>(Arrays.asList(predictions));
+	}
+
+	/**
+	 * Compute predictions for the supplied requests, in parallel if there are
+	 * enough of them. Predictions are returned in the same order as the requests.
+	 */
+	private ArrayList<PredictionInterface> computePredictions(
+			Collection<? extends PredictionRequestInterface> predictionRequests) throws GMPException {
 		ArrayList<PredictionInterface> predictions = new ArrayList<PredictionInterface>(predictionRequests.size());
 
 		int nTasks = (int) ceil(predictionRequests.size() / (double) predictionsPerTask);
@@ -199,14 +241,14 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 				taskTimer = System.currentTimeMillis();
 
 				for (PredictionRequestInterface request : predictionRequests)
-					predictions.add(getPrediction(request));
+					predictions.add(getTimedPrediction(request));
 
 				taskTimer = System.currentTimeMillis() - taskTimer;
 				System.out.printf("Predictor %s processed %d requests using 1 processor in %1.3f sec%n",
 						getPredictorName(), predictionRequests.size(), taskTimer * 1e-3);
 			} else // no timer information
 				for (PredictionRequestInterface request : predictionRequests)
-					predictions.add(getPrediction(request));
+					predictions.add(getTimedPrediction(request));
 		} else {
 			// use multi-threading
 			long timer = predictorVerbosity > 1 ? System.currentTimeMillis() : 0;
@@ -224,6 +266,10 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 
 				taskTimer = 0;
 
+				// predictions stored by position of their request in predictionRequests.
+				PredictionInterface[] results = new PredictionInterface[predictionRequests.size()];
+				int offset = 0;
+
 				// break the collection of prediction requests up into a list or
 				// arrays of requests. Each array of requests contains the requests that
 				// will be submitted to a predictor in a single task.
@@ -257,6 +303,9 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 						Predictor task = getPredictorFromPool();
 						// get the next array of prediction requests that are to be computed.
 						task.predictionRequest = taskRequests.removeFirst();
+						// remember where this task's predictions belong in the results.
+						task.taskIndex = offset;
+						offset += task.predictionRequest.size();
 						// submit the task and increment queueSize
 						queue.submit(task);
 						++queueSize;
@@ -272,7 +321,8 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 						Predictor predictor = queue.take().get();
 						--queueSize;
 
-						predictions.addAll(predictor.predictions);
+						for (int i = 0; i < predictor.predictions.size(); ++i)
+							results[predictor.taskIndex + i] = predictor.predictions.get(i);
 
 						taskTimer += taskTimer;
 
@@ -286,6 +336,8 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 				}
 
 				threadPool.shutdown();
+
+				predictions.addAll(Arrays.asList(results));
 			} catch (Exception e) {
 				throw new GMPException(e);
 			}
@@ -334,7 +386,7 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 		for (PredictionRequestInterface request : predictionRequest) {
 			PredictionInterface prediction = null;
 			try {
-				prediction = getPrediction(request);
+				prediction = getTimedPrediction(request);
 			} catch (GMPException e) {
 				prediction = getNewPrediction(request, e);
 			}
@@ -345,6 +397,23 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 		return this;
 	}
 
+	/**
+	 * Call getPrediction(request) and record the time it took with the
+	 * PhaseTimer.
+	 * 
+	 * @param request
+	 * @return the prediction
+	 * @throws GMPException
+	 */
+	private PredictionInterface getTimedPrediction(PredictionRequestInterface request) throws GMPException {
+		long t = PhaseTimer.start();
+		try {
+			return getPrediction(request);
+		} finally {
+			PhaseTimer.stop(PhaseTimer.Phase.RAY, t);
+		}
+	}
+
 	/**
 	 * Derived classes must supply a new Predictor object that is fully configured
 	 * and ready to compute a prediction for the supplied PredictionRequest object.
@@ -486,6 +555,25 @@ abstract public class Predictor implements Callable<Predictor>, PredictorInterfa
 		return predictionsPerTask;
 	}
 
+	/**
+	 * @return true if getPredictions() processes requests in spatial order.
+	 */
+	public boolean isSpatialOrdering() {
+		return spatialOrdering;
+	}
+
+	/**
+	 * Specify whether getPredictions() should process requests in the spatially
+	 * coherent order computed by PredictionRequestOrder. Predictions are
+	 * returned in the original request order either way. Defaults to the value
+	 * of property predictorSpatialOrdering, or false.
+	 * 
+	 * @param spatialOrdering
+	 */
+	public void setSpatialOrdering(boolean spatialOrdering) {
+		this.spatialOrdering = spatialOrdering;
+	}
+
 	@Override
 	public UncertaintyInterface getUncertaintyInterface() {
 		return uncertaintyInterface;
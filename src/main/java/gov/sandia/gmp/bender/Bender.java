@@ -47,7 +47,10 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.event.ChangeListener;
 
@@ -80,6 +83,7 @@ import gov.sandia.gmp.bender.BenderConstants.RayDirection;
 import gov.sandia.gmp.bender.BenderConstants.RayStatus;
 import gov.sandia.gmp.bender.BenderConstants.SearchMethod;
 import gov.sandia.gmp.bender.BenderException.ErrorCode;
+import gov.sandia.gmp.bender.bouncepoints.BouncePointSeedTable;
 import gov.sandia.gmp.bender.phase.PhaseLayerLevelDefinition;
 import gov.sandia.gmp.bender.phase.PhaseRayBranchModel;
 import gov.sandia.gmp.bender.phase.PhaseWaveTypeModel;
@@ -230,7 +234,7 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 //		return bouncePointIgnoreSnellsLawLayers.contains(layer);
 //	}
 
-	public class PhaseLayerChange {
+	public static class PhaseLayerChange {
 		public ArrayList<Tuple<RayDirection, EarthInterface>> rayBrnchDirChngList;
 		public ArrayList<Tuple<EarthInterface, Integer>> waveSpeedInterfaceChngList;
 		
@@ -247,11 +251,46 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 	private HashMap<SeismicPhase, PhaseLayerChange> phaseLayerChange =
 			new HashMap<SeismicPhase, PhaseLayerChange>(); 
 
+	/**
+	 * The distance independent phase models for one seismic phase: the
+	 * validated layer change lists, a PhaseRayBranchModel template from which
+	 * a per request copy is made for the current source to receiver distance,
+	 * and the (immutable) PhaseWaveTypeModel.
+	 */
+	private static final class PhaseModels {
+		private final PhaseLayerChange phaseLayerChange;
+		private final PhaseRayBranchModel phaseRayBranchModel;
+		private final PhaseWaveTypeModel phaseWaveTypeModel;
+
+		private PhaseModels(PhaseLayerChange plc, PhaseRayBranchModel prbm,
+				PhaseWaveTypeModel pwtm) {
+			phaseLayerChange = plc;
+			phaseRayBranchModel = prbm;
+			phaseWaveTypeModel = pwtm;
+		}
+	}
+
+	/**
+	 * Phase models shared by all Bender instances (e.g. copies made for
+	 * concurrent prediction) that use the same GeoTessModel. The inner map is
+	 * keyed by phase, model interface remap and phase layer level thickness,
+	 * which are the only inputs the phase models depend on. Models that are
+	 * no longer referenced are released with their GeoTessModel.
+	 */
+	private static final Map<GeoTessModel, ConcurrentHashMap<String, PhaseModels>> sharedPhaseModels =
+			new WeakHashMap<GeoTessModel, ConcurrentHashMap<String, PhaseModels>>();
+
 	/**
 	 * The model interfaces validation object that validates the layer
 	 * description for the GeoTessModel assigned to this Bender predictor.
 	 */
 	private BenderModelInterfaces benderModelInterfaces = null;
+
+	/**
+	 * The benderModelLayerToEarthInterfaceMap property used to build
+	 * benderModelInterfaces.
+	 */
+	private String modelInterfaceRemap = "";
 	
 	/**
 	 * If true then any layer through which the layer passes that is thinner than
@@ -501,6 +540,19 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 
 	protected boolean precomputeGradients = true;
 
+	/**
+	 * If true, precomputed gradients are only computed for profiles in the
+	 * active region of the model. Others are computed on demand.
+	 */
+	protected boolean precomputeGradientsActiveOnly = false;
+
+	/**
+	 * If true, precomputed gradients are loaded from a file next to the model
+	 * file, if one exists for the current model and tetSize, otherwise they are
+	 * computed and saved to that file.
+	 */
+	protected boolean cachePrecomputedGradients = false;
+
 	protected double[] undersideReflectionFractions = null;
   protected double[] undersideReflectionLatLonvector = null;
   protected boolean  updateFromUndersideReflectionLatLonvector = false;
@@ -620,6 +672,30 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 	long algorithmId = -1;
 
 	protected EllipticityCorrections ellipticityCorrections = null;
+
+	/**
+	 * Optional table of bounce points from previously converged rays. If
+	 * a seed is found for the current receiver, phase and source, the 
+	 * simplex search for the bounce point starts at the seed and the 
+	 * Brents search along the great circle is skipped.
+	 */
+	private BouncePointSeedTable bouncePointSeedTable = null;
+
+	/**
+	 * Maximum separation, in km, of a seed source from the current source
+	 * for the seed to be used.
+	 */
+	private double bouncePointSeedMaxSeparation = 50.0;
+
+	/**
+	 * Initial simplex size, in degrees, when the search starts at a seed.
+	 */
+	private double bouncePointSeedSimplexAngle = 0.1;
+
+	/**
+	 * True if the bounce point search of the last ray started at a seed.
+	 */
+	private boolean bouncePointSeeded = false;
 	
 	private boolean useTTSiteCorrections = true;
 	//private boolean useAZSiteCorrections = true;
@@ -722,7 +798,7 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		
 		// validate the GeoTessModel layer interfaces for compatibility with Bender
 		
-		String modelInterfaceRemap = properties.getProperty("benderModelLayerToEarthInterfaceMap", "");
+		modelInterfaceRemap = properties.getProperty("benderModelLayerToEarthInterfaceMap", "");
 		benderModelInterfaces = new BenderModelInterfaces(geoTessModel.getMetaData(),
 				modelInterfaceRemap);
 		
@@ -738,6 +814,12 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		gradientCalculatorMode = GradientCalculationMode.valueOf(properties.getProperty(
 				"benderGradientCalculator", "PRECOMPUTED").toUpperCase());
 
+		precomputeGradientsActiveOnly = properties.getBoolean(
+				"benderPrecomputeGradientsActiveOnly", precomputeGradientsActiveOnly);
+
+		cachePrecomputedGradients = properties.getBoolean(
+				"benderCachePrecomputedGradients", cachePrecomputedGradients);
+
 		setGradientCalculator(gradientCalculatorMode);
 		
 		useTTSiteCorrections = properties.getBoolean(
@@ -761,9 +843,25 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 					"benderPrecomputeGradients", false);
 
 		if (properties.getProperty("benderEllipticityCorrectionsDirectory") != null)
-			ellipticityCorrections = new EllipticityCorrections(
+			ellipticityCorrections = EllipticityCorrections.getEllipticityCorrections(
 					properties.getFile("benderEllipticityCorrectionsDirectory"));
 
+		if (properties.getProperty("benderBouncePointSeedTable") != null)
+		{
+			bouncePointSeedTable = BouncePointSeedTable.getSeedTable(
+					properties.getFile("benderBouncePointSeedTable"));
+			if (!bouncePointSeedTable.getGridID().equals(geoTessModel.getGrid().getGridID()))
+				throw new GMPException(String.format(
+						"benderBouncePointSeedTable %s was computed in a model with grid ID %s "
+						+ "but benderModel has grid ID %s",
+						properties.getFile("benderBouncePointSeedTable").getPath(),
+						bouncePointSeedTable.getGridID(), geoTessModel.getGrid().getGridID()));
+		}
+		bouncePointSeedMaxSeparation = properties.getDouble(
+				"benderBouncePointSeedMaxSeparation", bouncePointSeedMaxSeparation);
+		bouncePointSeedSimplexAngle = properties.getDouble(
+				"benderBouncePointSeedSimplexAngle", bouncePointSeedSimplexAngle);
+
 		allowCMBDiffraction = properties.getBoolean(
 				"benderAllowCMBDiffraction", false);
 
@@ -840,7 +938,7 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		
 		// validate the GeoTessModel layer interfaces for compatibility with Bender
 		
-		String modelInterfaceRemap = properties.getProperty("benderModelLayerToEarthInterfaceMap", "");
+		modelInterfaceRemap = properties.getProperty("benderModelLayerToEarthInterfaceMap", "");
 		benderModelInterfaces = new BenderModelInterfaces(geoTessModel.getMetaData(),
 				modelInterfaceRemap);
 		
@@ -1615,6 +1713,54 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		return phaseLayerChangeEntry;
 	}
 
+	/**
+	 * Returns the shared phase models for the input phase, building them if
+	 * they do not yet exist. The phase models do not depend on the source and
+	 * receiver positions except through the PhaseLayerLevelDefinitions, which
+	 * PhaseLayerLevelBuilder builds only once per interface, using a depth
+	 * profile at the midpoint of the current source and receiver. The current
+	 * source and receiver profiles and sourceToReceiverDistance must be set
+	 * before calling this method.
+	 * 
+	 * @param phase The seismic phase.
+	 * @return The shared phase models for the input phase.
+	 * @throws IOException if the phase is not supported by the model.
+	 * @throws GeoTessException
+	 */
+	private PhaseModels getPhaseModels(SeismicPhase phase) throws IOException, GeoTessException {
+		ConcurrentHashMap<String, PhaseModels> models;
+		synchronized (sharedPhaseModels) {
+			models = sharedPhaseModels.get(geoTessModel);
+			if (models == null) {
+				models = new ConcurrentHashMap<String, PhaseModels>();
+				sharedPhaseModels.put(geoTessModel, models);
+			}
+		}
+
+		String key = phase.name() + "|" + modelInterfaceRemap + "|" + phaseLayerLevelThickness;
+		PhaseModels phaseModels = models.get(key);
+		if (phaseModels == null) {
+			PhaseLayerChange plc = getPhaseLayerChange(phase);
+
+			GeoTessPosition depthProfile = GeoTessPosition.getGeoTessPosition(geoTessModel);
+			depthProfile.set(currentReceiverProfile.getVector(), currentReceiverProfile.getRadius());
+			depthProfile.setIntermediatePosition(currentSourceProfile , currentReceiverProfile, 0.5);
+			depthProfile.setRadius(depthProfile.getEarthRadius());
+
+			phaseModels = new PhaseModels(plc,
+					new PhaseRayBranchModel(depthProfile, phase, benderModelInterfaces,
+							plc.rayBrnchDirChngList, sourceToReceiverDistance, phaseLayerLevelThickness),
+					new PhaseWaveTypeModel(geoTessModel.getMetaData(), phase,
+							benderModelInterfaces, plc.waveSpeedInterfaceChngList));
+
+			PhaseModels existing = models.putIfAbsent(key, phaseModels);
+			if (existing != null)
+				phaseModels = existing;
+		}
+
+		return phaseModels;
+	}
+
 	public RayInfo[] computeFastRays(PredictionRequestInterface request) throws GMPException
 	{
 		if (!request.isDefining())
@@ -1635,6 +1781,9 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		currentSource = source;
 		currentReceiver = receiver;
 
+		nResetRay = nNewRay = 0;
+		bouncePointSeeded = false;
+
 		// buffer to accumulate error messages from caught exceptions. These
 		// will be added to the RayInfo object that is returned by this method.
 		
@@ -1665,22 +1814,18 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 			currentReceiverProfile.set(receiver.getUnitVector(),  receiver.getRadius());
 			sourceToReceiverDistance = currentSourceProfile.distanceDegrees(currentReceiverProfile);
 
-			GeoTessPosition depthProfile = GeoTessPosition.getGeoTessPosition(geoTessModel);
-			depthProfile.set(receiver.getUnitVector(),  receiver.getRadius());
-			depthProfile.setIntermediatePosition(currentSourceProfile , currentReceiverProfile, 0.5);
-			depthProfile.setRadius(depthProfile.getEarthRadius());
-
-			// create the phase ray branch direction change list and wave speed interface branch
-			// change list. This call also validates any remappings if they occur.
+			// get the shared phase models (the first request for a phase creates the
+			// phase ray branch direction change list and wave speed interface branch
+			// change list, which also validates any remappings if they occur).
 			
-			PhaseLayerChange plc = getPhaseLayerChange(request.getPhase());
+			PhaseModels phaseModels = getPhaseModels(request.getPhase());
 			
-			// make the phase ray branch and wave type models
+			// make the phase ray branch model for this source to receiver distance and
+			// use the shared wave type model
 			
-			phaseRayBranchModel = new PhaseRayBranchModel(depthProfile, request.getPhase(),
-					benderModelInterfaces, plc.rayBrnchDirChngList, sourceToReceiverDistance, phaseLayerLevelThickness);
-			phaseWaveTypeModel = new PhaseWaveTypeModel(getGeoTessModel().getMetaData(),
-					request.getPhase(), benderModelInterfaces, plc.waveSpeedInterfaceChngList);
+			phaseRayBranchModel = new PhaseRayBranchModel(phaseModels.phaseRayBranchModel,
+					sourceToReceiverDistance);
+			phaseWaveTypeModel = phaseModels.phaseWaveTypeModel;
 
 			// check co-positional source/receiver rays
 
@@ -1828,25 +1973,17 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 								{
 									if (request.getPhase() == SeismicPhase.pP)
 									{
-										plc = this.getPhaseLayerChange(SeismicPhase.P);
-										phaseRayBranchModel = new PhaseRayBranchModel(depthProfile,
-												SeismicPhase.P, benderModelInterfaces,
-												plc.rayBrnchDirChngList, sourceToReceiverDistance,
-												phaseLayerLevelThickness);
-										phaseWaveTypeModel = new PhaseWaveTypeModel(
-												getGeoTessModel().getMetaData(), SeismicPhase.P,
-												benderModelInterfaces, plc.waveSpeedInterfaceChngList);
+										phaseModels = getPhaseModels(SeismicPhase.P);
+										phaseRayBranchModel = new PhaseRayBranchModel(
+												phaseModels.phaseRayBranchModel, sourceToReceiverDistance);
+										phaseWaveTypeModel = phaseModels.phaseWaveTypeModel;
 									}
 									else if (request.getPhase() == SeismicPhase.sP)
 									{
-										plc = this.getPhaseLayerChange(SeismicPhase.S);
-										phaseRayBranchModel = new PhaseRayBranchModel(depthProfile,
-												SeismicPhase.S, benderModelInterfaces,
-												plc.rayBrnchDirChngList, sourceToReceiverDistance,
-												phaseLayerLevelThickness);
-										phaseWaveTypeModel = new PhaseWaveTypeModel(getGeoTessModel().getMetaData(),
-												SeismicPhase.S,benderModelInterfaces,
-												plc.waveSpeedInterfaceChngList);
+										phaseModels = getPhaseModels(SeismicPhase.S);
+										phaseRayBranchModel = new PhaseRayBranchModel(
+												phaseModels.phaseRayBranchModel, sourceToReceiverDistance);
+										phaseWaveTypeModel = phaseModels.phaseWaveTypeModel;
 									}
 
 									fastRay = new Ray(this, currentReceiverProfile, currentSourceProfile, true);
@@ -2805,7 +2942,20 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
     // bpRay has the optimal point on exit.
 
 		bpRay = null;
-    if (phaseRayBranchModel.isDepthPhase())
+
+		// if a seed from a previously converged ray is available start the
+		// simplex at the seed bounce point. Otherwise, or if the seed ray is
+		// invalid, search along the great circle with Brents.
+
+		double[] seed = getBouncePointSeed();
+		double outOfPlane = 0.0;
+		if ((seed != null) && evaluateBouncePointSeed(seed))
+		{
+			bouncePointSeeded = true;
+			outOfPlane = seed[1];
+			simplexAngleDelta = bouncePointSeedSimplexAngle;
+		}
+		else if (phaseRayBranchModel.isDepthPhase())
     {
       brents.minF(0.0,  0.5, this);
       //simplexTTDepthPhaseScale = 1.0 / lastTT; 
@@ -2842,8 +2992,8 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		// angle delta to it and scale by source to receiver distance to get
 		// fraction ahead of bounce point.
 		
-		double a = VectorUnit.angleDegrees(bpStart.getVector(),
-																			 currentBPPosition.getVector());
+		double a = bouncePointSeeded ? seed[0] * sourceToReceiverDistance :
+			VectorUnit.angleDegrees(bpStart.getVector(), currentBPPosition.getVector());
 		if (simplexAngleDelta > a) simplexAngleDelta = a;
 
 		double f = (a + simplexAngleDelta) / sourceToReceiverDistance;
@@ -2864,6 +3014,8 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 
 		//currentBPPosition.setIntermediatePosition(bpStart, bpEnd, x, bpLayer);
 		VectorUnit.rotatePlane(bpStart.getVector(), bpEnd.getVector(), f, v1);
+		if (outOfPlane != 0.0)
+			VectorUnit.rotateVector(v1, ngc, outOfPlane, v1);
 		VectorUnit.rotateVector(v1, ngc, Math.toRadians(simplexAngleDelta), v2);
 		
 		// set v2 into first amoeba simplex point
@@ -2897,6 +3049,8 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 
 		// get position behind current bounce point along +gc into v1
 		VectorUnit.rotatePlane(bpStart.getVector(), bpEnd.getVector(), f, v1);
+		if (outOfPlane != 0.0)
+			VectorUnit.rotateVector(v1, ngc, outOfPlane, v1);
 
 		// set v1 into third amoeba simplex point
 		setBouncePointInitialSimplexPoint(2, v1, simplexPoints);
@@ -2947,6 +3101,8 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 
     		// get position behind current bounce point along +gc into v1
     		VectorUnit.rotatePlane(bpStart.getVector(), bpEnd.getVector(), f, v1);
+    		if (outOfPlane != 0.0)
+    			VectorUnit.rotateVector(v1, ngc, outOfPlane, v1);
     		setBouncePointInitialSimplexPoint(2, v1, simplexPoints);
     		--i;
       }
@@ -3005,6 +3161,52 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		}
 	}
 
+	/**
+	 * Find the seed for the current receiver, phase and source in the 
+	 * bounce point seed table, if there is one.
+	 * 
+	 * @return the seed (see BouncePointSeedTable.getSeed()) or null.
+	 */
+	private double[] getBouncePointSeed()
+	{
+		if (bouncePointSeedTable == null)
+			return null;
+		return bouncePointSeedTable.getSeed(phaseRayBranchModel.getSeismicPhase(),
+				currentReceiverProfile.getVector(), currentSourceProfile.getVector(),
+				currentSourceProfile.getDepth(), bouncePointSeedMaxSeparation);
+	}
+
+	/**
+	 * Move the current bounce point to the seed position and calculate the
+	 * ray. This takes the place of the Brents search along the great circle.
+	 * 
+	 * @param seed fraction of the source-receiver distance and out of plane
+	 * angle of the seed bounce point.
+	 * @return true if the seed ray is a valid depth phase or ray bottom phase.
+	 * @throws Exception
+	 */
+	private boolean evaluateBouncePointSeed(double[] seed) throws Exception
+	{
+		double[] v = {0.0, 0.0, 0.0};
+		VectorUnit.rotatePlane(bpStart.getVector(), bpEnd.getVector(), seed[0], v);
+		VectorUnit.rotateVector(v, ngc, seed[1], v);
+
+		GeoTessPosition tmp = lastBPPosition;
+		lastBPPosition = currentBPPosition;
+		currentBPPosition = tmp;
+		currentBPPosition.setTop(bpLayer, v);
+
+		setBouncePointSegmentSeparation();
+		calculateBouncePointRay(currentBPPosition, lastBPPosition);
+		nextToLastTT = lastTT;
+		lastTT = bpRay.getTravelTime();
+
+		if (phaseRayBranchModel.isDepthPhase())
+			return bpRay.getBranches().get(0).isValidDepthPhase();
+		else
+			return bpRay.getBranches().get(0).isValidRayBottomPhase();
+	}
+
 	private void setBouncePointInitialSimplexPoint(int i, double[] v,
 																								 double[][] smplxPoints)
 					throws GeoTessException
@@ -4989,6 +5191,35 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		return geoTessModel.getMetaData().getInputModelFile().getName().substring(0,maxLength);
 	}
 
+	/**
+	 * Specify a table of bounce points from previously converged rays that
+	 * is used to start the bounce point search of underside reflected 
+	 * phases.  Specify null to always start from the 1D bounce points.
+	 * 
+	 * @param bouncePointSeedTable
+	 */
+	public void setBouncePointSeedTable(BouncePointSeedTable bouncePointSeedTable)
+	{
+		this.bouncePointSeedTable = bouncePointSeedTable;
+	}
+
+	/**
+	 * @return the bounce point seed table, or null.
+	 */
+	public BouncePointSeedTable getBouncePointSeedTable()
+	{
+		return bouncePointSeedTable;
+	}
+
+	/**
+	 * @return true if the bounce point search of the last ray started at a
+	 * seed from the bounce point seed table.
+	 */
+	public boolean isBouncePointSeeded()
+	{
+		return bouncePointSeeded;
+	}
+
 	/**
 	 * @return the allowCMBDiffraction
 	 */
@@ -5270,11 +5501,28 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 				for (int i=0; i<layers.length; ++i)
 					layers[i] = lastGradientLayer + i;
 
+				int nThreads = Math.max(1, maxProcessors);
 				String[] attrNames = geoTessModel.getMetaData().getAttributeNames();
 				for (int a=0; a < attrNames.length; ++a)
 				  if (attrNames[a].equals(GeoAttributes.PSLOWNESS.name()) ||
 				      attrNames[a].equals(GeoAttributes.SSLOWNESS.name()))
-					  geoTessModel.computeGradients(a, true, layers);
+				  {
+				  	File gradientsFile = cachePrecomputedGradients ? 
+				  			geoTessModel.getGradientsFile(a, true) : null;
+				  	if (gradientsFile == null)
+				  		geoTessModel.computeGradients(a, true, layers, 
+				  				precomputeGradientsActiveOnly, nThreads);
+				  	else
+				  		try
+				  		{
+				  			geoTessModel.computeGradients(a, true, layers, 
+				  					precomputeGradientsActiveOnly, nThreads, gradientsFile);
+				  		}
+				  		catch (IOException e)
+				  		{
+				  			throw new GeoTessException(e);
+				  		}
+				  }
 			}
 		}
 		else if (gradientCalculator == GradientCalculationMode.ON_THE_FLY)
@@ -5301,11 +5549,16 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 		return Arrays.asList(new String[] {"maxProcessors",
 				"benderGradientCalculator",
 				"benderPrecomputeGradients",
+				"benderPrecomputeGradientsActiveOnly",
+				"benderCachePrecomputedGradients",
 				"benderAllowCMBDiffraction",
 				"benderModel",
 				"benderUncertaintyType",
 				"benderUncertaintyDirectory",
-				"benderUncertaintyModel"
+				"benderUncertaintyModel",
+				"benderBouncePointSeedTable",
+				"benderBouncePointSeedMaxSeparation",
+				"benderBouncePointSeedSimplexAngle"
 		});
 	}
 
@@ -5754,6 +6007,10 @@ public class Bender extends Predictor implements BrentsFunction, SimplexFunction
 	private int nResetRay = 0;
 	private int nNewRay   = 0;
 
+	/**
+	 * Retrieve the number of rays computed while searching for the bounce
+	 * point of the last ray.
+	 */
 	public int getBouncePointRayEvaluationCount()
 	{
 		return nResetRay + nNewRay;
@@ -0,0 +1,571 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.bender.bouncepoints;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gov.sandia.gmp.baseobjects.PropertiesPlusGMP;
+import gov.sandia.gmp.baseobjects.Receiver;
+import gov.sandia.gmp.baseobjects.Source;
+import gov.sandia.gmp.baseobjects.geovector.GeoVector;
+import gov.sandia.gmp.baseobjects.globals.GeoAttributes;
+import gov.sandia.gmp.baseobjects.globals.SeismicPhase;
+import gov.sandia.gmp.baseobjects.interfaces.impl.PredictionRequest;
+import gov.sandia.gmp.bender.Bender;
+import gov.sandia.gmp.bender.ray.RayInfo;
+import gov.sandia.gmp.util.globals.Globals;
+import gov.sandia.gmp.util.numerical.vector.VectorUnit;
+
+/**
+ * Bounce point seeds for underside reflected phases (pP, sP, PP, SS, ...)
+ * harvested from rays that Bender previously converged in a specific 
+ * GeoTessModel. The static BouncePoints tables are computed in a 1D model
+ * and can be far from the optimum bounce point in a 3D model. When Bender
+ * is given a seed table (property benderBouncePointSeedTable) it skips the
+ * Brents search along the great circle and starts the simplex search at 
+ * the bounce point of the nearest previously converged source for the same
+ * receiver and phase.
+ * 
+ * <p>Each seed stores the bounce point relative to the source-receiver 
+ * great circle of the ray that produced it: the fraction of the 
+ * source-receiver distance at which the bounce point projects onto the
+ * great circle, and the angle by which it lies out of the great circle
+ * plane. Seeds are looked up by receiver (to within about 100 m) and phase,
+ * and the nearest source within a maximum separation is used.
+ * 
+ * <p>Run main() with a properties file to build a table for a set of 
+ * receivers, phases and sources and report the number of bounce point ray
+ * evaluations required with and without seeds.
+ */
+public class BouncePointSeedTable
+{
+	/**
+	 * Used in file header to recognize seed table files.
+	 */
+	private static final String MAGIC = "BouncePointSeedTable";
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Receivers whose unit vectors are closer than this angle, in radians,
+	 * are considered to be the same receiver (about 100 m).
+	 */
+	private static final double RECEIVER_TOLERANCE = 1.6e-5;
+
+	/**
+	 * Earth radius used to convert source separation angles to km.
+	 */
+	private static final double EARTH_RADIUS = 6371.;
+
+	/**
+	 * Tables loaded with getSeedTable(), keyed by absolute file path.
+	 */
+	private static final Map<String, BouncePointSeedTable> sharedTables = 
+			new ConcurrentHashMap<String, BouncePointSeedTable>();
+
+	/**
+	 * The bounce point of one converged ray.
+	 */
+	private static class Seed
+	{
+		double[] source;
+		double sourceDepth;
+		double fraction;
+		double outOfPlane;
+	}
+
+	/**
+	 * All the seeds for one receiver and phase.
+	 */
+	private static class Station
+	{
+		SeismicPhase phase;
+		double[] receiver;
+		ArrayList<Seed> seeds = new ArrayList<Seed>();
+	}
+
+	/**
+	 * Grid ID of the GeoTessModel in which the rays were computed.
+	 */
+	private String gridID;
+
+	private ArrayList<Station> stations = new ArrayList<Station>();
+
+	/**
+	 * Construct an empty seed table for rays computed in the model with 
+	 * the specified grid ID.
+	 * 
+	 * @param gridID
+	 */
+	public BouncePointSeedTable(String gridID)
+	{
+		this.gridID = gridID;
+	}
+
+	/**
+	 * Load a seed table from a file written by write().
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public BouncePointSeedTable(File file) throws IOException
+	{
+		DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try
+		{
+			String magic = input.readUTF();
+			if (!magic.equals(MAGIC))
+				throw new IOException(file.getPath()+" is not a bounce point seed table.");
+			int version = input.readInt();
+			if (version != VERSION)
+				throw new IOException(String.format(
+						"Bounce point seed table %s has version %d but only version %d is supported.",
+						file.getPath(), version, VERSION));
+
+			gridID = input.readUTF();
+			int nStations = input.readInt();
+			for (int i = 0; i < nStations; ++i)
+			{
+				Station station = new Station();
+				station.phase = SeismicPhase.valueOf(input.readUTF());
+				station.receiver = readVector(input);
+				int nSeeds = input.readInt();
+				station.seeds.ensureCapacity(nSeeds);
+				for (int j = 0; j < nSeeds; ++j)
+				{
+					Seed seed = new Seed();
+					seed.source = readVector(input);
+					seed.sourceDepth = input.readDouble();
+					seed.fraction = input.readDouble();
+					seed.outOfPlane = input.readDouble();
+					station.seeds.add(seed);
+				}
+				stations.add(station);
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+
+	/**
+	 * Retrieve the seed table stored in the specified file.  Tables are
+	 * loaded only once per process and are shared by all callers, so they
+	 * must not be modified.
+	 * 
+	 * @param file
+	 * @return the seed table stored in file.
+	 * @throws IOException
+	 */
+	public static BouncePointSeedTable getSeedTable(File file) throws IOException
+	{
+		String key = file.getAbsolutePath();
+		BouncePointSeedTable table = sharedTables.get(key);
+		if (table == null)
+		{
+			BouncePointSeedTable newTable = new BouncePointSeedTable(file);
+			table = ((ConcurrentHashMap<String, BouncePointSeedTable>) sharedTables)
+					.putIfAbsent(key, newTable);
+			if (table == null)
+				table = newTable;
+		}
+		return table;
+	}
+
+	/**
+	 * Write this seed table to a file.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException
+	{
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try
+		{
+			output.writeUTF(MAGIC);
+			output.writeInt(VERSION);
+			output.writeUTF(gridID);
+			output.writeInt(stations.size());
+			for (Station station : stations)
+			{
+				output.writeUTF(station.phase.name());
+				writeVector(output, station.receiver);
+				output.writeInt(station.seeds.size());
+				for (Seed seed : station.seeds)
+				{
+					writeVector(output, seed.source);
+					output.writeDouble(seed.sourceDepth);
+					output.writeDouble(seed.fraction);
+					output.writeDouble(seed.outOfPlane);
+				}
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+
+	/**
+	 * Add the bounce point of a converged ray to this table.
+	 * 
+	 * @param ray a ray computed by Bender for an underside reflected phase.
+	 * @return true if the ray was valid and had a bounce point, false
+	 * if it was ignored.
+	 */
+	public boolean add(RayInfo ray)
+	{
+		if (!ray.isValid())
+			return false;
+		double lat = ray.getAttribute(GeoAttributes.BOUNCE_POINT_LATITUDE_DEGREES);
+		double lon = ray.getAttribute(GeoAttributes.BOUNCE_POINT_LONGITUDE_DEGREES);
+		if (lat == Globals.NA_VALUE || lon == Globals.NA_VALUE)
+			return false;
+
+		return add(ray.getPhase(), ray.getReceiver().getPosition().getUnitVector(),
+				ray.getSource().getPosition().getUnitVector(), 
+				ray.getSource().getPosition().getDepth(),
+				new GeoVector(lat, lon, 0., true).getUnitVector());
+	}
+
+	/**
+	 * Add a bounce point to this table.
+	 * 
+	 * @param phase
+	 * @param receiver unit vector of the receiver
+	 * @param source unit vector of the source
+	 * @param sourceDepth source depth in km
+	 * @param bouncePoint unit vector of the bounce point
+	 * @return false if the source and receiver are coincident, true otherwise.
+	 */
+	public boolean add(SeismicPhase phase, double[] receiver, double[] source,
+			double sourceDepth, double[] bouncePoint)
+	{
+		double distance = VectorUnit.angle(source, receiver);
+		if (distance == 0.)
+			return false;
+
+		double[] ngc = VectorUnit.crossNormal(source, receiver);
+		double sinOutOfPlane = VectorUnit.dot(bouncePoint, ngc);
+
+		// project the bounce point onto the great circle plane
+		double[] p = new double[3];
+		for (int i = 0; i < 3; ++i)
+			p[i] = bouncePoint[i] - sinOutOfPlane * ngc[i];
+		VectorUnit.normalize(p);
+
+		Seed seed = new Seed();
+		seed.source = source.clone();
+		seed.sourceDepth = sourceDepth;
+		seed.fraction = VectorUnit.angle(source, p) / distance;
+		seed.outOfPlane = Math.asin(Math.max(-1., Math.min(1., sinOutOfPlane)));
+
+		Station station = getStation(phase, receiver);
+		if (station == null)
+		{
+			station = new Station();
+			station.phase = phase;
+			station.receiver = receiver.clone();
+			stations.add(station);
+		}
+		station.seeds.add(seed);
+		return true;
+	}
+
+	/**
+	 * Find the seed of the source nearest to the specified source, for the
+	 * specified receiver and phase.  Separation between sources is the 
+	 * horizontal separation, in km at the surface, plus the difference in 
+	 * their depths.
+	 * 
+	 * @param phase
+	 * @param receiver unit vector of the receiver
+	 * @param source unit vector of the source
+	 * @param sourceDepth source depth in km
+	 * @param maxSeparation maximum separation in km of the seed source from
+	 * source.
+	 * @return 2-element array containing the fraction of the source-receiver
+	 * distance at which the seed bounce point projects onto the 
+	 * source-receiver great circle, and the angle in radians by which the 
+	 * seed lies out of the great circle plane, positive in the direction of
+	 * source x receiver.  Returns null if there is no seed within 
+	 * maxSeparation.
+	 */
+	public double[] getSeed(SeismicPhase phase, double[] receiver, double[] source,
+			double sourceDepth, double maxSeparation)
+	{
+		Station station = getStation(phase, receiver);
+		if (station == null)
+			return null;
+
+		Seed nearest = null;
+		double minSeparation = maxSeparation;
+		for (Seed seed : station.seeds)
+		{
+			double separation = VectorUnit.angle(source, seed.source) * EARTH_RADIUS
+					+ Math.abs(sourceDepth - seed.sourceDepth);
+			if (separation <= minSeparation)
+			{
+				minSeparation = separation;
+				nearest = seed;
+			}
+		}
+		return nearest == null ? null : new double[] {nearest.fraction, nearest.outOfPlane};
+	}
+
+	/**
+	 * Retrieve the grid ID of the GeoTessModel in which the rays that 
+	 * populated this table were computed.
+	 * 
+	 * @return grid ID
+	 */
+	public String getGridID()
+	{
+		return gridID;
+	}
+
+	/**
+	 * Retrieve the total number of seeds in this table.
+	 * 
+	 * @return the total number of seeds in this table.
+	 */
+	public int size()
+	{
+		int n = 0;
+		for (Station station : stations)
+			n += station.seeds.size();
+		return n;
+	}
+
+	private Station getStation(SeismicPhase phase, double[] receiver)
+	{
+		for (Station station : stations)
+			if (station.phase == phase 
+					&& VectorUnit.angle(station.receiver, receiver) < RECEIVER_TOLERANCE)
+				return station;
+		return null;
+	}
+
+	private static double[] readVector(DataInputStream input) throws IOException
+	{
+		return new double[] {input.readDouble(), input.readDouble(), input.readDouble()};
+	}
+
+	private static void writeVector(DataOutputStream output, double[] v) throws IOException
+	{
+		output.writeDouble(v[0]);
+		output.writeDouble(v[1]);
+		output.writeDouble(v[2]);
+	}
+
+	/**
+	 * Build a bounce point seed table and report the savings it provides.
+	 * The single argument is a properties file containing the Bender 
+	 * properties (benderModel, etc.) and:
+	 * <ul>
+	 * <li>bouncePointSeedTable: the seed table file to write.
+	 * <li>bouncePointSeedPhases: list of underside reflected phases.
+	 * <li>bouncePointSeedReceivers: semi-colon separated list of receivers,
+	 * each specified as lat, lon (degrees) and elevation (km).
+	 * <li>bouncePointSeedSourceLatitudes: first, last latitude and number
+	 * of latitudes of the source grid.
+	 * <li>bouncePointSeedSourceLongitudes: first, last longitude and number
+	 * of longitudes of the source grid.
+	 * <li>bouncePointSeedSourceDepths: list of source depths in km.
+	 * </ul>
+	 * Rays are computed for every combination of receiver, phase and source
+	 * and the converged bounce points are written to the table.  Then rays
+	 * are computed for sources offset by half a grid cell from the sources 
+	 * that populated the table, once without and once with seeds, and the
+	 * number of bounce point ray evaluations, the calculation time and the
+	 * travel time differences are reported.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args)
+	{
+		try
+		{
+			if (args.length != 1)
+			{
+				System.out.println("Usage: BouncePointSeedTable <propertiesFile>");
+				System.exit(1);
+			}
+
+			PropertiesPlusGMP properties = new PropertiesPlusGMP(new File(args[0]));
+			File tableFile = properties.getFile("bouncePointSeedTable");
+			if (tableFile == null)
+				throw new IOException("Property bouncePointSeedTable is not specified.");
+
+			ArrayList<SeismicPhase> phases = new ArrayList<SeismicPhase>();
+			for (String phase : Globals.getTokens(
+					properties.getProperty("bouncePointSeedPhases", "pP"), ", \t"))
+				phases.add(SeismicPhase.valueOf(phase));
+
+			ArrayList<Receiver> receivers = new ArrayList<Receiver>();
+			for (String receiver : Globals.getTokens(
+					properties.getProperty("bouncePointSeedReceivers", ""), ";"))
+			{
+				String[] tokens = Globals.getTokens(receiver, ", \t");
+				receivers.add(new Receiver("STA"+receivers.size(), new GeoVector(
+						Double.parseDouble(tokens[0]), Double.parseDouble(tokens[1]), 
+						-Double.parseDouble(tokens[2]), true)));
+			}
+			if (receivers.isEmpty())
+				throw new IOException("Property bouncePointSeedReceivers is not specified.");
+
+			double[] lats = properties.getDoubleArray("bouncePointSeedSourceLatitudes", 
+					new double[] {-10., 10., 5});
+			double[] lons = properties.getDoubleArray("bouncePointSeedSourceLongitudes", 
+					new double[] {-10., 10., 5});
+			double[] depths = properties.getDoubleArray("bouncePointSeedSourceDepths", 
+					new double[] {50., 150.});
+
+			Bender bender = new Bender(properties);
+			bender.setBouncePointSeedTable(null);
+
+			BouncePointSeedTable table = new BouncePointSeedTable(
+					bender.getGeoTessModel().getGrid().getGridID());
+
+			// build the table from the converged rays at the grid sources
+
+			long[] counts = new long[3];
+			for (Receiver receiver : receivers)
+				for (SeismicPhase phase : phases)
+					for (GeoVector source : getSources(lats, lons, depths, false))
+					{
+						RayInfo ray = computeRay(bender, receiver, source, phase, counts);
+						if (table.add(ray))
+							++counts[2];
+					}
+
+			table.write(tableFile);
+			System.out.printf("Wrote %d seeds from %d rays (%d bounce point ray evaluations) to %s%n",
+					table.size(), counts[0], counts[1], tableFile.getPath());
+
+			// compare unseeded and seeded rays at sources offset from the grid
+
+			long[] unseeded = new long[3], seeded = new long[3];
+			long unseededTime = 0, seededTime = 0;
+			int nCompared = 0;
+			double maxDiff = 0.;
+			for (Receiver receiver : receivers)
+				for (SeismicPhase phase : phases)
+					for (GeoVector source : getSources(lats, lons, depths, true))
+					{
+						long t = System.nanoTime();
+						bender.setBouncePointSeedTable(null);
+						RayInfo ray0 = computeRay(bender, receiver, source, phase, unseeded);
+						unseededTime += System.nanoTime() - t;
+
+						t = System.nanoTime();
+						bender.setBouncePointSeedTable(table);
+						RayInfo ray1 = computeRay(bender, receiver, source, phase, seeded);
+						seededTime += System.nanoTime() - t;
+						if (bender.isBouncePointSeeded())
+							++seeded[2];
+
+						if (ray0.isValid() && ray1.isValid())
+						{
+							++nCompared;
+							maxDiff = Math.max(maxDiff, Math.abs(ray0.getTravelTime() - ray1.getTravelTime()));
+						}
+					}
+
+			System.out.printf("%n%-10s %8s %12s %12s %10s%n", "", "rays", "evaluations", 
+					"evals/ray", "time(s)");
+			System.out.printf("%-10s %8d %12d %12.2f %10.3f%n", "unseeded", unseeded[0], unseeded[1],
+					unseeded[1] / (double) Math.max(1, unseeded[0]), unseededTime * 1e-9);
+			System.out.printf("%-10s %8d %12d %12.2f %10.3f%n", "seeded", seeded[0], seeded[1],
+					seeded[1] / (double) Math.max(1, seeded[0]), seededTime * 1e-9);
+			System.out.printf("%nSeeds found for %d of %d rays. Max travel time difference of %d "
+					+ "valid ray pairs = %1.6f sec%n", seeded[2], seeded[0], nCompared, maxDiff);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Compute a ray and accumulate the number of rays and bounce point ray
+	 * evaluations into counts[0] and counts[1].
+	 */
+	private static RayInfo computeRay(Bender bender, Receiver receiver, GeoVector source,
+			SeismicPhase phase, long[] counts) throws Exception
+	{
+		RayInfo ray = (RayInfo) bender.getPrediction(new PredictionRequest(receiver, 
+				new Source(source), phase, EnumSet.of(GeoAttributes.TRAVEL_TIME), true));
+		++counts[0];
+		counts[1] += bender.getBouncePointRayEvaluationCount();
+		return ray;
+	}
+
+	private static ArrayList<GeoVector> getSources(double[] lats, double[] lons,
+			double[] depths, boolean offset)
+	{
+		int nLat = (int) lats[2], nLon = (int) lons[2];
+		double dLat = nLat > 1 ? (lats[1]-lats[0])/(nLat-1) : 0.;
+		double dLon = nLon > 1 ? (lons[1]-lons[0])/(nLon-1) : 0.;
+		if (offset)
+		{
+			// midpoints of the grid cells
+			nLat = Math.max(1, nLat-1);
+			nLon = Math.max(1, nLon-1);
+		}
+		ArrayList<GeoVector> sources = new ArrayList<GeoVector>(nLat*nLon*depths.length);
+		for (int i = 0; i < nLat; ++i)
+			for (int j = 0; j < nLon; ++j)
+				for (double depth : depths)
+					sources.add(new GeoVector(
+							lats[0] + (i + (offset ? 0.5 : 0.)) * dLat,
+							lons[0] + (j + (offset ? 0.5 : 0.)) * dLon,
+							depth, true));
+		return sources;
+	}
+}
@@ -124,7 +124,7 @@ public class PhaseLayerLevelBuilder
 	public PhaseLayerLevelDefinition getPhaseLayerLevelDefinition(String phaseLayerType) throws GeoTessException {
 		phaseLayerType = phaseLayerType.toUpperCase();
 		PhaseLayerLevelDefinition pld = null;
-		synchronized (this) {
+		synchronized (phaseLayerLevelDefMap) {
 			pld = phaseLayerLevelDefMap.get(phaseLayerType);
 			if (pld == null) {
 				EarthInterface ei = EarthInterface.valueOf(phaseLayerType);
@@ -327,6 +327,32 @@ public class PhaseRayBranchModel
 		}
 	}
 	
+	/**
+	 * Creates a new PhaseRayBranchModel for a new source to receiver distance.
+	 * All distance independent content (the branch direction change, interface
+	 * and level definition lists) is shared with the input model, which must not
+	 * be modified afterwards. Only the fixed reflection initial angles and
+	 * bottom-side reflection index maps are rebuilt for the new distance.
+	 * 
+	 * @param model          The model whose distance independent content is
+	 *                       shared.
+	 * @param srcRcvrDistDeg The source to receiver distance in degrees.
+	 */
+	public PhaseRayBranchModel(PhaseRayBranchModel model, double srcRcvrDistDeg)
+	{
+		metaData                     = model.metaData;
+		seismicPhase                 = model.seismicPhase;
+		phaseLayerLevelBuilder       = model.phaseLayerLevelBuilder;
+		rayBranchInterfaceNameList   = model.rayBranchInterfaceNameList;
+		rayBranchInterfaceIndxList   = model.rayBranchInterfaceIndxList;
+		rayBranchDirectionChangeType = model.rayBranchDirectionChangeType;
+		levelDefinitionMap           = model.levelDefinitionMap;
+		modelEarthInterface          = model.modelEarthInterface;
+		fixedReflectionCount         = model.fixedReflectionCount;
+
+		setSourceReceiverDistance(srcRcvrDistDeg);
+	}
+	
 	/**
 	 * Returns the number of ray branch direction change entries.
 	 * 
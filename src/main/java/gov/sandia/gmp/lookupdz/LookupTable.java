@@ -85,6 +85,73 @@ public class LookupTable
 	 * uncertainties at various distances and depths.
 	 */
 	protected double[][] uncertainties;
+
+	/**
+	 * Distance range, in degrees, of the "hole" in the first depth row of
+	 * values: the distances strictly between the last valid sample before a
+	 * run of BAD_SAMPLE values and the first valid sample after it.  If
+	 * there is no hole, holeMin > holeMax.  Computed once by initialize().
+	 */
+	private double holeMin, holeMax;
+
+	/**
+	 * First distance and inverse of the average distance spacing, used to
+	 * find the distance cell in O(1) time when the distances are uniformly
+	 * spaced.  distanceStepInverse is 0 if they are not.
+	 */
+	private double distanceStart, distanceStepInverse;
+
+	/**
+	 * First depth and inverse of the average depth spacing, or 0 if the 
+	 * depths are not uniformly spaced.
+	 */
+	private double depthStart, depthStepInverse;
+
+	/**
+	 * Spline coefficients for each interior cell of the table, indexed by
+	 * zleft*distances.length + xleft. Computed the first time a cell is 
+	 * visited by interpolate(); NOT_SMOOTH if the sample window surrounding
+	 * the cell contains invalid values, in which case the general algorithm
+	 * is used.
+	 */
+	private Cell[] cells;
+
+	/**
+	 * If false, interpolate() ignores the cell cache and always builds the
+	 * mini-table from scratch.  Used by LookupTableTester to compare the two.
+	 */
+	boolean cellCacheEnabled = true;
+
+	/**
+	 * Spline coefficients of the mini-table that interpolate() builds for 
+	 * requests whose distance and depth both fall strictly inside the table,
+	 * outside the hole, and whose sample window contains only valid values.
+	 * The mini-table and its second derivatives depend only on the cell, not
+	 * on the requested point, so they are computed once and reused.  Instances
+	 * are immutable after construction and may be shared between threads.
+	 */
+	private static final class Cell
+	{
+		final double[] dist;
+		final double[] depth;
+		final double[][] table;
+		final double[][] tableTrans;
+		final double[][] deriv2nd;
+		final double[][] deriv2ndTrans;
+
+		Cell(double[] dist, double[] depth, double[][] table, double[][] tableTrans,
+				double[][] deriv2nd, double[][] deriv2ndTrans)
+		{
+			this.dist = dist;
+			this.depth = depth;
+			this.table = table;
+			this.tableTrans = tableTrans;
+			this.deriv2nd = deriv2nd;
+			this.deriv2ndTrans = deriv2ndTrans;
+		}
+	}
+
+	private static final Cell NOT_SMOOTH = new Cell(null, null, null, null, null, null);
 	
 
 	static final int MAX_DIST_SAMPLES = 7;
@@ -145,6 +212,7 @@ public class LookupTable
 		this.uncDistances = uncDistances;
 		this.uncDepths = uncDepths;
 		this.uncertainties = uncertainties;
+		initialize();
 	}
 
 	public LookupTable(File inputFile) throws IOException
@@ -430,9 +498,64 @@ public class LookupTable
 		inputStream.close();
 		input.close();
 
+		initialize();
+
 		return this;
 	}
 
+	/**
+	 * Compute the information that interpolate() needs that depends only on
+	 * the table: the boundaries of the hole in the first depth row, the
+	 * spacing of the distance and depth axes, and an empty cache of cell
+	 * coefficients. Must be called again if distances, depths or values are
+	 * modified.
+	 */
+	public void initialize()
+	{
+		holeMin = 181.;
+		holeMax = -1.;
+		boolean ok_so_far = true;
+		for (int i = 1; i < distances.length; i++)
+		{
+			if (values[0][i - 1] != -1. && values[0][i] == -1)
+			{
+				holeMin = distances[i - 1];
+				ok_so_far = false;
+			}
+			else if (!ok_so_far && values[0][i] != -1.)
+			{
+				holeMax = distances[i];
+				break;
+			}
+		}
+
+		distanceStart = distances[0];
+		distanceStepInverse = uniformStepInverse(distances);
+		depthStart = depths[0];
+		depthStepInverse = uniformStepInverse(depths);
+
+		cells = new Cell[distances.length * depths.length];
+	}
+
+	/**
+	 * If the values in x are (nearly) uniformly spaced, return the inverse of
+	 * the average spacing, otherwise return 0.
+	 * @param x monotonically increasing values.
+	 * @return the inverse of the average spacing of x, or 0.
+	 */
+	private static double uniformStepInverse(double[] x)
+	{
+		if (x.length < 3)
+			return 0.;
+		double step = (x[x.length - 1] - x[0]) / (x.length - 1);
+		if (!(step > 0.))
+			return 0.;
+		for (int i = 1; i < x.length; ++i)
+			if (abs(x[i] - x[0] - i * step) > 0.01 * step)
+				return 0.;
+		return 1. / step;
+	}
+
 	public double interpolateUncertainty(double distance, double depth)
 	{
 		if (uncDepths.length == 1 && uncDistances.length == 1)
@@ -554,7 +677,7 @@ public class LookupTable
 		// 5: d2vdxdz
 
 		int i, j, k, kk, m, n;
-		int xleft, zleft, nx_req, nz_req;
+		int xleft, zleft = -1, nx_req, nz_req;
 		int xlow, xhigh, ztop, zbottom;
 		int num_extrap = 0, num_samp = 0;
 		int idist = 0, idepth = 0;
@@ -567,24 +690,11 @@ public class LookupTable
 		// Required # of samples in z-direction
 		nz_req = min(MAX_DEPTH_SAMPLES, depths.length);
 
-		double[] ttcsInHoleDist = new double[] { 181., -1., 0. };
+		boolean in_hole = distance > holeMin && distance < holeMax;
 
-		boolean ok_so_far = true;
-		for (i = 1; i < distances.length; i++)
-		{
-			if (values[0][i - 1] != -1. && values[0][i] == -1)
-			{
-				ttcsInHoleDist[0] = distances[i - 1];
-				ok_so_far = false;
-			}
-			else if (!ok_so_far && values[0][i] != -1.)
-			{
-				ttcsInHoleDist[1] = distances[i];
-				break;
-			}
-		}
-		boolean in_hole = distance > ttcsInHoleDist[0]
-				&& distance < ttcsInHoleDist[1];
+		// true when the requested depth / distance falls strictly inside
+		// the table, so that the sample window depends only on the cell.
+		boolean interiorDepth = false, interiorDistance = false;
 
 		// ====================================================================
 		// Set Depth Range
@@ -605,7 +715,7 @@ public class LookupTable
 			// ------------------------------------------------------------------
 			// CASE B: Table contains at least 2 depth samples
 			// ------------------------------------------------------------------
-			zleft = hunt(depths, depth);
+			zleft = locate(depths, depthStart, depthStepInverse, depth);
 
 			if (zleft < 0) // depth < min. table depth
 			{
@@ -629,6 +739,7 @@ public class LookupTable
 				zbottom = min(zleft + (nz_req / 2), depths.length - 1);
 				ztop = max(zbottom - nz_req + 1, 0);
 				nz_req = zbottom - ztop + 1;
+				interiorDepth = true;
 			}
 		}
 
@@ -638,7 +749,7 @@ public class LookupTable
 		// --------------------------------------------------------------------
 		// Preliminary Bracketing
 		// --------------------------------------------------------------------
-		xleft = hunt(distances, distance);
+		xleft = locate(distances, distanceStart, distanceStepInverse, distance);
 
 		if (xleft < 0)
 		{
@@ -681,6 +792,21 @@ public class LookupTable
 			xlow = max(xhigh - nx_req + 1, 0);
 			if (xlow == 0)
 				xhigh = nx_req - 1;
+			interiorDistance = true;
+		}
+
+		// --------------------------------------------------------------------
+		// If the point is strictly inside the table, not in the hole, and 
+		// every sample in the window is valid, none of the adjustments below
+		// modify the mini-table, so its spline coefficients can be retrieved
+		// from the cell cache instead of being rebuilt.
+		// --------------------------------------------------------------------
+		if (interiorDepth && interiorDistance && !in_hole && cellCacheEnabled)
+		{
+			Cell cell = getCell(xleft, zleft, xlow, nx_req, ztop, nz_req);
+			if (cell != NOT_SMOOTH)
+				return interpolate(cell, distance, depth, ttZDerivatives, 
+						shZDerivatives, ttExtrapolate, results);
 		}
 
 		// --------------------------------------------------------------------
@@ -1251,6 +1377,111 @@ public class LookupTable
 		return 0;
 	}
 
+	/**
+	 * Retrieve the spline coefficients of an interior cell, computing them
+	 * if this is the first time the cell has been visited.  Returns 
+	 * NOT_SMOOTH if any value in the sample window is invalid.
+	 */
+	private Cell getCell(int xleft, int zleft, int xlow, int nx_req, int ztop, int nz_req)
+	{
+		int index = zleft * distances.length + xleft;
+		Cell cell = cells[index];
+		if (cell != null)
+			return cell;
+
+		for (int k = ztop; k < ztop + nz_req; ++k)
+			for (int j = xlow; j < xlow + nx_req; ++j)
+				if (invalid(values[k][j]))
+					return cells[index] = NOT_SMOOTH;
+
+		double[][] mini_table = new double[nz_req][];
+		double[][] mini_table_trans = new double[nx_req][nz_req];
+		double[][] deriv_2nd = new double[nz_req][nx_req];
+		double[][] deriv_2nd_trans = new double[nx_req][nz_req];
+
+		double[] mini_dist = extract(distances, xlow, nx_req);
+		double[] mini_depth = extract(depths, ztop, nz_req);
+
+		for (int k = 0; k < nz_req; k++)
+			mini_table[k] = extract(values[ztop + k], xlow, nx_req);
+
+		for (int j = 0; j < nx_req; j++)
+			for (int i = 0; i < nz_req; i++)
+				mini_table_trans[j][i] = mini_table[i][j];
+
+		splie2(mini_dist, mini_depth, mini_table_trans, nx_req, nz_req, deriv_2nd_trans);
+		splie2(mini_depth, mini_dist, mini_table, nz_req, nx_req, deriv_2nd);
+
+		// Cell is immutable so it can be published without synchronization.
+		// If two threads build the same cell at the same time they compute
+		// identical coefficients.
+		return cells[index] = new Cell(mini_dist, mini_depth, mini_table,
+				mini_table_trans, deriv_2nd, deriv_2nd_trans);
+	}
+
+	/**
+	 * Evaluate the bi-cubic splines of a cached interior cell. Equivalent to
+	 * the final step of interpolate(distance, depth, ...) for a point that 
+	 * required no extrapolation.
+	 */
+	private int interpolate(Cell cell, double distance, double depth, 
+			boolean ttZDerivatives, boolean shZDerivatives, boolean ttExtrapolate, 
+			double[] results)
+	{
+		int nx_req = cell.dist.length;
+		int nz_req = cell.depth.length;
+		try
+		{
+			splin2(cell.dist, cell.depth, cell.tableTrans, cell.deriv2ndTrans,
+					nx_req, nz_req, distance, depth, results);
+
+			if (ttZDerivatives)
+			{
+				// interpolated value, first and second derivatives in z direction.
+				double[] z = new double[3];
+				splin2(cell.depth, cell.dist, cell.table, cell.deriv2nd, nz_req,
+						nx_req, depth, distance, z);
+				results[0] = z[0];
+				results[3] = z[1];
+				results[4] = z[2];
+			}
+
+			if (shZDerivatives)
+			{
+				double[] results2 = new double[6];
+				interpolate(distance, depth-TT_DEL_DEPTH, false, false, ttExtrapolate, results2);
+				double slowness = results2[1];
+				interpolate(distance, depth+TT_DEL_DEPTH, false, false, ttExtrapolate, results2);
+				results[5] = (results2[1]-slowness)/(2. * TT_DEL_DEPTH);
+			}
+		}
+		catch (GMPException e)
+		{
+			Arrays.fill(results, Double.NaN);
+			return WRN_INVALID_VALUE;
+		}
+		return 0;
+	}
+
+	/**
+	 * Equivalent to hunt(axis, x) but, when the axis is uniformly spaced
+	 * (inverseStep != 0), the cell is computed directly and then corrected
+	 * by at most a step or two, instead of by bisection.
+	 */
+	private int locate(double[] axis, double start, double inverseStep, double x)
+	{
+		int last = axis.length - 1;
+		if (inverseStep == 0. || !(x >= axis[0]) || x >= axis[last])
+			return hunt(axis, x);
+
+		int i = min((int) ((x - start) * inverseStep), last - 1);
+		while (x < axis[i])
+			--i;
+		while (x >= axis[i + 1])
+			++i;
+		return i;
+	}
+
 	/**
 	 * Extract a new array from x that has size elements starting at index
 	 * first. No range checking is performed!
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.lookupdz;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of LookupTable.interpolate() with and without the cell cache.
+ * Every travel time table in a directory whose name starts with a prefix
+ * (default tt_ak135_, e.g., tt_ak135_P) is loaded and evaluated at the same set of random
+ * distance-depth points, mostly inside the tables with a fraction outside,
+ * using both code paths.  The time per call of each path is reported and
+ * the results are checked to be bitwise identical.
+ * 
+ * <p>Usage: java LookupTableTester tableDirectory [prefix [nPoints]]
+ */
+public class LookupTableTester
+{
+	/**
+	 * Number of repetitions of each test.  The fastest repetition is reported.
+	 */
+	private static final int REPEATS = 5;
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			if (args.length < 1)
+			{
+				System.out.println("Usage: java LookupTableTester tableDirectory [prefix [nPoints]]");
+				System.exit(1);
+			}
+
+			File dir = new File(args[0]);
+			String prefix = args.length > 1 ? args[1] : "tt_ak135_";
+			int nPoints = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+			String[] names = dir.list();
+			Arrays.sort(names);
+
+			ArrayList<LookupTable> tables = new ArrayList<LookupTable>();
+			for (String name : names)
+				if (name.startsWith(prefix))
+				{
+					try
+					{
+						tables.add(new LookupTable(new File(dir, name)));
+					}
+					catch (Exception e)
+					{
+						System.out.printf("Skipping %s: %s%n", name, e.getMessage());
+					}
+				}
+
+			System.out.printf("Loaded %d tables from %s%n%n", tables.size(), dir.getCanonicalPath());
+
+			Random random = new Random(42);
+			double[][][] points = new double[tables.size()][nPoints][];
+			for (int t = 0; t < tables.size(); ++t)
+			{
+				double[] x = tables.get(t).getDistances();
+				double[] z = tables.get(t).getDepths();
+				for (int i = 0; i < nPoints; ++i)
+				{
+					if (i % 10 == 0)
+						// some points outside the table
+						points[t][i] = new double[] {-5. + 195. * random.nextDouble(),
+								-20. + 800. * random.nextDouble()};
+					else
+						points[t][i] = new double[] {
+								x[0] + (x[x.length-1] - x[0]) * random.nextDouble(),
+								z[0] + (z[z.length-1] - z[0]) * random.nextDouble()};
+				}
+			}
+
+			double[][] results = new double[2][6];
+			long mismatches = 0;
+			for (int t = 0; t < tables.size(); ++t)
+			{
+				LookupTable table = tables.get(t);
+				for (double[] p : points[t])
+				{
+					table.cellCacheEnabled = false;
+					int c0 = table.interpolate(p[0], p[1], true, false, true, results[0]);
+					table.cellCacheEnabled = true;
+					int c1 = table.interpolate(p[0], p[1], true, false, true, results[1]);
+					if (c0 != c1 || !Arrays.equals(results[0], results[1]))
+						++mismatches;
+				}
+			}
+			System.out.printf("Mismatches between the two code paths: %d%n%n", mismatches);
+
+			System.out.printf("%-22s %12s %12s%n", "", "no cache", "cell cache");
+			System.out.printf("%-22s %12s %12s%n", "", "(usec/call)", "(usec/call)");
+			for (boolean ttZDerivatives : new boolean[] {false, true})
+			{
+				double[] usec = new double[2];
+				for (int c = 0; c < 2; ++c)
+				{
+					boolean cache = c == 1;
+					for (LookupTable table : tables)
+						table.cellCacheEnabled = cache;
+
+					long best = Long.MAX_VALUE;
+					for (int r = 0; r < REPEATS; ++r)
+					{
+						long timer = System.nanoTime();
+						for (int t = 0; t < tables.size(); ++t)
+							for (double[] p : points[t])
+								tables.get(t).interpolate(p[0], p[1], ttZDerivatives, false, true,
+										results[0]);
+						best = Math.min(best, System.nanoTime() - timer);
+					}
+					usec[c] = best * 1e-3 / (tables.size() * (double) nPoints);
+				}
+				System.out.printf("%-22s %12.3f %12.3f%n",
+						ttZDerivatives ? "value + z derivatives" : "value", usec[0], usec[1]);
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
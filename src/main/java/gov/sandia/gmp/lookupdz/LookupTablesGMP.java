@@ -209,7 +209,7 @@ public class LookupTablesGMP extends Predictor implements UncertaintyInterface
 		ttModelUncertaintyScale = properties.getDoubleArray(prefix+"TTModelUncertaintyScale", null);
 
 		if (useEllipticityCorrections)
-			ellip = new EllipticityCorrections(ellipticityDirectory);
+			ellip = EllipticityCorrections.getEllipticityCorrections(ellipticityDirectory);
 		else
 			ellip = null;
 
@@ -259,7 +259,7 @@ public class LookupTablesGMP extends Predictor implements UncertaintyInterface
 
 		try
 		{
-			this.ellip = new EllipticityCorrections(ellipticityDirectory);
+			this.ellip = EllipticityCorrections.getEllipticityCorrections(ellipticityDirectory);
 		}
 		catch (FileNotFoundException e)
 		{
@@ -669,6 +669,113 @@ public class LookupTablesGMP extends Predictor implements UncertaintyInterface
 		return result;
 	}
 
+	/**
+	 * Compute travel times for many source-receiver pairs of a single phase.
+	 * This is equivalent to calling getPrediction() for each pair and 
+	 * extracting the travel time, slowness and dtt/dr, but no 
+	 * PredictionRequest or Prediction objects are constructed, the lookup 
+	 * table is retrieved only once and the interpolation buffer is reused 
+	 * for every pair. Ellipticity and elevation corrections are applied 
+	 * according to the settings of this predictor, exactly as in 
+	 * getPrediction(). Path corrections and uncertainties are not computed.
+	 * 
+	 * @param phase
+	 *            the phase of every prediction.
+	 * @param receivers
+	 *            receiver positions. Either a single receiver, which is used
+	 *            for every source, or one receiver per source.
+	 * @param sources
+	 *            source positions.
+	 * @param travelTime
+	 *            on output, travel time in seconds, including ellipticity 
+	 *            and elevation corrections, or Globals.NA_VALUE if the
+	 *            travel time could not be computed. Must have length
+	 *            sources.length.
+	 * @param slowness
+	 *            if not null, on output horizontal slowness in sec/radian, 
+	 *            or Globals.NA_VALUE.
+	 * @param dttdr
+	 *            if not null, on output derivative of travel time with 
+	 *            respect to radius in sec/km, or Globals.NA_VALUE. Depth 
+	 *            derivatives are only computed when this array is supplied.
+	 * @param codes
+	 *            if not null, on output the code returned by
+	 *            LookupTable.interpolate() for each pair. See
+	 *            LookupTable.getErrorMessage().
+	 * @return the number of pairs for which a valid travel time was computed.
+	 * @throws Exception
+	 *             if the phase is not supported or the lookup table or 
+	 *             ellipticity corrections cannot be loaded.
+	 */
+	public int getTravelTimes(SeismicPhase phase, GeoVector[] receivers,
+			GeoVector[] sources, double[] travelTime, double[] slowness,
+			double[] dttdr, int[] codes) throws Exception
+	{
+		if (receivers.length != 1 && receivers.length != sources.length)
+			throw new GMPException(String.format(
+					"receivers.length (%d) must be 1 or equal to sources.length (%d)",
+					receivers.length, sources.length));
+
+		LookupTable table = getSupportedPhases().contains(phase) ? getTable(phase) : null;
+		if (table == null)
+			throw new GMPException(String.format("Phase %s is not supported.", phase));
+
+		boolean ttZDerivatives = dttdr != null;
+		
+		double[] predictions = new double[6];
+		
+		int nValid = 0;
+		for (int i = 0; i < sources.length; ++i)
+		{
+			GeoVector source = sources[i];
+			GeoVector receiver = receivers.length == 1 ? receivers[0] : receivers[i];
+
+			double xDeg = toDegrees(source.distance(receiver));
+			double depth = Math.max(source.getDepth(), 0.);
+
+			// deal with roundoff errors that prevent valid depths from being processed.
+			if (depth > 700. && depth < 700.01)
+				depth = 700.;
+
+			int code = table.interpolate(xDeg, depth, ttZDerivatives, false,
+					useExtrapolation, predictions);
+
+			if (codes != null)
+				codes[i] = code;
+
+			if (code < 0 || (code > 0 && !useExtrapolation))
+			{
+				travelTime[i] = Globals.NA_VALUE;
+				if (slowness != null)
+					slowness[i] = Globals.NA_VALUE;
+				if (dttdr != null)
+					dttdr[i] = Globals.NA_VALUE;
+				continue;
+			}
+
+			double tt = predictions[0];
+			double sh = toDegrees(predictions[1]);
+
+			if (ellip != null)
+				tt += ellip.getEllipCorr(phase, receiver, source);
+
+			if (useElevationCorrections)
+			{
+				double srcElev = -source.getDepth();
+				tt += getElevationCorrection(-receiver.getDepth(), sh)
+						+ (srcElev <= 0. ? 0. : getElevationCorrection(srcElev, sh));
+			}
+
+			travelTime[i] = tt;
+			if (slowness != null)
+				slowness[i] = sh;
+			if (dttdr != null)
+				dttdr[i] = -predictions[3];
+			++nValid;
+		}
+		return nValid;
+	}
+
 	/**
 	 * Retrieve the elevation correction for a given elevation above sea level
 	 * (in km) and horizontal slowness (in sec/radian). The correction is
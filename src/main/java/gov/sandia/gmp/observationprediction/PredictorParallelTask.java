@@ -71,6 +71,14 @@ import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
  * different than the instantiated file name which is saved in the static
  * string aModelFilePath.
  *
+ * <p> The predictor factory (and its Bender) and the ray path / weight
+ * containers are kept in a per-thread PredictorTaskContext so that successive
+ * tasks executed on the same thread reuse the warmed predictor. Once all
+ * tasks of a prediction pass have completed the client should submit a
+ * PredictorTaskContext.ClearTask with ParallelBroker.submitStaticCleanupTask()
+ * to release those predictors. The tomography model is published through a volatile reference so that tasks
+ * only synchronize when the model must be (re)loaded.
+ *
  * @author jrhipp
  *
  */
@@ -82,12 +90,53 @@ public class PredictorParallelTask extends ParallelTask
    * The current static instantiated tomography GeoModel. The object is
    * initialized to null to force construction (if requested) on the first entry.
    */
-  protected static GeoTessModel   aTomoModel         = null;
+  protected static volatile GeoTessModel   aTomoModel = null;
 
   /**
    * The current static instantiated tomography GeoTessModel file name.
    */
-  private static String    aTomoModelFilePath         = "";
+  private static volatile String    aTomoModelFilePath = "";
+
+  /**
+   * The current tomography model and the file path from which it was
+   * created. Both are published together in a single immutable object so that
+   * tasks can read them without locking.
+   */
+  private static volatile TomographyModel aTomography = null;
+
+  /**
+   * Lock used only when the tomography model must be created.
+   */
+  private static final Object aTomographyLock = new Object();
+
+  /**
+   * Target task calculation time (msec) used by buildPredictorParallelTasks()
+   * to size tasks from the measured per-ray cost. If less than 1 the input
+   * number of predictions per task is used unchanged.
+   */
+  private static volatile long aTargetTaskTime    = 0;
+
+  /**
+   * Exponentially decayed sum of task calculation times (msec) recorded by
+   * recordTaskCost().
+   */
+  private static double    aTaskCostTime          = 0.0;
+
+  /**
+   * Exponentially decayed sum of ray counts recorded by recordTaskCost().
+   */
+  private static double    aTaskCostRays          = 0.0;
+
+  /**
+   * Decay applied to the previous task cost sums each time a new task cost is
+   * recorded.
+   */
+  private static final double TASK_COST_DECAY     = 0.99;
+
+  /**
+   * Lock guarding aTaskCostTime and aTaskCostRays.
+   */
+  private static final Object aTaskCostLock       = new Object();
 
   /**
    * Simple static id counter that is auto-incremented with each
@@ -158,6 +207,21 @@ public class PredictorParallelTask extends ParallelTask
   private transient static int      aReadModelFailLimit = 10;
  
   private PropertiesPlusGMP        aProperties = null;
+
+  /**
+   * Immutable pairing of a tomography model and its file path.
+   */
+  private static final class TomographyModel
+  {
+    private final String       path;
+    private final GeoTessModel model;
+
+    private TomographyModel(String path, GeoTessModel model)
+    {
+      this.path  = path;
+      this.model = model;
+    }
+  }
   
   /**
    * Standard constructor that sets the GeoModel file name, GeoModel
@@ -231,7 +295,6 @@ public class PredictorParallelTask extends ParallelTask
 	public void run() {
 		// convert file paths from Windows to Linux if necessary
 
-		aTomoModelFilePath = PropertiesPlus.convertWinFilePathToLinux(aTomoModelFilePath);
 		predModelFilePath = PropertiesPlus.convertWinFilePathToLinux(predModelFilePath);
 		tomoModelFilePath = PropertiesPlus.convertWinFilePathToLinux(tomoModelFilePath);
 		polygonFilePath = PropertiesPlus.convertWinFilePathToLinux(polygonFilePath);
@@ -247,10 +310,11 @@ public class PredictorParallelTask extends ParallelTask
 
 		// create temporary definitions and objects
 
+		PredictorTaskContext context = PredictorTaskContext.getContext();
 		PredictorFactory predictorFactory = null;
-		ArrayList<double[]> rayPathUnitVec = new ArrayList<double[]>();
-		ArrayListDouble rayPathRadii = new ArrayListDouble();
-		HashMapIntegerDouble weights = new HashMapIntegerDouble();
+		ArrayList<double[]> rayPathUnitVec = context.getRayPathUnitVectors();
+		ArrayListDouble rayPathRadii = context.getRayPathRadii();
+		HashMapIntegerDouble weights = context.getWeights();
 		Profiler profiler = null;
 
 		// enter error catch code
@@ -286,10 +350,11 @@ public class PredictorParallelTask extends ParallelTask
 					aProperties.put("benderModelActiveNodePolygon", polygonFilePath);
 			}
 
-			// create the predictor factory ... add the prediction requests ... get
-			// the predictions
+			// get the predictor factory of this thread (reused if the configuration
+			// is unchanged since the last task) ... add the prediction requests ...
+			// get the predictions
 
-			predictorFactory = new PredictorFactory(aProperties, "predictors");
+			predictorFactory = context.getPredictorFactory(aProperties, "predictors");
 			predictorFactory.addPredictionRequests(aPredObs);
 			ArrayList<PredictionInterface> predictions = predictorFactory.getPredictions(false);
 
@@ -299,7 +364,7 @@ public class PredictorParallelTask extends ParallelTask
 			GeoTessModel predModel = ((GeoTessModel) predictorFactory.getPredictor(
 					PredictorType.BENDER).getEarthModel());
 			predModelFilePath = predModel.getCurrentModelFileName();
-			createTomographyGeoTessModel(predModel);
+			GeoTessModel tomoModel = createTomographyGeoTessModel(predModel);
 
 			// loop over all predictions and populate the prediction result list and
 			// build the ray weights for each prediction
@@ -311,7 +376,8 @@ public class PredictorParallelTask extends ParallelTask
 
 				if (po != null) {
 					PredictorResult pr = new PredictorResult(pi, po.getObservationIndex(), true);
-					buildTomographyModelWeights(pi, rayPathUnitVec, rayPathRadii, weights, pr, po);
+					buildTomographyModelWeights(tomoModel, pi, rayPathUnitVec, rayPathRadii,
+							weights, pr, po);
 					results.addRay(pr);
 				}
 			}
@@ -348,8 +414,10 @@ public class PredictorParallelTask extends ParallelTask
 				profiler = null;
 			}
 
-			// set exception in results object and return
+			// set exception in results object and return ... don't reuse the
+			// predictor that failed
 
+			context.discardPredictorFactory();
 			if (aOutput)
 				System.out.println("PredictorParallelTask::catch " + "(UnsupportedOperationException ex) ");
 			ex.printStackTrace();
@@ -367,8 +435,10 @@ public class PredictorParallelTask extends ParallelTask
 				profiler = null;
 			}
 
-			// set exception in results object and return
+			// set exception in results object and return ... don't reuse the
+			// predictor that failed
 
+			context.discardPredictorFactory();
 			if (aOutput)
 				System.out.println("PredictorParallelTask::catch (Exception ex) ");
 			ex.printStackTrace();
@@ -515,9 +585,80 @@ public class PredictorParallelTask extends ParallelTask
 		return result.toString();
 	}  
 
+  /**
+   * Sets the target calculation time (msec) of a single task. If greater than
+   * 0, and task costs have been recorded with recordTaskCost(), then
+   * buildPredictorParallelTasks() sizes each task so that it is expected to
+   * take approximately this long to calculate. If less than 1 (the default)
+   * the number of predictions per task input to buildPredictorParallelTasks()
+   * is used unchanged.
+   * 
+   * @param msec The target task calculation time (msec).
+   */
+  public static void setTargetTaskTime(long msec)
+  {
+    aTargetTaskTime = msec;
+  }
+
+  /**
+   * Records the measured calculation time and ray count of a returned task
+   * result. Called by the client as results are returned. The costs are
+   * accumulated with an exponential decay so that the estimate follows
+   * changes in the per-ray cost from one tomography iteration to the next.
+   * 
+   * @param result The returned task result.
+   */
+  public static void recordTaskCost(PredictorParallelTaskResult result)
+  {
+    int nrays = result.getRays().size();
+    long time = result.getCalculationTimeMSec();
+    if ((nrays == 0) || (time <= 0)) return;
+
+    synchronized (aTaskCostLock)
+    {
+      aTaskCostTime = TASK_COST_DECAY * aTaskCostTime + time;
+      aTaskCostRays = TASK_COST_DECAY * aTaskCostRays + nrays;
+    }
+  }
+
+  /**
+   * Returns the measured average calculation time per ray (msec), or -1 if no
+   * task costs have been recorded.
+   * 
+   * @return The measured average calculation time per ray (msec).
+   */
+  public static double getMeasuredRayCost()
+  {
+    synchronized (aTaskCostLock)
+    {
+      return (aTaskCostRays > 0.0) ? aTaskCostTime / aTaskCostRays : -1.0;
+    }
+  }
+
+  /**
+   * Returns the number of predictions per task that is expected to meet the
+   * target task time given the measured per-ray cost. If no target was set or
+   * no costs have been recorded the input number is returned. The result is
+   * limited to the range [10, 10 * numPredPerTask].
+   * 
+   * @param numPredPerTask The default number of predictions per task.
+   * @return The number of predictions per task.
+   */
+  public static int getAdaptivePredictionsPerTask(int numPredPerTask)
+  {
+    double rayCost = getMeasuredRayCost();
+    if ((aTargetTaskTime < 1) || (rayCost <= 0.0)) return numPredPerTask;
+
+    long n = Math.round(aTargetTaskTime / rayCost);
+    return (int) Math.max(10, Math.min(n, 10L * numPredPerTask));
+  }
+
 	/**
 	 * Constructs a list of parallel tasks from the input list of observations for
-	 * processing on concurrent or distributed parallel systems.
+	 * processing on concurrent or distributed parallel systems. If a target task
+	 * time was set (see setTargetTaskTime()) and task costs have been recorded
+	 * (see recordTaskCost()) the number of predictions per task is adjusted so
+	 * that each task takes approximately the target time to calculate.
 	 *
 	 * @param obs            List of all observations from which parallel tasks will
 	 *                       be constructed.
@@ -536,6 +677,11 @@ public class PredictorParallelTask extends ParallelTask
 		
 		PredictorParallelTask ppt;
 
+		// adjust the number of predictions per task to the measured per-ray cost
+		// if requested
+
+		numPredPerTask = getAdaptivePredictionsPerTask(numPredPerTask);
+
 		// set up predictor observation and predictor parallel task lists
 
 		ArrayList<PredictorObservation> taskPredObsList = new ArrayList<PredictorObservation>();
@@ -665,62 +811,79 @@ public class PredictorParallelTask extends ParallelTask
    *      calculate tomography weights using ray paths that were calculated from
    *      the prediction model.
    *      
+   * The current tomography model is read without locking. Only when it must
+   * be created (first use or a new tomography model file path) do tasks
+   * synchronize so that the model is read only once per JVM.
+   *      
    * @param predModel The prediction model used by the predictor factory.
+   * @return The tomography model or null if one was not requested.
    * @throws IOException
    */
-  private void createTomographyGeoTessModel(GeoTessModel predModel) throws IOException
+  private GeoTessModel createTomographyGeoTessModel(GeoTessModel predModel)
+          throws IOException
   {
-    synchronized(PredictorParallelTaskResult.class)
+    if (tomoModelFilePath.equals("")) return null;
+
+    // return the current model if it was created from the requested path
+
+    TomographyModel tm = aTomography;
+    if ((tm != null) && tm.path.equals(tomoModelFilePath)) return tm.model;
+
+    synchronized(aTomographyLock)
     {
-      if (!tomoModelFilePath.equals(""))
+      // check again in case another thread created it while this one waited
+
+      tm = aTomography;
+      if ((tm != null) && tm.path.equals(tomoModelFilePath)) return tm.model;
+
+      // check to see if the tomography model file path and the prediction
+      // model file path are the same ... if they are then get the
+      // tomography model from the predictor factory
+
+      GeoTessModel model;
+      if (predModelFilePath.equals(tomoModelFilePath))
+        model = predModel;
+      else
       {
-        if ((aTomoModel == null) || !aTomoModelFilePath.equals(tomoModelFilePath))
+        model = readGeoModel(tomoModelFilePath);
+
+        Polygon3D polygon = null;
+        if ((polygonFilePath != null) && (polygonFilePath.length() > 0))
         {
-        	// check to see if the tomography model file path and the prediction
-        	// model file path are the same ... if they are then get the
-        	// tomography model from the predictor factory
-
-        	if (predModelFilePath.equals(tomoModelFilePath))
-        		aTomoModel = predModel;
-        	else
-        	{
-	          aTomoModel = readGeoModel(tomoModelFilePath);
-
-	          Polygon3D polygon = null;
-	          if ((polygonFilePath != null) && (polygonFilePath.length() > 0))
-	          {
-	          	File f = new File(polygonFilePath);
-	            polygon = new Polygon3D(f);
-	            aTomoModel.setActiveRegion(polygon);
-	          }
-	          else
-	            aTomoModel.setActiveRegion();
-
-	          if (aOutput)
-	          {
-	            System.out.println("");
-	            System.out.println("Created Tomography GeoTessModel ...");
-	            System.out.println(aTomoModel.getMetaData().getInputModelFile().getCanonicalPath());
-	            System.out.println("");
-	          }
-        	}
-
-          // save configuration string and set verbosity
-
-          aTomoModelFilePath = tomoModelFilePath;
+          File f = new File(polygonFilePath);
+          polygon = new Polygon3D(f);
+          model.setActiveRegion(polygon);
+        }
+        else
+          model.setActiveRegion();
+
+        if (aOutput)
+        {
+          System.out.println("");
+          System.out.println("Created Tomography GeoTessModel ...");
+          System.out.println(model.getMetaData().getInputModelFile().getCanonicalPath());
+          System.out.println("");
         }
       }
+
+      // publish the model and its path
+
+      aTomoModel = model;
+      aTomoModelFilePath = tomoModelFilePath;
+      aTomography = new TomographyModel(tomoModelFilePath, model);
+      return model;
     }
   }
 
-  private void buildTomographyModelWeights(PredictionInterface pi,
+  private void buildTomographyModelWeights(GeoTessModel tomoModel,
+  		                                     PredictionInterface pi,
   		                                     ArrayList<double[]> rayPathUnitVec,
   		                                     ArrayListDouble rayPathRadii,
   		                                     HashMapIntegerDouble weights,
   		                                     PredictorResult pr,
   		                                     PredictorObservation po) throws GeoTessException
   {
-    if (aTomoModel != null)
+    if (tomoModel != null)
     {
       // convert prediction ray path to tomography grid weights if it is
       // a valid ray
@@ -730,7 +893,7 @@ public class PredictorParallelTask extends ParallelTask
         // valid ray ... get tomography grid weights
     	  
       	pi.getRayPath(rayPathUnitVec, rayPathRadii);
-      	aTomoModel.getWeights(rayPathUnitVec, rayPathRadii, null,
+      	tomoModel.getWeights(rayPathUnitVec, rayPathRadii, null,
       			                  InterpolatorType.LINEAR,
       			                  InterpolatorType.LINEAR, weights);
       	
@@ -0,0 +1,271 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.observationprediction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import gov.sandia.gmp.baseobjects.PropertiesPlusGMP;
+import gov.sandia.gmp.parallelutils.StaticCleanupTask;
+import gov.sandia.gmp.predictorfactory.PredictorFactory;
+import gov.sandia.gmp.util.containers.arraylist.ArrayListDouble;
+import gov.sandia.gmp.util.containers.hash.maps.HashMapIntegerDouble;
+
+/**
+ * A per-thread worker context used by PredictorParallelTask. Each compute
+ * thread of a JVM owns a single PredictorTaskContext (obtained with
+ * getContext()) that survives from one task to the next. The context holds
+ * the PredictorFactory (and therefore the Bender, or other predictor, that it
+ * instantiated) so that a new task that uses the same predictor configuration
+ * reuses the warmed predictor instead of constructing a new one. The ray path
+ * and tomography weight containers used to build the tomography weights for
+ * each prediction are also reused.
+ *
+ * <p> The predictor factory is rebuilt whenever the predictor configuration
+ * (the sorted contents of the predictor properties) changes, for example when
+ * a tomography iteration writes a new prediction model. When a prediction
+ * pass is complete the client submits a ClearTask (a StaticCleanupTask) to
+ * each JVM which calls clear() to release the predictor factory of every
+ * thread context in that JVM.
+ */
+public class PredictorTaskContext
+{
+  /**
+   * The context of each compute thread.
+   */
+  private static final ThreadLocal<PredictorTaskContext> aContext =
+      new ThreadLocal<PredictorTaskContext>()
+      {
+        @Override
+        protected PredictorTaskContext initialValue()
+        {
+          return new PredictorTaskContext();
+        }
+      };
+
+  /**
+   * All thread contexts created in this JVM. Weak keys are used so that the
+   * context of a thread that has terminated is not retained.
+   */
+  private static final Map<PredictorTaskContext, Boolean> aContexts =
+      Collections.synchronizedMap(new WeakHashMap<PredictorTaskContext, Boolean>());
+
+  /**
+   * Incremented by clear(). A predictor factory that was being built while
+   * clear() was called is not saved.
+   */
+  private static volatile int aGeneration = 0;
+
+  /**
+   * The predictor configuration string from which aPredictorFactory was
+   * built.
+   */
+  private String aConfiguration = null;
+
+  /**
+   * The predictor factory reused by all tasks executed on this thread with the
+   * same configuration.
+   */
+  private PredictorFactory aPredictorFactory = null;
+
+  /**
+   * The number of tasks that have been processed by aPredictorFactory.
+   */
+  private int aTaskCount = 0;
+
+  /**
+   * Reusable ray path unit vector container.
+   */
+  private ArrayList<double[]> aRayPathUnitVec = new ArrayList<double[]>();
+
+  /**
+   * Reusable ray path radii container.
+   */
+  private ArrayListDouble aRayPathRadii = new ArrayListDouble();
+
+  /**
+   * Reusable tomography weight map.
+   */
+  private HashMapIntegerDouble aWeights = new HashMapIntegerDouble();
+
+  /**
+   * Private constructor. Use getContext().
+   */
+  private PredictorTaskContext()
+  {
+    aContexts.put(this, Boolean.TRUE);
+  }
+
+  /**
+   * Returns the context of the calling thread.
+   *
+   * @return The context of the calling thread.
+   */
+  public static PredictorTaskContext getContext()
+  {
+    return aContext.get();
+  }
+
+  /**
+   * Releases the predictor factory of every thread context in this JVM. A
+   * thread that is currently using its factory keeps it until its task
+   * completes. The next task on each thread builds a new factory.
+   */
+  public static void clear()
+  {
+    synchronized (aContexts)
+    {
+      ++aGeneration;
+      for (PredictorTaskContext context: aContexts.keySet())
+        context.discardPredictorFactory();
+    }
+  }
+
+  /**
+   * Returns a predictor factory built from the input properties. If this
+   * thread has already built a factory from an identical set of properties
+   * (and clear() has not released it since) that factory, with its warmed
+   * predictors, is returned. Otherwise a new factory is created and saved.
+   *
+   * @param properties The predictor properties.
+   * @param propertyName The name of the property that defines the list of
+   *                     predictors (e.g. "predictors").
+   * @return The predictor factory for the input properties.
+   * @throws Exception
+   */
+  public PredictorFactory getPredictorFactory(PropertiesPlusGMP properties,
+                                              String propertyName)
+         throws Exception
+  {
+    String config = propertyName + new TreeMap<Object, Object>(properties);
+    synchronized (this)
+    {
+      if ((aPredictorFactory != null) && config.equals(aConfiguration))
+      {
+        aPredictorFactory.clearPredictionRequestQueue();
+        ++aTaskCount;
+        return aPredictorFactory;
+      }
+      discardPredictorFactory();
+    }
+
+    // build the new factory outside of the lock so that clear() is not
+    // blocked while it is constructed ... only save it if clear() was not
+    // called in the meantime
+
+    int generation = aGeneration;
+    PredictorFactory predictorFactory = new PredictorFactory(properties,
+                                                             propertyName);
+    synchronized (this)
+    {
+      if (generation == aGeneration)
+      {
+        aPredictorFactory = predictorFactory;
+        aConfiguration = config;
+      }
+      aTaskCount = 1;
+    }
+    return predictorFactory;
+  }
+
+  /**
+   * Discards the predictor factory of this thread. Called when a task fails
+   * so that a possibly corrupt predictor is not reused, and by clear().
+   */
+  public synchronized void discardPredictorFactory()
+  {
+    aPredictorFactory = null;
+    aConfiguration = null;
+    aTaskCount = 0;
+  }
+
+  /**
+   * Returns the number of tasks that have used the current predictor factory
+   * (1 if the factory was built for the current task).
+   *
+   * @return The number of tasks that have used the current predictor factory.
+   */
+  public synchronized int getTaskCount()
+  {
+    return aTaskCount;
+  }
+
+  /**
+   * Returns the reusable ray path unit vector container.
+   *
+   * @return The reusable ray path unit vector container.
+   */
+  public ArrayList<double[]> getRayPathUnitVectors()
+  {
+    return aRayPathUnitVec;
+  }
+
+  /**
+   * Returns the reusable ray path radii container.
+   *
+   * @return The reusable ray path radii container.
+   */
+  public ArrayListDouble getRayPathRadii()
+  {
+    return aRayPathRadii;
+  }
+
+  /**
+   * Returns the reusable tomography weight map.
+   *
+   * @return The reusable tomography weight map.
+   */
+  public HashMapIntegerDouble getWeights()
+  {
+    return aWeights;
+  }
+
+  /**
+   * A StaticCleanupTask that calls clear() in the JVM that it is run in.
+   * Submitted by the client with ParallelBroker.submitStaticCleanupTask()
+   * once its prediction tasks have completed.
+   */
+  public static class ClearTask implements StaticCleanupTask
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void run()
+    {
+      clear();
+    }
+  }
+}
@@ -48,7 +48,9 @@ import java.util.concurrent.LinkedBlockingQueue;
  * with one processor is available for processing. The concurrent mode is used
  * to take advantage of several processors on a single machine. The last three
  * use the Java Parallel Processing Framework (JPPF) to handle many separate
- * nodes (processors) on many distributed machines. A static factory method
+ * nodes (processors) on many distributed machines. The "local_process" mode
+ * runs tasks in several worker JVMs forked on the current machine (see
+ * ParallelBrokerLocalProcess). A static factory method
  * (create) is defined that allows a user to access any of the above brokers.
  * 
  * <P> Several functions are defined to allow the user to submit tasks, get
@@ -115,7 +117,7 @@ public abstract class ParallelBroker
 	
   public static enum ParallelMode{
   	SEQUENTIAL,CONCURRENT,DISTRIBUTED,DISTRIBUTED_CUDA_SP,SEQUENTIAL_FABRIC,
-  	DISTRIBUTED_CUDA_DP,CONCURRENT_FABRIC, DISTRIBUTED_FABRIC;
+  	DISTRIBUTED_CUDA_DP,CONCURRENT_FABRIC, DISTRIBUTED_FABRIC, LOCAL_PROCESS;
   }
   
   //Constructors: -------------------------------------------------------------
@@ -153,6 +155,7 @@ public abstract class ParallelBroker
     	switch(mode){
     	case SEQUENTIAL: return new ParallelBrokerSequential();
     	case CONCURRENT: return new ParallelBrokerConcurrent();
+    	case LOCAL_PROCESS: return new ParallelBrokerLocalProcess();
     	case DISTRIBUTED:
     		c = Class.forName(
     			"gov.sandia.gmp.parallelutils.ParallelBrokerDistributedCPU");
@@ -295,6 +298,9 @@ public abstract class ParallelBroker
    *   nodeMaxMemory
    *   taskTimout
    *   preferredOperatingSystems
+   *   localProcessCount
+   *   localProcessThreads
+   *   localProcessVMArgs
    * 
    * See each of their corresponding set functions for more information
    * about valid settings. If the property is not defined in the input
@@ -332,6 +338,19 @@ public abstract class ParallelBroker
     p = prop.getProperty("preferredOperatingSystems", "").trim();
     if (!p.equals("")) setPreferredOperatingSystems(p);
     
+    // --- Local process properties ---
+    
+    p = prop.getProperty("localProcessCount", "-1").trim();
+    i = Integer.valueOf(p);
+    if (i != -1) setLocalProcessCount(i);
+    
+    p = prop.getProperty("localProcessThreads", "-1").trim();
+    i = Integer.valueOf(p);
+    if (i != -1) setLocalProcessThreadCount(i);
+    
+    p = prop.getProperty("localProcessVMArgs", "").trim();
+    if (!p.equals("")) setLocalProcessVMArgs(p);
+    
     // --- Fabric-specific properties ---
     
     p = prop.getProperty("fabricApplicationName", "").trim();
@@ -562,6 +581,30 @@ public abstract class ParallelBroker
 	// performs no action ... implemented by ParallelBrokerConcurrent
   }
   
+  /**
+   * Note: Used only by the LOCAL_PROCESS parallel broker.
+   * Sets the number of worker JVMs to start.
+   */
+  public void setLocalProcessCount(int nProcesses) {
+	// performs no action ... implemented by ParallelBrokerLocalProcess
+  }
+  
+  /**
+   * Note: Used only by the LOCAL_PROCESS parallel broker.
+   * Sets the number of task threads in each worker JVM.
+   */
+  public void setLocalProcessThreadCount(int nThreads) {
+	// performs no action ... implemented by ParallelBrokerLocalProcess
+  }
+  
+  /**
+   * Note: Used only by the LOCAL_PROCESS parallel broker.
+   * Sets additional JVM arguments for each worker JVM.
+   */
+  public void setLocalProcessVMArgs(String args) {
+	// performs no action ... implemented by ParallelBrokerLocalProcess
+  }
+  
   /**
    * Note: Used only by the DISTRIBUTED parallel broker.
    * Sets the JPPF client thread pool size, used by JPPF in order
@@ -36,15 +36,26 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.sandia.gmp.util.profiler.PhaseTimer;
 
 /**
  * The concurrent ParallelBroker uses the Java completion service and a
@@ -52,6 +63,21 @@ import java.util.concurrent.ThreadPoolExecutor;
  * platform. The thread pool uses 2 times the number of available
  * processors defined on the current machine.
  * 
+ * <p> By default every submitted task is handed to the thread pool
+ * immediately. If a maximum number of tasks in flight is set
+ * (setMaxTasksInFlight() or the property concurrentMaxTasksInFlight), tasks
+ * beyond that window wait in the broker and are handed to the pool one at
+ * a time as earlier tasks complete. Combined with submit(Iterator), which
+ * pulls tasks from the iterator only when a slot frees up, this bounds the
+ * number of task inputs that exist at any one time.
+ * 
+ * <p> Tasks that return true from ParallelTask.isIOBound() can be run on a
+ * separate I/O executor (setIOThreadCount(), setVirtualThreadsForIO() or
+ * the properties concurrentIOThreadCount and concurrentVirtualThreadsForIO)
+ * so that threads blocked on I/O do not occupy the CPU sized pool. Virtual
+ * threads are used when the running JVM supports them; otherwise a pool of
+ * platform threads is used.
+ * 
  * @author jrhipp
  *
  */
@@ -69,19 +95,83 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   private ThreadPoolExecutor aThreadPool =
          (ThreadPoolExecutor) Executors.newFixedThreadPool(aNProcessors);
 
+  /**
+   * Completed task futures from both the CPU and I/O executors.
+   */
+  private final BlockingQueue<Future<ParallelResult>> aCompleted =
+          new LinkedBlockingQueue<Future<ParallelResult>>();
+
   /**
    * The completion service results queue used to save the results as they
    * return from the thread pool.
    */
   private CompletionService<ParallelResult> aQueue =
-          new ExecutorCompletionService<ParallelResult>(aThreadPool);
+          new ExecutorCompletionService<ParallelResult>(aThreadPool, aCompleted);
+
+  /**
+   * Executor for I/O bound tasks, or null if I/O bound tasks run in the
+   * CPU thread pool. Created on first use.
+   */
+  private ExecutorService aIOPool = null;
+
+  /**
+   * The completion service for I/O bound tasks (shares aCompleted).
+   */
+  private CompletionService<ParallelResult> aIOQueue = null;
+
+  /**
+   * Number of platform threads used for I/O bound tasks (0 to run them in
+   * the CPU thread pool).
+   */
+  private int aIOThreadCount = 0;
+
+  /**
+   * If true, I/O bound tasks run on virtual threads when the JVM supports
+   * them.
+   */
+  private boolean aVirtualThreadsForIO = false;
+
+  /**
+   * Maximum number of tasks handed to the executors at any one time, or 0
+   * for no limit.
+   */
+  private int aMaxTasksInFlight = 0;
+
+  /**
+   * Tasks submitted while the in-flight window was full.
+   */
+  private final ArrayDeque<ParallelTask> aWaiting = new ArrayDeque<ParallelTask>();
+
+  /**
+   * Task sources submitted with submit(Iterator) that have not been
+   * exhausted.
+   */
+  private final ArrayDeque<Iterator<? extends ParallelTask>> aSources =
+          new ArrayDeque<Iterator<? extends ParallelTask>>();
+
+  /**
+   * Set by close(). No further tasks are handed to the executors once the
+   * broker is closed.
+   */
+  private volatile boolean aClosed = false;
+
+  /**
+   * Number of tasks handed to the executors that have not completed.
+   */
+  private final AtomicInteger aInFlight = new AtomicInteger();
+
+  /**
+   * Number of tasks completed since this broker was created.
+   */
+  private final AtomicLong aCompletedCount = new AtomicLong();
 
   /**
    * The current number of tasks for which results are or will be available.
    * This number is simply the total number of submitted tasks minus those
-   * that have been retrieved with a call to getResults().
+   * that have been retrieved with a call to getResults(). Tasks from
+   * submit(Iterator) are counted when they are pulled from the iterator.
    */
-  private int aTaskCount = 0;
+  private final AtomicInteger aTaskCount = new AtomicInteger();
 
   /**
    * A simple inner class required to implement the concurrent Callable
@@ -128,8 +218,16 @@ public class ParallelBrokerConcurrent extends ParallelBroker
     	}
     	  
     	pt.setLocalThreadCount(aNProcessors);
-        pt.run();
-        pt.setLocalThreadCount(null);
+        long phaseTime = PhaseTimer.start();
+        try
+        {
+          pt.run();
+        }
+        finally
+        {
+          PhaseTimer.stop(PhaseTimer.Phase.PARALLEL_TASK, phaseTime);
+          pt.setLocalThreadCount(null);
+        }
         return pt.getResultObject();
       }
       catch (Exception ex)
@@ -139,6 +237,16 @@ public class ParallelBrokerConcurrent extends ParallelBroker
         ex.printStackTrace();
         return (ParallelResult) null;
       }
+      finally
+      {
+        // release this task's slot (and pull the next task) before the
+        // result becomes visible, so aTaskCount never drops to zero while
+        // more tasks remain
+
+        aCompletedCount.incrementAndGet();
+        aInFlight.decrementAndGet();
+        fillWindow();
+      }
     }
 
 	@Override
@@ -169,13 +277,131 @@ public class ParallelBrokerConcurrent extends ParallelBroker
     {
       aNProcessors = procCount;
       aThreadPool  = (ThreadPoolExecutor) Executors.newFixedThreadPool(aNProcessors);
-      aQueue       = new ExecutorCompletionService<ParallelResult>(aThreadPool);
+      aQueue       = new ExecutorCompletionService<ParallelResult>(aThreadPool, aCompleted);
     }
     //System.out.println("Number of processors to be used: " + aNProcessors);
   }
+
+  /**
+   * Sets the maximum number of tasks handed to the thread pools at any one
+   * time. Tasks submitted beyond this window wait in the broker until an
+   * earlier task completes. A value of 0 (the default) removes the limit.
+   * 
+   * @param maxTasks The maximum number of tasks in flight, or 0.
+   */
+  public void setMaxTasksInFlight(int maxTasks)
+  {
+    aMaxTasksInFlight = Math.max(0, maxTasks);
+  }
+
+  /**
+   * Returns the maximum number of tasks in flight, or 0 if unlimited.
+   * 
+   * @return The maximum number of tasks in flight, or 0 if unlimited.
+   */
+  public int getMaxTasksInFlight()
+  {
+    return aMaxTasksInFlight;
+  }
+
+  /**
+   * Sets the number of platform threads that run I/O bound tasks
+   * (ParallelTask.isIOBound()). If 0 (the default) and virtual threads are
+   * not requested, I/O bound tasks run in the CPU thread pool. Must be called
+   * before the first I/O bound task is submitted.
+   * 
+   * @param nThreads The number of platform threads for I/O bound tasks.
+   */
+  public void setIOThreadCount(int nThreads)
+  {
+    aIOThreadCount = Math.max(0, nThreads);
+  }
+
+  /**
+   * If true, I/O bound tasks (ParallelTask.isIOBound()) run on virtual
+   * threads, one per task, when the JVM supports them. Otherwise they run in
+   * a pool of setIOThreadCount() platform threads (4 times the processor
+   * count if not set). Must be called before the first I/O bound task is
+   * submitted.
+   * 
+   * @param useVirtualThreads True to use virtual threads for I/O bound tasks.
+   */
+  public void setVirtualThreadsForIO(boolean useVirtualThreads)
+  {
+    aVirtualThreadsForIO = useVirtualThreads;
+  }
+
+  /**
+   * Sets the standard ParallelBroker properties plus
+   * 
+   *   concurrentMaxTasksInFlight
+   *   concurrentIOThreadCount
+   *   concurrentVirtualThreadsForIO
+   * 
+   * @param prop The properties file from which relevant ParallelBroker
+   *             properties will be set.
+   */
+  @Override
+  public void setProperties(Properties prop)
+  {
+    super.setProperties(prop);
+
+    String p = prop.getProperty("concurrentMaxTasksInFlight", "-1").trim();
+    int i = Integer.valueOf(p);
+    if (i != -1) setMaxTasksInFlight(i);
+
+    p = prop.getProperty("concurrentIOThreadCount", "-1").trim();
+    i = Integer.valueOf(p);
+    if (i != -1) setIOThreadCount(i);
+
+    p = prop.getProperty("concurrentVirtualThreadsForIO", "").trim();
+    if (!p.equals("")) setVirtualThreadsForIO(Boolean.valueOf(p));
+  }
+
+  /**
+   * Returns the number of tasks handed to the thread pools that have not yet
+   * completed (running or waiting in a pool's queue).
+   * 
+   * @return The number of tasks in flight.
+   */
+  public int getTasksInFlight()
+  {
+    return aInFlight.get();
+  }
+
+  /**
+   * Returns the number of submitted tasks waiting in the broker for a slot
+   * in the in-flight window. Tasks not yet pulled from a submitted Iterator
+   * are not included.
+   * 
+   * @return The number of tasks waiting for a slot.
+   */
+  public int getTasksQueued()
+  {
+    synchronized (aWaiting)
+    {
+      return aWaiting.size();
+    }
+  }
+
+  /**
+   * Returns the number of tasks that have completed since this broker was
+   * created.
+   * 
+   * @return The number of completed tasks.
+   */
+  public long getTasksCompleted()
+  {
+    return aCompletedCount.get();
+  }
   
   @Override
-  public void close(){ aThreadPool.shutdown(); }
+  public void close()
+  {
+    aClosed = true;
+    aThreadPool.shutdown();
+    if (aIOPool != null) aIOPool.shutdown();
+  }
 
   /**
    * Returns the type name of the ParallelBroker.
@@ -227,11 +453,11 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   {
     // return null if no tasks are pending
 
-    if (aTaskCount == 0) return null;
+    if (aTaskCount.get() == 0) return null;
 
     // get the most recent Future if any. If none are found return null
 
-    Future<ParallelResult> f = aQueue.poll();
+    Future<ParallelResult> f = aCompleted.poll();
     if (f != null)
     {
       // found a future ... decrement the task count and return the result.
@@ -239,7 +465,7 @@ public class ParallelBrokerConcurrent extends ParallelBroker
 
       try
       {
-        --aTaskCount;
+        aTaskCount.decrementAndGet();
         //System.out.println("Remaining Tasks " + aTaskCount);
         return f.get();
       }
@@ -267,14 +493,14 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   {
     // return null if no tasks are pending
 
-    if (aTaskCount == 0) return null;
+    if (aTaskCount.get() == 0) return null;
 
     // get another task
 
     try
     {
-      ParallelResult pr = aQueue.take().get();
-      --aTaskCount;
+      ParallelResult pr = aCompleted.take().get();
+      aTaskCount.decrementAndGet();
       //System.out.println("Remaining Tasks " + aTaskCount);
       return pr;
     }
@@ -296,24 +522,24 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   {
     // return null if no tasks are pending
 
-    if (aTaskCount == 0) return null;
+    if (aTaskCount.get() == 0) return null;
 
     // create a results vector to add any entries into
 
     ArrayList<ParallelResult> results =
-      new ArrayList<ParallelResult>(aTaskCount + 1);
+      new ArrayList<ParallelResult>(aTaskCount.get() + 1);
 
     // loop over all returned results
 
     Future<ParallelResult> f;
-    while ((f = aQueue.poll()) != null)
+    while ((f = aCompleted.poll()) != null)
     {
       // found a future ... decrement the task count and add the result
       // into the list. if an error occurs return null.
 
       try
       {
-        --aTaskCount;
+        aTaskCount.decrementAndGet();
         results.add(f.get());
       }
       catch(Exception ex)
@@ -344,7 +570,7 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   {
     // return null if no tasks are pending
 
-    if (aTaskCount == 0) return null;
+    if (aTaskCount.get() == 0) return null;
 
     // wait for results and return
 
@@ -361,7 +587,7 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   @Override
   public boolean isEmpty()
   {
-    return (aTaskCount == 0);
+    return (aTaskCount.get() == 0);
   }
 
   /**
@@ -372,7 +598,7 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   @Override
   public int size()
   {
-    return aTaskCount;
+    return aTaskCount.get();
   }
 
   /**
@@ -400,11 +626,150 @@ public class ParallelBrokerConcurrent extends ParallelBroker
   public void submit(ParallelTask tsk)
   {
     // increment task count, wrap the task in a Callable, and submit it to
-    // the completion service for processing.
+    // the completion service for processing. If the in-flight window is
+    // limited, queue the task in the broker and fill the window.
+
+    aTaskCount.incrementAndGet();
+    if (aMaxTasksInFlight > 0)
+    {
+      synchronized (aWaiting)
+      {
+        aWaiting.addLast(tsk);
+      }
+      fillWindow();
+    }
+    else
+      execute(tsk);
+  }
 
-    ++aTaskCount;
+  /**
+   * Submit tasks that are pulled from the input iterator only as slots in
+   * the in-flight window become available, so that task inputs are created
+   * on demand rather than all at once. If no window has been set, twice the
+   * processor count is used. The iterator is called from pool threads, but
+   * never concurrently. This function returns immediately.
+   * 
+   * <p> size() counts only the tasks pulled from the iterator so far;
+   * isEmpty() returns true only when the iterator is exhausted and all of
+   * its results have been retrieved.
+   * 
+   * @param tsks The source of the tasks to be processed.
+   */
+  public void submit(Iterator<? extends ParallelTask> tsks)
+  {
+    if (aMaxTasksInFlight <= 0) setMaxTasksInFlight(2 * aNProcessors);
+    synchronized (aWaiting)
+    {
+      aSources.addLast(tsks);
+    }
+    fillWindow();
+  }
+
+  /**
+   * Hand waiting tasks to the executors until the in-flight window is full
+   * or no tasks remain. If the window is not limited, all waiting tasks are
+   * handed over. Nothing is handed over once the broker is closed.
+   */
+  private void fillWindow()
+  {
+    while (true)
+    {
+      ParallelTask tsk;
+      synchronized (aWaiting)
+      {
+        if (aClosed) return;
+        int max = aMaxTasksInFlight;
+        if (max > 0 && aInFlight.get() >= max) return;
+
+        tsk = aWaiting.pollFirst();
+        while (tsk == null && !aSources.isEmpty())
+        {
+          Iterator<? extends ParallelTask> it = aSources.peekFirst();
+          try
+          {
+            if (it.hasNext())
+            {
+              tsk = it.next();
+              aTaskCount.incrementAndGet();
+            }
+            else
+              aSources.pollFirst();
+          }
+          catch (RuntimeException ex)
+          {
+            // a failing task source is abandoned
+
+            ex.printStackTrace();
+            aSources.pollFirst();
+          }
+        }
+        if (tsk == null) return;
+
+        // reserve the slot while holding the lock
+
+        aInFlight.incrementAndGet();
+      }
+      try
+      {
+        submitToExecutor(tsk);
+      }
+      catch (RejectedExecutionException ex)
+      {
+        // the broker was closed after the task was pulled ... drop it
+
+        aInFlight.decrementAndGet();
+        if (!aClosed) throw ex;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Hand a task to the executor appropriate for the task.
+   */
+  private void execute(ParallelTask tsk)
+  {
+    aInFlight.incrementAndGet();
+    submitToExecutor(tsk);
+  }
+
+  private void submitToExecutor(ParallelTask tsk)
+  {
     ConcurrentTask ct = new ConcurrentTask(tsk);
-    aQueue.submit(ct);
+    if (tsk.isIOBound() && (aIOThreadCount > 0 || aVirtualThreadsForIO))
+      getIOQueue().submit(ct);
+    else
+      aQueue.submit(ct);
+  }
+
+  /**
+   * Returns the completion service for I/O bound tasks, creating the I/O
+   * executor on first use. Virtual threads are obtained by reflection so that
+   * this class still runs on JVMs that do not support them.
+   */
+  private synchronized CompletionService<ParallelResult> getIOQueue()
+  {
+    if (aIOQueue == null)
+    {
+      if (aVirtualThreadsForIO)
+      {
+        try
+        {
+          aIOPool = (ExecutorService) Executors.class
+              .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception ex)
+        {
+          System.err.println("Virtual threads are not supported by this JVM, " +
+              "using platform threads for I/O bound tasks.");
+        }
+      }
+      if (aIOPool == null)
+        aIOPool = Executors.newFixedThreadPool(aIOThreadCount > 0 ?
+            aIOThreadCount : 4 * aNProcessors);
+      aIOQueue = new ExecutorCompletionService<ParallelResult>(aIOPool, aCompleted);
+    }
+    return aIOQueue;
   }
 
   @Override
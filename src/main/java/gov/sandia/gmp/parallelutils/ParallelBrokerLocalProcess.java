@@ -0,0 +1,1213 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.parallelutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The local process ParallelBroker forks a number of worker JVMs on the
+ * current machine and executes submitted tasks in thread pools inside those
+ * JVMs. Tasks and results are serialized and exchanged with the workers over
+ * loopback sockets, exactly as they would be for a distributed broker, so
+ * any ParallelTask that works in DISTRIBUTED mode works here.
+ * 
+ * <p> Splitting one very large heap into several smaller ones shortens
+ * garbage collection pauses and lets the operating system place each worker
+ * on its own NUMA node. Worker JVMs are started lazily on the first call to
+ * submit() using the java executable and class path of the client JVM, and
+ * are shut down by close().
+ * 
+ * <p> Tasks are handed to a worker only when it has a free slot (two per
+ * worker thread), so long running tasks do not leave other workers idle. If
+ * a worker dies, the tasks it was processing are resubmitted to the
+ * remaining workers. If no workers remain, outstanding tasks return null
+ * results, consistent with the CONCURRENT broker's handling of failed tasks.
+ * 
+ * <p> Each worker is passed a random secret through its environment (not
+ * its command line, which other local users can see) and must return it,
+ * with its index, when it connects. Connections that do not present a valid
+ * index and secret are closed before any object is read from them. The
+ * payload of each packet (task, result, shared object, ...) is serialized
+ * separately from the packet, so a payload that cannot be deserialized
+ * fails only its own task.
+ * 
+ * <p> Shared data added with addSharedData() is sent once to each worker
+ * and is available to tasks through ParallelTask.getSharedObject(). Messages
+ * sent by tasks with sendToClient() are forwarded to the client.
+ * 
+ * <p> The number of worker processes, threads per process and worker JVM
+ * arguments are set with setLocalProcessCount(), setLocalProcessThreadCount()
+ * and setLocalProcessVMArgs(), or with the properties localProcessCount,
+ * localProcessThreads and localProcessVMArgs. nodeMaxMemory sets the
+ * maximum heap (-Xmx) of each worker in megabytes.
+ */
+public class ParallelBrokerLocalProcess extends ParallelBroker
+{
+  /**
+   * Name of the environment variable through which each worker JVM receives
+   * the secret it must present when it connects to the client.
+   */
+  private static final String SECRET_ENV = "GMP_LOCAL_PROCESS_SECRET";
+
+  /**
+   * Number of worker JVMs to start.
+   */
+  private int aNProcesses = 2;
+
+  /**
+   * Number of task threads in each worker JVM. If not set explicitly, the
+   * processor count is divided evenly among the worker JVMs.
+   */
+  private int aNThreads = -1;
+
+  /**
+   * Total number of processor threads to use across all worker JVMs
+   * (number of available processors, by default).
+   */
+  private int aNProcessors = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Additional JVM arguments for each worker (e.g. "-XX:+UseParallelGC").
+   */
+  private String aVMArgs = "";
+
+  /**
+   * Maximum heap size of each worker JVM in megabytes, or -1 to use the
+   * JVM default.
+   */
+  private long aNodeMaxMemory = -1;
+
+  /**
+   * Number of seconds to wait for all worker JVMs to connect.
+   */
+  private int aStartupTimeout = 120;
+
+  /**
+   * The running workers, or null if they have not been started.
+   */
+  private ArrayList<Worker> aWorkers = null;
+
+  /**
+   * Tasks waiting to be sent to a worker.
+   */
+  private final LinkedBlockingDeque<Packet> aPending =
+          new LinkedBlockingDeque<Packet>();
+
+  /**
+   * Results returned from the workers that have not yet been retrieved.
+   */
+  private final LinkedBlockingQueue<Packet> aResults =
+          new LinkedBlockingQueue<Packet>();
+
+  /**
+   * Shared data objects that are sent to each worker when it starts.
+   */
+  private final LinkedHashMap<String, Object> aSharedData =
+          new LinkedHashMap<String, Object>();
+
+  /**
+   * Outstanding static cleanup acknowledgements.
+   */
+  private volatile CountDownLatch aCleanupLatch = null;
+
+  /**
+   * Id assigned to the next submitted task.
+   */
+  private long aNextId = 0;
+
+  /**
+   * The current number of tasks for which results are or will be available.
+   * This number is simply the total number of submitted tasks minus those
+   * that have been retrieved with a call to getResults().
+   */
+  private int aTaskCount = 0;
+
+  /**
+   * Default constructor.
+   */
+  public ParallelBrokerLocalProcess()
+  {
+    super();
+  }
+
+  /**
+   * Sets the number of worker JVMs. Must be called before the first call to
+   * submit(), or after close().
+   * 
+   * @param nProcesses The number of worker JVMs.
+   */
+  @Override
+  public void setLocalProcessCount(int nProcesses)
+  {
+    if (nProcesses > 0) aNProcesses = nProcesses;
+  }
+
+  /**
+   * Sets the number of task threads in each worker JVM. Must be called before
+   * the first call to submit(), or after close().
+   * 
+   * @param nThreads The number of task threads in each worker JVM.
+   */
+  @Override
+  public void setLocalProcessThreadCount(int nThreads)
+  {
+    if (nThreads > 0) aNThreads = nThreads;
+  }
+
+  /**
+   * Sets additional whitespace separated JVM arguments for each worker JVM.
+   * Must be called before the first call to submit(), or after close().
+   * 
+   * @param args JVM arguments for each worker.
+   */
+  @Override
+  public void setLocalProcessVMArgs(String args)
+  {
+    aVMArgs = args == null ? "" : args.trim();
+  }
+
+  /**
+   * Sets the total processor count, which is divided evenly among the worker
+   * JVMs unless the thread count per worker has been set explicitly.
+   * 
+   * @param procCount The total processor count to use.
+   */
+  @Override
+  public void setProcessorCount(int procCount)
+  {
+    if (procCount > 0) aNProcessors = procCount;
+  }
+
+  /**
+   * Sets the maximum heap size of each worker JVM in megabytes.
+   */
+  @Override
+  public void setNodeMaxMemory(long megs)
+  {
+    aNodeMaxMemory = megs;
+  }
+
+  /**
+   * Returns the number of task threads in each worker JVM.
+   * 
+   * @return The number of task threads in each worker JVM.
+   */
+  public int getLocalProcessThreadCount()
+  {
+    if (aNThreads > 0) return aNThreads;
+    return Math.max(1, (aNProcessors + aNProcesses - 1) / aNProcesses);
+  }
+
+  /**
+   * Returns the number of worker JVMs.
+   * 
+   * @return The number of worker JVMs.
+   */
+  public int getLocalProcessCount()
+  {
+    return aNProcesses;
+  }
+
+  /**
+   * Returns the type name of the ParallelBroker.
+   * 
+   * @return The type name of the ParallelBroker.
+   */
+  @Override
+  public String getName()
+  {
+    return "LocalProcess";
+  }
+
+  /**
+   * Returns the total number of task threads over all worker JVMs.
+   * 
+   * @return The total number of task threads over all worker JVMs.
+   */
+  @Override
+  public int getProcessorCount()
+  {
+    return aNProcesses * getLocalProcessThreadCount();
+  }
+
+  /**
+   * Returns the total number of task threads, by host.
+   * 
+   * @return The total number of task threads, by host.
+   */
+  @Override
+  public Map<String, Integer> getProcessorCountByHost()
+  {
+    Map<String, Integer> map = new HashMap<String, Integer>();
+    try {
+      map.put((InetAddress.getLocalHost()).getHostName(), getProcessorCount());
+    } catch (UnknownHostException e) {}
+    return map;
+  }
+
+  @Override
+  public int getProcessorCountEstimate() { return getProcessorCount(); }
+
+  /**
+   * Adds a data object that is sent once to every worker JVM and is
+   * available to tasks through ParallelTask.getSharedObject(key).
+   * 
+   * @param key The key string associated with the data object obj.
+   * @param obj The data object (must be Serializable).
+   */
+  @Override
+  public void addSharedData(String key, Object obj)
+  {
+    synchronized (aSharedData)
+    {
+      aSharedData.put(key, obj);
+      if (aWorkers != null)
+        for (Worker w : aWorkers) w.send(new Packet(Packet.SHARED, 0, key, obj));
+    }
+  }
+
+  /**
+   * Removes all shared data from this broker and from the worker JVMs.
+   */
+  @Override
+  public void clearSharedData()
+  {
+    synchronized (aSharedData)
+    {
+      aSharedData.clear();
+      if (aWorkers != null)
+        for (Worker w : aWorkers) w.send(new Packet(Packet.SHARED, 0, null, null));
+    }
+  }
+
+  /**
+   * Return the next available result or null if none are available
+   * or ever will be.
+   * 
+   * @return The next available result.
+   */
+  @Override
+  public ParallelResult getResult()
+  {
+    // return null if no tasks are pending
+
+    if (aTaskCount == 0) return null;
+
+    Packet p = aResults.poll();
+    if (p == null) return null;
+
+    --aTaskCount;
+    return (ParallelResult) p.payload;
+  }
+
+  /**
+   * Return the next available result or null if none are available
+   * or ever will be. This function waits (blocks) until a task is available
+   * before returning.
+   * 
+   * @return The next available result.
+   */
+  @Override
+  public ParallelResult getResultWait()
+  {
+    // return null if no tasks are pending
+
+    if (aTaskCount == 0) return null;
+
+    try
+    {
+      Packet p = aResults.take();
+      --aTaskCount;
+      return (ParallelResult) p.payload;
+    }
+    catch (InterruptedException ex)
+    {
+      ex.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Return all available results or null if none are available
+   * or ever will be.
+   * 
+   * @return List of all available results.
+   */
+  @Override
+  public List<ParallelResult> getResults()
+  {
+    // return null if no tasks are pending
+
+    if (aTaskCount == 0) return null;
+
+    ArrayList<Packet> packets = new ArrayList<Packet>();
+    aResults.drainTo(packets);
+    if (packets.size() == 0) return null;
+
+    ArrayList<ParallelResult> results =
+      new ArrayList<ParallelResult>(packets.size());
+    for (Packet p : packets) results.add((ParallelResult) p.payload);
+    aTaskCount -= packets.size();
+    return results;
+  }
+
+  /**
+   * Return all available results or null if none are available
+   * or ever will be. This function waits (blocks) until tasks are available
+   * before returning.
+   * 
+   * @return List of all available results.
+   */
+  @Override
+  public List<ParallelResult> getResultsWait()
+  {
+    // return null if no tasks are pending
+
+    if (aTaskCount == 0) return null;
+
+    // wait for the first result and add any others that are available
+
+    ParallelResult first = getResultWait();
+    List<ParallelResult> results = getResults();
+    if (results == null) results = new ArrayList<ParallelResult>(1);
+    results.add(0, first);
+    return results;
+  }
+
+  /**
+   * Returns true if no more task results are available.
+   * 
+   * @return True if no more task results are available.
+   */
+  @Override
+  public boolean isEmpty()
+  {
+    return (aTaskCount == 0);
+  }
+
+  /**
+   * Returns the number of task results that are or will be available.
+   * 
+   * @return The number of task results that are or will be available.
+   */
+  @Override
+  public int size()
+  {
+    return aTaskCount;
+  }
+
+  /**
+   * Submit a list of tasks for parallel processing in the worker JVMs. This
+   * function returns immediately.
+   * 
+   * @param tsks The list of all ParallelTasks to be submitted for
+   *             processing.
+   */
+  @Override
+  public void submit(List<? extends ParallelTask> tsks)
+  {
+    // loop over each task and submit
+
+    for (int i = 0; i < tsks.size(); ++i) submit(tsks.get(i));
+  }
+
+  /**
+   * Submit a single task for parallel processing in the worker JVMs. This
+   * function returns immediately, although the first call waits for the
+   * worker JVMs to start.
+   * 
+   * @param tsk The task to be processed.
+   */
+  @Override
+  public void submit(ParallelTask tsk)
+  {
+    start();
+
+    ++aTaskCount;
+    requeue(new Packet(Packet.TASK, aNextId++, null, tsk), false);
+  }
+
+  /**
+   * Sends the cleanup task to every worker JVM, where it is run once.
+   */
+  @Override
+  public void submitStaticCleanupTask(StaticCleanupTask tsk, boolean waitFor)
+  {
+    start();
+
+    ArrayList<Worker> workers = getLiveWorkers();
+    CountDownLatch latch = new CountDownLatch(workers.size());
+    aCleanupLatch = latch;
+    for (Worker w : workers)
+      if (!w.send(new Packet(Packet.CLEANUP, 0, null, tsk))) latch.countDown();
+
+    if (waitFor)
+    {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Shuts down all worker JVMs. A subsequent call to submit() starts a new
+   * set of workers.
+   */
+  @Override
+  public synchronized void close()
+  {
+    if (aWorkers == null) return;
+
+    for (Worker w : aWorkers) w.shutdown();
+    for (Worker w : aWorkers) w.waitFor();
+    aWorkers = null;
+  }
+
+  /**
+   * Starts the worker JVMs and waits for each of them to connect, if this
+   * has not already been done. Each worker must identify itself with its
+   * index and the secret passed to it in its environment. If the workers
+   * cannot all be started and connected, every started process is destroyed.
+   */
+  private synchronized void start()
+  {
+    if (aWorkers != null) return;
+
+    int nThreads = getLocalProcessThreadCount();
+    ArrayList<Process> processes = new ArrayList<Process>(aNProcesses);
+    Worker[] workers = new Worker[aNProcesses];
+    boolean started = false;
+    try (ServerSocket server = new ServerSocket(0, aNProcesses,
+                                                InetAddress.getLoopbackAddress()))
+    {
+      server.setSoTimeout(aStartupTimeout * 1000);
+
+      SecureRandom random = new SecureRandom();
+      byte[][] secrets = new byte[aNProcesses][];
+      for (int i = 0; i < aNProcesses; ++i)
+      {
+        ArrayList<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" +
+                File.separator + "java");
+        if (aNodeMaxMemory > 0) cmd.add("-Xmx" + aNodeMaxMemory + "m");
+        if (aVMArgs.length() > 0)
+          for (String s : aVMArgs.split("\\s+")) cmd.add(s);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(ParallelBrokerLocalProcess.class.getName());
+        cmd.add(Integer.toString(server.getLocalPort()));
+        cmd.add(Integer.toString(i));
+        cmd.add(Integer.toString(nThreads));
+
+        secrets[i] = new byte[32];
+        random.nextBytes(secrets[i]);
+        ProcessBuilder pb = new ProcessBuilder(cmd).inheritIO();
+        pb.environment().put(SECRET_ENV, toHex(secrets[i]));
+        processes.add(pb.start());
+      }
+
+      // accept the connections in any order and match them to their process
+      // using the index sent by the worker. Connections that do not present
+      // a valid index and the secret of that index are closed and ignored.
+
+      int connected = 0;
+      while (connected < aNProcesses)
+      {
+        Socket socket = server.accept();
+        Worker w = null;
+        int index = -1;
+        try
+        {
+          socket.setSoTimeout(aStartupTimeout * 1000);
+          w = new Worker(socket);
+          index = w.in.readInt();
+          byte[] secret = new byte[32];
+          w.in.readFully(secret);
+          if ((index < 0) || (index >= aNProcesses) || (workers[index] != null) ||
+              !MessageDigest.isEqual(secret, secrets[index]))
+            index = -1;
+          else
+            socket.setSoTimeout(0);
+        }
+        catch (IOException ex)
+        {
+          index = -1;
+        }
+
+        if (index < 0)
+        {
+          System.err.println("ParallelBrokerLocalProcess: rejected a connection " +
+              "that did not identify itself as a worker process");
+          try { socket.close(); } catch (IOException e) {}
+          continue;
+        }
+
+        w.process = processes.get(index);
+        workers[index] = w;
+        ++connected;
+      }
+
+      aWorkers = new ArrayList<Worker>(aNProcesses);
+      synchronized (aSharedData)
+      {
+        for (Worker w : workers)
+        {
+          aWorkers.add(w);
+          for (Map.Entry<String, Object> e : aSharedData.entrySet())
+            w.send(new Packet(Packet.SHARED, 0, e.getKey(), e.getValue()));
+          w.startThreads();
+        }
+      }
+      started = true;
+    }
+    catch (IOException ex)
+    {
+      throw new IllegalStateException("Failed to start " + aNProcesses +
+          " local worker processes", ex);
+    }
+    finally
+    {
+      if (!started)
+      {
+        aWorkers = null;
+        for (Worker w : workers)
+          if (w != null) try { w.socket.close(); } catch (IOException e) {}
+        for (Process p : processes) p.destroy();
+      }
+    }
+  }
+
+  /**
+   * @return the workers that are still running.
+   */
+  private synchronized ArrayList<Worker> getLiveWorkers()
+  {
+    ArrayList<Worker> live = new ArrayList<Worker>();
+    if (aWorkers != null)
+      for (Worker w : aWorkers) if (w.alive) live.add(w);
+    return live;
+  }
+
+  /**
+   * Queue a task for execution by the next available worker. If no workers
+   * are running the task is returned immediately with a null result.
+   * 
+   * @param p The task packet.
+   * @param first If true the task is placed at the front of the queue.
+   */
+  private void requeue(Packet p, boolean first)
+  {
+    if (getLiveWorkers().isEmpty())
+    {
+      System.err.println("ParallelBrokerLocalProcess: no worker processes " +
+          "remain, returning a null result for task " + p.id);
+      aResults.add(new Packet(Packet.RESULT, p.id, null, null));
+    }
+    else if (first)
+      aPending.addFirst(p);
+    else
+      aPending.addLast(p);
+  }
+
+  /**
+   * Client side connection to one worker JVM. One thread sends tasks to the
+   * worker whenever it has a free slot and another receives results and
+   * messages.
+   */
+  private final class Worker
+  {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private Process process;
+
+    /**
+     * Limits the number of tasks in flight on this worker.
+     */
+    private final Semaphore slots =
+        new Semaphore(2 * getLocalProcessThreadCount());
+
+    /**
+     * Tasks sent to this worker that have not yet returned, by id.
+     */
+    private final HashMap<Long, Packet> inFlight = new HashMap<Long, Packet>();
+
+    private volatile boolean alive = true;
+    private Thread sender, receiver;
+
+    Worker(Socket socket) throws IOException
+    {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    void startThreads()
+    {
+      sender = new Thread(new Runnable() {
+        @Override
+        public void run() { sendTasks(); }
+      }, "LocalProcessSender-" + socket.getPort());
+      receiver = new Thread(new Runnable() {
+        @Override
+        public void run() { receive(); }
+      }, "LocalProcessReceiver-" + socket.getPort());
+      sender.setDaemon(true);
+      receiver.setDaemon(true);
+      sender.start();
+      receiver.start();
+    }
+
+    /**
+     * Serialize and send a packet. Returns false if the packet could not be
+     * sent.
+     */
+    boolean send(Packet p)
+    {
+      if (!alive) return false;
+      try
+      {
+        byte[] bytes = serialize(p.type, p.id, p.key, p.payload);
+        synchronized (out)
+        {
+          out.writeInt(bytes.length);
+          out.write(bytes);
+          out.flush();
+        }
+        return true;
+      }
+      catch (IOException ex)
+      {
+        fail(ex);
+        return false;
+      }
+    }
+
+    private void sendTasks()
+    {
+      while (alive)
+      {
+        Packet p;
+        try
+        {
+          slots.acquire();
+          p = aPending.take();
+        }
+        catch (InterruptedException ex)
+        {
+          return;
+        }
+
+        byte[] bytes;
+        try
+        {
+          bytes = serialize(p.type, p.id, p.key, p.payload);
+        }
+        catch (IOException ex)
+        {
+          // task could not be serialized ... return a null result
+
+          ex.printStackTrace();
+          slots.release();
+          aResults.add(new Packet(Packet.RESULT, p.id, null, null));
+          continue;
+        }
+
+        synchronized (inFlight)
+        {
+          if (!alive)
+          {
+            requeue(p, true);
+            return;
+          }
+          inFlight.put(p.id, p);
+        }
+
+        try
+        {
+          synchronized (out)
+          {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+          }
+        }
+        catch (IOException ex)
+        {
+          fail(ex);
+          return;
+        }
+      }
+    }
+
+    private void receive()
+    {
+      try
+      {
+        while (true)
+        {
+          Packet p = readPacket(in);
+          switch (p.type)
+          {
+            case Packet.RESULT:
+              synchronized (inFlight)
+              {
+                inFlight.remove(p.id);
+              }
+              aResults.add(new Packet(Packet.RESULT, p.id, null, readPayload(p)));
+              slots.release();
+              break;
+            case Packet.MESSAGE:
+              Object message = readPayload(p);
+              if (message != null) setMessageReceived(message);
+              break;
+            case Packet.CLEANUP:
+              CountDownLatch latch = aCleanupLatch;
+              if (latch != null) latch.countDown();
+              break;
+            default:
+              break;
+          }
+        }
+      }
+      catch (Exception ex)
+      {
+        if (alive) fail(ex);
+      }
+    }
+
+    /**
+     * Called when communication with the worker fails. Tasks in flight on
+     * this worker are resubmitted to the remaining workers.
+     */
+    private void fail(Exception ex)
+    {
+      ArrayList<Packet> lost;
+      synchronized (inFlight)
+      {
+        if (!alive) return;
+        alive = false;
+        lost = new ArrayList<Packet>(inFlight.values());
+        inFlight.clear();
+      }
+
+      System.err.println("ParallelBrokerLocalProcess: lost worker process on port " +
+          socket.getPort() + " (" + ex + "), resubmitting " + lost.size() + " tasks");
+
+      if (sender != null) sender.interrupt();
+      try { socket.close(); } catch (IOException e) {}
+      if (process != null) process.destroy();
+
+      for (Packet p : lost) requeue(p, true);
+
+      // if this was the last worker, fail everything still waiting
+
+      if (getLiveWorkers().isEmpty())
+      {
+        Packet p;
+        while ((p = aPending.poll()) != null) requeue(p, false);
+      }
+    }
+
+    void shutdown()
+    {
+      send(new Packet(Packet.SHUTDOWN, 0, null, null));
+      synchronized (inFlight)
+      {
+        alive = false;
+      }
+      if (sender != null) sender.interrupt();
+    }
+
+    void waitFor()
+    {
+      try
+      {
+        if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroy();
+      }
+      catch (InterruptedException ex)
+      {
+        process.destroy();
+      }
+      try { socket.close(); } catch (IOException e) {}
+    }
+  }
+
+  /**
+   * The unit of communication between the client and the worker JVMs. On
+   * the connection the payload of a packet is always its own serialized
+   * bytes (see serialize() and readPayload()).
+   */
+  private static final class Packet implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+
+    static final int TASK = 0;
+    static final int RESULT = 1;
+    static final int MESSAGE = 2;
+    static final int SHARED = 3;
+    static final int CLEANUP = 4;
+    static final int SHUTDOWN = 5;
+
+    final int type;
+    final long id;
+    final String key;
+    final Object payload;
+
+    Packet(int type, long id, String key, Object payload)
+    {
+      this.type = type;
+      this.id = id;
+      this.key = key;
+      this.payload = payload;
+    }
+  }
+
+  /**
+   * Serialize a packet to a byte array, so that serialization failures
+   * cannot corrupt the socket stream and serialization happens outside of
+   * any lock on the stream. The payload is serialized on its own first, so
+   * that the receiver can always read the packet and deserializes the
+   * payload only when, and where, it is needed.
+   */
+  private static byte[] serialize(int type, long id, String key, Object payload)
+      throws IOException
+  {
+    Object bytes = null;
+    if (payload != null)
+    {
+      ByteArrayOutputStream pbytes = new ByteArrayOutputStream(1024);
+      ObjectOutputStream oos = new ObjectOutputStream(pbytes);
+      oos.writeObject(payload);
+      oos.close();
+      bytes = pbytes.toByteArray();
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    ObjectOutputStream oos = new ObjectOutputStream(out);
+    oos.writeObject(new Packet(type, id, key, bytes));
+    oos.close();
+    return out.toByteArray();
+  }
+
+  /**
+   * Deserialize the payload of a packet read with readPacket(). Returns null
+   * (after printing the error) if the payload cannot be deserialized.
+   */
+  private static Object readPayload(Packet p)
+  {
+    if (p.payload == null) return null;
+    try
+    {
+      return deserialize((byte[]) p.payload);
+    }
+    catch (Exception ex)
+    {
+      ex.printStackTrace();
+      return null;
+    }
+  }
+
+  private static Object deserialize(byte[] bytes)
+      throws IOException, ClassNotFoundException
+  {
+    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    try
+    {
+      return ois.readObject();
+    }
+    finally
+    {
+      ois.close();
+    }
+  }
+
+  /**
+   * Returns the hexadecimal representation of bytes.
+   */
+  private static String toHex(byte[] bytes)
+  {
+    StringBuilder sb = new StringBuilder(2 * bytes.length);
+    for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
+    return sb.toString();
+  }
+
+  private static Packet readPacket(DataInputStream in)
+      throws IOException, ClassNotFoundException
+  {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return (Packet) deserialize(bytes);
+  }
+
+  /**
+   * Shared object provider installed on tasks executing in a worker JVM.
+   */
+  private static final class WorkerSharedObjectProvider
+  implements SharedObjectProvider
+  {
+    private static final long serialVersionUID = 1L;
+    private final transient Map<String, Object> shared;
+    private Object result;
+    private String id;
+
+    WorkerSharedObjectProvider(Map<String, Object> shared)
+    {
+      this.shared = shared;
+    }
+
+    @Override
+    public Object getSharedObject(String key) { return shared.get(key); }
+
+    @Override
+    public void setResult(Object res) { result = res; }
+
+    @Override
+    public Object getResult() { return result; }
+
+    @Override
+    public void setId(String id) { this.id = id; }
+
+    @Override
+    public String getId() { return id; }
+  }
+
+  /**
+   * Entry point of a worker JVM. Connects to the client on the loopback
+   * interface, identifies itself with its index and the secret passed in its
+   * environment, then executes tasks in a fixed thread pool until the client
+   * sends a shutdown request or closes the connection. Tasks are
+   * deserialized by the pool threads, so a task that cannot be read returns
+   * a null result instead of stopping the worker.
+   * 
+   * @param args port, worker index, number of task threads.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    int port = Integer.parseInt(args[0]);
+    int index = Integer.parseInt(args[1]);
+    final int nThreads = Integer.parseInt(args[2]);
+
+    String secret = System.getenv(SECRET_ENV);
+    if ((secret == null) || (secret.length() != 64))
+    {
+      System.err.println("ParallelBrokerLocalProcess: " + SECRET_ENV +
+          " is not set, exiting");
+      System.exit(1);
+    }
+
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+    socket.setTcpNoDelay(true);
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+    final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+    out.writeInt(index);
+    for (int i = 0; i < 64; i += 2)
+      out.writeByte(Integer.parseInt(secret.substring(i, i + 2), 16));
+    out.flush();
+
+    final ConcurrentHashMap<String, Object> shared =
+        new ConcurrentHashMap<String, Object>();
+
+    ParallelTask.setCommunicationsManager(new CommunicationsManager() {
+      @Override
+      public void sendToClient(Object message) throws IOException {
+        writePacket(out, new Packet(Packet.MESSAGE, 0, null, message));
+      }
+    });
+
+    ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+    boolean shutdown = false;
+    try
+    {
+      while (true)
+      {
+        final Packet p = readPacket(in);
+        if (p.type == Packet.SHUTDOWN)
+        {
+          shutdown = true;
+          break;
+        }
+
+        switch (p.type)
+        {
+          case Packet.SHARED:
+            if (p.key == null) shared.clear();
+            else
+            {
+              Object obj = readPayload(p);
+              if (obj == null) shared.remove(p.key);
+              else shared.put(p.key, obj);
+            }
+            break;
+          case Packet.TASK:
+            pool.submit(new Runnable() {
+              @Override
+              public void run() { runTask(p, nThreads, shared, out); }
+            });
+            break;
+          case Packet.CLEANUP:
+            pool.submit(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  ((StaticCleanupTask) deserialize((byte[]) p.payload)).run();
+                } catch (Throwable t) {
+                  t.printStackTrace();
+                }
+                writePacket(out, new Packet(Packet.CLEANUP, 0, null, null));
+              }
+            });
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    catch (Exception ex)
+    {
+      // client went away or the connection can no longer be read ... nothing
+      // left to do
+
+      if (!(ex instanceof EOFException)) ex.printStackTrace();
+    }
+    finally
+    {
+      if (shutdown)
+        pool.shutdown();
+      else
+        pool.shutdownNow();
+    }
+
+    if (!shutdown) System.exit(1);
+
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    socket.close();
+    System.exit(0);
+  }
+
+  /**
+   * Deserializes and executes one task in a worker JVM and sends its result
+   * to the client. Tasks that cannot be deserialized or that fail return a
+   * null result.
+   */
+  private static void runTask(Packet p, int nThreads, Map<String, Object> shared,
+                              DataOutputStream out)
+  {
+    ParallelResult result = null;
+    try
+    {
+      ParallelTask pt = (ParallelTask) deserialize((byte[]) p.payload);
+      pt.setSharedObjectProvider(new WorkerSharedObjectProvider(shared));
+      pt.setLocalThreadCount(nThreads);
+      pt.run();
+      pt.setLocalThreadCount(null);
+      result = pt.getResultObject();
+    }
+    catch (Throwable t)
+    {
+      t.printStackTrace();
+    }
+
+    if (!writePacket(out, new Packet(Packet.RESULT, p.id, null, result)))
+      writePacket(out, new Packet(Packet.RESULT, p.id, null, null));
+  }
+
+  /**
+   * Worker side packet write. Returns false if the packet could not be
+   * serialized; exits the JVM if the client connection is lost.
+   */
+  private static boolean writePacket(DataOutputStream out, Packet p)
+  {
+    byte[] bytes;
+    try
+    {
+      bytes = serialize(p.type, p.id, p.key, p.payload);
+    }
+    catch (IOException ex)
+    {
+      ex.printStackTrace();
+      return false;
+    }
+
+    try
+    {
+      synchronized (out)
+      {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+      }
+      return true;
+    }
+    catch (IOException ex)
+    {
+      System.exit(1);
+      return false;
+    }
+  }
+}
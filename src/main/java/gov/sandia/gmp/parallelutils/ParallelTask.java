@@ -115,6 +115,14 @@ implements CommunicationsManager, Serializable{
 	/** @return The task index. */
 	public int  getIndex() { return aIndex; }
 	
+	/**
+	 * Returns true if this task spends most of its time waiting on I/O (e.g.
+	 * reading matrix blocks) rather than computing. Brokers that support it
+	 * may run such tasks on a separate I/O executor. The default is false.
+	 * @return true if this task is I/O bound.
+	 */
+	public boolean isIOBound(){ return false; }
+	
 	/**
 	 * @return the number of task execution threads running in the node JVM
 	 * shared by the task execution thread that called this method.
@@ -69,6 +69,7 @@ import gov.sandia.gmp.util.globals.Globals;
 import gov.sandia.gmp.util.globals.Site;
 import gov.sandia.gmp.util.globals.Utils;
 import gov.sandia.gmp.util.logmanager.ScreenWriterOutput;
+import gov.sandia.gmp.util.profiler.PhaseTimer;
 
 public class PCalc
 {
@@ -370,11 +371,27 @@ public class PCalc
 
 		inputType = IOType.valueOf(properties.getProperty("inputType").toUpperCase());
 
+		// optional summary of the time spent reading buckets, computing 
+		// predictions and writing output, and a timeline of the individual 
+		// phases written to phaseTimingFile for offline analysis.
+		boolean phaseTiming = properties.getBoolean("phaseTiming", false);
+		File phaseTimingFile = properties.getFile("phaseTimingFile");
+		if (phaseTiming || phaseTimingFile != null)
+		{
+			PhaseTimer.setEnabled(true);
+			if (phaseTimingFile != null)
+				PhaseTimer.setEventCapacity(properties.getInt("phaseTimingEvents", 100000));
+			PhaseTimer.reset();
+		}
+
 		if (application == Application.MODEL_QUERY)
 			queryModel();
 		else
 			predictions();		
 
+		if (phaseTimingFile != null)
+			PhaseTimer.writeEvents(phaseTimingFile);
+
 		if (log.isOutputOn())
 		{
 			log.writeln();
@@ -382,6 +399,9 @@ public class PCalc
 			log.writeln("Properties that actually got requested and returned:");
 			log.writeln(properties.getRequestedPropertiesString(true));
 
+			if (phaseTiming)
+				log.writef("%nPhase timing:%n%s%n", PhaseTimer.getSummary());
+
 			log.writef("Processing complete %s. Ellapsed time %s%n", 
 					GMTFormat.localTime.format(new Date()),
 					Globals.elapsedTime(startTime));
@@ -476,7 +496,9 @@ public class PCalc
 
 		while (dataSource.hasNext())
 		{
+			long readTime = PhaseTimer.start();
 			Bucket dataBucket = dataSource.next();
+			PhaseTimer.stop(PhaseTimer.Phase.BUCKET_READ, readTime);
 
 			if (dataSink instanceof DataSinkDB)
 			{
@@ -816,7 +838,9 @@ public class PCalc
 					}
 				}
 			}
+			long writeTime = PhaseTimer.start();
 			dataSink.writeData(dataBucket);
+			PhaseTimer.stop(PhaseTimer.Phase.SINK_WRITE, writeTime);
 		}
 
 		dataSource.close();
@@ -885,7 +909,9 @@ public class PCalc
 			for (int i = 0; i < outputAttributes.size(); ++i)
 				outputAttributesIndex[i] = geoTessModel.getMetaData().getAttributeIndex(outputAttributes.get(i).name());
 
+			long readTime = PhaseTimer.start();
 			Bucket bucket = dataSource.next();
+			PhaseTimer.stop(PhaseTimer.Phase.BUCKET_READ, readTime);
 
 			int nDepths = -1;
 
@@ -1128,7 +1154,9 @@ public class PCalc
 						bucket.points.size()*nDepths, 
 						t*1e-9));
 
+			long writeTime = PhaseTimer.start();
 			dataSink.writeData(bucket);
+			PhaseTimer.stop(PhaseTimer.Phase.SINK_WRITE, writeTime);
 		}
 
 		dataSource.close();
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.predictorfactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+
+import gov.sandia.geotess.GeoTessModel;
+import gov.sandia.geotess.GeoTessPosition;
+import gov.sandia.gmp.baseobjects.PropertiesPlusGMP;
+import gov.sandia.gmp.baseobjects.Receiver;
+import gov.sandia.gmp.baseobjects.Source;
+import gov.sandia.gmp.baseobjects.geovector.GeoVector;
+import gov.sandia.gmp.baseobjects.globals.GeoAttributes;
+import gov.sandia.gmp.baseobjects.globals.SeismicPhase;
+import gov.sandia.gmp.baseobjects.interfaces.PredictionInterface;
+import gov.sandia.gmp.baseobjects.interfaces.PredictionRequestInterface;
+import gov.sandia.gmp.baseobjects.interfaces.PredictorInterface;
+import gov.sandia.gmp.baseobjects.interfaces.impl.PredictionRequest;
+import gov.sandia.gmp.baseobjects.interfaces.impl.PredictionRequestOrder;
+import gov.sandia.gmp.baseobjects.interfaces.impl.Predictor;
+
+/**
+ * Benchmark of PredictorFactory.computePredictions() with and without
+ * spatial ordering of the prediction requests (property
+ * predictorSpatialOrdering).  A set of random receivers and sources is
+ * combined into randomly shuffled prediction requests for one phase, and the
+ * predictions are computed in sequential and parallel mode, with and without
+ * spatial ordering.  The time of each run is reported and the predictions
+ * are checked to be in request order and identical in all runs.
+ * 
+ * <p>If a GeoTessModel file is supplied, the time to set a GeoTessPosition
+ * to every source position in shuffled and in spatial order is also
+ * reported, which isolates the effect of ordering on triangle walks.
+ * 
+ * <p>Usage: java PredictionRequestOrderTester [nRequests [propertiesFile|- [geotessModelFile]]]
+ * 
+ * <p>The properties file must specify property predictors and may specify
+ * benchmarkPhase (default P) and benchmarkReceivers (default 100).  If it is
+ * omitted or -, the default lookup2d predictor is used.
+ */
+public class PredictionRequestOrderTester
+{
+	/**
+	 * Number of repetitions of each test.  The fastest repetition is reported.
+	 */
+	private static final int REPEATS = 3;
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			int nRequests = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+			PropertiesPlusGMP properties;
+			if (args.length > 1 && !args[1].equals("-"))
+				properties = new PropertiesPlusGMP(new File(args[1]));
+			else
+			{
+				properties = new PropertiesPlusGMP();
+				properties.setProperty("predictors = lookup2d");
+			}
+
+			SeismicPhase phase = SeismicPhase.valueOf(properties.getProperty("benchmarkPhase", "P"));
+			int nReceivers = properties.getInt("benchmarkReceivers", 100);
+
+			Random random = new Random(42);
+
+			ArrayList<Receiver> receivers = new ArrayList<Receiver>(nReceivers);
+			for (int i = 0; i < nReceivers; ++i)
+			{
+				receivers.add(new Receiver(String.format("STA%03d", i), 
+						new GeoVector(randomLat(random), 360. * random.nextDouble() - 180., 0., true)));
+			}
+
+			ArrayList<PredictionRequestInterface> requests = new ArrayList<PredictionRequestInterface>(nRequests);
+			for (int i = 0; i < nRequests; ++i)
+				requests.add(new PredictionRequest(i, receivers.get(random.nextInt(nReceivers)),
+						new Source(randomLat(random), 360. * random.nextDouble() - 180., 
+								100. * random.nextDouble(), true),
+						phase, EnumSet.of(GeoAttributes.TRAVEL_TIME), true));
+			Collections.shuffle(requests, random);
+
+			PredictorFactory factory = new PredictorFactory(properties, "predictors");
+			PredictorInterface predictor = factory.getPredictor(phase);
+			if (predictor == null)
+				throw new Exception("No predictor is configured for phase " + phase);
+
+			System.out.printf("Predictor %s, phase %s, %d requests, %d receivers, %d processors%n%n",
+					predictor.getPredictorName(), phase, nRequests, nReceivers, 
+					Runtime.getRuntime().availableProcessors());
+
+			long t = Long.MAX_VALUE;
+			for (int r = 0; r < REPEATS; ++r)
+			{
+				long t0 = System.nanoTime();
+				PredictionRequestOrder.getOrder(requests);
+				t = Math.min(t, System.nanoTime() - t0);
+			}
+			System.out.printf("Time to compute the spatial order: %10.3f msec%n%n", t * 1e-6);
+
+			double[] reference = null;
+			for (boolean parallel : new boolean[] {false, true})
+				for (boolean ordered : new boolean[] {false, true})
+				{
+					properties.setProperty("predictorSpatialOrdering", ordered);
+					if (predictor instanceof Predictor)
+						((Predictor) predictor).setSpatialOrdering(ordered);
+
+					long best = Long.MAX_VALUE;
+					ArrayList<PredictionInterface> predictions = null;
+					for (int r = 0; r < REPEATS; ++r)
+					{
+						factory.addPredictionRequests(requests);
+						t = System.nanoTime();
+						predictions = factory.computePredictions(parallel);
+						best = Math.min(best, System.nanoTime() - t);
+					}
+
+					// check order and values
+					int misordered = 0;
+					double[] tt = new double[nRequests];
+					for (int i = 0; i < nRequests; ++i)
+					{
+						if (predictions.get(i).getPredictionRequest() != requests.get(i))
+							++misordered;
+						tt[i] = predictions.get(i).getAttribute(GeoAttributes.TRAVEL_TIME);
+					}
+					long mismatches = 0;
+					if (reference == null)
+						reference = tt;
+					else
+						for (int i = 0; i < nRequests; ++i)
+							if (Double.doubleToLongBits(tt[i]) != Double.doubleToLongBits(reference[i]))
+								++mismatches;
+
+					System.out.printf("%-10s %-10s %10.3f sec  %8.3f usec/prediction  misordered=%d mismatches=%d%n",
+							parallel ? "parallel" : "sequential", ordered ? "ordered" : "shuffled",
+							best * 1e-9, best * 1e-3 / nRequests, misordered, mismatches);
+				}
+
+			if (args.length > 2)
+				benchmarkGeoTessPosition(new GeoTessModel(args[2]), requests);
+
+			System.out.println("\nDone.");
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Time GeoTessPosition.set() at every source position, with the sources in
+	 * shuffled order, in request order (grouped by receiver) and in source
+	 * order (Hilbert key of the source only).  Note that GeoTessPosition
+	 * restarts its triangle walk from the top tessellation level when it moves
+	 * more than 16 degrees, so ordering only pays off when consecutive
+	 * positions are close compared to the grid spacing.
+	 */
+	private static void benchmarkGeoTessPosition(GeoTessModel model,
+			ArrayList<PredictionRequestInterface> requests) throws Exception
+	{
+		int n = requests.size();
+		double[][] shuffled = new double[n][];
+		double[] radius = new double[n];
+		for (int i = 0; i < n; ++i)
+		{
+			shuffled[i] = requests.get(i).getSource().getPosition().getUnitVector();
+			radius[i] = requests.get(i).getSource().getPosition().getRadius();
+		}
+
+		int[][] orders = new int[3][];
+		orders[0] = new int[n];
+		for (int i = 0; i < n; ++i)
+			orders[0][i] = i;
+
+		orders[1] = PredictionRequestOrder.getOrder(requests);
+
+		long[] keys = new long[n];
+		for (int i = 0; i < n; ++i)
+			keys[i] = (PredictionRequestOrder.getHilbertKey(shuffled[i]) << 32) | i;
+		Arrays.sort(keys);
+		orders[2] = new int[n];
+		for (int i = 0; i < n; ++i)
+			orders[2][i] = (int) keys[i];
+
+		String[] names = {"shuffled", "request order", "source order"};
+
+		System.out.printf("%nGeoTessPosition.set() on %s%n", model.getMetaData().getInputModelFile());
+
+		GeoTessPosition position = GeoTessPosition.getGeoTessPosition(model);
+		for (int pass = 0; pass < orders.length; ++pass)
+		{
+			double[][] u = new double[n][];
+			double[] r = new double[n];
+			for (int k = 0; k < n; ++k)
+			{
+				u[k] = shuffled[orders[pass][k]];
+				r[k] = radius[orders[pass][k]];
+			}
+			long best = Long.MAX_VALUE;
+			for (int rep = 0; rep < REPEATS; ++rep)
+			{
+				long t = System.nanoTime();
+				for (int i = 0; i < n; ++i)
+					position.set(u[i], r[i]);
+				best = Math.min(best, System.nanoTime() - t);
+			}
+			System.out.printf("%-14s %8.3f usec/position%n", names[pass], best * 1e-3 / n);
+		}
+	}
+
+	/**
+	 * Return a latitude in degrees uniformly distributed on the sphere.
+	 */
+	private static double randomLat(Random random)
+	{
+		return Math.toDegrees(Math.asin(2. * random.nextDouble() - 1.));
+	}
+}
@@ -35,6 +35,7 @@ package gov.sandia.gmp.predictorfactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -55,6 +56,7 @@ import gov.sandia.gmp.baseobjects.interfaces.PredictionRequestInterface;
 import gov.sandia.gmp.baseobjects.interfaces.PredictorInterface;
 import gov.sandia.gmp.baseobjects.interfaces.PredictorType;
 import gov.sandia.gmp.baseobjects.interfaces.impl.Prediction;
+import gov.sandia.gmp.baseobjects.interfaces.impl.PredictionRequestOrder;
 import gov.sandia.gmp.bender.Bender;
 import gov.sandia.gmp.infrasoundpredictor.InfrasoundPredictor;
 import gov.sandia.gmp.libcorr3dgmp.LibCorr3DModelsGMP;
@@ -64,6 +66,7 @@ import gov.sandia.gmp.util.exceptions.GMPException;
 import gov.sandia.gmp.util.globals.InterpolatorType;
 import gov.sandia.gmp.util.globals.Utils;
 import gov.sandia.gmp.util.logmanager.ScreenWriterOutput;
+import gov.sandia.gmp.util.profiler.PhaseTimer;
 
 /**
  * Utility to help manage PredictorInterface objects such as Bender, SLBM, TaupToolkit, 
@@ -771,14 +774,39 @@ public class PredictorFactory
 
 				if (predictor != null && arrivalSubset != null)
 				{
+					long batchTime = PhaseTimer.start();
+
 					// send all the Arrivals to the Predictor and get back a Collection of
 					// results.  The predictor may be able to compute predictions in parallel.
 					if (parallelMode)
 						for (PredictionInterface prediction : predictor.getPredictions(arrivalSubset))
 							predictions.add(prediction);
+					else if (properties.getBoolean("predictorSpatialOrdering", false) && arrivalSubset.size() > 1)
+					{
+						// compute the predictions in spatial order (grouped by receiver, then 
+						// along a Hilbert curve by source position) and return them in the 
+						// original order.  In parallel mode the predictor does this itself.
+						ArrayList<PredictionRequestInterface> requests = 
+								new ArrayList<PredictionRequestInterface>(arrivalSubset);
+						int[] order = PredictionRequestOrder.getOrder(requests);
+						PredictionInterface[] results = new PredictionInterface[order.length];
+						for (int i : order)
+						{
+							long t = PhaseTimer.start();
+							results[i] = predictor.getPrediction(requests.get(i));
+							PhaseTimer.stop(PhaseTimer.Phase.RAY, t);
+						}
+						predictions.addAll(Arrays.asList(results));
+					}
 					else
 						for (PredictionRequestInterface request : arrivalSubset)
+						{
+							long t = PhaseTimer.start();
 							predictions.add(predictor.getPrediction(request));
+							PhaseTimer.stop(PhaseTimer.Phase.RAY, t);
+						}
+
+					PhaseTimer.stop(PhaseTimer.Phase.PREDICTOR_BATCH, batchTime, arrivalSubset.size());
 				}
 			}
 			clearPredictionRequestQueue();
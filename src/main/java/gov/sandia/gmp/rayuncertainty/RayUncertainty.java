@@ -68,6 +68,7 @@ import gov.sandia.gmp.geotessgmp.LibCorr3DModelGMP;
 import gov.sandia.gmp.observationprediction.PredictorObservation;
 import gov.sandia.gmp.observationprediction.PredictorParallelTask;
 import gov.sandia.gmp.observationprediction.PredictorParallelTaskResult;
+import gov.sandia.gmp.observationprediction.PredictorTaskContext;
 import gov.sandia.gmp.parallelutils.ParallelBroker;
 import gov.sandia.gmp.parallelutils.ParallelBrokerConcurrent;
 import gov.sandia.gmp.parallelutils.ParallelResult;
@@ -96,8 +97,10 @@ import gov.sandia.gmp.util.globals.Globals;
 import gov.sandia.gmp.util.globals.Utils;
 import gov.sandia.gmp.util.gui.Utility;
 import gov.sandia.gmp.util.logmanager.ScreenWriterOutput;
+import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlock;
 import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlockDefinition;
 import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlockFileServer;
+import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlockPrefetcher;
 import gov.sandia.gmp.util.numerical.polygon.Polygon3D;
 import gov.sandia.gmp.util.numerical.vector.EarthShape;
 import gov.sandia.gmp.util.numerical.vector.VectorGeo;
@@ -953,6 +956,37 @@ public class RayUncertainty {
      */
     private int aGCFrequency = 10;
 
+    /**
+     * If true, and tasks are processed in the client JVM (SEQUENTIAL or
+     * CONCURRENT parallel modes), covariance blocks are read ahead of the
+     * tasks that need them by a MatrixBlockPrefetcher.
+     */
+    private boolean aBlockPrefetch = false;
+
+    /**
+     * If true ray uncertainty tasks are ordered and grouped for covariance block
+     * locality by a RayUncertaintyTaskScheduler. In SEQUENTIAL or CONCURRENT
+     * parallel modes this also turns on the covariance block prefetcher which
+     * acts as the resident block cache.
+     */
+    private boolean aBlockLocalityScheduling = false;
+
+    /**
+     * The covariance block prefetcher (and block cache) memory budget (GB).
+     */
+    private double aBlockPrefetchMemory = 4.0;
+
+    /**
+     * The number of covariance block prefetcher read threads.
+     */
+    private int aBlockPrefetchThreads = 1;
+
+    /**
+     * If true (default) tasks evaluate non-debug ray partial variances with
+     * the batched RayVarianceKernel (property "rayVarianceKernel").
+     */
+    private boolean aRayVarianceKernel = true;
+
     /**
      * An input property setting that closes all GUI's when the solution finishes.
      */
@@ -1174,6 +1208,15 @@ public class RayUncertainty {
 
         aGCFrequency = aProps.getInt("taskGarbageCollectionFrequency", 10);
 
+        // set covariance block read options
+
+        MatrixBlock.setMappedIO(aProps.getBoolean("covarianceBlockMappedIO", false));
+        aBlockPrefetch = aProps.getBoolean("covarianceBlockPrefetch", false);
+        aBlockLocalityScheduling = aProps.getBoolean("covarianceBlockLocalityScheduling", false);
+        aBlockPrefetchMemory = aProps.getDouble("covarianceBlockPrefetchMemory", 4.0);
+        aBlockPrefetchThreads = aProps.getInt("covarianceBlockPrefetchThreads", 1);
+        aRayVarianceKernel = aProps.getBoolean("rayVarianceKernel", true);
+
         // output header
 
         if (aScrnWrtr.isOutputOn()) {
@@ -3078,6 +3121,15 @@ public class RayUncertainty {
 
         int numRaysPerPredTask = aProps.getInt(
                 "numberOfRaysPerParallelPredictionTask", 100);
+
+        // if a target task time (msec) is given the number of rays per task is
+        // sized from the per-ray cost measured by earlier prediction tasks
+
+        long predTaskTargetTime = aProps.getInt(
+                "parallelPredictionTaskTargetTime", 0);
+        PredictorParallelTask.setTargetTaskTime(predTaskTargetTime);
+        numRaysPerPredTask = PredictorParallelTask.
+                getAdaptivePredictionsPerTask(numRaysPerPredTask);
         double rayWeightSetElementLimitMult =
                 aProps.getDouble("rayElementReadLimitBlockSizeMultiplier", 2.0);
         long blockRayWeightSetElementLimit = 2 * (aCovMatrixBlockDefn.blocks() + 1) *
@@ -3196,6 +3248,10 @@ public class RayUncertainty {
                     throw new IOException(tskRslt.getException());
                 }
 
+                // record the per-ray cost of the task for adaptive task sizing
+
+                PredictorParallelTask.recordTaskCost(tskRslt);
+
                 // increment total prediction time
 
                 long tottsktim = tskRslt.getTaskOutForProcessTime();
@@ -3295,6 +3351,11 @@ public class RayUncertainty {
         taskResults.stop();
         clientPredTime += submitClientTime;
 
+        // release the predictors held by the compute threads of each JVM
+
+        aParallelBrkr.submitStaticCleanupTask(new PredictorTaskContext.ClearTask(),
+                                              true);
+
         // write any remaining RayWeightSets to disk
 
         aRayWeightSetList.writeLast();
@@ -3638,6 +3699,7 @@ public class RayUncertainty {
         int totalTasksProcessed = 0;
         int proccesorCountSum = 0;
         long prcNodeCovBlkReadTime = 0;
+        long prcNodeCovBlkReadCount = 0;
         long prcNodeBlockMapReadTime = 0;
         int prcNodeBlockMapReadCount = 0;
         long prcNodeTotalTime = 0;
@@ -3684,6 +3746,30 @@ public class RayUncertainty {
             aScrnWrtr.write(s);
         }
 
+        // create the covariance block prefetcher if requested and tasks are
+        // processed in this JVM
+
+        MatrixBlockPrefetcher prefetcher = null;
+        if ((aBlockPrefetch || aBlockLocalityScheduling) &&
+                (aParallelBrkr.getName().equalsIgnoreCase("Concurrent") ||
+                 aParallelBrkr.getName().equalsIgnoreCase("Sequential"))) {
+            aCovMatrixBlockDefn.setSubBlockSizeToBlockSize();
+            prefetcher = new MatrixBlockPrefetcher(aCovMatrixBlockDefn,
+                    aCovMatrixServers, "ginv",
+                    (long) (aBlockPrefetchMemory * 1024 * 1024 * 1024),
+                    aBlockPrefetchThreads);
+            RayUncertaintyTask.setBlockPrefetcher(prefetcher);
+
+            // schedule each tasks covariance block (in task order) so that the
+            // blocks are read once and retained until their last task completes
+
+            for (int m = 0; m < taskList.size(); ++m) {
+                RayUncertaintyTask tsk = taskList.get(m);
+                if (tsk.getBlockRow() < aCovMatrixBlockDefn.blocks())
+                    prefetcher.schedule(tsk.getBlockRow(), tsk.getBlockColumn());
+            }
+        }
+
         // loop over all tasks and build separate submissions
 
         long clientRayUncTime = 0;
@@ -3713,7 +3799,15 @@ public class RayUncertainty {
                 Long submitStartTime = (new Date()).getTime();
                 for (int m = 0; m < taskSubmitList.size(); ++m)
                     taskSubmitList.get(m).setSubmitTime(submitStartTime);
-                aParallelBrkr.submit(taskSubmitList);
+                if (aParallelBrkr instanceof ParallelBrokerConcurrent) {
+                    // hand the tasks to the broker only as slots in its in-flight
+                    // window become available (the list is not modified until all
+                    // of its results have returned)
+
+                    ((ParallelBrokerConcurrent) aParallelBrkr).
+                            submit(taskSubmitList.iterator());
+                } else
+                    aParallelBrkr.submit(taskSubmitList);
                 totalTasksProcessed += taskSubmitList.size();
 
                 // enter process loop and wait for returned results
@@ -3755,6 +3849,7 @@ public class RayUncertainty {
                         prcNodeOverheadTime += tskRslt.getOverheadTime();
                         prcNodeParallelOvrhdTime += tskRslt.getTaskManagerOverhead();
                         prcNodeCovBlkReadTime += tskRslt.getCovBlockReadTime();
+                        prcNodeCovBlkReadCount += tskRslt.getCovBlockReadCount();
                         prcNodeBlockMapReadTime += tskRslt.getBlockMapReadTime();
                         prcNodeBlockMapReadCount += tskRslt.getBlockMapReadCount();
                         prcNodeRaysLoaded += tskRslt.getRaysLoadedCount();
@@ -3823,6 +3918,29 @@ public class RayUncertainty {
         taskResults.stop();
         aScrnWrtr.write(NL);
 
+        // shutdown the prefetcher and output its counters
+
+        if (prefetcher != null) {
+            RayUncertaintyTask.setBlockPrefetcher(null);
+            prefetcher.shutdown();
+            prcNodeCovBlkReadCount += prefetcher.getBlockReadCount();
+            if (aScrnWrtr.isOutputOn()) {
+                s = "    Covariance Block Prefetcher:" + NL +
+                        prefetcher.toString("      ") + NL;
+                aScrnWrtr.write(s);
+            }
+        }
+
+        // count the distinct represented blocks processed (the minimum
+        // possible number of covariance block reads)
+
+        HashSet<Integer> distinctBlocks = new HashSet<Integer>();
+        for (RayUncertaintyTask tsk : taskList) {
+            if (tsk.getBlockRow() < aCovMatrixBlockDefn.blocks())
+                distinctBlocks.add(MatrixBlock.getBlockIndex(tsk.getBlockRow(),
+                        tsk.getBlockColumn()));
+        }
+
         // output results
 
         if (aScrnWrtr.isOutputOn()) {
@@ -3855,6 +3973,10 @@ public class RayUncertainty {
                     "      Mean Per Read Block Ray Weight Read Time                  = " +
                     Globals.timeStringAbbrvUnits(prcNodeBlockMapReadTime /
                             prcNodeBlockMapReadCount) + NL +
+                    "      Total Covariance Block Reads                              = " +
+                    prcNodeCovBlkReadCount + NL +
+                    "      Minimum Covariance Block Reads                            = " +
+                    distinctBlocks.size() + NL +
                     "      Mean Per Task Covariance Block Read Time                  = " +
                     Globals.timeStringAbbrvUnits(prcNodeCovBlkReadTime /
                             totalTasksProcessed) + NL +
@@ -4766,6 +4888,10 @@ public class RayUncertainty {
      * each RayWeightSet gets a task so given n blocks and m RayWeightSets there
      * will n*m tasks. In addition there will be 1 RayWeightSet extra if site
      * pair covariance is requested so the total number of tasks will be n*(m+1).
+     * <p>
+     * If block locality scheduling is requested the blocks are ordered, and
+     * consecutive ray weight sets of each block merged into single tasks, as
+     * defined by a RayUncertaintyTaskScheduler.
      *
      * @return The list of ray uncertainty tasks to be processed.
      * @throws IOException
@@ -4783,71 +4909,107 @@ public class RayUncertainty {
         tskList = new ArrayList<RayUncertaintyTask>
                 (aCovMatrixBlockDefn.symmMatrixBlockCount() + 1);
 
-        // loop over all block rows (and the non-represented block)
-
-        int taskId = 0;
-        for (int blkrow = 0; blkrow < blklmt; ++blkrow) {
-            // loop over all block columns
-
-            for (int blkcol = 0; blkcol <= blkrow; ++blkcol) {
-                // don't include the non-represented row except when the block column
-                // also is non-represented
-
-                if ((blkrow < blkcnt) || (blkcol == blkcnt)) {
-                    // build tasks for every ray weight set output during prediction
-
-                    for (int k = 0; k < aMaxRayWeightSetCount; ++k) {
-                        // build the task, set the ray weight set limits, debug information,
-                        // and non-represented path information
-
-                        tsk = new RayUncertaintyTask(taskId++, blkrow, blkcol,
-                                aRayWghtPath, aCovMatrixBlockDefn,
-                                aCovMatrixServers, aGCFrequency);
-                        tsk.setPhaseSiteSets(k, k);
-                        tsk.setDebug(aDebugRaysX);
-                        if (blkrow == aCovMatrixBlockDefn.blocks())
-                            tsk.setNRVariancePath(aIODirectory,
-                                    aNonRepActvNodeVarFileName +
-                                            "_");
+        // define the block order and number of ray weight sets per task. By
+        // default loop over all block rows and columns (and the non-represented
+        // block) with one set per task
+
+        ArrayList<int[]> blockOrder;
+        int setsPerTask = 1;
+        if (aBlockLocalityScheduling) {
+            long blkMem = 8L * aCovMatrixBlockDefn.blockSize() *
+                    aCovMatrixBlockDefn.blockSize();
+            RayUncertaintyTaskScheduler scheduler;
+            scheduler = new RayUncertaintyTaskScheduler(blkcnt,
+                    aMaxRayWeightSetCount, aParallelBrkr.getProcessorCount(),
+                    (long) (aBlockPrefetchMemory * 1024 * 1024 * 1024), blkMem);
+            blockOrder = scheduler.getBlockOrder();
+            setsPerTask = scheduler.getSetsPerTask();
+            if (aScrnWrtr.isOutputOn()) {
+                s = "      Block Locality Scheduling:" + NL +
+                        "        Ray Weight Sets Per Task              = " +
+                        setsPerTask + NL +
+                        "        Cached Block Capacity                 = " +
+                        scheduler.getCacheBlockCount() + NL;
+                aScrnWrtr.write(s);
+            }
+        } else {
+            // don't include the non-represented row except when the block column
+            // also is non-represented
+
+            blockOrder = new ArrayList<int[]>(aCovMatrixBlockDefn.symmMatrixBlockCount() + 1);
+            for (int blkrow = 0; blkrow < blklmt; ++blkrow) {
+                for (int blkcol = 0; blkcol <= blkrow; ++blkcol) {
+                    if ((blkrow < blkcnt) || (blkcol == blkcnt))
+                        blockOrder.add(new int[]{blkrow, blkcol});
+                }
+            }
+        }
 
-                        // add the task to the list and continue
+        // make a hash map of site pairs if type AB ray covariance is to be
+        // calculated
 
-                        tskList.add(tsk);
-                    }
+        HashMap<Long, HashSet<Long>> pairMap = null;
+        if (aSitePairX.size() > 0) {
+            pairMap = new HashMap<Long, HashSet<Long>>();
+            for (Map.Entry<Receiver, HashSet<Receiver>> e : aSitePairX.entrySet()) {
+                HashSet<Receiver> bRcvrSet = e.getValue();
+                HashSet<Long> bRcvrIdSet = new HashSet<Long>();
+                pairMap.put(e.getKey().getReceiverId(), bRcvrIdSet);
+                for (Receiver bRcvr : bRcvrSet)
+                    bRcvrIdSet.add(bRcvr.getReceiverId());
+            }
+        }
 
-                    // now see if type AB ray covariance is to be calculated
+        // loop over all blocks
 
-                    if (aSitePairX.size() > 0) {
-                        // make a hash map of site pairs
+        int taskId = 0;
+        for (int[] blk : blockOrder) {
+            int blkrow = blk[0];
+            int blkcol = blk[1];
+
+            // build tasks for every ray weight set output during prediction
+
+            for (int k = 0; k < aMaxRayWeightSetCount; k += setsPerTask) {
+                // build the task, set the ray weight set limits, debug information,
+                // and non-represented path information
+
+                tsk = new RayUncertaintyTask(taskId++, blkrow, blkcol,
+                        aRayWghtPath, aCovMatrixBlockDefn,
+                        aCovMatrixServers, aGCFrequency);
+                tsk.setPhaseSiteSets(k, Math.min(k + setsPerTask,
+                        aMaxRayWeightSetCount) - 1);
+                tsk.setDebug(aDebugRaysX);
+                tsk.setVarianceKernel(aRayVarianceKernel);
+                if (blkrow == aCovMatrixBlockDefn.blocks())
+                    tsk.setNRVariancePath(aIODirectory,
+                            aNonRepActvNodeVarFileName +
+                                    "_");
+
+                // add the task to the list and continue
+
+                tskList.add(tsk);
+            }
 
-                        HashMap<Long, HashSet<Long>> pairMap;
-                        pairMap = new HashMap<Long, HashSet<Long>>();
-                        for (Map.Entry<Receiver, HashSet<Receiver>> e : aSitePairX.entrySet()) {
-                            HashSet<Receiver> bRcvrSet = e.getValue();
-                            HashSet<Long> bRcvrIdSet = new HashSet<Long>();
-                            pairMap.put(e.getKey().getReceiverId(), bRcvrIdSet);
-                            for (Receiver bRcvr : bRcvrSet)
-                                bRcvrIdSet.add(bRcvr.getReceiverId());
-                        }
+            // now see if type AB ray covariance is to be calculated
 
-                        // create a task and set site pairs, debug information, and non-
-                        // represented variance paths
+            if (pairMap != null) {
+                // create a task and set site pairs, debug information, and non-
+                // represented variance paths
 
-                        tsk = new RayUncertaintyTask(taskId++, blkrow, blkcol,
-                                aRayWghtPath, aCovMatrixBlockDefn,
-                                aCovMatrixServers, aGCFrequency);
-                        tsk.setSitePairs(pairMap);
-                        tsk.setDebug(aDebugRaysX);
-                        if (blkrow == aCovMatrixBlockDefn.blocks())
-                            tsk.setNRVariancePath(aIODirectory,
-                                    aNonRepActvNodeVarFileName +
-                                            "_");
+                tsk = new RayUncertaintyTask(taskId++, blkrow, blkcol,
+                        aRayWghtPath, aCovMatrixBlockDefn,
+                        aCovMatrixServers, aGCFrequency);
+                tsk.setSitePairs(pairMap);
+                tsk.setDebug(aDebugRaysX);
+                tsk.setVarianceKernel(aRayVarianceKernel);
+                if (blkrow == aCovMatrixBlockDefn.blocks())
+                    tsk.setNRVariancePath(aIODirectory,
+                            aNonRepActvNodeVarFileName +
+                                    "_");
 
-                        // add the task to the list and continue
+                // add the task to the list and continue
 
-                        tskList.add(tsk);
-                    }
-                }
+                tskList.add(tsk);
             }
         }
 
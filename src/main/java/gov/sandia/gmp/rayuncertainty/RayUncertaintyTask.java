@@ -67,6 +67,8 @@ import gov.sandia.gmp.util.numerical.matrix.SparseMatrixVector;
 import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlock;
 import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlockDefinition;
 import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlockFileServer;
+import gov.sandia.gmp.util.numerical.matrixblock.MatrixBlockPrefetcher;
+import gov.sandia.gmp.util.profiler.PhaseTimer;
 import gov.sandia.gmp.util.profiler.Profiler;
 import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
 
@@ -262,6 +264,14 @@ public class RayUncertaintyTask extends ParallelTask {
      */
     private boolean aOutputTaskInfo = false;
 
+    /**
+     * If true (default) the partial variances of the rays of a represented
+     * block are evaluated with the batched RayVarianceKernel, unless the block
+     * contains a debug ray. Otherwise the scalar weight pair loop is used for
+     * all rays.
+     */
+    private boolean aUseVarianceKernel = true;
+
     /**
      * The profiler sample period (milliseconds). If less than 1 it is not
      * used.
@@ -302,6 +312,19 @@ public class RayUncertaintyTask extends ParallelTask {
      */
     private transient double[][] aBlock = null;
 
+    /**
+     * The block prefetcher from which the shared covariance block is acquired
+     * if one was set into this JVM when the task started (see
+     * setBlockPrefetcher(...)). Null if the block is read by this task.
+     */
+    private transient MatrixBlockPrefetcher aPrefetcher = null;
+
+    /**
+     * The ray variance kernel used to evaluate the partial variances of
+     * non-debug rays against aBlock (created on first use).
+     */
+    private transient RayVarianceKernel aKernel = null;
+
     /**
      * Map of source id -> site A id -> site B id debug rays. If site A id =
      * site B id then the debug ray is a type AA debug ray. Type AA debug ray
@@ -357,6 +380,11 @@ public class RayUncertaintyTask extends ParallelTask {
      */
     private transient long aCovBlockReadTime = 0;
 
+    /**
+     * The number of covariance matrix blocks read from disk by this task.
+     */
+    private transient int aCovBlockReadCount = 0;
+
     /**
      * The time spent reading the non-represented variance vector.
      */
@@ -408,6 +436,13 @@ public class RayUncertaintyTask extends ParallelTask {
      */
     private static int aGCCallCount = 0;
 
+    /**
+     * The JVM-wide covariance block prefetcher. Set by the client when tasks
+     * are processed in the client JVM (SEQUENTIAL or CONCURRENT modes). Tasks
+     * executed in any other JVM find this null and read their own block.
+     */
+    private static MatrixBlockPrefetcher aBlockPrefetcher = null;
+
     /**
      * Standard constructor. Defines all necessary inputs except.
      * 1)  aSetMin and aSetMax. Set with function setPhaseSiteSets(...) for a
@@ -462,6 +497,26 @@ public class RayUncertaintyTask extends ParallelTask {
         aGCCallFreq = gcFreq;
     }
 
+    /**
+     * Sets the JVM-wide covariance block prefetcher used by all subsequently
+     * started tasks (null turns prefetching off). The client must schedule
+     * one use of each task's block with the prefetcher before the task runs.
+     *
+     * @param prefetcher The covariance block prefetcher.
+     */
+    public static synchronized void setBlockPrefetcher(MatrixBlockPrefetcher prefetcher) {
+        aBlockPrefetcher = prefetcher;
+    }
+
+    /**
+     * Returns the JVM-wide covariance block prefetcher (or null).
+     *
+     * @return The JVM-wide covariance block prefetcher (or null).
+     */
+    private static synchronized MatrixBlockPrefetcher getBlockPrefetcher() {
+        return aBlockPrefetcher;
+    }
+
     /**
      * Calls increment the GC call count and calls the garbarge collector when
      * the count == the preset frequency
@@ -529,6 +584,19 @@ public class RayUncertaintyTask extends ParallelTask {
         aOutputTaskInfo = otf;
     }
 
+    /**
+     * Sets the ray variance kernel flag. If true (default) the batched
+     * RayVarianceKernel evaluates the partial variances of the rays of a
+     * represented block that contains no debug ray (the debug entry counts
+     * are only produced by the scalar loop). If false the scalar loop is used
+     * for all rays.
+     *
+     * @param uvk The ray variance kernel flag.
+     */
+    public void setVarianceKernel(boolean uvk) {
+        aUseVarianceKernel = uvk;
+    }
+
     /**
      * Sets the profilers sample period (milliseconds).
      *
@@ -538,6 +606,37 @@ public class RayUncertaintyTask extends ParallelTask {
         aProfilerSamplePeriod = psp;
     }
 
+    /**
+     * Returns the covariance matrix block row processed by this task.
+     *
+     * @return The covariance matrix block row processed by this task.
+     */
+    public int getBlockRow() {
+        return aBlockRow;
+    }
+
+    /**
+     * Returns the covariance matrix block column processed by this task.
+     *
+     * @return The covariance matrix block column processed by this task.
+     */
+    public int getBlockColumn() {
+        return aBlockCol;
+    }
+
+    /**
+     * Tasks that read a covariance matrix block spend much of their time
+     * waiting on the block read (from disk or from the prefetcher), so they
+     * are reported as I/O bound. Brokers that support it can run them on a
+     * separate I/O executor.
+     *
+     * @return True if this task reads a covariance matrix block.
+     */
+    @Override
+    public boolean isIOBound() {
+        return aBlockRow < aMtrxBlkDefn.blocks();
+    }
+
     /**
      * Standard run method called by the ParallelUtils base class to execute a
      * task on a processing node.
@@ -563,6 +662,7 @@ public class RayUncertaintyTask extends ParallelTask {
 
         aMtrxBlkDefn.setSubBlockSizeToBlockSize();
         aMB = new MatrixBlock(aBlockRow, aBlockCol, aMtrxBlkDefn);
+        if (aBlockRow < aMtrxBlkDefn.blocks()) aPrefetcher = getBlockPrefetcher();
 
         Profiler profiler = null;
         try {
@@ -602,9 +702,7 @@ public class RayUncertaintyTask extends ParallelTask {
 
             // done ... reset loaded variables
 
-            aBlock = null;
-            aMB.unLoad();
-            aMB = null;
+            releaseBlock();
 
             aNonRepresentedVarMap = null;
 
@@ -614,6 +712,7 @@ public class RayUncertaintyTask extends ParallelTask {
                     aProcessTime, aGCProcTime);
             results.setCounts(aBlockRowMapReadCount, aRaysLoadedCount,
                     aRayElementsLoadedCount, aNRVarReadCount);
+            results.setCovBlockReadCount(aCovBlockReadCount);
             results.setVarianceMaps(aSolutionAA, aSolutionAB);
             results.setDebugResultsMaps(aDebugAA, aDebugAB);
 
@@ -640,8 +739,13 @@ public class RayUncertaintyTask extends ParallelTask {
                 profiler = null;
             }
 
-            // error ... assign to results, output, and return
+            // error ... release the block, assign to results, output, and
+            // return
 
+            if (aPrefetcher != null) {
+                aPrefetcher.release(aBlockRow, aBlockCol);
+                aPrefetcher = null;
+            }
             String s = exceptionString(0, ex, "");
             System.out.println(s);
             results.setException(new Exception(s));
@@ -668,11 +772,26 @@ public class RayUncertaintyTask extends ParallelTask {
         String fp = aBlockFileServers.getPath(fh, aBlockRow, aBlockCol) +
                 File.separator + fh;
 
-        aMB.setSourcePathFileHeader(fp, fh);
         aStateMessg = "Reading: " + fp;
-        aMB.readBlockCatch();
+        long phaseTime = PhaseTimer.start();
+        try {
+            if (aPrefetcher != null) {
+                // acquire the shared block from the prefetcher ... the read time
+                // is the time this task waited for it
+
+                long strtTime = (new Date()).getTime();
+                aMB = aPrefetcher.acquire(aBlockRow, aBlockCol);
+                aCovBlockReadTime += (new Date()).getTime() - strtTime;
+            } else {
+                aMB.setSourcePathFileHeader(fp, fh);
+                aMB.readBlockCatch();
+                aCovBlockReadTime += aMB.getReadTime();
+                ++aCovBlockReadCount;
+            }
+        } finally {
+            PhaseTimer.stop(PhaseTimer.Phase.BLOCK_READ, phaseTime);
+        }
         aStateMessg = "Processing";
-        aCovBlockReadTime += aMB.getReadTime();
 //
 //    // read block and save read time
 //
@@ -687,6 +806,21 @@ public class RayUncertaintyTask extends ParallelTask {
 //    Matrix.transposeSymmetric(aBlock);
     }
 
+    /**
+     * Releases the covariance matrix block used by this task. If the block was
+     * acquired from the prefetcher the use is released (the prefetcher unloads
+     * the block when its last use is released) otherwise the block is unloaded.
+     */
+    private void releaseBlock() {
+        aBlock = null;
+        if (aPrefetcher != null) {
+            aPrefetcher.release(aBlockRow, aBlockCol);
+            aPrefetcher = null;
+        } else
+            aMB.unLoad();
+        aMB = null;
+    }
+
     //***************** Site A -> Site A read and process code ******************
 
     /**
@@ -837,6 +971,13 @@ public class RayUncertaintyTask extends ParallelTask {
         if (aBlockRow == aMtrxBlkDefn.blocks())
             nrVarArray = aNonRepresentedVarMap.get(pspv.getPhase());
 
+        // set the covariance block into the ray variance kernel if it is used
+
+        RayVarianceKernel kernel = null;
+        if (!hasDebugRay(siteId, siteId, brwRow,
+                         (aBlockRow == aBlockCol) ? brwRow : brwCol))
+            kernel = getVarianceKernel(blksze, rowStrt, colStrt);
+
         // loop over all entries in the input block row ray map and build partial
         // variance for rays from the contained ray weight set.
 
@@ -862,6 +1003,13 @@ public class RayUncertaintyTask extends ParallelTask {
                 boolean debug = isDebug(siteId, siteId, srcid);
                 pv = pspv.getSet(srcid);
 
+                // evaluate the ray with the kernel if it is in use
+
+                if (kernel != null) {
+                    kernel.addAA(smvRow, smvCol, pv);
+                    continue;
+                }
+
                 // if debug then output indices and weights for site A and site B
 
                 int[] indxRow = smvRow.getIndexArray();
@@ -946,6 +1094,7 @@ public class RayUncertaintyTask extends ParallelTask {
 
             } // end if (smvCol != null)
         } // end while ((smvRow = aBlkRayMapWghtsRow.getNext()) != null)
+        if (kernel != null) kernel.flush();
         if (aBlock != null) aMB.releaseLock(true);
 
         aProcessTime += (new Date()).getTime() - startTime;
@@ -1136,6 +1285,12 @@ public class RayUncertaintyTask extends ParallelTask {
         int colStrt = aBlockCol * blksze;
         int rowStrt = aBlockRow * blksze;
 
+        // set the covariance block into the ray variance kernel if it is used
+
+        RayVarianceKernel kernel = null;
+        if (!hasDebugRay(siteAID, siteBID, brwRow, brwCol))
+            kernel = getVarianceKernel(blksze, rowStrt, colStrt);
+
         // loop over all entries in the input ray map and build partial variance
         // for rays from the contained ray weight set.
 
@@ -1159,6 +1314,13 @@ public class RayUncertaintyTask extends ParallelTask {
 
                 pv = pspv.getSet(srcid);
 
+                // evaluate the ray with the kernel if it is in use
+
+                if (kernel != null) {
+                    kernel.addAB(smvRow, smvCol, pv);
+                    continue;
+                }
+
                 // get the row and column index and weight arrays for the current ray
 
                 int[] indxA = smvRow.getIndexArray();
@@ -1251,6 +1413,7 @@ public class RayUncertaintyTask extends ParallelTask {
                 } //  end for (int i = 0; i < indxA.length; ++i)
             } // end if (smvCol != null)
         } // while ((smvRow = aBlkRayMapWghtsRow.getNext()) != null)
+        if (kernel != null) kernel.flush();
         if (aBlock != null) aMB.releaseLock(true);
 
         aProcessTime += (new Date()).getTime() - startTime;
@@ -1258,6 +1421,25 @@ public class RayUncertaintyTask extends ParallelTask {
 
     //***************** Other process code **************************************
 
+    /**
+     * Returns the ray variance kernel with the current covariance block (aBlock)
+     * set for evaluation, or null if the kernel is not used or this is the
+     * non-represented block.
+     *
+     * @param blksze  The covariance block size.
+     * @param rowStrt The global row index of the first block row.
+     * @param colStrt The global column index of the first block column.
+     * @return The ray variance kernel or null.
+     */
+    private RayVarianceKernel getVarianceKernel(int blksze, int rowStrt,
+                                                int colStrt) {
+        if (!aUseVarianceKernel || (aBlock == null)) return null;
+
+        if (aKernel == null) aKernel = new RayVarianceKernel(blksze);
+        aKernel.setBlock(aBlock, rowStrt, colStrt, aBlockRow == aBlockCol);
+        return aKernel;
+    }
+
     /**
      * Sums the number of rays and elements loaded into the input
      * RayWeightsPhaseSiteMap.
@@ -1436,6 +1618,32 @@ public class RayUncertaintyTask extends ParallelTask {
         return s;
     }
 
+    /**
+     * Debug function that returns true if any debug ray for the input site A
+     * and site B ids has weights in both the input row and column ray maps.
+     * The scalar loops number the debug entries with a running count over all
+     * rays of the task, so the ray variance kernel is not used for a block
+     * that contains a debug ray.
+     *
+     * @param siteAid The site A id.
+     * @param siteBid The site B id.
+     * @param brwRow  The block row ray weights map.
+     * @param brwCol  The block column ray weights map.
+     * @return True if the block contains a debug ray ... else false.
+     */
+    private boolean hasDebugRay(long siteAid, long siteBid,
+                                RayWeightsSourceMap brwRow,
+                                RayWeightsSourceMap brwCol) {
+        if (aDebugRays != null) {
+            for (Long srcid : aDebugRays.keySet()) {
+                if (isDebug(siteAid, siteBid, srcid) &&
+                    (brwRow.get(srcid) != null) && (brwCol.get(srcid) != null))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Debug function that returns true if the input site A id, site B id,
      * and source id are defined as a debug ray
@@ -89,6 +89,12 @@ public class RayUncertaintyTaskResult extends ParallelResult {
      */
     private long aCovBlockReadTime = -1;
 
+    /**
+     * The number of covariance matrix blocks read by the task (blocks acquired
+     * from a shared prefetcher are not counted).
+     */
+    private int aCovBlockReadCount = 0;
+
     /**
      * Total non-represented covariance matrix read time.
      */
@@ -295,6 +301,24 @@ public class RayUncertaintyTaskResult extends ParallelResult {
         return aBlockRowMapReadCount;
     }
 
+    /**
+     * Sets the number of covariance matrix blocks read by the task.
+     *
+     * @param covBlockReadCount The number of covariance matrix blocks read.
+     */
+    public void setCovBlockReadCount(int covBlockReadCount) {
+        aCovBlockReadCount = covBlockReadCount;
+    }
+
+    /**
+     * Returns the number of covariance matrix blocks read by the task.
+     *
+     * @return The number of covariance matrix blocks read by the task.
+     */
+    public int getCovBlockReadCount() {
+        return aCovBlockReadCount;
+    }
+
     /**
      * Returns the number of phase specific non-represented variance files read.
      *
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.rayuncertainty;
+
+import java.util.ArrayList;
+
+/**
+ * Defines the order and grouping of RayUncertaintyTasks so that tasks that
+ * need the same covariance matrix block run back-to-back while the block is
+ * resident, and consecutive blocks share a block row or block column (and
+ * therefore the same ray weight block row files).
+ * <p>
+ * Blocks of the lower triangular covariance matrix are visited row by row
+ * in a serpentine order (even block rows from column 0 to the diagonal, odd
+ * block rows from the diagonal back to column 0) followed by the
+ * non-represented block. All tasks of a block are contiguous in the order.
+ * <p>
+ * Consecutive ray weight sets of a block are merged into a single task (one
+ * task processes the set range [setMin, setMax] with a single block load) as
+ * long as enough tasks remain to keep all processors busy and the number of
+ * blocks in process at one time fits in the block cache budget. Given P
+ * processors, S ray weight sets, N blocks, and a cache of C blocks the number
+ * of sets per task is
+ * <p>
+ * m = max(1, min(S, N * S / (aTasksPerProcessor * P), S * C / P))
+ * <p>
+ * The minimum possible number of covariance block reads for a run is the
+ * number of represented blocks (each read exactly once).
+ */
+public class RayUncertaintyTaskScheduler {
+    /**
+     * The number of represented covariance matrix block rows.
+     */
+    private int aBlocks = 0;
+
+    /**
+     * The number of ray weight sets.
+     */
+    private int aSetCount = 0;
+
+    /**
+     * The number of processors executing tasks.
+     */
+    private int aProcessors = 1;
+
+    /**
+     * The number of covariance matrix blocks that fit in the block cache
+     * budget.
+     */
+    private int aCacheBlocks = 1;
+
+    /**
+     * The minimum desired number of tasks per processor used to limit set
+     * merging.
+     */
+    private int aTasksPerProcessor = 4;
+
+    /**
+     * Standard constructor.
+     *
+     * @param blocks      The number of represented covariance matrix block rows.
+     * @param setCount    The number of ray weight sets.
+     * @param processors  The number of processors executing tasks.
+     * @param cacheBudget The block cache budget (bytes).
+     * @param blockMemory The in-core memory of a single block (bytes).
+     */
+    public RayUncertaintyTaskScheduler(int blocks, int setCount, int processors,
+                                       long cacheBudget, long blockMemory) {
+        aBlocks = blocks;
+        aSetCount = Math.max(1, setCount);
+        aProcessors = Math.max(1, processors);
+        aCacheBlocks = (int) Math.max(1, cacheBudget / Math.max(1, blockMemory));
+    }
+
+    /**
+     * Sets the minimum desired number of tasks per processor.
+     *
+     * @param tpp The minimum desired number of tasks per processor.
+     */
+    public void setTasksPerProcessor(int tpp) {
+        aTasksPerProcessor = Math.max(1, tpp);
+    }
+
+    /**
+     * Returns the ordered list of blocks (block row, block column) to be
+     * processed. The last entry is the non-represented block (aBlocks,
+     * aBlocks).
+     *
+     * @return The ordered list of blocks to be processed.
+     */
+    public ArrayList<int[]> getBlockOrder() {
+        ArrayList<int[]> order = new ArrayList<int[]>((int) getBlockCount() + 1);
+        for (int row = 0; row < aBlocks; ++row) {
+            if (row % 2 == 0) {
+                for (int col = 0; col <= row; ++col) order.add(new int[]{row, col});
+            } else {
+                for (int col = row; col >= 0; --col) order.add(new int[]{row, col});
+            }
+        }
+        order.add(new int[]{aBlocks, aBlocks});
+
+        return order;
+    }
+
+    /**
+     * Returns the number of ray weight sets processed by each type AA task.
+     *
+     * @return The number of ray weight sets processed by each type AA task.
+     */
+    public int getSetsPerTask() {
+        long blocks = getBlockCount() + 1;
+        long m = blocks * aSetCount / ((long) aTasksPerProcessor * aProcessors);
+        m = Math.min(m, (long) aSetCount * aCacheBlocks / aProcessors);
+        m = Math.min(m, aSetCount);
+
+        return (int) Math.max(1, m);
+    }
+
+    /**
+     * Returns the number of represented covariance matrix blocks. This is the
+     * minimum number of block reads for a run.
+     *
+     * @return The number of represented covariance matrix blocks.
+     */
+    public long getBlockCount() {
+        return (long) aBlocks * (aBlocks + 1) / 2;
+    }
+
+    /**
+     * Returns the number of blocks that fit in the block cache budget.
+     *
+     * @return The number of blocks that fit in the block cache budget.
+     */
+    public int getCacheBlockCount() {
+        return aCacheBlocks;
+    }
+}
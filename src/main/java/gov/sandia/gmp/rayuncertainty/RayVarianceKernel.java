@@ -0,0 +1,563 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.rayuncertainty;
+
+import java.util.Arrays;
+
+import gov.sandia.gmp.util.numerical.matrix.SparseMatrixVector;
+
+/**
+ * Evaluates the ray variance quadratic form w<sup>T</sup> C w for many rays
+ * against a single loaded covariance matrix block.
+ * <p>
+ * The scalar loop in RayUncertaintyTask visits every (row weight, column
+ * weight) pair of a ray and performs one random access into the covariance
+ * block per pair. This kernel instead collects a batch of rays, forms the
+ * sorted union U of their column indices, and scatters each ray's column
+ * weights into a dense row x[b] over U. Each covariance row r that appears in
+ * any ray of the batch is then gathered once into a dense segment g = C[r][U]
+ * and the contribution of every ray with a weight w at row r is accumulated as
+ * w * (g . x[b]). The union is processed in column tiles (TILE_SIZE entries)
+ * so that the active segments of x[] remain cache resident while all rows are
+ * visited, and the dot products are unrolled with independent accumulators so
+ * the JIT can pipeline (and, where supported, vectorize) them.
+ * <p>
+ * A ray is only added to the current batch if the estimated dense work of the
+ * batch (union rows times union columns gathers plus DOT_COST times the dense
+ * dot product terms) stays within aMaxExpansion times the sparse work (the
+ * number of weight pairs) of the batch rays. A batch that ends up with a
+ * single ray is evaluated directly from its sparse weights with the
+ * covariance row hoisted out of the column loop and the column sum factored
+ * out of the row weight. Dissimilar rays therefore never cost more than the
+ * scalar loop while strongly overlapping rays (e.g. rays from the same site
+ * to nearby sources) share their covariance gathers.
+ * <p>
+ * Only the lower triangle (row index >= column index) of a diagonal block is
+ * accessed, which is the triangle filled for the transposed blocks used by
+ * RayUncertaintyTask. Results are accumulated into the callers partial
+ * variance arrays (pv[0] for the diagonal contributions, pv[1] for the
+ * off-diagonal contributions) using the same conventions as the scalar loops
+ * in RayUncertaintyTask. Summation order differs from the scalar loop so
+ * results agree to round-off.
+ * <p>
+ * A kernel is not thread safe. Each RayUncertaintyTask owns its own.
+ */
+public class RayVarianceKernel {
+    /**
+     * Number of union column entries processed per tile.
+     */
+    private static final int TILE_SIZE = 512;
+
+    /**
+     * Relative cost of a dense (cache resident) dot product term compared to
+     * a covariance gather (random block access). Used to estimate the dense
+     * work of a batch.
+     */
+    private static final double DOT_COST = 0.25;
+
+    /**
+     * Maximum number of rays evaluated in a single batch.
+     */
+    private int aBatchSize = 16;
+
+    /**
+     * Maximum ratio of the estimated dense batch work to the sparse work of the
+     * batch before a new batch is started.
+     */
+    private double aMaxExpansion = 1.0;
+
+    /**
+     * The covariance block (transposed, lower triangle valid for diagonal
+     * blocks) and its global row and column start indices.
+     */
+    private double[][] aBlock = null;
+    private int aRowStrt = 0;
+    private int aColStrt = 0;
+    private boolean aDiagonal = false;
+
+    /**
+     * The batch terms. Each term accumulates
+     * <p>
+     * pv[1] += scale * sum(w_r * x_c * C[r][c]) (c < r for diagonal blocks)
+     * pv[0] += sum(w_r * x_c * C[r][r])         (c == r, if aTrmDiag)
+     */
+    private int aTrmCount = 0;
+    private SparseMatrixVector[] aTrmRow;
+    private SparseMatrixVector[] aTrmCol;
+    private double[][] aTrmPV;
+    private double[] aTrmScale;
+    private boolean[] aTrmDiag;
+    private double[] aTrmSum;
+    private double[] aTrmDiagSum;
+    private double aTrmWork = 0.0;
+    private int aTrmEntries = 0;
+
+    /**
+     * The union of block local column indices of the current batch, the slot
+     * of each block local column in the union (-1 if not present), and the
+     * dense column weights of each term over the union.
+     */
+    private final int[] aColSlot;
+    private final int[] aColList;
+    private int aColCount = 0;
+    private double[][] aX;
+
+    /**
+     * The union of block local row indices of the current batch in CSR form
+     * (aRowPtr[k] to aRowPtr[k+1] are the entries of row aRowList[k] stored in
+     * aEntTrm and aEntWght), and the number of union columns that are strictly
+     * below each row (for diagonal blocks).
+     */
+    private final int[] aRowSlot;
+    private final int[] aRowList;
+    private final int[] aRowPtr;
+    private final int[] aRowEnd;
+    private int aRowCount = 0;
+    private int[] aEntTrm = new int[256];
+    private double[] aEntWght = new double[256];
+
+    /**
+     * The gathered covariance row segment.
+     */
+    private final double[] aG = new double[TILE_SIZE];
+
+    /**
+     * Number of rays (terms) and batches evaluated by this kernel.
+     */
+    private long aTermsEvaluated = 0;
+    private long aBatchesEvaluated = 0;
+
+    /**
+     * Creates a new kernel for covariance blocks of size blockSize.
+     *
+     * @param blockSize The number of rows (columns) in a covariance block.
+     */
+    public RayVarianceKernel(int blockSize) {
+        aColSlot = new int[blockSize];
+        aColList = new int[blockSize];
+        aRowSlot = new int[blockSize];
+        aRowList = new int[blockSize];
+        aRowPtr = new int[blockSize + 1];
+        aRowEnd = new int[blockSize];
+        Arrays.fill(aColSlot, -1);
+        Arrays.fill(aRowSlot, -1);
+        allocateTerms(aBatchSize);
+    }
+
+    /**
+     * Sets the maximum number of rays evaluated per batch (default 16).
+     *
+     * @param batchSize The maximum number of rays evaluated per batch.
+     */
+    public void setBatchSize(int batchSize) {
+        flush();
+        aBatchSize = Math.max(1, batchSize);
+        allocateTerms(aBatchSize);
+    }
+
+    /**
+     * Sets the maximum ratio of the estimated dense batch work to the sparse
+     * work of the same rays (default 1.0, i.e. a ray is only batched if it
+     * reduces the estimated work).
+     *
+     * @param maxExpansion The maximum dense to sparse work ratio.
+     */
+    public void setMaxExpansion(double maxExpansion) {
+        aMaxExpansion = Math.max(1.0, maxExpansion);
+    }
+
+    /**
+     * Sets the covariance block evaluated by subsequent add calls. Any pending
+     * rays of the previous block are evaluated first.
+     *
+     * @param block    The transposed covariance block.
+     * @param rowStrt  The global row index of the first block row.
+     * @param colStrt  The global column index of the first block column.
+     * @param diagonal True if this is a diagonal block.
+     */
+    public void setBlock(double[][] block, int rowStrt, int colStrt,
+                         boolean diagonal) {
+        flush();
+        aBlock = block;
+        aRowStrt = rowStrt;
+        aColStrt = colStrt;
+        aDiagonal = diagonal;
+    }
+
+    /**
+     * Adds the site A -> site A contribution of a single ray. For a diagonal
+     * block smvRow and smvCol are the same vector.
+     *
+     * @param smvRow The ray weights in the block row.
+     * @param smvCol The ray weights in the block column.
+     * @param pv     The partial variance array of the ray.
+     */
+    public void addAA(SparseMatrixVector smvRow, SparseMatrixVector smvCol,
+                      double[] pv) {
+        addTerm(smvRow, smvCol, pv, 2.0, aDiagonal);
+    }
+
+    /**
+     * Adds the site A -> site B contribution of a single ray. For diagonal
+     * blocks the upper triangular pairs are evaluated as the transpose
+     * (smvB rows against smvA columns).
+     *
+     * @param smvA The site A ray weights in the block row.
+     * @param smvB The site B ray weights in the block column.
+     * @param pv   The partial variance array of the ray.
+     */
+    public void addAB(SparseMatrixVector smvA, SparseMatrixVector smvB,
+                      double[] pv) {
+        addTerm(smvA, smvB, pv, 1.0, aDiagonal);
+        if (aDiagonal) addTerm(smvB, smvA, pv, 1.0, false);
+    }
+
+    /**
+     * Evaluates all pending rays and adds their results to their partial
+     * variance arrays.
+     */
+    public void flush() {
+        if (aTrmCount > 0) evaluate();
+    }
+
+    /**
+     * Returns the number of ray terms evaluated by this kernel.
+     *
+     * @return The number of ray terms evaluated by this kernel.
+     */
+    public long getTermsEvaluated() {
+        return aTermsEvaluated;
+    }
+
+    /**
+     * Returns the number of batches evaluated by this kernel.
+     *
+     * @return The number of batches evaluated by this kernel.
+     */
+    public long getBatchesEvaluated() {
+        return aBatchesEvaluated;
+    }
+
+    /**
+     * Sizes the term arrays for n terms.
+     *
+     * @param n The number of terms.
+     */
+    private void allocateTerms(int n) {
+        aTrmRow = new SparseMatrixVector[n];
+        aTrmCol = new SparseMatrixVector[n];
+        aTrmPV = new double[n][];
+        aTrmScale = new double[n];
+        aTrmDiag = new boolean[n];
+        aTrmSum = new double[n];
+        aTrmDiagSum = new double[n];
+        aX = new double[n][];
+    }
+
+    /**
+     * Adds a term to the current batch. If the term does not fit (batch full
+     * or its columns expand the union beyond the allowed dense work) the
+     * current batch is evaluated first.
+     *
+     * @param smvRow The row weights of the term.
+     * @param smvCol The column weights of the term.
+     * @param pv     The partial variance array of the term.
+     * @param scale  The scale applied to the off-diagonal sum.
+     * @param diag   True if the diagonal (r == c) contribution is included.
+     */
+    private void addTerm(SparseMatrixVector smvRow, SparseMatrixVector smvCol,
+                         double[] pv, double scale, boolean diag) {
+        if (aBlock == null) return;
+        int nr = smvRow.size();
+        int n = smvCol.size();
+        if ((n == 0) || (nr == 0)) return;
+
+        // add the new rows and columns to the unions and see if the batch can
+        // accept them
+
+        int colCount = aColCount;
+        int[] indx = smvCol.getIndexArray();
+        for (int j = 0; j < n; ++j) {
+            int c = indx[j] - aColStrt;
+            if (aColSlot[c] < 0) {
+                aColSlot[c] = colCount;
+                aColList[colCount++] = c;
+            }
+        }
+        int rowCount = aRowCount;
+        indx = smvRow.getIndexArray();
+        for (int i = 0; i < nr; ++i) {
+            int r = indx[i] - aRowStrt;
+            if (aRowSlot[r] < 0) {
+                aRowSlot[r] = rowCount;
+                aRowList[rowCount++] = r;
+            }
+        }
+
+        if ((aTrmCount > 0) &&
+            ((aTrmCount == aBatchSize) ||
+             ((double) colCount * (rowCount + DOT_COST * (aTrmEntries + nr)) >
+              aMaxExpansion * (aTrmWork + (double) nr * n)))) {
+            // does not fit ... remove the new rows and columns, evaluate the
+            // current batch and start a new one with this term
+
+            for (int k = aColCount; k < colCount; ++k) aColSlot[aColList[k]] = -1;
+            for (int k = aRowCount; k < rowCount; ++k) aRowSlot[aRowList[k]] = -1;
+            evaluate();
+            addTerm(smvRow, smvCol, pv, scale, diag);
+            return;
+        }
+
+        // accept the term
+
+        aColCount = colCount;
+        aRowCount = rowCount;
+        aTrmRow[aTrmCount] = smvRow;
+        aTrmCol[aTrmCount] = smvCol;
+        aTrmPV[aTrmCount] = pv;
+        aTrmScale[aTrmCount] = scale;
+        aTrmDiag[aTrmCount] = diag;
+        aTrmWork += (double) nr * n;
+        aTrmEntries += nr;
+        ++aTrmCount;
+    }
+
+    /**
+     * Evaluates the current batch, adds the results into each terms partial
+     * variance array, and resets the batch.
+     */
+    private void evaluate() {
+        int nc = aColCount;
+        int nr = aRowCount;
+        int nt = aTrmCount;
+
+        if (nt == 1)
+            evaluateSparse();
+        else
+            evaluateDense();
+
+        // add results to the partial variance arrays and reset the batch
+
+        for (int t = 0; t < nt; ++t) {
+            double[] pv = aTrmPV[t];
+            pv[0] += aTrmDiagSum[t];
+            pv[1] += aTrmScale[t] * aTrmSum[t];
+            aTrmRow[t] = aTrmCol[t] = null;
+            aTrmPV[t] = null;
+        }
+        for (int s = 0; s < nr; ++s) aRowSlot[aRowList[s]] = -1;
+        for (int k = 0; k < nc; ++k) aColSlot[aColList[k]] = -1;
+        aColCount = 0;
+        aRowCount = 0;
+        aTrmCount = 0;
+        aTrmWork = 0.0;
+        aTrmEntries = 0;
+        aTermsEvaluated += nt;
+        ++aBatchesEvaluated;
+    }
+
+    /**
+     * Evaluates a batch containing a single term directly from its sparse
+     * weights (the dense form offers no gather reuse for a single ray).
+     */
+    private void evaluateSparse() {
+        SparseMatrixVector smvRow = aTrmRow[0];
+        SparseMatrixVector smvCol = aTrmCol[0];
+        int[] indxRow = smvRow.getIndexArray();
+        double[] wghtRow = smvRow.getValueArray();
+        int[] indxCol = smvCol.getIndexArray();
+        double[] wghtCol = smvCol.getValueArray();
+        int n = smvCol.size();
+        boolean diag = aTrmDiag[0];
+
+        double sum = 0.0, diagSum = 0.0;
+        for (int i = 0; i < smvRow.size(); ++i) {
+            int r = indxRow[i] - aRowStrt;
+            double[] crow = aBlock[r];
+            double s = 0.0;
+            if (aDiagonal) {
+                for (int j = 0; j < n; ++j) {
+                    int c = indxCol[j] - aColStrt;
+                    if (c < r)
+                        s += wghtCol[j] * crow[c];
+                    else if ((c == r) && diag)
+                        diagSum += wghtRow[i] * wghtCol[j] * crow[c];
+                }
+            } else {
+                for (int j = 0; j < n; ++j)
+                    s += wghtCol[j] * crow[indxCol[j] - aColStrt];
+            }
+            sum += wghtRow[i] * s;
+        }
+        aTrmSum[0] = sum;
+        aTrmDiagSum[0] = diagSum;
+    }
+
+    /**
+     * Evaluates a batch of terms using the gathered covariance row segments and
+     * the dense column weights of each term over the union of columns.
+     */
+    private void evaluateDense() {
+        int nc = aColCount;
+        int nr = aRowCount;
+        int nt = aTrmCount;
+
+        // sort the column union and re-assign the union slots
+
+        Arrays.sort(aColList, 0, nc);
+        for (int k = 0; k < nc; ++k) aColSlot[aColList[k]] = k;
+
+        // scatter each terms column weights into its dense union row
+
+        for (int t = 0; t < nt; ++t) {
+            double[] x = aX[t];
+            if ((x == null) || (x.length < nc)) {
+                x = new double[Math.max(nc, 2 * ((x == null) ? 0 : x.length))];
+                aX[t] = x;
+            } else
+                Arrays.fill(x, 0, nc, 0.0);
+
+            SparseMatrixVector smv = aTrmCol[t];
+            int[] indx = smv.getIndexArray();
+            double[] wght = smv.getValueArray();
+            for (int j = 0; j < smv.size(); ++j)
+                x[aColSlot[indx[j] - aColStrt]] += wght[j];
+
+            aTrmSum[t] = 0.0;
+            aTrmDiagSum[t] = 0.0;
+        }
+
+        // build the row union entries in CSR form ... first count the entries of
+        // each row
+
+        Arrays.fill(aRowPtr, 0, nr + 1, 0);
+        for (int t = 0; t < nt; ++t) {
+            SparseMatrixVector smv = aTrmRow[t];
+            int[] indx = smv.getIndexArray();
+            for (int i = 0; i < smv.size(); ++i)
+                ++aRowPtr[aRowSlot[indx[i] - aRowStrt] + 1];
+        }
+        for (int s = 0; s < nr; ++s) aRowPtr[s + 1] += aRowPtr[s];
+        int ne = aRowPtr[nr];
+        if (aEntTrm.length < ne) {
+            aEntTrm = new int[2 * ne];
+            aEntWght = new double[2 * ne];
+        }
+
+        // now fill the entries (aRowEnd is used as the fill position)
+
+        for (int s = 0; s < nr; ++s) aRowEnd[s] = aRowPtr[s];
+        for (int t = 0; t < nt; ++t) {
+            SparseMatrixVector smv = aTrmRow[t];
+            int[] indx = smv.getIndexArray();
+            double[] wght = smv.getValueArray();
+            for (int i = 0; i < smv.size(); ++i) {
+                int e = aRowEnd[aRowSlot[indx[i] - aRowStrt]]++;
+                aEntTrm[e] = t;
+                aEntWght[e] = wght[i];
+            }
+        }
+
+        // set the number of union columns evaluated for each row (all for
+        // off-diagonal blocks and those strictly less than the row for diagonal
+        // blocks)
+
+        for (int s = 0; s < nr; ++s) {
+            if (aDiagonal) {
+                int k = Arrays.binarySearch(aColList, 0, nc, aRowList[s]);
+                aRowEnd[s] = (k < 0) ? -k - 1 : k;
+            } else
+                aRowEnd[s] = nc;
+        }
+
+        // evaluate the off-diagonal sums one column tile at a time
+
+        double[] g = aG;
+        for (int t0 = 0; t0 < nc; t0 += TILE_SIZE) {
+            int t1 = Math.min(nc, t0 + TILE_SIZE);
+            for (int s = 0; s < nr; ++s) {
+                int e = Math.min(t1, aRowEnd[s]);
+                if (e <= t0) continue;
+
+                // gather the covariance row segment for this tile and accumulate
+                // the dot product for each entry of the row
+
+                int len = e - t0;
+                double[] crow = aBlock[aRowList[s]];
+                for (int k = 0; k < len; ++k) g[k] = crow[aColList[t0 + k]];
+                for (int p = aRowPtr[s]; p < aRowPtr[s + 1]; ++p) {
+                    int t = aEntTrm[p];
+                    aTrmSum[t] += aEntWght[p] * dot(g, aX[t], t0, len);
+                }
+            }
+        }
+
+        // evaluate the diagonal (r == c) contributions for diagonal blocks
+
+        if (aDiagonal) {
+            for (int s = 0; s < nr; ++s) {
+                int r = aRowList[s];
+                int k = aColSlot[r];
+                if (k < 0) continue;
+                double crr = aBlock[r][r];
+                for (int p = aRowPtr[s]; p < aRowPtr[s + 1]; ++p) {
+                    int t = aEntTrm[p];
+                    if (aTrmDiag[t]) aTrmDiagSum[t] += aEntWght[p] * aX[t][k] * crr;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the dot product of g[0, len) and x[xStrt, xStrt + len).
+     *
+     * @param g     The gathered covariance segment.
+     * @param x     The dense column weights.
+     * @param xStrt The first entry of x.
+     * @param len   The number of entries.
+     * @return The dot product.
+     */
+    private static double dot(double[] g, double[] x, int xStrt, int len) {
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int k = 0;
+        int n4 = len & ~3;
+        for (; k < n4; k += 4) {
+            s0 += g[k] * x[xStrt + k];
+            s1 += g[k + 1] * x[xStrt + k + 1];
+            s2 += g[k + 2] * x[xStrt + k + 2];
+            s3 += g[k + 3] * x[xStrt + k + 3];
+        }
+        for (; k < len; ++k) s0 += g[k] * x[xStrt + k];
+        return (s0 + s1) + (s2 + s3);
+    }
+}
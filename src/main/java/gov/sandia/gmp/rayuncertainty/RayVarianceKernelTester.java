@@ -0,0 +1,252 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.rayuncertainty;
+
+import java.util.Random;
+
+import gov.sandia.gmp.util.numerical.matrix.SparseMatrixVector;
+
+/**
+ * Standalone benchmark of the RayVarianceKernel against the scalar
+ * (row weight, column weight) loop used by RayUncertaintyTask. A synthetic
+ * covariance block and synthetic rays are generated, both evaluations are
+ * timed for diagonal (AA and AB) and off-diagonal blocks, and the maximum
+ * relative difference of the partial variances is reported.
+ * <p>
+ * Usage: RayVarianceKernelTester [blockSize] [rays] [weightsPerRay]
+ * [repetitions] [batchSize] [maxExpansion]
+ * <p>
+ * Synthetic rays share a common "site" segment of block indices (as rays from
+ * the same site do near the station) and then wander through the block from
+ * one of a small number of source regions.
+ */
+public class RayVarianceKernelTester {
+    /**
+     * Number and spacing of the synthetic source regions that the far end of
+     * each ray is drawn from.
+     */
+    private static final int CLUSTERS = 32;
+    private static final int CLUSTER_SPACING = 61;
+
+    /**
+     * The kernel batch size and maximum dense work expansion.
+     */
+    private static int batchSize = 16;
+    private static double maxExpansion = 1.0;
+
+    public static void main(String[] args) {
+        int blkSize = (args.length > 0) ? Integer.valueOf(args[0]) : 2048;
+        int rays = (args.length > 1) ? Integer.valueOf(args[1]) : 20000;
+        int nw = (args.length > 2) ? Integer.valueOf(args[2]) : 60;
+        int reps = (args.length > 3) ? Integer.valueOf(args[3]) : 5;
+        batchSize = (args.length > 4) ? Integer.valueOf(args[4]) : 16;
+        maxExpansion = (args.length > 5) ? Double.valueOf(args[5]) : 1.0;
+
+        Random rnd = new Random(4321);
+        double[][] blk = new double[blkSize][blkSize];
+        for (int i = 0; i < blkSize; ++i)
+            for (int j = 0; j <= i; ++j)
+                blk[i][j] = blk[j][i] = (i == j) ? 1.0 + rnd.nextDouble() :
+                        0.01 * rnd.nextGaussian() / (1.0 + Math.abs(i - j));
+
+        int rowStrt = blkSize;
+        int colStrt = 0;
+        SparseMatrixVector[] rowA = new SparseMatrixVector[rays];
+        SparseMatrixVector[] rowB = new SparseMatrixVector[rays];
+        SparseMatrixVector[] colA = new SparseMatrixVector[rays];
+        for (int r = 0; r < rays; ++r) {
+            rowA[r] = syntheticRay(rnd, blkSize, nw, rowStrt, 0);
+            rowB[r] = syntheticRay(rnd, blkSize, nw, rowStrt, blkSize / 3);
+            colA[r] = syntheticRay(rnd, blkSize, nw, colStrt, 0);
+        }
+        SparseMatrixVector[] diagA = new SparseMatrixVector[rays];
+        SparseMatrixVector[] diagB = new SparseMatrixVector[rays];
+        for (int r = 0; r < rays; ++r) {
+            diagA[r] = syntheticRay(rnd, blkSize, nw, rowStrt, 0);
+            diagB[r] = syntheticRay(rnd, blkSize, nw, rowStrt, blkSize / 3);
+        }
+
+        System.out.println("RayVarianceKernel Benchmark: block size = " +
+                blkSize + ", rays = " + rays + ", weights/ray = " + nw);
+        run("AA diagonal", blk, rowStrt, rowStrt, true, true, diagA, diagA, reps);
+        run("AA off-diagonal", blk, rowStrt, colStrt, false, true, rowA, colA,
+                reps);
+        run("AB diagonal", blk, rowStrt, rowStrt, true, false, diagA, diagB,
+                reps);
+        run("AB off-diagonal", blk, rowStrt, colStrt, false, false, rowB, colA,
+                reps);
+    }
+
+    /**
+     * Times the scalar loop and the kernel for the input rays and outputs the
+     * timing and maximum relative difference.
+     */
+    private static void run(String hdr, double[][] blk, int rowStrt,
+                            int colStrt, boolean diagonal, boolean aa,
+                            SparseMatrixVector[] rows, SparseMatrixVector[] cols,
+                            int reps) {
+        int rays = rows.length;
+        double[][] pvScalar = new double[rays][3];
+        double[][] pvKernel = new double[rays][3];
+        RayVarianceKernel kernel = new RayVarianceKernel(blk.length);
+        kernel.setBatchSize(batchSize);
+        kernel.setMaxExpansion(maxExpansion);
+
+        long tScalar = Long.MAX_VALUE, tKernel = Long.MAX_VALUE;
+        for (int rep = 0; rep < reps; ++rep) {
+            clear(pvScalar);
+            long t = System.nanoTime();
+            for (int r = 0; r < rays; ++r) {
+                if (aa)
+                    scalarAA(blk, rowStrt, colStrt, rows[r], cols[r], pvScalar[r]);
+                else
+                    scalarAB(blk, rowStrt, colStrt, rows[r], cols[r], pvScalar[r]);
+            }
+            tScalar = Math.min(tScalar, System.nanoTime() - t);
+
+            clear(pvKernel);
+            t = System.nanoTime();
+            kernel.setBlock(blk, rowStrt, colStrt, diagonal);
+            for (int r = 0; r < rays; ++r) {
+                if (aa)
+                    kernel.addAA(rows[r], cols[r], pvKernel[r]);
+                else
+                    kernel.addAB(rows[r], cols[r], pvKernel[r]);
+            }
+            kernel.flush();
+            tKernel = Math.min(tKernel, System.nanoTime() - t);
+        }
+
+        double maxRel = 0.0;
+        for (int r = 0; r < rays; ++r) {
+            double a = pvScalar[r][0] + pvScalar[r][1];
+            double b = pvKernel[r][0] + pvKernel[r][1];
+            double d = Math.abs(a - b) / Math.max(Math.abs(a), 1.0e-300);
+            if (d > maxRel) maxRel = d;
+        }
+
+        System.out.println(String.format("  %-16s scalar = %9.3f ms, kernel = %9.3f ms, " +
+                        "speedup = %6.2f, batches = %d, max rel diff = %.3e",
+                hdr, 1.0e-6 * tScalar, 1.0e-6 * tKernel,
+                (double) tScalar / tKernel, kernel.getBatchesEvaluated() / reps,
+                maxRel));
+    }
+
+    /**
+     * Builds a synthetic ray with a leading segment common to all rays
+     * (starting at site) followed by a random walk through the block that
+     * starts in one of the CLUSTERS source regions.
+     */
+    private static SparseMatrixVector syntheticRay(Random rnd, int blkSize,
+                                                   int nw, int strt, int site) {
+        SparseMatrixVector smv = new SparseMatrixVector(nw);
+        boolean[] used = new boolean[blkSize];
+        int nsite = nw / 3;
+        for (int k = 0; k < nsite; ++k) {
+            int c = (site + 2 * k) % blkSize;
+            used[c] = true;
+            smv.add(strt + c, rnd.nextDouble());
+        }
+        int c = (CLUSTER_SPACING * rnd.nextInt(CLUSTERS) + rnd.nextInt(16)) %
+                blkSize;
+        for (int k = nsite; k < nw; ++k) {
+            c = (c + 1 + rnd.nextInt(8)) % blkSize;
+            if (used[c]) continue;
+            used[c] = true;
+            smv.add(strt + c, rnd.nextDouble());
+        }
+        return smv;
+    }
+
+    private static void clear(double[][] pv) {
+        for (double[] v : pv) {
+            v[0] = v[1] = v[2] = 0.0;
+        }
+    }
+
+    /**
+     * The site A -> site A scalar loop of RayUncertaintyTask.
+     */
+    private static void scalarAA(double[][] blk, int rowStrt, int colStrt,
+                                 SparseMatrixVector smvRow,
+                                 SparseMatrixVector smvCol, double[] pv) {
+        int[] indxRow = smvRow.getIndexArray();
+        double[] wghtRow = smvRow.getValueArray();
+        int[] indxCol = smvCol.getIndexArray();
+        double[] wghtCol = smvCol.getValueArray();
+        for (int i = 0; i < smvRow.size(); ++i) {
+            int ii = indxRow[i];
+            double wi = wghtRow[i];
+            for (int j = 0; j < smvCol.size(); ++j) {
+                int ij = indxCol[j];
+                if (ii >= ij) {
+                    double u = wi * wghtCol[j];
+                    double cij = blk[ii - rowStrt][ij - colStrt];
+                    if (ii == ij)
+                        pv[0] += u * cij;
+                    else
+                        pv[1] += 2.0 * u * cij;
+                }
+            }
+        }
+    }
+
+    /**
+     * The site A -> site B scalar loop of RayUncertaintyTask.
+     */
+    private static void scalarAB(double[][] blk, int rowStrt, int colStrt,
+                                 SparseMatrixVector smvA,
+                                 SparseMatrixVector smvB, double[] pv) {
+        int[] indxA = smvA.getIndexArray();
+        double[] wghtA = smvA.getValueArray();
+        int[] indxB = smvB.getIndexArray();
+        double[] wghtB = smvB.getValueArray();
+        for (int i = 0; i < smvA.size(); ++i) {
+            for (int j = 0; j < smvB.size(); ++j) {
+                int ii = indxA[i];
+                int ij = indxB[j];
+                if (ij > ii) {
+                    int itmp = ij;
+                    ij = ii;
+                    ii = itmp;
+                }
+                double u = wghtA[i] * wghtB[j];
+                double cij = blk[ii - rowStrt][ij - colStrt];
+                if (ii == ij)
+                    pv[0] += u * cij;
+                else
+                    pv[1] += u * cij;
+            }
+        }
+    }
+}
@@ -42,6 +42,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gov.sandia.geotess.GeoTessException;
 import gov.sandia.geotess.GeoTessModel;
@@ -56,6 +61,8 @@ import gov.sandia.gmp.geotessgmp.GeoTessModelGMP;
 import gov.sandia.gmp.geotessgmp.LibCorr3DModelGMP;
 import gov.sandia.gmp.rayuncertainty.RayUncertainty;
 import gov.sandia.gmp.rayuncertainty.RayUncertainty.SourceDefinition;
+import gov.sandia.gmp.util.containers.arraylist.ArrayListByte;
+import gov.sandia.gmp.util.containers.arraylist.ArrayListDouble;
 import gov.sandia.gmp.util.containers.arraylist.ArrayListInt;
 import gov.sandia.gmp.util.containers.hash.maps.HashMapIntegerDouble;
 import gov.sandia.gmp.util.containers.hash.maps.HashMapIntegerInteger;
@@ -190,6 +197,36 @@ public class Smoother {
         }
     }
 
+    /**
+     * The compressed sparse row (CSR) neighborhood of all valid points of a
+     * single source model layer used by distance weighted smoothing. The
+     * neighbors of point aPoint[i] are stored in entries aPtr[i] to
+     * aPtr[i+1]-1 of aNghbr, in the order in which they were discovered by
+     * getNeighborVertices(). The smoothing weight and distance bin of each
+     * neighbor entry are precomputed for each distance smoothed component.
+     */
+    private static final class DistanceNeighborhood {
+        private int[] aPoint;
+        private int[] aLayer;
+        private double[] aRadius;
+        private int[] aPtr;
+        private int[] aNghbr;
+        private double[][] aWeight;
+        private byte[][] aBin;
+    }
+
+    /**
+     * The ring neighbors of a single tomography model point used by ring
+     * weighted smoothing. aNghbr[i] is the point index of the i'th neighbor and
+     * aRing[i] is its ring number (0 for the point itself). The neighbors are
+     * stored in the order in which they are accumulated by
+     * getPointRingWeightedInterpolation().
+     */
+    private static final class RingNeighborhood {
+        private int[] aNghbr;
+        private int[] aRing;
+    }
+
     /**
      * True if smoothing is performed for the respective component.
      */
@@ -251,6 +288,32 @@ public class Smoother {
      */
     private double[][] aDistNghbrLimits = new double[3][];
 
+    /**
+     * The number of threads used to evaluate ring and distance weighted
+     * smoothing.
+     */
+    private int aThreadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The minimum number of points evaluated by a single distance smoothing
+     * task.
+     */
+    private static final int MIN_POINTS_PER_TASK = 256;
+
+    /**
+     * The maximum number of interpolated values held at one time by ring
+     * weighted smoothing. Source points are processed in blocks whose ring
+     * neighbor interpolations do not exceed this size.
+     */
+    private static final int MAX_RING_VALUES = 1 << 24;
+
+    /**
+     * The number of preceding ring neighbor positions used to prime the
+     * GeoTessPosition of each ring interpolation task so that its triangle
+     * walk starts where a serial evaluation would have started.
+     */
+    private static final int PRIME_POINTS = 8;
+
     /**
      * Default constructor.
      */
@@ -459,6 +522,31 @@ public class Smoother {
         System.out.println("RayUncertainty.smoothModel Complete");
     }
 
+    /**
+     * Sets the number of threads used to evaluate ring and distance weighted
+     * smoothing. A value of 1 evaluates all points in the calling thread.
+     * Distance weighted output is identical for any thread count. Ring weighted
+     * smoothing interpolates the ring neighbors of a block of points on
+     * several threads, each priming its own GeoTessPosition with the preceding
+     * neighbor positions so that the output matches the serial evaluation.
+     *
+     * @param threads The number of smoothing threads (must be 1 or larger).
+     */
+    public void setThreadCount(int threads) {
+        aThreadCount = Math.max(1, threads);
+    }
+
+    /**
+     * Returns the number of threads used to evaluate ring and distance weighted
+     * smoothing.
+     *
+     * @return The number of threads used to evaluate ring and distance weighted
+     * smoothing.
+     */
+    public int getThreadCount() {
+        return aThreadCount;
+    }
+
     public void clearSmoothingDefinitions() {
         clearSmoothingDefinition(UncertaintyComponent.DIAGONAL);
         clearSmoothingDefinition(UncertaintyComponent.OFF_DIAGONAL);
@@ -784,10 +872,28 @@ public class Smoother {
 
         GeoVector gv = new GeoVector();
         HashMap<Integer, Double> inflWeights = new HashMap<Integer, Double>();
-        HashMapIntegerKey<HashMapIntegerInteger> pointRingNghbrMap;
-        pointRingNghbrMap = new HashMapIntegerKey<HashMapIntegerInteger>();
+        HashMapIntegerKey<RingNeighborhood> pointRingNghbrMap;
+        pointRingNghbrMap = new HashMapIntegerKey<RingNeighborhood>();
         ModelInterface tomoModel = modelTomo;
 
+        // the order of the smoothed components in the interpolated value arrays
+        // returned by interpolateRingNeighbors()
+
+        int[] intrpCmpnts = new int[intrpArray.size()];
+        int ic = 0;
+        for (Integer p : intrpArray.keySet()) intrpCmpnts[ic++] = p;
+        int nIntrpValues = intrpCmpnts.length * attrMapList.size();
+
+        // containers for the influence points and ring neighbors of a block of
+        // source points, and the last ring neighbors interpolated (used to prime
+        // the interpolation of the next block)
+
+        ArrayListInt inflPtrList = new ArrayListInt();
+        ArrayListInt inflPntList = new ArrayListInt();
+        ArrayListDouble inflWghtList = new ArrayListDouble();
+        ArrayListInt qryPnts = new ArrayListInt();
+        ArrayListInt primePnts = new ArrayListInt();
+
         // build ring array and ring array count maps for use in getPointRingMap.
         // map<smooth component, double[surface][ring]>
 
@@ -821,196 +927,251 @@ public class Smoother {
 
         //*************** Smoothing Operation *************************************
         // loop over all source points sorted on layer index to minimize the number
-        // of times that modelSource.setGridNodeElementNeighbors(layer) is called
-
-        for (Map.Entry<Integer, ArrayListInt> layerPnts : layerSortedPoints.entrySet()) {
-            // get layer index and corresponding list of point indices
-
-            layer = layerPnts.getKey();
-            ArrayListInt pntList = layerPnts.getValue();
-            modelSource.setGridNodeElementNeighbors(layer);
-
-            // first build a map of tomography model layer ordered source points
+        // of times that modelSource.setGridNodeElementNeighbors(layer) is called.
+        // The source points of each tomography layer are processed in blocks.
+        // The influence points and ring neighbors of a block are gathered
+        // serially (they rely on the layer topology set on the models), the
+        // source model is then interpolated at all ring neighbors of the block in
+        // parallel, and finally the ring weighted results and statistics are
+        // accumulated serially in the original order.
+
+        ExecutorService exec = null;
+        if (aThreadCount > 1) exec = Executors.newFixedThreadPool(aThreadCount);
+        try {
+
+            for (Map.Entry<Integer, ArrayListInt> layerPnts : layerSortedPoints.entrySet()) {
+                // get layer index and corresponding list of point indices
+
+                layer = layerPnts.getKey();
+                ArrayListInt pntList = layerPnts.getValue();
+                modelSource.setGridNodeElementNeighbors(layer);
+
+                // first build a map of tomography model layer ordered source points
+
+                HashMap<Integer, ArrayListInt> tomoLayerPoints;
+                tomoLayerPoints = new HashMap<Integer, ArrayListInt>();
+                modelTomo.setActiveRegion();
+                //XXX modelTomo.setActiveNodesGlobal(attrMapList.get(0).aPhase.getWaveType());
+                for (int pnt = 0; pnt < pntList.size(); ++pnt) {
+                    // get the point index (gn) and the radius of the point (r)
+
+                    gn = pntList.get(pnt);
+                    r = modelSource.getPointRadius(gn);
+                    gv.setGeoVector(modelSource.getPointUnitVector(gn), r);
 
-            HashMap<Integer, ArrayListInt> tomoLayerPoints;
-            tomoLayerPoints = new HashMap<Integer, ArrayListInt>();
-            modelTomo.setActiveRegion();
-            //XXX modelTomo.setActiveNodesGlobal(attrMapList.get(0).aPhase.getWaveType());
-            for (int pnt = 0; pnt < pntList.size(); ++pnt) {
-                // get the point index (gn) and the radius of the point (r)
+                    // find the tomography grid points that influence this source point and
+                    // return the influence point indexes and weights in inflWeights
 
-                gn = pntList.get(pnt);
-                r = modelSource.getPointRadius(gn);
-                gv.setGeoVector(modelSource.getPointUnitVector(gn), r);
+                    RayUncertainty.getPositionInfluencePoints(modelTomo, gv,
+                            attrMapList.get(0).aPhase,
+                            inflWeights);
 
-                // find the tomography grid points that influence this source point and
-                // return the influence point indexes and weights in inflWeights
+                    // get the first influence point and see what layer it is (all influence
+                    // points will be in the same tomography model layer
 
-                RayUncertainty.getPositionInfluencePoints(modelTomo, gv,
-                        attrMapList.get(0).aPhase,
-                        inflWeights);
+                    int tomoLayer = -1;
+                    int inflPntIndx = inflWeights.entrySet().iterator().next().getKey();
+                    //XXX tomoLayer = modelTomo.getMajorLayerIndex(inflPntIndx);
+                    tomoLayer = modelTomo.getPointMap().getLayerIndex(inflPntIndx);
 
-                // get the first influence point and see what layer it is (all influence
-                // points will be in the same tomography model layer
+                    // if this layer is not yet represented in the map then create it
 
-                int tomoLayer = -1;
-                int inflPntIndx = inflWeights.entrySet().iterator().next().getKey();
-                //XXX tomoLayer = modelTomo.getMajorLayerIndex(inflPntIndx);
-                tomoLayer = modelTomo.getPointMap().getLayerIndex(inflPntIndx);
+                    ArrayListInt tomoLyrPnts = tomoLayerPoints.get(tomoLayer);
+                    if (tomoLyrPnts == null) {
+                        tomoLyrPnts = new ArrayListInt();
+                        tomoLayerPoints.put(tomoLayer, tomoLyrPnts);
+                    }
 
-                // if this layer is not yet represented in the map then create it
+                    // add the source point index to the map and continue
 
-                ArrayListInt tomoLyrPnts = tomoLayerPoints.get(tomoLayer);
-                if (tomoLyrPnts == null) {
-                    tomoLyrPnts = new ArrayListInt();
-                    tomoLayerPoints.put(tomoLayer, tomoLyrPnts);
+                    tomoLyrPnts.add(gn);
                 }
 
-                // add the source point index to the map and continue
-
-                tomoLyrPnts.add(gn);
-            }
-
-            // loop over all points and smooth them. The map tomoLayerPoints are a
-            // set of source model points to be smoothed that reside within a specific
-            // layer of the tomography model. IOW, the tomography points that influence
-            // the source points in the map are all from a single layer (epnts.getKey()
-            // below)
-
-            for (Map.Entry<Integer, ArrayListInt> ePnts : tomoLayerPoints.entrySet()) {
-                // set the topology of the tomography model for the current layer
-
-                int tomoLayer = ePnts.getKey();
-                if (currTomoLayer != -1)
-                    modelTomo.clearGridNodeElementNeighbors(currTomoLayer);
-                currTomoLayer = tomoLayer;
-                modelTomo.setGridNodeElementNeighbors(currTomoLayer);
-
-                // loop over all source model points that are influenced by tomography
-                // points that lay exclusively withing tomogLayer
-
-                ArrayListInt srcLayerPnts = ePnts.getValue();
-                for (int pnt = 0; pnt < srcLayerPnts.size(); ++pnt) {
-                    // get the next source point and set its position vector.
-
-                    gn = srcLayerPnts.get(pnt);
-                    r = modelSource.getPointRadius(gn);
-                    gv.setGeoVector(modelSource.getPointUnitVector(gn), r);
-
-                    // get the tomography influence weights for the current source
-                    // point position gv
-
-                    RayUncertainty.getPositionInfluencePoints(modelTomo, gv, inflPhase,
-                            inflWeights);
-
-                    // initialize to zero the surface result array of each component to be
-                    // smoothed
-
-                    for (Map.Entry<Integer, double[]> eInfl : inflRslts.entrySet()) {
-                        double[] rslts = eInfl.getValue();
-                        for (int k = 0; k < rslts.length; ++k) rslts[k] = 0.0;
-                        int[] ringCnt = ringNeighbors.get(eInfl.getKey());
-                        double[] ringDst = distNeighbors.get(eInfl.getKey());
-                        for (int i = 0; i < ringCnt.length; ++i) {
-                            ringCnt[i] = 0;
-                            ringDst[i] = 0.0;
-                        }
-                    }
-
-                    // loop over all influence points and sum contributions to result
-                    // array
-
-                    double weightSum = 0.0;
-                    double totlNghbrCnt = 0.0;
-                    for (Map.Entry<Integer, Double> eIP : inflWeights.entrySet()) {
-                        // get the influence point index and weight and retrieve the
-                        // points ring weighted interpolation array
-
-                        int inflPntIndx = eIP.getKey();
-                        double inflWght = eIP.getValue();
-                        totlNghbrCnt += inflWght * getPointRingWeightedInterpolation(
-                                inflPntIndx, nringsmax,
-                                pointRingNghbrMap, modelSource,
-                                tomoModel, nonSmthAttrIndex,
-                                intrpArray, ringWeights,
-                                ringArray, ringArrayCnt,
-                                ringNeighbors, distNeighbors,
-                                gv, inflWght);
-
-                        // get list of surfaces utilizing this phase ... loop over all
-                        // surfaces and sum ring weighted interpolation for this influence
-                        // point
-
-                        for (Map.Entry<Integer, double[]> eInfl : intrpArray.entrySet()) {
-                            // get interpolation result and influence result arrays ... loop
-                            // over all surfaces and sum weighted results
-
-                            double[] intrps = eInfl.getValue();
-                            double[] rslts = inflRslts.get(eInfl.getKey());
-                            for (int k = 0; k < intrps.length; ++k) {
-                                rslts[k] += inflWght * intrps[k];
-                                weightSum += inflWght;
+                // loop over all points and smooth them. The map tomoLayerPoints are a
+                // set of source model points to be smoothed that reside within a specific
+                // layer of the tomography model. IOW, the tomography points that influence
+                // the source points in the map are all from a single layer (epnts.getKey()
+                // below)
+
+                for (Map.Entry<Integer, ArrayListInt> ePnts : tomoLayerPoints.entrySet()) {
+                    // set the topology of the tomography model for the current layer
+
+                    int tomoLayer = ePnts.getKey();
+                    if (currTomoLayer != -1)
+                        modelTomo.clearGridNodeElementNeighbors(currTomoLayer);
+                    currTomoLayer = tomoLayer;
+                    modelTomo.setGridNodeElementNeighbors(currTomoLayer);
+
+                    // loop over all source model points that are influenced by tomography
+                    // points that lay exclusively withing tomogLayer
+
+                    ArrayListInt srcLayerPnts = ePnts.getValue();
+                    int pnt = 0;
+                    while (pnt < srcLayerPnts.size()) {
+                        // gather the tomography influence points and weights of the next
+                        // block of source points and the ring neighbors of each influence
+                        // point. The ring neighbors of all influence points, in the order in
+                        // which they are accumulated below, are the positions (qryPnts) at
+                        // which the source model is interpolated.
+
+                        int pnt0 = pnt;
+                        inflPtrList.clear();
+                        inflPntList.clear();
+                        inflWghtList.clear();
+                        qryPnts.clear();
+                        inflPtrList.add(0);
+                        while ((pnt < srcLayerPnts.size()) &&
+                               ((long) qryPnts.size() * nIntrpValues < MAX_RING_VALUES)) {
+                            gn = srcLayerPnts.get(pnt);
+                            r = modelSource.getPointRadius(gn);
+                            gv.setGeoVector(modelSource.getPointUnitVector(gn), r);
+                            RayUncertainty.getPositionInfluencePoints(modelTomo, gv, inflPhase,
+                                            inflWeights);
+                            for (Map.Entry<Integer, Double> eIP : inflWeights.entrySet()) {
+                                int inflPntIndx = eIP.getKey();
+                                inflPntList.add(inflPntIndx);
+                                inflWghtList.add(eIP.getValue());
+                                RingNeighborhood rn = pointRingNghbrMap.get(inflPntIndx);
+                                if (rn == null)
+                                    rn = getRingNeighbors(inflPntIndx, nringsmax, tomoModel,
+                                                    pointRingNghbrMap);
+                                for (int j = 0; j < rn.aNghbr.length; ++j) qryPnts.add(rn.aNghbr[j]);
                             }
+                            inflPtrList.add(inflPntList.size());
+                            ++pnt;
                         }
-                    } // end for (Map.Entry<Integer, Double> eIP: inflWeights.entrySet())
 
-                    // done with influence contributions ... loop over all surfaces
+                        // interpolate the source model at all ring neighbors of the block
 
-                    aSmoothNeighbors.add(totlNghbrCnt);
-                    for (int k = 0; k < attrMapList.size(); ++k) {
-                        // set total smoothed result for surface k to zero and loop over
-                        // all three uncertainty components
+                        double[] qryValues = interpolateRingNeighbors(qryPnts, primePnts,
+                                        tomoModel, modelSource, nonSmthAttrIndex, intrpCmpnts,
+                                        attrMapList.size(), exec);
 
-                        double smthTotl = 0.0;
-                        for (int p = 0; p < 3; ++p) {
-                            // get influence point result array and see if it is null for
-                            // component p
+                        // smooth each source point of the block in order
 
-                            double[] rslts = inflRslts.get(p);
-                            if (rslts != null) {
-                                // not null ... this component was smoothed ... get the kth
-                                // surface attribute index and normalize the result with the
-                                // weight sum
+                        int q = 0;
+                        for (int bp = pnt0; bp < pnt; ++bp) {
+                            // get the next source point and set its position vector.
 
-                                if (weightSum != 1.0) rslts[k] /= weightSum;
+                            gn = srcLayerPnts.get(bp);
+                            r = modelSource.getPointRadius(gn);
+                            gv.setGeoVector(modelSource.getPointUnitVector(gn), r);
 
-                                // set the result into the surface index for the current point
-                                // (gn) and sum the value to the total smoothed result
+                            // initialize to zero the surface result array of each component to be
+                            // smoothed
 
-                                int sindx = smthAttrIndex.get(p)[k];
-                                modelSource.setPointValue(gn, sindx, rslts[k]);
-                                smthTotl += rslts[k];
-                                origVal = modelSource.getPointValue(gn, attrIndex[p][k]);
-                                aSmoothResidual[p].add(rslts[k] - origVal);
-                                for (int rr = 0; rr < ringNeighbors.get(p).length; ++rr) {
-                                    aRingNeighbors[p][rr].add(ringNeighbors.get(p)[rr]);
-                                    aDistNeighbors[p][rr].add(distNeighbors.get(p)[rr]);
+                            for (Map.Entry<Integer, double[]> eInfl : inflRslts.entrySet()) {
+                                double[] rslts = eInfl.getValue();
+                                for (int k = 0; k < rslts.length; ++k) rslts[k] = 0.0;
+                                int[] ringCnt = ringNeighbors.get(eInfl.getKey());
+                                double[] ringDst = distNeighbors.get(eInfl.getKey());
+                                for (int i = 0; i < ringCnt.length; ++i) {
+                                    ringCnt[i] = 0;
+                                    ringDst[i] = 0.0;
                                 }
-                            } else {
-                                // null ... this component was NOT smoothed ... get the
-                                // unsmoothed result for this component and add it to the
-                                // total smoothed result
-
-                                int ai = attrIndex[p][k];
-                                smthTotl += modelSource.getPointValue(gn, ai);
                             }
-                        } // end for (int p = 0; p < 3; ++p)
-
-                        // done with all components ... set the total smoothed result for
-                        // this surface at the current point (gn) and continue to the next
-                        // surface
 
-                        modelSource.setPointValue(gn, smthTotalAttrIndex[k], smthTotl);
-                    } // end for (int k = 0; k < attrMapList.size(); ++k)
-                } // end for (int pnt = 0; pnt < srcLayerPnts.size(); ++pnt)
-            } // end for (Map.Entry<Integer, ArrayListInt> ePnts:
-            //          tomoLayerPoints.entrySet())
-
-            // clear the layer grid node element neighbors and loop for the next layer
-
-            modelSource.clearGridNodeElementNeighbors(layer);
-        } // end for (Map.Entry<Integer, ArrayListInt> layerPnts:
-        //          layerSortedPoints.entrySet())
+                            // loop over all influence points and sum contributions to result
+                            // array
+
+                            double weightSum = 0.0;
+                            double totlNghbrCnt = 0.0;
+                            for (int j = inflPtrList.get(bp - pnt0);
+                                 j < inflPtrList.get(bp - pnt0 + 1); ++j) {
+                                // get the influence point index and weight and retrieve the
+                                // points ring weighted interpolation array
+
+                                int inflPntIndx = inflPntList.get(j);
+                                double inflWght = inflWghtList.get(j);
+                                int nNghbrs = getPointRingWeightedInterpolation(
+                                        pointRingNghbrMap.get(inflPntIndx), nringsmax,
+                                        qryValues, q,
+                                        intrpCmpnts, tomoModel,
+                                        intrpArray, ringWeights,
+                                        ringArray, ringArrayCnt,
+                                        ringNeighbors, distNeighbors,
+                                        gv, inflWght);
+                                totlNghbrCnt += inflWght * nNghbrs;
+                                q += nNghbrs;
+
+                                // get list of surfaces utilizing this phase ... loop over all
+                                // surfaces and sum ring weighted interpolation for this influence
+                                // point
+
+                                for (Map.Entry<Integer, double[]> eInfl : intrpArray.entrySet()) {
+                                    // get interpolation result and influence result arrays ... loop
+                                    // over all surfaces and sum weighted results
+
+                                    double[] intrps = eInfl.getValue();
+                                    double[] rslts = inflRslts.get(eInfl.getKey());
+                                    for (int k = 0; k < intrps.length; ++k) {
+                                        rslts[k] += inflWght * intrps[k];
+                                        weightSum += inflWght;
+                                    }
+                                }
+                            } // end for (int j = inflPtrList.get(bp - pnt0); ...
+
+                            // done with influence contributions ... loop over all surfaces
+
+                            aSmoothNeighbors.add(totlNghbrCnt);
+                            for (int k = 0; k < attrMapList.size(); ++k) {
+                                // set total smoothed result for surface k to zero and loop over
+                                // all three uncertainty components
+
+                                double smthTotl = 0.0;
+                                for (int p = 0; p < 3; ++p) {
+                                    // get influence point result array and see if it is null for
+                                    // component p
+
+                                    double[] rslts = inflRslts.get(p);
+                                    if (rslts != null) {
+                                        // not null ... this component was smoothed ... get the kth
+                                        // surface attribute index and normalize the result with the
+                                        // weight sum
+
+                                        if (weightSum != 1.0) rslts[k] /= weightSum;
+
+                                        // set the result into the surface index for the current point
+                                        // (gn) and sum the value to the total smoothed result
+
+                                        int sindx = smthAttrIndex.get(p)[k];
+                                        modelSource.setPointValue(gn, sindx, rslts[k]);
+                                        smthTotl += rslts[k];
+                                        origVal = modelSource.getPointValue(gn, attrIndex[p][k]);
+                                        aSmoothResidual[p].add(rslts[k] - origVal);
+                                        for (int rr = 0; rr < ringNeighbors.get(p).length; ++rr) {
+                                            aRingNeighbors[p][rr].add(ringNeighbors.get(p)[rr]);
+                                            aDistNeighbors[p][rr].add(distNeighbors.get(p)[rr]);
+                                        }
+                                    } else {
+                                        // null ... this component was NOT smoothed ... get the
+                                        // unsmoothed result for this component and add it to the
+                                        // total smoothed result
+
+                                        int ai = attrIndex[p][k];
+                                        smthTotl += modelSource.getPointValue(gn, ai);
+                                    }
+                                } // end for (int p = 0; p < 3; ++p)
+
+                                // done with all components ... set the total smoothed result for
+                                // this surface at the current point (gn) and continue to the next
+                                // surface
+
+                                modelSource.setPointValue(gn, smthTotalAttrIndex[k], smthTotl);
+                            } // end for (int k = 0; k < attrMapList.size(); ++k)
+                        } // end for (int bp = pnt0; bp < pnt; ++bp)
+                    } // end while (pnt < srcLayerPnts.size())
+                } // end for (Map.Entry<Integer, ArrayListInt> ePnts:
+                //          tomoLayerPoints.entrySet())
+
+                // clear the layer grid node element neighbors and loop for the next layer
+
+                modelSource.clearGridNodeElementNeighbors(layer);
+            } // end for (Map.Entry<Integer, ArrayListInt> layerPnts:
+            //          layerSortedPoints.entrySet())
+        } finally {
+            if (exec != null) exec.shutdown();
+        }
 
         // done ... now output statistics
 
@@ -1112,9 +1273,8 @@ public class Smoother {
                                         HashMap<Integer, double[]> distanceWeights)
             throws IOException, GMPException, GeoTessException {
         int indx, sindx;
-        double w, val, origVal, dst, gnNghbrRadius = 0.0;
-        int gn, gnNghbr, layer, gnNghbrLayer = 0;
-        double[][] nghbrDstLmtCounts = new double[3][4];
+        double val, origVal;
+        int gn, layer;
         boolean use3D = false;
 
         // exit if no smoothing has been requested
@@ -1208,19 +1368,6 @@ public class Smoother {
         for (int k = 0; k < attrMapList.size(); ++k)
             smthTotalAttrIndex[k] = attrMapList.get(k).getAttributeIndex(smoothTotalAttr);
 
-        // finally, build the map of interpolation results for each smoothed
-        // component (p) and each surface (k). This is used in function
-        // getPointRingMap to hold temporary interpolation results.
-
-        HashMap<Integer, double[]> intrpArray = new HashMap<Integer, double[]>();
-        HashMap<Integer, double[]> intrpWeight = new HashMap<Integer, double[]>();
-        for (Map.Entry<Integer, int[]> e : smthAttrIndex.entrySet()) {
-            double[] ia = new double[attrMapList.size()];
-            intrpArray.put(e.getKey(), ia);
-            ia = new double[attrMapList.size()];
-            intrpWeight.put(e.getKey(), ia);
-        }
-
         // find maximum search distance for finding neighbors
 
         double maxDist = 0.0;
@@ -1243,121 +1390,69 @@ public class Smoother {
             pntList.add(i);
         }
 
+        // assemble the distance smoothed component indices in the order in which
+        // they are stored in the distance weights map along with their
+        // non-smoothed surface attribute indices. cmpntSlot[p] is the position of
+        // component p in cmpnts or -1 if p is not distance smoothed.
+
+        int[] cmpnts = new int[distanceWeights.size()];
+        int[][] cmpntSurfs = new int[cmpnts.length][];
+        int[] cmpntSlot = {-1, -1, -1};
+        int slot = 0;
+        for (Map.Entry<Integer, double[]> eSmth : distanceWeights.entrySet()) {
+            cmpnts[slot] = eSmth.getKey();
+            cmpntSurfs[slot] = nonSmthAttrIndex.get(cmpnts[slot]);
+            cmpntSlot[cmpnts[slot]] = slot++;
+        }
+        int ncmp = cmpnts.length;
+        int nsurf = attrMapList.size();
+        indx = attrMapList.get(0).getAttributeIndex(totalAttr);
+
         //*************** Smoothing Operation *************************************
         // loop over all source points sorted on layer index to minimize the number
-        // of times that modelSource.setGridNodeElementNeighbors(layer) is called
+        // of times that modelSource.setGridNodeElementNeighbors(layer) is called.
+        // For each layer the neighborhood of every valid point is first built
+        // into a CSR adjacency (serially, since the neighbor queries rely on the
+        // layer topology set on the model), the weighted averages are then
+        // evaluated in parallel over point ranges, and finally the results and
+        // statistics are stored serially in point order so that the output is
+        // identical to a serial evaluation.
 
         HashMapIntegerDouble neighborMap = new HashMapIntegerDouble();
-        HashMapIntegerDouble.Iterator nghbrIt;
-        HashMapIntegerDouble.Entry nghbrEntry;
-        for (Map.Entry<Integer, ArrayListInt> layerPnts : layerSortedPoints.entrySet()) {
-            // get layer index and corresponding list of point indices and set the
-            // grid elements for this layer and loop over all points
-
-            layer = layerPnts.getKey();
-            ArrayListInt pntList = layerPnts.getValue();
-            modelSource.setGridNodeElementNeighbors(layer);
-
-            // loop over all points of the current layer
-
-            for (int pnt = 0; pnt < pntList.size(); ++pnt) {
-                // get the point index (gn) ... if surface 0 has a NaN here they all
-                // do so don't smooth
-
-                gn = pntList.get(pnt);
-                indx = attrMapList.get(0).getAttributeIndex(totalAttr);
-                if (!modelSource.isNaN(gn, indx)) {
-                    // gn is valid ... initialize distance limit counts to 0.0
-
-                    for (Map.Entry<Integer, double[]> eSmth : distanceWeights.entrySet()) {
-                        int p = eSmth.getKey();
-                        double[] lmtCounts = nghbrDstLmtCounts[p];
-                        lmtCounts[0] = lmtCounts[1] = lmtCounts[2] = lmtCounts[3] = 0.0;
-                        double[] intrps = intrpArray.get(p);
-                        double[] weights = intrpWeight.get(p);
-                        for (int i = 0; i < intrps.length; ++i)
-                            intrps[i] = weights[i] = 0.0;
-                    }
-
-                    if (!use3D) {
-                        gnNghbrLayer = modelSource.getPointLayerId(gn);
-                        gnNghbrRadius = modelSource.getPointRadius(gn);
-                    }
-
-                    // get its neighbors and loop over each
-
-                    getNeighborVertices(gn, maxDist, modelSource, neighborMap, use3D);
-                    aSmoothNeighbors.add(neighborMap.size());
-                    nghbrIt = neighborMap.iterator();
-                    while (nghbrIt.hasNext()) {
-                        // get the neighbor and associated distance to gn
-
-                        nghbrEntry = nghbrIt.nextEntry();
-                        gnNghbr = nghbrEntry.getKey();
-                        dst = nghbrEntry.getValue();
-
-                        // loop over each smoothing component
-
-                        for (Map.Entry<Integer, double[]> eSmth : distanceWeights.entrySet()) {
-                            // get smoothing component index and distance limits (D0 and D1)
-
-                            int p = eSmth.getKey();
-                            double[] dlmts = eSmth.getValue();
-
-                            // get the non-smoothed attribute indices for all surfaces, the
-                            // interpolation result and weight storage arrays, and the
-                            // statistical neighbor limits and statistic objects.
-
-                            int[] surfs = nonSmthAttrIndex.get(p);
-                            double[] intrps = intrpArray.get(p);
-                            double[] weights = intrpWeight.get(p);
-                            double[] lmtCounts = nghbrDstLmtCounts[p];
-                            double[] lmts = aDistNghbrLimits[p];
-
-                            // increment limit counts
-
-                            if (dst <= lmts[0])
-                                ++lmtCounts[0];
-                            else if (dst <= lmts[1])
-                                ++lmtCounts[1];
-                            else if (dst <= lmts[2])
-                                ++lmtCounts[2];
-                            else if (dst < lmts[3])
-                                ++lmtCounts[3];
-
-                            // loop over each surface
-
-                            for (int k = 0; k < surfs.length; ++k) {
-                                // get the neighbors point value ... only sum if it is not
-                                // NaN
-
-                                if (use3D)
-                                    val = modelSource.getPointValue(gnNghbr, surfs[k]);
-                                else
-                                    val = modelSource.getValue(gnNghbr, gnNghbrLayer, surfs[k],
-                                            gnNghbrRadius, InterpolatorType.LINEAR);
-
-                                if (!Double.isNaN(val)) {
-                                    // get the weight using the smoothing settings for the
-                                    // pth parameter ... if the weight is larger than zero
-                                    // sum the contribution to the interpolation and result
-                                    // arrays for the kth surface
-
-                                    w = smoothWeight(dst, dlmts[0], dlmts[1]);
-                                    if (w > 0.0) {
-                                        weights[k] += w;
-                                        intrps[k] += val * w;
-                                    }
-                                }
-                            } // end for (int k = 0; k < surfs.length; ++k)
-                        } // end for (Map.Entry<Integer, int[]> eSmth:
-                        //          nonSmthAttrIndex.entrySet())
-                    } // end while (nghbrIt.hasNext())
-
-                    // finished interpolation for point p ... store results ... loop over
-                    // all attribute surfaces
-
-                    for (int k = 0; k < attrMapList.size(); ++k) {
+        ExecutorService exec = null;
+        if (aThreadCount > 1) exec = Executors.newFixedThreadPool(aThreadCount);
+        try {
+            for (Map.Entry<Integer, ArrayListInt> layerPnts : layerSortedPoints.entrySet()) {
+                // get layer index and corresponding list of point indices and set the
+                // grid elements for this layer
+
+                layer = layerPnts.getKey();
+                ArrayListInt pntList = layerPnts.getValue();
+                modelSource.setGridNodeElementNeighbors(layer);
+
+                // build the neighborhood of all valid points (if surface 0 has a NaN
+                // at a point they all do so that point is not smoothed)
+
+                DistanceNeighborhood nbhd;
+                nbhd = buildDistanceNeighborhood(pntList, indx, maxDist, modelSource,
+                        cmpnts, distanceWeights, neighborMap, use3D);
+
+                // evaluate the weighted sums of all points in parallel
+
+                int npnts = nbhd.aPoint.length;
+                double[] intrps = new double[npnts * ncmp * nsurf];
+                double[] weights = new double[npnts * ncmp * nsurf];
+                double[] lmtCounts = new double[npnts * ncmp * 4];
+                applyDistanceNeighborhood(nbhd, modelSource, cmpntSurfs, intrps,
+                        weights, lmtCounts, use3D, exec);
+
+                // store results ... loop over all smoothed points in the layer and all
+                // attribute surfaces
+
+                for (int i = 0; i < npnts; ++i) {
+                    gn = nbhd.aPoint[i];
+                    aSmoothNeighbors.add(nbhd.aPtr[i + 1] - nbhd.aPtr[i]);
+                    for (int k = 0; k < nsurf; ++k) {
                         // set the total smoothed result to 0 and loop over all three
                         // uncertainty components
 
@@ -1365,33 +1460,33 @@ public class Smoother {
                         for (int p = 0; p < 3; ++p) {
                             // see if the component p was smoothed or not
 
-                            int[] surfs = smthAttrIndex.get(p);
-                            if (surfs != null) {
+                            slot = cmpntSlot[p];
+                            if (slot >= 0) {
                                 // component p was smoothed ... get the interpolation and
                                 // weight sums ... normalize the interpolated result with the
-                                // wed and set into the model for this surface ... also sum the
-                                // result to the total smoothed value (smthTotl)
+                                // weight and set into the model for this surface ... also sum
+                                // the result to the total smoothed value (smthTotl)
 
-                                double[] intrps = intrpArray.get(p);
-                                double[] weights = intrpWeight.get(p);
-                                if (weights[k] > 0.0) intrps[k] /= weights[k];
-                                modelSource.setPointValue(gn, surfs[k], intrps[k]);
+                                int j = (i * ncmp + slot) * nsurf + k;
+                                val = intrps[j];
+                                if (weights[j] > 0.0) val /= weights[j];
+                                modelSource.setPointValue(gn, smthAttrIndex.get(p)[k], val);
                                 origVal = modelSource.getPointValue(gn, attrIndex[p][k]);
-                                aSmoothResidual[p].add(intrps[k] - origVal);
-                                smthTotl += intrps[k];
+                                aSmoothResidual[p].add(val - origVal);
+                                smthTotl += val;
 
                                 // update the statistics for distance neighbor counts
 
-                                double[] lmtCounts = nghbrDstLmtCounts[p];
+                                j = 4 * (i * ncmp + slot);
                                 Statistic[] stats = aDistNeighbors[p];
-                                stats[0].add(lmtCounts[0]);
-                                stats[1].add(lmtCounts[1]);
-                                stats[2].add(lmtCounts[2]);
-                                stats[3].add(lmtCounts[3]);
+                                stats[0].add(lmtCounts[j]);
+                                stats[1].add(lmtCounts[j + 1]);
+                                stats[2].add(lmtCounts[j + 2]);
+                                stats[3].add(lmtCounts[j + 3]);
                             } else if (ringWeights.contains(p)) {
                                 // component p was not distance smoothed but it was ring
-                                // smoothed ... get ring smoothed component value and increment
-                                // the total smoothed result with it.
+                                // smoothed ... get ring smoothed component value and
+                                // increment the total smoothed result with it.
 
                                 sindx = attrMapList.get(k).getAttributeIndex(smoothComponentAttr[p]);
                                 smthTotl += modelSource.getPointValue(gn, sindx);
@@ -1406,15 +1501,18 @@ public class Smoother {
                         // model
 
                         modelSource.setPointValue(gn, smthTotalAttrIndex[k], smthTotl);
-                    } // end for (int k = 0; k < attrMapList.size(); ++k)
-                } // end if (!modelSource.isNaN(gn, indx))
-            } // end for (int pnt = 0; pnt < pntList.size(); ++pnt)
+                    } // end for (int k = 0; k < nsurf; ++k)
+                } // end for (int i = 0; i < npnts; ++i)
 
-            // clear the layer grid node element neighbors and loop for the next layer
+                // clear the layer grid node element neighbors and loop for the next
+                // layer
 
-            modelSource.clearGridNodeElementNeighbors(layer);
-        } // end for (Map.Entry<Integer, ArrayListInt> layerPnts:
-        //          layerSortedPoints.entrySet())
+                modelSource.clearGridNodeElementNeighbors(layer);
+            } // end for (Map.Entry<Integer, ArrayListInt> layerPnts:
+            //          layerSortedPoints.entrySet())
+        } finally {
+            if (exec != null) exec.shutdown();
+        }
 
         // done ... now output statistics
 
@@ -1536,11 +1634,10 @@ public class Smoother {
      * @throws IOException
      * @throws GeoTessException
      */
-    private int getPointRingWeightedInterpolation(int pointIndex, int nRingsMax,
-                                                  HashMapIntegerKey<HashMapIntegerInteger> pointRingNghbrMap,
-                                                  ModelInterface sourceModel,
+    private int getPointRingWeightedInterpolation(RingNeighborhood rn, int nRingsMax,
+                                                  double[] qryValues, int q0,
+                                                  int[] cmpnts,
                                                   ModelInterface tomoModel,
-                                                  HashMap<Integer, int[]> cmpntAttrIndex,
                                                   HashMap<Integer, double[]> intrpArray,
                                                   HashMap<Integer, double[]> ringWeights,
                                                   HashMap<Integer, double[][]> ringSum,
@@ -1548,7 +1645,7 @@ public class Smoother {
                                                   HashMap<Integer, int[]> ringNghbrCnt,
                                                   HashMap<Integer, double[]> ringNghbrDst,
                                                   GeoVector inflPosition, double inflWght)
-            throws GMPException, GeoTessException, IOException {
+            throws GMPException {
         GeoVector nghbrPosition = new GeoVector();
 
         // zero the ring sum and ring count
@@ -1566,26 +1663,18 @@ public class Smoother {
             }
         }
 
-        // get the ringMap at the input point index and loop over each neighbor
-
-        HashMapIntegerInteger ringMap = pointRingNghbrMap.get(pointIndex);
-        if (ringMap == null)
-            ringMap = getRingNeighbors(pointIndex, nRingsMax,
-                    tomoModel, pointRingNghbrMap);
-
         // create temporary arrays to hold ring counts and distances ... loop over
         // each ring neighbor
 
-        HashMapIntegerInteger.Iterator it = ringMap.iterator();
+        int nSurf = intrpArray.get(cmpnts[0]).length;
+        int nv = cmpnts.length * nSurf;
         int[] count = new int[nRingsMax + 1];
         double[] dist = new double[nRingsMax + 1];
-        while (it.hasNext()) {
-            // get point index -> ring number association of the next neighbor to
-            // pointIndex
+        for (int j = 0; j < rn.aNghbr.length; ++j) {
+            // get point index and ring number of the next neighbor
 
-            HashMapIntegerInteger.Entry e = it.nextEntry();
-            int nghbrPntIndx = e.getKey();
-            int ring = e.getValue();
+            int nghbrPntIndx = rn.aNghbr[j];
+            int ring = rn.aRing[j];
 
             // update ring count and distance to influence point
 
@@ -1595,11 +1684,14 @@ public class Smoother {
             dist[ring] += inflPosition.distance3D(nghbrPosition);
 
             // get interpolation result at neighbor point index. The neighbor point
-            // index represents a point on the tomography model. We want to
-            // interpolate that position on the sourceModel.
+            // index represents a point on the tomography model that was
+            // interpolated on the source model by interpolateRingNeighbors().
 
-            getPointInterpolationMap(nghbrPntIndx, tomoModel, sourceModel,
-                    cmpntAttrIndex, intrpArray);
+            int o = (q0 + j) * nv;
+            for (int c = 0; c < cmpnts.length; ++c) {
+                double[] intrps = intrpArray.get(cmpnts[c]);
+                for (int k = 0; k < nSurf; ++k) intrps[k] = qryValues[o++];
+            }
 
             // loop over each attribute to be smoothed
 
@@ -1630,7 +1722,7 @@ public class Smoother {
                     }
                 }
             }
-        } // end while (it.hasNext())
+        } // end for (int j = 0; j < rn.aNghbr.length; ++j)
 
         // reduce ringSum by ringCnt to get average result for each surface of
         // each attribute to be smoothed and then sum the ring/surface result times
@@ -1674,7 +1766,7 @@ public class Smoother {
             }
         } // end for (Map.Entry<Integer, double[]> ec: intrpArray.entrySet())
 
-        return ringMap.size();
+        return rn.aNghbr.length;
     }
 
     /**
@@ -1692,9 +1784,9 @@ public class Smoother {
      * value about pi0.
      * @throws GMPException
      */
-    private HashMapIntegerInteger getRingNeighbors(int pi0, int nrings,
-                                                   ModelInterface mdl,
-                                                   HashMapIntegerKey<HashMapIntegerInteger> ringNghbrMap)
+    private RingNeighborhood getRingNeighbors(int pi0, int nrings,
+                                              ModelInterface mdl,
+                                              HashMapIntegerKey<RingNeighborhood> ringNghbrMap)
             throws GMPException {
         // make ring map to hold neighbors and add pi0 associated with ring 0
 
@@ -1745,52 +1837,154 @@ public class Smoother {
             currNghbrList = tmp;
         }
 
-        // done ... return ring map
+        // done ... copy the ring map into a neighborhood (in map iteration order),
+        // save it, and return it
 
-        ringNghbrMap.put(pi0, ringMap);
-        return ringMap;
+        RingNeighborhood rn = new RingNeighborhood();
+        rn.aNghbr = new int[ringMap.size()];
+        rn.aRing = new int[ringMap.size()];
+        HashMapIntegerInteger.Iterator it = ringMap.iterator();
+        int j = 0;
+        while (it.hasNext()) {
+            HashMapIntegerInteger.Entry e = it.nextEntry();
+            rn.aNghbr[j] = e.getKey();
+            rn.aRing[j++] = e.getValue();
+        }
+        ringNghbrMap.put(pi0, rn);
+        return rn;
     }
 
-    // need component indexes for each smoothed phase (p) and all surfaces
-    // HashMap<p, surfaces> = HashMap<Integer, int[]>
-
-    private void getPointInterpolationMap(int pointIndex,
-                                          ModelInterface tomoModel,
-                                          ModelInterface sourceModel,
-                                          HashMap<Integer, int[]> cmpntAttrIndex,
-                                          HashMap<Integer, double[]> intrpValues)
+    /**
+     * Interpolates the source model at each tomography model point in qryPnts
+     * and returns the values of each point, smoothed component (in the order
+     * given by cmpnts), and surface in a single array (indexed as
+     * [(point * cmpnts.length + component) * nSurf + surface]).
+     *
+     * <p>If an executor is provided the points are split into contiguous
+     * ranges (of at least MIN_POINTS_PER_TASK points when there are enough), each interpolated with its own GeoTessPosition. Each position
+     * is first set to the PRIME_POINTS points that precede its range (taken
+     * from primePnts for the first range) so that its triangle walk starts
+     * where the serial walk would have, and the interpolated values are
+     * identical to a single-threaded evaluation. On return primePnts holds
+     * the last PRIME_POINTS entries of qryPnts for use with the next call.
+     *
+     * @param qryPnts     The tomography model point indexes to interpolate.
+     * @param primePnts   The points interpolated just before qryPnts.
+     * @param tomoModel   The model defining the qryPnts positions.
+     * @param sourceModel The model that is interpolated.
+     * @param cmpntAttrIndex A map of non-smoothed attribute indices of each
+     *                    surface associated with each smoothed component.
+     * @param cmpnts      The smoothed components in output order.
+     * @param nSurf       The number of surfaces of each component.
+     * @param exec        The executor used to interpolate the point ranges. Can
+     *                    be null.
+     * @return The interpolated values.
+     * @throws GMPException
+     * @throws GeoTessException
+     * @throws IOException
+     */
+    private double[] interpolateRingNeighbors(final ArrayListInt qryPnts,
+                                              ArrayListInt primePnts,
+                                              final ModelInterface tomoModel,
+                                              ModelInterface sourceModel,
+                                              HashMap<Integer, int[]> cmpntAttrIndex,
+                                              int[] cmpnts, int nSurf,
+                                              ExecutorService exec)
             throws GMPException, GeoTessException, IOException {
-        double[] u = tomoModel.getPointUnitVector(pointIndex);
-        double r = tomoModel.getPointRadius(pointIndex);
-
-        // ... perform interpolations here
-//    if (sourceModel instanceof GeoModelUUL)
-//    {
-//      GeoVector gv = new GeoVector(u, r);
-//      InterpolatedNodeLayered inl;
-//      inl = ((GeoModelUUL) sourceModel).getInterpolatedNodeLayered(gv);
-//      for (Map.Entry<Integer, int[]> e: cmpntAttrIndex.entrySet())
-//      {
-//        int p = e.getKey();
-//        int[] attrIndex = e.getValue();
-//        double[] intrps = intrpValues.get(p);
-//        for (int i = 0; i < attrIndex.length; ++i)
-//          intrps[i] = inl.getValue(attrIndex[i]);
-//      }
-//    }
-        if (sourceModel instanceof GeoTessModel) {
-            aGeoTessPosition.set(u, r);
-            for (Map.Entry<Integer, int[]> e : cmpntAttrIndex.entrySet()) {
-                int p = e.getKey();
-                int[] attrIndex = e.getValue();
-                double[] intrps = intrpValues.get(p);
-                for (int i = 0; i < attrIndex.length; ++i)
-                    intrps[i] = aGeoTessPosition.getValue(attrIndex[i]);
-            }
-        } else {
+        if (!(sourceModel instanceof GeoTessModel)) {
             String s = "Input ModelInterface is not a GeoModel or a GeoTessModel ...";
             throw new IOException(s);
         }
+
+        final int[][] attrIndex = new int[cmpnts.length][];
+        for (int c = 0; c < cmpnts.length; ++c)
+            attrIndex[c] = cmpntAttrIndex.get(cmpnts[c]);
+        final int nq = qryPnts.size();
+        final double[] values = new double[nq * cmpnts.length * nSurf];
+
+        if (exec == null)
+            interpolateRingNeighbors(aGeoTessPosition, qryPnts, 0, nq, tomoModel,
+                    attrIndex, values);
+        else {
+            // split the points into a few ranges per thread and submit each
+
+            final ArrayListInt allPnts = new ArrayListInt(primePnts.size() + nq);
+            for (int i = 0; i < primePnts.size(); ++i) allPnts.add(primePnts.get(i));
+            for (int i = 0; i < nq; ++i) allPnts.add(qryPnts.get(i));
+            final int np = primePnts.size();
+
+            int ntasks = Math.max(1, Math.min(4 * aThreadCount, nq / MIN_POINTS_PER_TASK));
+            ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(ntasks);
+            for (int t = 0; t < ntasks; ++t) {
+                final int i0 = (int) ((long) nq * t / ntasks);
+                final int i1 = (int) ((long) nq * (t + 1) / ntasks);
+                futures.add(exec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws GMPException, GeoTessException {
+                        // prime a new position with the points preceding i0
+
+                        GeoTessPosition pos = GeoTessPosition.getGeoTessPosition(aGeoTessPosition);
+                        for (int i = Math.max(0, np + i0 - PRIME_POINTS); i < np + i0; ++i) {
+                            int pi = allPnts.get(i);
+                            pos.set(tomoModel.getPointUnitVector(pi),
+                                    tomoModel.getPointRadius(pi));
+                        }
+                        interpolateRingNeighbors(pos, qryPnts, i0, i1, tomoModel,
+                                attrIndex, values);
+                        return null;
+                    }
+                }));
+            }
+
+            // wait for all ranges to complete
+
+            try {
+                for (Future<Void> f : futures) f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while smoothing ...", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof GMPException)
+                    throw (GMPException) ex.getCause();
+                if (ex.getCause() instanceof GeoTessException)
+                    throw (GeoTessException) ex.getCause();
+                throw new IOException(ex.getCause());
+            }
+
+            // the last points of this call prime the next
+
+            primePnts.clear();
+            for (int i = Math.max(0, allPnts.size() - PRIME_POINTS); i < allPnts.size(); ++i)
+                primePnts.add(allPnts.get(i));
+        }
+
+        return values;
+    }
+
+    /**
+     * Interpolates the points qryPnts[i0] to qryPnts[i1-1] with the input
+     * position. See interpolateRingNeighbors() above for a description of the
+     * arguments.
+     *
+     * @throws GMPException
+     * @throws GeoTessException
+     */
+    private static void interpolateRingNeighbors(GeoTessPosition pos,
+                                                 ArrayListInt qryPnts,
+                                                 int i0, int i1,
+                                                 ModelInterface tomoModel,
+                                                 int[][] attrIndex,
+                                                 double[] values)
+            throws GMPException, GeoTessException {
+        int o = i0 * attrIndex.length * attrIndex[0].length;
+        for (int i = i0; i < i1; ++i) {
+            int pi = qryPnts.get(i);
+            pos.set(tomoModel.getPointUnitVector(pi), tomoModel.getPointRadius(pi));
+            for (int c = 0; c < attrIndex.length; ++c) {
+                int[] ai = attrIndex[c];
+                for (int k = 0; k < ai.length; ++k) values[o++] = pos.getValue(ai[k]);
+            }
+        }
     }
 
     /**
@@ -1874,6 +2068,236 @@ public class Smoother {
         }
     }
 
+    /**
+     * Builds the CSR neighborhood of all points in the input point list whose
+     * total variance (attribute index totalIndex) is not NaN. Each point's
+     * neighbors are discovered with getNeighborVertices() and stored in
+     * discovery order. The smoothing weight and distance limit bin (0 to 3, or
+     * -1 if outside of all limits) of every neighbor entry are evaluated once
+     * for each distance smoothed component.
+     *
+     * @param pntList         The source model points of the current layer.
+     * @param totalIndex      The total variance attribute index of surface 0.
+     * @param maxDist         The maximum neighbor search distance.
+     * @param modelSource     The source model whose layer topology is set.
+     * @param cmpnts          The distance smoothed component indices.
+     * @param distanceWeights The map of smoothing component index associated
+     *                        with its distance limits [0]=D0 and [1]=D1.
+     * @param neighborMap     A reusable neighbor map.
+     * @param use3D           True if neighbors are found in 3D.
+     * @return The CSR neighborhood of all valid points in the layer.
+     * @throws GMPException
+     */
+    private DistanceNeighborhood buildDistanceNeighborhood(ArrayListInt pntList,
+                                                           int totalIndex,
+                                                           double maxDist,
+                                                           ModelInterface modelSource,
+                                                           int[] cmpnts,
+                                                           HashMap<Integer, double[]> distanceWeights,
+                                                           HashMapIntegerDouble neighborMap,
+                                                           boolean use3D)
+            throws GMPException {
+        ArrayListInt pnts = new ArrayListInt(pntList.size());
+        ArrayListInt layers = new ArrayListInt(pntList.size());
+        ArrayListDouble radii = new ArrayListDouble(pntList.size());
+        ArrayListInt ptr = new ArrayListInt(pntList.size() + 1);
+        ArrayListInt nghbrs = new ArrayListInt(16 * pntList.size());
+        ArrayListDouble[] wghts = new ArrayListDouble[cmpnts.length];
+        ArrayListByte[] bins = new ArrayListByte[cmpnts.length];
+        for (int c = 0; c < cmpnts.length; ++c) {
+            wghts[c] = new ArrayListDouble(16 * pntList.size());
+            bins[c] = new ArrayListByte(16 * pntList.size());
+        }
+
+        // loop over all points and add the neighbors of those that are valid
+
+        ptr.add(0);
+        for (int pnt = 0; pnt < pntList.size(); ++pnt) {
+            int gn = pntList.get(pnt);
+            if (modelSource.isNaN(gn, totalIndex)) continue;
+
+            pnts.add(gn);
+            if (!use3D) {
+                layers.add(modelSource.getPointLayerId(gn));
+                radii.add(modelSource.getPointRadius(gn));
+            } else {
+                layers.add(0);
+                radii.add(0.0);
+            }
+
+            // get its neighbors and add each with its weight and distance bin for
+            // every smoothed component
+
+            getNeighborVertices(gn, maxDist, modelSource, neighborMap, use3D);
+            HashMapIntegerDouble.Iterator nghbrIt = neighborMap.iterator();
+            while (nghbrIt.hasNext()) {
+                HashMapIntegerDouble.Entry nghbrEntry = nghbrIt.nextEntry();
+                double dst = nghbrEntry.getValue();
+                nghbrs.add(nghbrEntry.getKey());
+                for (int c = 0; c < cmpnts.length; ++c) {
+                    double[] dlmts = distanceWeights.get(cmpnts[c]);
+                    double[] lmts = aDistNghbrLimits[cmpnts[c]];
+                    wghts[c].add(smoothWeight(dst, dlmts[0], dlmts[1]));
+                    if (dst <= lmts[0])
+                        bins[c].add((byte) 0);
+                    else if (dst <= lmts[1])
+                        bins[c].add((byte) 1);
+                    else if (dst <= lmts[2])
+                        bins[c].add((byte) 2);
+                    else if (dst < lmts[3])
+                        bins[c].add((byte) 3);
+                    else
+                        bins[c].add((byte) -1);
+                }
+            }
+            ptr.add(nghbrs.size());
+        }
+
+        // done ... trim and return the neighborhood
+
+        DistanceNeighborhood nbhd = new DistanceNeighborhood();
+        nbhd.aPoint = pnts.toArray();
+        nbhd.aLayer = layers.toArray();
+        nbhd.aRadius = radii.toArray();
+        nbhd.aPtr = ptr.toArray();
+        nbhd.aNghbr = nghbrs.toArray();
+        nbhd.aWeight = new double[cmpnts.length][];
+        nbhd.aBin = new byte[cmpnts.length][];
+        for (int c = 0; c < cmpnts.length; ++c) {
+            nbhd.aWeight[c] = wghts[c].toArray();
+            nbhd.aBin[c] = bins[c].toArray();
+        }
+        return nbhd;
+    }
+
+    /**
+     * Evaluates the distance weighted sums of all points of the input
+     * neighborhood. The points are split into contiguous ranges that are
+     * evaluated concurrently with the input executor (or in the calling thread
+     * if exec is null). Each point's sums are accumulated in neighbor order by a
+     * single task so the results do not depend on the number of threads.
+     *
+     * @param nbhd        The CSR neighborhood of the points to be smoothed.
+     * @param modelSource The source model containing the non-smoothed values.
+     * @param cmpntSurfs  The non-smoothed surface attribute indices of each
+     *                    distance smoothed component.
+     * @param intrps      The weighted value sums for each point, component,
+     *                    and surface.
+     * @param weights     The weight sums for each point, component, and
+     *                    surface.
+     * @param lmtCounts   The distance limit bin counts for each point and
+     *                    component.
+     * @param use3D       True if neighbors are point indices (3D), false if they
+     *                    are vertex indices (2D).
+     * @param exec        The executor used to evaluate the point ranges. Can be
+     *                    null.
+     * @throws GMPException
+     * @throws IOException
+     */
+    private void applyDistanceNeighborhood(final DistanceNeighborhood nbhd,
+                                           final ModelInterface modelSource,
+                                           final int[][] cmpntSurfs,
+                                           final double[] intrps,
+                                           final double[] weights,
+                                           final double[] lmtCounts,
+                                           final boolean use3D,
+                                           ExecutorService exec)
+            throws GMPException, IOException {
+        int npnts = nbhd.aPoint.length;
+        if ((exec == null) || (npnts < 2 * MIN_POINTS_PER_TASK)) {
+            applyDistanceNeighborhood(nbhd, 0, npnts, modelSource, cmpntSurfs,
+                    intrps, weights, lmtCounts, use3D);
+            return;
+        }
+
+        // split the points into a few ranges per thread and submit each
+
+        int ntasks = Math.min(4 * aThreadCount, npnts / MIN_POINTS_PER_TASK);
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(ntasks);
+        for (int t = 0; t < ntasks; ++t) {
+            final int i0 = (int) ((long) npnts * t / ntasks);
+            final int i1 = (int) ((long) npnts * (t + 1) / ntasks);
+            futures.add(exec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws GMPException {
+                    applyDistanceNeighborhood(nbhd, i0, i1, modelSource, cmpntSurfs,
+                            intrps, weights, lmtCounts, use3D);
+                    return null;
+                }
+            }));
+        }
+
+        // wait for all ranges to complete
+
+        try {
+            for (Future<Void> f : futures) f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while smoothing ...", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof GMPException)
+                throw (GMPException) ex.getCause();
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Evaluates the distance weighted sums of the neighborhood points i0 to
+     * i1-1. See applyDistanceNeighborhood() above for a description of the
+     * arguments.
+     *
+     * @throws GMPException
+     */
+    private static void applyDistanceNeighborhood(DistanceNeighborhood nbhd,
+                                                  int i0, int i1,
+                                                  ModelInterface modelSource,
+                                                  int[][] cmpntSurfs,
+                                                  double[] intrps,
+                                                  double[] weights,
+                                                  double[] lmtCounts,
+                                                  boolean use3D)
+            throws GMPException {
+        double val, w;
+        int ncmp = cmpntSurfs.length;
+        for (int i = i0; i < i1; ++i) {
+            // loop over each neighbor of point i and each smoothing component
+
+            int gnNghbrLayer = nbhd.aLayer[i];
+            double gnNghbrRadius = nbhd.aRadius[i];
+            for (int j = nbhd.aPtr[i]; j < nbhd.aPtr[i + 1]; ++j) {
+                int gnNghbr = nbhd.aNghbr[j];
+                for (int c = 0; c < ncmp; ++c) {
+                    // increment limit counts
+
+                    int o = i * ncmp + c;
+                    int bin = nbhd.aBin[c][j];
+                    if (bin >= 0) ++lmtCounts[4 * o + bin];
+
+                    // sum the contribution of each non-NaN surface value if the
+                    // weight is larger than zero
+
+                    w = nbhd.aWeight[c][j];
+                    if (w > 0.0) {
+                        int[] surfs = cmpntSurfs[c];
+                        o *= surfs.length;
+                        for (int k = 0; k < surfs.length; ++k) {
+                            if (use3D)
+                                val = modelSource.getPointValue(gnNghbr, surfs[k]);
+                            else
+                                val = modelSource.getValue(gnNghbr, gnNghbrLayer, surfs[k],
+                                        gnNghbrRadius, InterpolatorType.LINEAR);
+
+                            if (!Double.isNaN(val)) {
+                                weights[o + k] += w;
+                                intrps[o + k] += val * w;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Simple cubic spline smoothing weight. For input distances (dst) < d0 the
      * weight is 1.0. For values > d1 the weight is 0.0. Otherwise, a cubic
@@ -0,0 +1,661 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.containers.hash.maps;
+
+import java.util.NoSuchElementException;
+
+import gov.sandia.gmp.util.containers.arraylist.ArrayListLong;
+import gov.sandia.gmp.util.containers.hash.HashIntrinsic;
+
+/**
+ * Open addressing intrinsic long --> integer map. This is a drop in replacement
+ * for the chained {@link HashMapLongInteger} that stores its keys and values in two
+ * parallel primitive arrays (plus a boolean occupancy array) instead of one
+ * Entry object per mapping. Collisions are resolved by linear probing and
+ * removals use backward shift deletion so no tombstones are ever left in the
+ * table. The storage cost per table slot is 8 bytes for the key, 4 bytes
+ * for the value and 1 byte for the occupancy flag, with no object headers or
+ * next pointers. Contrast this with the HashMapLongInteger which requires a table
+ * reference plus an Entry object (header, key, value and next reference) for
+ * every mapping.
+ *
+ * <p>
+ * Because there are no per-entry objects, put() never allocates unless the
+ * table must be resized and resizing simply re-inserts the primitive arrays
+ * into larger primitive arrays. Lookups touch consecutive array elements
+ * instead of chasing references which generally makes get/contains faster
+ * as well. The load factor must be less than 1 for an open addressing table.
+ * Values larger than 0.9 are clamped to 0.9 to keep probe sequences short.
+ *
+ * <p>
+ * The public API is the same as HashMapLongInteger. Since no Entry objects are stored,
+ * getEntry(key) and remove(key) return small view objects created on demand
+ * and the Iterator reuses a single Entry for every call to nextEntry(). An
+ * Entry returned by nextEntry() is only valid until the next call to
+ * nextEntry(). Entry.setValue() writes through to the map.
+ */
+@SuppressWarnings("serial")
+public class HashMapLongIntegerOpen extends HashIntrinsic
+{
+  /**
+   * The maximum allowed load factor for an open addressing table.
+   */
+  private static final float MAXIMUM_LOAD_FACTOR = 0.9f;
+
+  /**
+   * Internal Entry class which provides a view of a single long --> integer
+   * mapping in the hash map. The Entry holds a copy of the key and value and,
+   * if it is still stored in the table, the table slot so that setValue()
+   * writes through to the map.
+   */
+  public final class Entry
+  {
+    /**
+     * The table slot of this entry, or -1 if the entry has been removed.
+     */
+    private int    slot;
+
+    /**
+     * The long key for this entry.
+     */
+    private long    key;
+
+    /**
+     * The value associated with the key.
+     */
+    private int value;
+
+    /**
+     * Standard constructor.
+     *
+     * @param slot
+     *          The table slot of the entry or -1 if it is not in the table.
+     * @param key
+     *          The long key of the entry.
+     * @param val
+     *          The integer value associated with the key.
+     */
+    private Entry(int slot, long key, int val)
+    {
+      set(slot, key, val);
+    }
+
+    /**
+     * Resets this entry to view a new slot.
+     */
+    private void set(int slot, long key, int val)
+    {
+      this.slot = slot;
+      this.key = key;
+      value = val;
+    }
+
+    /**
+     * The key for this entry.
+     *
+     * @return Key for this entry.
+     */
+    public final long getKey()
+    {
+      return key;
+    }
+
+    /**
+     * The value for this entry.
+     *
+     * @return Value for this entry.
+     */
+    public final int getValue()
+    {
+      return value;
+    }
+
+    /**
+     * Sets the value of this entry and returns the old value. If the entry is
+     * still contained in the map the map value is updated also.
+     *
+     * @param newValue
+     *          The new value to be set.
+     * @return The old value of the entry.
+     */
+    public final int setValue(int newValue)
+    {
+      int oldValue = value;
+      value = newValue;
+      if ((slot >= 0) && used[slot] && (keys[slot] == key))
+        values[slot] = newValue;
+      return oldValue;
+    }
+
+    /**
+     * Returns true if the key and value equal those of the input object o.
+     *
+     * @param o
+     *          The input entry to be tested for equality.
+     * @return True if the input entry and this entry are equal.
+     */
+    @Override
+    public final boolean equals(Object o)
+    {
+      if (!(o instanceof HashMapLongIntegerOpen.Entry)) return false;
+      Entry e = (Entry) o;
+      if ((key == e.key) && (value == e.value))
+        return true;
+      else
+        return false;
+    }
+
+    /**
+     * Returns the hash code of the key.
+     *
+     * @return The hash code of the key.
+     */
+    @Override
+    public final int hashCode()
+    {
+      return hashCodeLong(key);
+    }
+
+    /**
+     * Returns the entry as a string.
+     *
+     * @return The entry as a string.
+     */
+    @Override
+    public final String toString()
+    {
+      return key + " = " + value;
+    }
+  }
+
+  /**
+   * The key table, resized as necessary. Length MUST Always be a power of two.
+   */
+  private long[]     keys;
+
+  /**
+   * The value table. Always the same length as keys.
+   */
+  private int[]  values;
+
+  /**
+   * True for each slot of the key/value tables that holds a mapping.
+   */
+  private boolean[] used;
+
+  /**
+   * Constructs an empty <tt>HashMapLongIntegerOpen</tt> with the specified initial
+   * capacity and load factor.
+   *
+   * @param initialCapacity
+   *          the initial capacity
+   * @param loadFactor
+   *          the load factor
+   * @throws IllegalArgumentException
+   *           if the initial capacity is negative or the load factor is
+   *           nonpositive
+   */
+  public HashMapLongIntegerOpen(int initialCapacity, float loadFactor)
+  {
+    super(initialCapacity, Math.min(loadFactor, MAXIMUM_LOAD_FACTOR));
+    createTable(capMinus1 + 1);
+  }
+
+  /**
+   * Constructs an empty <tt>HashMapLongIntegerOpen</tt> with the specified initial
+   * capacity and the default load factor (0.75).
+   *
+   * @param initialCapacity
+   *          the initial capacity.
+   * @throws IllegalArgumentException
+   *           if the initial capacity is negative.
+   */
+  public HashMapLongIntegerOpen(int initialCapacity)
+  {
+    this(initialCapacity, DEFAULT_LOAD_FACTOR);
+  }
+
+  /**
+   * Constructs an empty <tt>HashMapLongIntegerOpen</tt> with the default initial capacity
+   * (16) and the default load factor (0.75).
+   */
+  public HashMapLongIntegerOpen()
+  {
+    this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+  }
+
+  /**
+   * Returns the table slot containing the input key or -1 if the key is not
+   * contained in the map.
+   *
+   * @param key
+   *          The key to be found.
+   * @return The table slot containing the input key or -1.
+   */
+  private int find(long key)
+  {
+    // start at the home slot of the key and probe forward until the key or an
+    // empty slot is found
+
+    int i = tableIndex(hashCodeLong(key), capMinus1);
+    while (used[i])
+    {
+      if (keys[i] == key) return i;
+      i = (i + 1) & capMinus1;
+    }
+
+    // empty slot found first ... key is not in the map
+
+    return -1;
+  }
+
+  /**
+   * Returns true if the input key is contained in the map.
+   */
+  public final boolean contains(long key)
+  {
+    return find(key) >= 0;
+  }
+
+  /**
+   * Returns <tt>true</tt> if this map maps one or more keys to the specified
+   * value.
+   *
+   * @param value
+   *          value whose presence in this map is to be tested
+   * @return <tt>true</tt> if this map maps one or more keys to the specified
+   *         value
+   */
+  public boolean containsValue(int value)
+  {
+    // loop over all occupied slots and see if value is contained
+
+    for (int i = 0; i < values.length; i++)
+      if (used[i] && (value == values[i])) return true;
+
+    // not found ... return false
+
+    return false;
+  }
+
+  /**
+   * Returns the value to which the specified key is mapped, or {@code
+   * Integer.MIN_VALUE} if this map contains no mapping for the key.
+   */
+  public int get(long key)
+  {
+    int i = find(key);
+    return (i < 0) ? Integer.MIN_VALUE : values[i];
+  }
+
+  /**
+   * Returns an Entry view of the mapping for the specified key, or {@code
+   * null} if this map contains no mapping for the key. The returned Entry is
+   * created on demand; its setValue() function updates the map.
+   */
+  public Entry getEntry(long key)
+  {
+    int i = find(key);
+    return (i < 0) ? null : new Entry(i, key, values[i]);
+  }
+
+  /**
+   * Associates the specified value with the specified key in this map. If the
+   * map previously contained a mapping for the key, the old value is replaced.
+   *
+   * @param key
+   *          key with which the specified value is to be associated
+   * @param value
+   *          value to be associated with the specified key
+   * @return the previous value associated with <tt>key</tt>, or
+   *         <tt>Integer.MIN_VALUE</tt> if there was no mapping for <tt>key</tt>.
+   *         (A <tt>Integer.MIN_VALUE</tt> return can also indicate that the map
+   *         previously associated <tt>Integer.MIN_VALUE</tt> with <tt>key</tt>.)
+   */
+  public int put(long key, int value)
+  {
+    // probe from the home slot of the key until the key or an empty slot is
+    // found
+
+    int i = tableIndex(hashCodeLong(key), capMinus1);
+    while (used[i])
+    {
+      if (keys[i] == key)
+      {
+        // key exists ... save old value for return and assign new value
+
+        int oldValue = values[i];
+        values[i] = value;
+        return oldValue;
+      }
+      i = (i + 1) & capMinus1;
+    }
+
+    // key not found ... store it in the empty slot and resize if necessary
+
+    used[i] = true;
+    keys[i] = key;
+    values[i] = value;
+    if (size++ >= threshold) resize(2 * keys.length);
+    return Integer.MIN_VALUE;
+  }
+
+  /**
+   * Rehashes the contents of this map into new arrays with a larger capacity.
+   * This method is called automatically when the number of keys in this map
+   * reaches its threshold.
+   *
+   * If current capacity is MAXIMUM_CAPACITY, this method does not resize the
+   * map, but sets threshold to Integer.MAX_VALUE. This has the effect of
+   * preventing future calls.
+   *
+   * @param newCapacity
+   *          the new capacity, MUST be a power of two; must be greater than
+   *          current capacity unless current capacity is MAXIMUM_CAPACITY (in
+   *          which case value is irrelevant).
+   */
+  private void resize(int newCapacity)
+  {
+    // if the current capacity is the maximum allowed then set the threshold to
+    // one less than the capacity so that at least one empty slot remains
+
+    if (keys.length == MAXIMUM_CAPACITY)
+    {
+      threshold = MAXIMUM_CAPACITY - 1;
+      if (size > threshold)
+        throw new IllegalStateException("Maximum capacity exceeded ...");
+      return;
+    }
+
+    // save the old tables, create the new ones and re-insert each mapping
+
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    boolean[] oldUsed = used;
+    createTable(newCapacity);
+    capMinus1 = newCapacity - 1;
+    threshold = (int) (newCapacity * loadFactor);
+
+    for (int j = 0; j < oldKeys.length; j++)
+    {
+      if (oldUsed[j])
+      {
+        int i = tableIndex(hashCodeLong(oldKeys[j]), capMinus1);
+        while (used[i]) i = (i + 1) & capMinus1;
+        used[i] = true;
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  /**
+   * Removes the mapping at table slot pos and shifts any following entries of
+   * the same probe cluster back to fill the hole so that no tombstones are
+   * required. If a wrap list is provided then any entry that is moved from
+   * the start of the table to the end of the table (across the wrap point) has
+   * its key added to the list. This is used by the Iterator, which traverses
+   * the table from high slots to low slots, to visit entries that would
+   * otherwise be skipped.
+   *
+   * @param pos
+   *          The table slot to be cleared.
+   * @param wrapped
+   *          List receiving keys that were moved across the wrap point. May
+   *          be null.
+   */
+  private void shiftKeys(int pos, ArrayListLong wrapped)
+  {
+    int last, home;
+    while (true)
+    {
+      // find the next entry in the cluster that can be moved into the hole at
+      // last (an entry whose home slot is not cyclically within (last, pos])
+
+      last = pos;
+      pos = (pos + 1) & capMinus1;
+      while (true)
+      {
+        if (!used[pos])
+        {
+          used[last] = false;
+          return;
+        }
+        home = tableIndex(hashCodeLong(keys[pos]), capMinus1);
+        if ((last <= pos) ? ((last >= home) || (home > pos)) :
+                            ((last >= home) && (home > pos)))
+          break;
+        pos = (pos + 1) & capMinus1;
+      }
+
+      // move the entry at pos into the hole and continue with the hole at pos
+
+      if ((wrapped != null) && (pos < last)) wrapped.add(keys[pos]);
+      keys[last] = keys[pos];
+      values[last] = values[pos];
+    }
+  }
+
+  /**
+   * Removes and returns the entry associated with the specified key in the
+   * HashMap. Returns null if the HashMap contains no mapping for this key.
+   *
+   * @param key
+   *          The key to be removed from the HashMap.
+   */
+  public final Entry remove(long key)
+  {
+    int i = find(key);
+    if (i < 0) return null;
+
+    Entry e = new Entry(-1, key, values[i]);
+    size--;
+    shiftKeys(i, null);
+    return e;
+  }
+
+  /**
+   * Removes all of the mappings from this map. The map will be empty after this
+   * call returns.
+   */
+  @Override
+  public void clear()
+  {
+    for (int i = 0; i < used.length; i++)
+      used[i] = false;
+    size = 0;
+  }
+
+  /**
+   * Creates new key, value and occupancy arrays of size equal to the input
+   * capacity.
+   *
+   * @param capacity
+   *          The size of the new arrays.
+   */
+  private void createTable(int capacity)
+  {
+    keys = new long[capacity];
+    values = new int[capacity];
+    used = new boolean[capacity];
+  }
+
+  /**
+   * Returns an estimate of the bulk memory size used by this object. The
+   * input pointer size (ptrsize) should be 8 for 64-bit and 4 for 32-bit.
+   * It is not used by this object but retained for compatibility with the
+   * chained implementation.
+   *
+   * @param ptrsize The pointer size set to 8 for 64-bit and 4 for 32-bit.
+   * @return The bulk memory estimate in bytes.
+   */
+  public long memoryEstimate(int ptrsize)
+  {
+    return (long) (capMinus1 + 1) * (1 + (Long.SIZE + Integer.SIZE) / 8);
+  }
+
+  /**
+   * A built in iterator class used to iterate over all elements of the map.
+   * The table is traversed from the last slot to the first. Entries that are
+   * moved across the wrap point by Iterator.remove() are collected and
+   * visited after the table traversal is complete.
+   */
+  public class Iterator
+  {
+    /**
+     * The number of entries remaining to be returned.
+     */
+    int     remaining;
+
+    /**
+     * The table slot below which the next occupied slot will be searched.
+     */
+    int     index;
+
+    /**
+     * The table slot of the current entry or -1 if the current entry was
+     * returned from the wrapped list.
+     */
+    int     last = -1;
+
+    /**
+     * True if a current entry exists that can be removed.
+     */
+    boolean hasCurrent;
+
+    /**
+     * Keys moved from unvisited to visited slots by Iterator.remove().
+     */
+    ArrayListLong wrapped;
+
+    /**
+     * The single Entry reused by every call to nextEntry().
+     */
+    Entry   entry = new Entry(-1, 0L, 0);
+
+    /**
+     * Default constructor.
+     */
+    Iterator()
+    {
+      remaining = size;
+      index = keys.length;
+    }
+
+    /**
+     * Returns true if more entries remain to be returned.
+     *
+     * @return True if more entries remain to be returned.
+     */
+    public final boolean hasNext()
+    {
+      return remaining > 0;
+    }
+
+    /**
+     * Returns the next entry in the HashMap. The returned entry is reused by
+     * the next call to this function.
+     *
+     * @return The next entry in the HashMap.
+     */
+    public Entry nextEntry()
+    {
+      if (remaining == 0) throw new NoSuchElementException();
+      --remaining;
+
+      // find the next occupied slot below index and return it
+
+      while (index > 0)
+        if (used[--index])
+        {
+          last = index;
+          hasCurrent = true;
+          entry.set(index, keys[index], values[index]);
+          return entry;
+        }
+
+      // table traversal finished ... return entries from the wrapped list
+
+      long key = wrapped.removeLast();
+      last = -1;
+      hasCurrent = true;
+      int i = find(key);
+      entry.set(i, key, values[i]);
+      return entry;
+    }
+
+    /**
+     * Sets the next entry and return its associated value.
+     *
+     * @return The next entries associated value.
+     */
+    public int next()
+    {
+      return nextEntry().value;
+    }
+
+    /**
+     * Removes the current entry.
+     */
+    public void remove()
+    {
+      if (!hasCurrent) throw new IllegalStateException();
+      hasCurrent = false;
+
+      if (last < 0)
+      {
+        // current entry came from the wrapped list ... remove it by key
+
+        HashMapLongIntegerOpen.this.remove(entry.key);
+        return;
+      }
+
+      // remove the current slot shifting following entries back into it
+
+      if (wrapped == null) wrapped = new ArrayListLong(4);
+      size--;
+      shiftKeys(last, wrapped);
+      entry.slot = -1;
+    }
+  }
+
+  /**
+   * Returns an instance of the iterator class.
+   *
+   * @return An instance of the iterator class.
+   */
+  public Iterator iterator()
+  {
+    return new Iterator();
+  }
+}
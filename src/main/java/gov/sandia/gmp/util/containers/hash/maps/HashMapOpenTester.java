@@ -0,0 +1,305 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.containers.hash.maps;
+
+import java.util.Random;
+
+/**
+ * Simple throughput and memory benchmark comparing the chained intrinsic maps
+ * (HashMapIntegerDouble, HashMapLongInteger) with their open addressing
+ * counterparts (HashMapIntegerDoubleOpen, HashMapLongIntegerOpen). For each
+ * map size the put, get (hit and miss) and iterate rates are reported in
+ * millions of operations per second along with the memoryEstimate() result
+ * and the measured heap growth of a fully populated map.
+ * 
+ * <p>
+ * Usage: java HashMapOpenTester [n1 n2 ...] where ni are the map sizes to be
+ * tested (default 10^5, 10^6 and 10^7). Each test is repeated several times
+ * and the best time is reported so that the JIT has warmed up.
+ */
+public class HashMapOpenTester
+{
+  /**
+   * Number of repetitions of each test. The fastest repetition is reported.
+   */
+  private static final int REPEATS = 5;
+
+  /**
+   * Prevents the JIT from eliminating the timed loops.
+   */
+  private static double sink;
+
+  public static void main(String[] args)
+  {
+    int[] sizes = {100000, 1000000, 10000000};
+    if (args.length > 0)
+    {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; ++i) sizes[i] = Integer.parseInt(args[i]);
+    }
+
+    System.out.println(String.format("%-28s %10s %10s %10s %10s %10s %12s %12s",
+        "Map", "Size", "put", "get hit", "get miss", "iterate",
+        "estimate", "heap"));
+    System.out.println(String.format("%-28s %10s %10s %10s %10s %10s %12s %12s",
+        "", "", "(Mop/s)", "(Mop/s)", "(Mop/s)", "(Mop/s)", "(MB)", "(MB)"));
+
+    for (int n : sizes)
+    {
+      // integer keys are scattered ray weight point indices, long keys are
+      // sparse matrix entry ids (row << 32 | column)
+
+      Random rnd = new Random(n);
+      int[] ikeys = new int[n];
+      long[] lkeys = new long[n];
+      for (int i = 0; i < n; ++i)
+      {
+        ikeys[i] = rnd.nextInt(Integer.MAX_VALUE);
+        lkeys[i] = ((long) rnd.nextInt(1 << 20) << 32) | rnd.nextInt(1 << 24);
+      }
+      int[] imiss = new int[n];
+      long[] lmiss = new long[n];
+      for (int i = 0; i < n; ++i)
+      {
+        imiss[i] = -1 - rnd.nextInt(Integer.MAX_VALUE);
+        lmiss[i] = -1 - lkeys[i];
+      }
+
+      testIntegerDouble(ikeys, imiss);
+      testIntegerDoubleOpen(ikeys, imiss);
+      testLongInteger(lkeys, lmiss);
+      testLongIntegerOpen(lkeys, lmiss);
+      System.out.println();
+    }
+    if (sink == 0.123456789) System.out.println(sink);
+  }
+
+  /**
+   * Benchmarks the chained HashMapIntegerDouble.
+   */
+  private static void testIntegerDouble(int[] keys, int[] miss)
+  {
+    double[] t = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                  Double.MAX_VALUE};
+    HashMapIntegerDouble map = null;
+    for (int r = 0; r < REPEATS; ++r)
+    {
+      map = null;
+      long t0 = System.nanoTime();
+      map = new HashMapIntegerDouble();
+      for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+      long t1 = System.nanoTime();
+      double s = 0;
+      for (int i = 0; i < keys.length; ++i) s += map.get(keys[i]);
+      long t2 = System.nanoTime();
+      for (int i = 0; i < miss.length; ++i) s += map.get(miss[i]);
+      long t3 = System.nanoTime();
+      HashMapIntegerDouble.Iterator it = map.iterator();
+      while (it.hasNext())
+      {
+        HashMapIntegerDouble.Entry e = it.nextEntry();
+        s += e.getKey() * e.getValue();
+      }
+      long t4 = System.nanoTime();
+      sink += s;
+      t = best(t, t0, t1, t2, t3, t4);
+    }
+    map = null;
+    long heap = heapUsed();
+    map = new HashMapIntegerDouble();
+    for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+    heap = heapUsed() - heap;
+    print("HashMapIntegerDouble", keys.length, t, map.memoryEstimate(8), heap);
+  }
+
+  /**
+   * Benchmarks the open addressing HashMapIntegerDoubleOpen.
+   */
+  private static void testIntegerDoubleOpen(int[] keys, int[] miss)
+  {
+    double[] t = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                  Double.MAX_VALUE};
+    HashMapIntegerDoubleOpen map = null;
+    for (int r = 0; r < REPEATS; ++r)
+    {
+      map = null;
+      long t0 = System.nanoTime();
+      map = new HashMapIntegerDoubleOpen();
+      for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+      long t1 = System.nanoTime();
+      double s = 0;
+      for (int i = 0; i < keys.length; ++i) s += map.get(keys[i]);
+      long t2 = System.nanoTime();
+      for (int i = 0; i < miss.length; ++i) s += map.get(miss[i]);
+      long t3 = System.nanoTime();
+      HashMapIntegerDoubleOpen.Iterator it = map.iterator();
+      while (it.hasNext())
+      {
+        HashMapIntegerDoubleOpen.Entry e = it.nextEntry();
+        s += e.getKey() * e.getValue();
+      }
+      long t4 = System.nanoTime();
+      sink += s;
+      t = best(t, t0, t1, t2, t3, t4);
+    }
+    map = null;
+    long heap = heapUsed();
+    map = new HashMapIntegerDoubleOpen();
+    for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+    heap = heapUsed() - heap;
+    print("HashMapIntegerDoubleOpen", keys.length, t, map.memoryEstimate(8), heap);
+  }
+
+  /**
+   * Benchmarks the chained HashMapLongInteger.
+   */
+  private static void testLongInteger(long[] keys, long[] miss)
+  {
+    double[] t = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                  Double.MAX_VALUE};
+    HashMapLongInteger map = null;
+    for (int r = 0; r < REPEATS; ++r)
+    {
+      map = null;
+      long t0 = System.nanoTime();
+      map = new HashMapLongInteger();
+      for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+      long t1 = System.nanoTime();
+      double s = 0;
+      for (int i = 0; i < keys.length; ++i) s += map.get(keys[i]);
+      long t2 = System.nanoTime();
+      for (int i = 0; i < miss.length; ++i) s += map.get(miss[i]);
+      long t3 = System.nanoTime();
+      HashMapLongInteger.Iterator it = map.iterator();
+      while (it.hasNext())
+      {
+        HashMapLongInteger.Entry e = it.nextEntry();
+        s += e.getKey() + e.getValue();
+      }
+      long t4 = System.nanoTime();
+      sink += s;
+      t = best(t, t0, t1, t2, t3, t4);
+    }
+    map = null;
+    long heap = heapUsed();
+    map = new HashMapLongInteger();
+    for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+    heap = heapUsed() - heap;
+    print("HashMapLongInteger", keys.length, t, map.memoryEstimate(8), heap);
+  }
+
+  /**
+   * Benchmarks the open addressing HashMapLongIntegerOpen.
+   */
+  private static void testLongIntegerOpen(long[] keys, long[] miss)
+  {
+    double[] t = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                  Double.MAX_VALUE};
+    HashMapLongIntegerOpen map = null;
+    for (int r = 0; r < REPEATS; ++r)
+    {
+      map = null;
+      long t0 = System.nanoTime();
+      map = new HashMapLongIntegerOpen();
+      for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+      long t1 = System.nanoTime();
+      double s = 0;
+      for (int i = 0; i < keys.length; ++i) s += map.get(keys[i]);
+      long t2 = System.nanoTime();
+      for (int i = 0; i < miss.length; ++i) s += map.get(miss[i]);
+      long t3 = System.nanoTime();
+      HashMapLongIntegerOpen.Iterator it = map.iterator();
+      while (it.hasNext())
+      {
+        HashMapLongIntegerOpen.Entry e = it.nextEntry();
+        s += e.getKey() + e.getValue();
+      }
+      long t4 = System.nanoTime();
+      sink += s;
+      t = best(t, t0, t1, t2, t3, t4);
+    }
+    map = null;
+    long heap = heapUsed();
+    map = new HashMapLongIntegerOpen();
+    for (int i = 0; i < keys.length; ++i) map.put(keys[i], i);
+    heap = heapUsed() - heap;
+    print("HashMapLongIntegerOpen", keys.length, t, map.memoryEstimate(8), heap);
+  }
+
+  /**
+   * Updates the best (minimum) put, get hit, get miss and iterate times (sec)
+   * with the input time stamps (nsec).
+   */
+  private static double[] best(double[] t, long t0, long t1, long t2, long t3,
+                               long t4)
+  {
+    t[0] = Math.min(t[0], 1.0e-9 * (t1 - t0));
+    t[1] = Math.min(t[1], 1.0e-9 * (t2 - t1));
+    t[2] = Math.min(t[2], 1.0e-9 * (t3 - t2));
+    t[3] = Math.min(t[3], 1.0e-9 * (t4 - t3));
+    return t;
+  }
+
+  /**
+   * Returns the heap in use after requesting garbage collection.
+   */
+  private static long heapUsed()
+  {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 4; ++i)
+    {
+      System.gc();
+      try
+      {
+        Thread.sleep(50);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  /**
+   * Prints a single result line.
+   */
+  private static void print(String name, int n, double[] t, long estimate,
+                            long heap)
+  {
+    System.out.println(String.format(
+        "%-28s %10d %10.2f %10.2f %10.2f %10.2f %12.1f %12.1f", name, n,
+        1.0e-6 * n / t[0], 1.0e-6 * n / t[1], 1.0e-6 * n / t[2],
+        1.0e-6 * n / t[3], estimate / 1048576.0, heap / 1048576.0));
+  }
+}
@@ -58,6 +58,19 @@ public class MD5Hash
 {
   private MessageDigest msgDigest;
 
+  /**
+   * Size in bytes of the scratch buffer used to pack int[][] and double[][]
+   * arrays before they are handed to the MessageDigest.
+   */
+  private static final int CHUNK_BYTES = 1 << 16;
+
+  /**
+   * Scratch buffer, allocated on first use, into which the rows of 2D arrays
+   * are packed so that the digest can be updated in large blocks instead of
+   * allocating a new ByteBuffer for every row.
+   */
+  private ByteBuffer chunk;
+
   public MD5Hash()
   {
     try
@@ -180,15 +193,30 @@ public class MD5Hash
   }
 
   /**
-  *
-  * @param x int[][]
-  */
- public MD5Hash update(int[][] x)
- {
-   for (int i = 0; i < x.length; ++i)
-     update(x[i]);
-   return this;
- }
+   * Update with every element of every row of x.  The bytes added to the
+   * digest are identical to calling update(int[]) on each row in order.
+   * @param x int[][]
+   */
+  public MD5Hash update(int[][] x)
+  {
+    ByteBuffer buf = getChunk();
+    for (int i = 0; i < x.length; ++i)
+    {
+      int[] row = x[i];
+      if (4 * row.length > buf.capacity())
+      {
+        flush(buf);
+        update(row);
+        continue;
+      }
+      if (4 * row.length > buf.remaining())
+        flush(buf);
+      for (int j = 0; j < row.length; ++j)
+        buf.putInt(row[j]);
+    }
+    flush(buf);
+    return this;
+  }
 
   /**
    *
@@ -252,16 +280,58 @@ public class MD5Hash
   }
 
   /**
-   *
+   * Update with every element of every row of x.  The bytes added to the
+   * digest are identical to calling update(double[]) on each row in order.
    * @param x double[][]
    */
   public MD5Hash update(double[][] x)
   {
+    ByteBuffer buf = getChunk();
     for (int i = 0; i < x.length; ++i)
-      update(x[i]);
+    {
+      double[] row = x[i];
+      if (8 * row.length > buf.capacity())
+      {
+        flush(buf);
+        update(row);
+        continue;
+      }
+      if (8 * row.length > buf.remaining())
+        flush(buf);
+      for (int j = 0; j < row.length; ++j)
+        buf.putDouble(row[j]);
+    }
+    flush(buf);
     return this;
   }
 
+  /**
+   * Retrieve the scratch buffer, allocating it if necessary.  The buffer
+   * is returned empty and in big-endian order, consistent with
+   * toByteBuffer().
+   * @return ByteBuffer
+   */
+  private ByteBuffer getChunk()
+  {
+    if (chunk == null)
+      chunk = ByteBuffer.allocate(CHUNK_BYTES);
+    chunk.clear();
+    return chunk;
+  }
+
+  /**
+   * Add the contents of buf to the digest and empty it.
+   * @param buf ByteBuffer
+   */
+  private void flush(ByteBuffer buf)
+  {
+    if (buf.position() > 0)
+    {
+      msgDigest.update(buf.array(), 0, buf.position());
+      buf.clear();
+    }
+  }
+
   /**
    *
    * @param file File
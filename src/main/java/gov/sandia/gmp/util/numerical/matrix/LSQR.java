@@ -41,9 +41,9 @@ import java.io.IOException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import gov.sandia.gmp.util.containers.arraylist.ArrayListDouble;
 import gov.sandia.gmp.util.containers.arraylist.ArrayListInt;
@@ -127,6 +127,18 @@ import gov.sandia.gmp.util.logmanager.ScreenWriterOutput;
 * new column in the column-ordered sparse matrix. This vector is also only used
 * by the concurrent solution.
 *
+* <p> A third form solves systems defined by a LinearOperator, which need not
+* be held in memory (e.g. SparseMatrixFileOperator streams a row-ordered
+* sparse matrix from disk during each product):
+*
+* <p>     public int solve(LinearOperator A, double[] bRHS, double[] x,
+*                          double[] se)
+*                    throws IOException
+*
+* <p> The concurrent and operator solves run on a thread pool that is created
+* for each solve unless a long-lived executor is supplied with
+* setExecutorService(ExecutorService exec).
+*
 * <p> The original analytic description of the solution methodology follows:
 * ****************************************************************************
 *
@@ -919,8 +931,11 @@ public class LSQR
                    ArrayListDouble bRHS, double[] x, double[] se)
              throws IOException
   {
-    // get row, column, and sparse matrix size and set arrays from lists
+    // get row, column, and sparse matrix size and set arrays from lists. Any
+    // operator left from a previous solve is dropped so that the matrix is
+    // used.
 
+    aOperator = null;
     aSprsRow = sprsMatrix.getArray();
     aColIndx = sprsColIndex.getArray();
     aRowIndx = sprsRowIndex.getArray();
@@ -971,8 +986,11 @@ public class LSQR
                    ArrayListDouble bRHS, double[] x, double[] se)
              throws IOException
   {
-    // get row, column, and sparse matrix size and set arrays from lists
+    // get row, column, and sparse matrix size and set arrays from lists. Any
+    // operator left from a previous solve is dropped so that the matrices are
+    // used.
 
+    aOperator = null;
     aSprsRow = sprsRowMtrx.getArray();
     aSprsCol = sprsColMtrx.getArray();
     aRowIndx = sprsRowIndxMtrx.getArray();
@@ -997,22 +1015,74 @@ public class LSQR
     aU = bRHS.toArray();
     for (int i = 0; i < lsqrRows; ++i) aU[i] = bRHS.get(i);
 
-    // start threads, create task queue, build tasks
+    // get the executor (the clients persistent executor if set), create task
+    // queue, build tasks
 
-    aThreadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(aNThreads);
+    aThreadPool = getExecutor();
     aQueue = new ExecutorCompletionService<PartialResult>(aThreadPool);
     buildParallelTasks();
 
-    // solve
+    // solve, release the executor, and return
+
+    try
+    {
+      return solve();
+    }
+    finally
+    {
+      releaseExecutor();
+      aQueue = null;
+    }
+  }
+
+  /**
+   * Solves the system A * x = b, where A is defined by the input
+   * LinearOperator, which need not be held in memory (see
+   * SparseMatrixFileOperator). The products A * v and A' * u are evaluated by
+   * the operator on this LSQR objects executor (see setExecutorService(...)).
+   * 
+   * @param A The linear operator defining the lhs matrix.
+   * @param bRHS The rhs input vector (A.rows() entries).
+   * @param x The output solution vector (A.columns() entries).
+   * @param se The output solution vector error estimate (A.columns()
+   *           entries).
+   * @return The final stop condition.
+   * @throws IOException
+   */
+  public int solve(LinearOperator A, double[] bRHS, double[] x, double[] se)
+             throws IOException
+  {
+    if ((bRHS.length != A.rows()) || (x.length != A.columns()) ||
+        (se.length != A.columns()))
+      throw new IOException("Operator size (" + A.rows() + " x " +
+                            A.columns() + ") does not match rhs (" +
+                            bRHS.length + "), solution (" + x.length +
+                            "), or error (" + se.length + ") length ...");
+
+    aOperator = A;
+    aX        = x;
+    aSE       = se;
+    lsqrRows  = A.rows(); // M
+    lsqrCols  = A.columns(); // N
 
-    int solvestatus = solve();
+    // create temporary arrays and copy bRHS into u
 
-    // shutdown and return
+    aV = new double [lsqrCols];
+    aU = bRHS.clone();
 
-    aThreadPool.shutdown();
-    aThreadPool = null;
-    aQueue = null;
-    return solvestatus;
+    // get the executor, solve, release the executor and the operator (also
+    // if the operator throws), and return
+
+    aThreadPool = getExecutor();
+    try
+    {
+      return solve();
+    }
+    finally
+    {
+      releaseExecutor();
+      resetLargeReferences();
+    }
   }
 
   /**
@@ -1065,7 +1135,24 @@ public class LSQR
     // these satisfy  beta * u = b,  alfa * v = A' * U.
 
     alfa = 0.0;
-    if (aSprsCol == null)
+    if (aOperator != null)
+    {
+      beta = dnrm2(aU);
+
+      if (beta > 0.0)
+      {
+        dscl(1.0 / beta, aU);
+        aOperator.multiplyTranspose(aU, aV, aThreadPool);
+        alfa = dnrm2(aV);
+      }
+
+      if (alfa > 0.0)
+      {
+        dscl(1.0 / alfa, aV);
+        for (i = 0; i < lsqrCols; ++i) w[i] = aV[i];
+      }
+    }
+    else if (aSprsCol == null)
     {
       beta = dnrm2(aU);
   
@@ -1151,7 +1238,25 @@ public class LSQR
       //       beta * u  =  A * v  -  alfa * u,
       //       alfa * v  =  A' * u - beta * v.
 
-      if (aSprsCol == null)
+      if (aOperator != null)
+      {
+        // perform the operator products
+
+        dscl(-alfa, aU);
+        aOperator.multiply(aV, aU, aThreadPool);
+        beta = dnrm2(aU);
+        bbnorm += alfa * alfa + beta * beta + dampSq;
+
+        if (beta > 0.0)
+        {
+          dscl(1.0 / beta, aU);
+          dscl(-beta, aV);
+          aOperator.multiplyTranspose(aU, aV, aThreadPool);
+          alfa = dnrm2(aV);
+          if (alfa > 0.0) dscl(1.0 / alfa, aV);
+        }
+      }
+      else if (aSprsCol == null)
       {
         // perform sequential scale/update
 
@@ -1792,10 +1897,25 @@ public class LSQR
   private static int aNThreads = (int) (aNProcessors * aProcMult);
 
   /**
-   * The local thread pool on which the processes will execute the
-   * concurrent uTasks and vTasks (SolveAProd tasks).
+   * The thread pool on which the processes will execute the concurrent
+   * uTasks and vTasks (SolveAProd tasks) or the LinearOperator products. This
+   * is the clients persistent executor (aExecutor) if one was set. Otherwise
+   * it is a local pool created for the duration of a single solve.
    */
-  private ThreadPoolExecutor aThreadPool = null;
+  private ExecutorService aThreadPool = null;
+
+  /**
+   * An optional long-lived executor supplied by the client (see
+   * setExecutorService(...)). If set it is used by every concurrent or
+   * operator solve and is never shut down by this LSQR object.
+   */
+  private ExecutorService aExecutor = null;
+
+  /**
+   * The linear operator defining the lhs matrix if the operator form of
+   * solve(...) was called. Otherwise null.
+   */
+  private LinearOperator aOperator = null;
 
   /**
    * The completion service results queue used to save the concurrent results
@@ -1834,7 +1954,7 @@ public class LSQR
    * 
    * @param tasks The tasks to be processed (uTasks or vTasks).
    */
-  private void concurrentUpdate(SolveAProd[] tasks)
+  private void concurrentUpdate(SolveAProd[] tasks) throws IOException
   {
     if (seqUpdateFlg)
     {
@@ -1850,12 +1970,7 @@ public class LSQR
   
       // wait until all tasks have returned before exiting.
   
-      int cnt = 0; 
-      while (cnt < tasks.length)
-      {
-        Future<PartialResult> pr = aQueue.poll();
-        if (pr != null) cnt++;
-      }
+      waitForTasks(tasks.length);
     }
   }
 
@@ -1867,6 +1982,7 @@ public class LSQR
    * @param tasks The tasks to be processed (uTasks or vTasks).
    */
   private void concurrentScale(double scl, SolveAProd[] tasks)
+          throws IOException
   {
     if (seqUpdateFlg)
     {
@@ -1890,12 +2006,26 @@ public class LSQR
   
       // wait until all tasks have returned before exiting.
   
-      int cnt = 0; 
-      while (cnt < tasks.length)
-      {
-        Future<PartialResult> pr = aQueue.poll();
-        if (pr != null) cnt++;
-      }
+      waitForTasks(tasks.length);
+    }
+  }
+
+  /**
+   * Blocks until cnt submitted tasks have completed.
+   * 
+   * @param cnt The number of submitted tasks.
+   * @throws IOException If interrupted while waiting.
+   */
+  private void waitForTasks(int cnt) throws IOException
+  {
+    try
+    {
+      for (int i = 0; i < cnt; ++i) aQueue.take();
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException(ex);
     }
   }
 
@@ -1936,12 +2066,9 @@ public class LSQR
       {
         while (cnt < tasks.length)
         {
-          Future<PartialResult> pr = aQueue.poll();
-          if (pr != null)
-          {
-            cnt++;
-            d += pr.get().rslt;          
-          }
+          Future<PartialResult> pr = aQueue.take();
+          cnt++;
+          d += pr.get().rslt;          
         }
       }
       catch (Exception ex)
@@ -1955,6 +2082,54 @@ public class LSQR
     return sqrt(d);
   }
 
+  /**
+   * Returns the clients persistent executor if set. Otherwise a new fixed
+   * thread pool of aNThreads threads is created and returned.
+   * 
+   * @return The executor used by the current solve.
+   */
+  private ExecutorService getExecutor()
+  {
+    if (aExecutor != null) return aExecutor;
+    return Executors.newFixedThreadPool(aNThreads);
+  }
+
+  /**
+   * Shuts down the executor used by the current solve if it was created
+   * by getExecutor() (a client supplied executor is left running).
+   */
+  private void releaseExecutor()
+  {
+    if ((aThreadPool != null) && (aThreadPool != aExecutor))
+      aThreadPool.shutdown();
+    aThreadPool = null;
+  }
+
+  /**
+   * Sets a long-lived executor on which all subsequent concurrent and
+   * operator solves are performed. The executor is owned by the caller and
+   * is not shut down by this LSQR object, so a single executor can be shared
+   * by many solves (avoiding the creation and destruction of a thread pool
+   * for each solve). If null (the default) each solve creates and shuts down
+   * its own pool of processors * thread count multiplier threads.
+   * 
+   * @param exec The persistent executor (or null).
+   */
+  public void setExecutorService(ExecutorService exec)
+  {
+    aExecutor = exec;
+  }
+
+  /**
+   * Returns the persistent executor set by setExecutorService(...) (or null).
+   * 
+   * @return The persistent executor (or null).
+   */
+  public ExecutorService getExecutorService()
+  {
+    return aExecutor;
+  }
+
   /**
    * Builds the parallel U and V tasks (uTasks, and vTasks) which will be
    * submitted to multiple threads for parallel solution.
@@ -2049,10 +2224,13 @@ public class LSQR
    */
   private void resetLargeReferences()
   {
-    uTasks   = null;
-    vTasks   = null;
-    aU       = null;
-    aV       = null;
+    uTasks    = null;
+    vTasks    = null;
+    aU        = null;
+    aV        = null;
+    aX        = null;
+    aSE       = null;
+    aOperator = null;
 
     aSprsRow = null;
     aRowIndx = null;
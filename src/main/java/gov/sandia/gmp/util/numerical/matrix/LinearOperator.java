@@ -0,0 +1,91 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.numerical.matrix;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An abstract m x n linear operator A used by iterative solvers (LSQR) that
+ * only need the products A * x and A' * y. Implementations need not hold A in
+ * memory (see SparseMatrixFileOperator which streams a row-ordered sparse
+ * matrix from disk).
+ * 
+ * <p> Both products accumulate into the output vector (y += A * x and
+ * x += A' * y) which is the form required by the LSQR bidiagonalization.
+ * If an ExecutorService is supplied the operator may split the product into
+ * tasks that are run on it. The executor is owned by the caller and is never
+ * shut down by the operator.
+ */
+public interface LinearOperator
+{
+  /**
+   * Returns the number of rows (m) of A.
+   * 
+   * @return The number of rows (m) of A.
+   */
+  public int rows();
+
+  /**
+   * Returns the number of columns (n) of A.
+   * 
+   * @return The number of columns (n) of A.
+   */
+  public int columns();
+
+  /**
+   * Performs y += A * x.
+   * 
+   * @param x    The input vector (length n).
+   * @param y    The vector to which A * x is added (length m).
+   * @param exec The executor on which the product may be evaluated
+   *             concurrently. If null the product is evaluated on the
+   *             calling thread.
+   * @throws IOException
+   */
+  public void multiply(double[] x, double[] y, ExecutorService exec)
+         throws IOException;
+
+  /**
+   * Performs x += A' * y.
+   * 
+   * @param y    The input vector (length m).
+   * @param x    The vector to which A' * y is added (length n).
+   * @param exec The executor on which the product may be evaluated
+   *             concurrently. If null the product is evaluated on the
+   *             calling thread.
+   * @throws IOException
+   */
+  public void multiplyTranspose(double[] y, double[] x, ExecutorService exec)
+         throws IOException;
+}
@@ -0,0 +1,990 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.numerical.matrix;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.sandia.gmp.util.containers.arraylist.ArrayListDouble;
+import gov.sandia.gmp.util.containers.arraylist.ArrayListInt;
+import gov.sandia.gmp.util.filebuffer.FileInputBuffer;
+import gov.sandia.gmp.util.numerical.sparse.SparseMatrixHuge;
+
+/**
+ * An out-of-core LinearOperator for a row-ordered sparse matrix that is too
+ * large to hold in memory. The matrix is stored on disk as a sequence of row
+ * panels, each containing a contiguous set of rows in compressed sparse row
+ * form (a relative row pointer array, a column index array, and a value
+ * array). Each product (A * x or A' * y) streams the panels from disk once.
+ * Only the panel being processed by each task (and any panels retained in the
+ * optional panel cache) are held in memory.
+ * 
+ * <p> Both products are evaluated from the same row-ordered panels. A * x is
+ * accumulated row by row into y. A' * y scatters each row into x. When an
+ * ExecutorService is supplied the panels are split into aTaskCount groups of
+ * contiguous panels that are processed concurrently (each with its own read
+ * buffer so that disk reads overlap the arithmetic of the other groups). For
+ * A' * y each group scatters into its own partial x vector which are then
+ * summed in group order, so the result does not depend on thread scheduling.
+ * 
+ * <p> An operator file is written with the nested Writer class, one row at a
+ * time, so the full matrix never needs to be in memory. Convenience functions
+ * write an operator file from a list of SparseMatrixVector rows, from a
+ * SparseMatrixHuge, by streaming a sparse matrix file written by
+ * SparseMatrixVector.writeSparseMatrix(...), or by streaming the matrix of a
+ * file set written by gov.sandia.gmp.sparsematrix.SparseMatrix
+ * .writeSparseMatrixFiles(...).
+ * 
+ * <p> File layout (big-endian):
+ * 
+ *   int FILE_ID, int VERSION
+ *   panel 0 ... panel k-1 (int[rowCount+1] ptr, int[nnz] col, double[nnz] val)
+ *   index: int rows, int columns, long entries, int panelCount, and for each
+ *          panel (long offset, int firstRow, int rowCount, int entryCount)
+ *   long index offset
+ */
+public class SparseMatrixFileOperator implements LinearOperator, Closeable
+{
+  /**
+   * Operator file identifier and version.
+   */
+  private static final int FILE_ID = 0x534D4650;
+  private static final int VERSION = 1;
+
+  /**
+   * Default panel size (bytes) used by the writers.
+   */
+  public static final long DEFAULT_PANEL_SIZE = 64L * 1024L * 1024L;
+
+  /**
+   * The operator file name.
+   */
+  private String                 aFileName      = "";
+
+  /**
+   * The open operator file and its channel. Panels are read with positional
+   * reads so that concurrent tasks can share the channel.
+   */
+  private RandomAccessFile       aRAF           = null;
+  private FileChannel            aChannel       = null;
+
+  /**
+   * Matrix rows, columns, and entry count.
+   */
+  private int                    aRows          = 0;
+  private int                    aCols          = 0;
+  private long                   aEntries       = 0;
+
+  /**
+   * Panel file offset, first row, row count, and entry count of each panel.
+   */
+  private long[]                 aPnlOffst      = null;
+  private int[]                  aPnlRow        = null;
+  private int[]                  aPnlRowCnt     = null;
+  private int[]                  aPnlEntCnt     = null;
+
+  /**
+   * The largest panel row count, entry count and byte size.
+   */
+  private int                    aMaxPnlRowCnt  = 0;
+  private int                    aMaxPnlEntCnt  = 0;
+  private int                    aMaxPnlBytes   = 0;
+
+  /**
+   * The number of concurrent panel groups used when an executor is supplied.
+   */
+  private int                    aTaskCount     =
+                                 Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The per task group read buffers and the per task group partial x vectors
+   * used by A' * y. Both are created on demand and reused.
+   */
+  private Panel[]                aScratch       = null;
+  private double[][]             aPartialX      = null;
+
+  /**
+   * Panels retained in memory (null if not cached), the memory budget for
+   * retained panels and the memory currently in use.
+   */
+  private Panel[]                aCache         = null;
+  private long                   aCacheMemory   = 0;
+  private long                   aCachedMemory  = 0;
+
+  /**
+   * Number of panel reads, bytes read, and read time (nanoseconds).
+   */
+  private AtomicLong             aPanelReads    = new AtomicLong();
+  private AtomicLong             aBytesRead     = new AtomicLong();
+  private AtomicLong             aReadTime      = new AtomicLong();
+
+  /**
+   * A single row panel in compressed sparse row form.
+   */
+  private static class Panel
+  {
+    int        aFirstRow = 0;
+    int        aRowCount = 0;
+    int        aEntCount = 0;
+    int[]      aPtr      = null;
+    int[]      aCol      = null;
+    double[]   aVal      = null;
+    ByteBuffer aBuffer   = null;
+
+    Panel(int maxRows, int maxEnts, ByteBuffer buf)
+    {
+      aPtr    = new int [maxRows + 1];
+      aCol    = new int [maxEnts];
+      aVal    = new double [maxEnts];
+      aBuffer = buf;
+    }
+
+    long memory()
+    {
+      return 4L * aPtr.length + 12L * aCol.length;
+    }
+  }
+
+  /**
+   * Opens an existing operator file.
+   * 
+   * @param fileName The operator file.
+   * @throws IOException
+   */
+  public SparseMatrixFileOperator(String fileName) throws IOException
+  {
+    aFileName = fileName;
+    aRAF      = new RandomAccessFile(fileName, "r");
+    aChannel  = aRAF.getChannel();
+
+    try
+    {
+      // validate the file id and read the index offset from the trailer
+
+      ByteBuffer bb = ByteBuffer.allocate(8);
+      readFully(bb, 0, 8);
+      if ((bb.getInt(0) != FILE_ID) || (bb.getInt(4) != VERSION))
+        throw new IOException("File \"" + fileName +
+                              "\" is not a sparse matrix operator file ...");
+      long len = aChannel.size();
+      readFully(bb, len - 8, 8);
+      long indxOffst = bb.getLong(0);
+
+      // read the index
+
+      ByteBuffer ib = ByteBuffer.allocate((int) (len - 8 - indxOffst));
+      readFully(ib, indxOffst, ib.capacity());
+      aRows    = ib.getInt();
+      aCols    = ib.getInt();
+      aEntries = ib.getLong();
+      int npnl = ib.getInt();
+      aPnlOffst  = new long [npnl];
+      aPnlRow    = new int [npnl];
+      aPnlRowCnt = new int [npnl];
+      aPnlEntCnt = new int [npnl];
+      for (int p = 0; p < npnl; ++p)
+      {
+        aPnlOffst[p]  = ib.getLong();
+        aPnlRow[p]    = ib.getInt();
+        aPnlRowCnt[p] = ib.getInt();
+        aPnlEntCnt[p] = ib.getInt();
+        if (aPnlRowCnt[p] > aMaxPnlRowCnt) aMaxPnlRowCnt = aPnlRowCnt[p];
+        if (aPnlEntCnt[p] > aMaxPnlEntCnt) aMaxPnlEntCnt = aPnlEntCnt[p];
+        int bytes = panelBytes(aPnlRowCnt[p], aPnlEntCnt[p]);
+        if (bytes > aMaxPnlBytes) aMaxPnlBytes = bytes;
+      }
+      aCache = new Panel [npnl];
+    }
+    catch (IOException ex)
+    {
+      close();
+      throw ex;
+    }
+  }
+
+  @Override
+  public int rows()
+  {
+    return aRows;
+  }
+
+  @Override
+  public int columns()
+  {
+    return aCols;
+  }
+
+  /**
+   * Returns the number of non-zero entries of the matrix.
+   * 
+   * @return The number of non-zero entries of the matrix.
+   */
+  public long entries()
+  {
+    return aEntries;
+  }
+
+  /**
+   * Returns the number of row panels in the operator file.
+   * 
+   * @return The number of row panels in the operator file.
+   */
+  public int panels()
+  {
+    return aPnlOffst.length;
+  }
+
+  /**
+   * Returns the operator file name.
+   * 
+   * @return The operator file name.
+   */
+  public String getFileName()
+  {
+    return aFileName;
+  }
+
+  /**
+   * Sets the number of concurrent panel groups used when an executor is
+   * supplied to multiply(...) or multiplyTranspose(...). Defaults to the
+   * number of available processors. Each group holds one panel read buffer
+   * and, for A' * y, one partial solution vector (8 * columns() bytes).
+   * 
+   * @param taskCount The number of concurrent panel groups.
+   */
+  public synchronized void setTaskCount(int taskCount)
+  {
+    aTaskCount = Math.max(1, taskCount);
+    aScratch   = null;
+    aPartialX  = null;
+  }
+
+  /**
+   * Sets the memory budget (bytes) for panels retained in memory after they
+   * are first read. Panels are retained in the order they are first read
+   * until the budget is exhausted. The remaining panels are streamed from
+   * disk on every product. The default (0) streams all panels.
+   * 
+   * @param bytes The panel cache memory budget (bytes).
+   */
+  public synchronized void setCacheMemory(long bytes)
+  {
+    aCacheMemory = bytes;
+    if (aCachedMemory > aCacheMemory)
+    {
+      for (int p = 0; p < aCache.length; ++p) aCache[p] = null;
+      aCachedMemory = 0;
+    }
+  }
+
+  /**
+   * Returns the number of panels read from disk.
+   * 
+   * @return The number of panels read from disk.
+   */
+  public long getPanelReadCount()
+  {
+    return aPanelReads.get();
+  }
+
+  /**
+   * Returns the number of bytes read from disk.
+   * 
+   * @return The number of bytes read from disk.
+   */
+  public long getBytesRead()
+  {
+    return aBytesRead.get();
+  }
+
+  /**
+   * Returns the total panel read time (nanoseconds summed over all tasks).
+   * 
+   * @return The total panel read time (nanoseconds).
+   */
+  public long getReadTime()
+  {
+    return aReadTime.get();
+  }
+
+  @Override
+  public void multiply(double[] x, double[] y, ExecutorService exec)
+         throws IOException
+  {
+    product(x, y, false, exec);
+  }
+
+  @Override
+  public void multiplyTranspose(double[] y, double[] x, ExecutorService exec)
+         throws IOException
+  {
+    product(y, x, true, exec);
+  }
+
+  /**
+   * Closes the operator file.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    if (aRAF != null)
+    {
+      aRAF.close();
+      aRAF = null;
+      aChannel = null;
+    }
+  }
+
+  /**
+   * Performs out += A * in (trnsps = false) or out += A' * in (trnsps = true).
+   * 
+   * @param in     The input vector.
+   * @param out    The vector to which the product is added.
+   * @param trnsps If true the transpose product is performed.
+   * @param exec   The executor (or null).
+   * @throws IOException
+   */
+  private synchronized void product(double[] in, double[] out,
+                                    final boolean trnsps,
+                                    ExecutorService exec) throws IOException
+  {
+    int npnl = aPnlOffst.length;
+    int ntsk = (exec == null) ? 1 : Math.min(aTaskCount, npnl);
+    if (aScratch == null) aScratch = new Panel [aTaskCount];
+
+    // evaluate on the calling thread if only one group
+
+    if (ntsk <= 1)
+    {
+      processPanels(0, 0, npnl, in, out, trnsps);
+      return;
+    }
+
+    // build and submit one task per contiguous group of panels ... transpose
+    // products scatter into a partial vector for each group
+
+    if (trnsps && (aPartialX == null)) aPartialX = new double [aTaskCount][];
+    ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(ntsk);
+    for (int g = 0; g < ntsk; ++g)
+    {
+      final int grp  = g;
+      final int strt = (int) ((long) g * npnl / ntsk);
+      final int stop = (int) ((long) (g + 1) * npnl / ntsk);
+      final double[] fin = in;
+      final double[] fout;
+      if (trnsps)
+      {
+        if (aPartialX[g] == null) aPartialX[g] = new double [aCols];
+        fout = aPartialX[g];
+      }
+      else
+        fout = out;
+
+      futures.add(exec.submit(new Callable<Object>()
+      {
+        @Override
+        public Object call() throws IOException
+        {
+          processPanels(grp, strt, stop, fin, fout, trnsps);
+          return null;
+        }
+      }));
+    }
+    waitFor(futures);
+
+    // sum the partial vectors into out (in group order) and reset them for
+    // the next product ... the sum is split by column range across the
+    // executor
+
+    if (trnsps)
+    {
+      futures.clear();
+      final double[] fout = out;
+      final int ngrp = ntsk;
+      for (int g = 0; g < ntsk; ++g)
+      {
+        final int strt = (int) ((long) g * aCols / ntsk);
+        final int stop = (int) ((long) (g + 1) * aCols / ntsk);
+        futures.add(exec.submit(new Callable<Object>()
+        {
+          @Override
+          public Object call()
+          {
+            for (int k = 0; k < ngrp; ++k)
+            {
+              double[] px = aPartialX[k];
+              for (int i = strt; i < stop; ++i)
+              {
+                fout[i] += px[i];
+                px[i] = 0.0;
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      waitFor(futures);
+    }
+  }
+
+  /**
+   * Waits for all input futures to complete. Task exceptions are rethrown as
+   * IOExceptions.
+   * 
+   * @param futures The futures to wait for.
+   * @throws IOException
+   */
+  private void waitFor(ArrayList<Future<Object>> futures) throws IOException
+  {
+    IOException ioe = null;
+    for (Future<Object> f : futures)
+    {
+      try
+      {
+        f.get();
+      }
+      catch (ExecutionException ex)
+      {
+        if (ioe == null)
+          ioe = (ex.getCause() instanceof IOException) ?
+                (IOException) ex.getCause() : new IOException(ex.getCause());
+      }
+      catch (InterruptedException ex)
+      {
+        if (ioe == null) ioe = new IOException(ex);
+      }
+    }
+    if (ioe != null) throw ioe;
+  }
+
+  /**
+   * Processes panels strt to stop - 1 for group grp.
+   * 
+   * @param grp    The panel group (selects the read buffer).
+   * @param strt   The first panel.
+   * @param stop   The last panel + 1.
+   * @param in     The input vector.
+   * @param out    The vector to which the product is added.
+   * @param trnsps If true the transpose product is performed.
+   * @throws IOException
+   */
+  private void processPanels(int grp, int strt, int stop, double[] in,
+                             double[] out, boolean trnsps)
+          throws IOException
+  {
+    for (int p = strt; p < stop; ++p)
+    {
+      Panel pnl = getPanel(grp, p);
+      int[]    ptr  = pnl.aPtr;
+      int[]    col  = pnl.aCol;
+      double[] val  = pnl.aVal;
+      int      row0 = pnl.aFirstRow;
+
+      if (trnsps)
+      {
+        // x[col] += A[row][col] * y[row]
+
+        for (int r = 0; r < pnl.aRowCount; ++r)
+        {
+          double yr = in[row0 + r];
+          if (yr != 0.0)
+          {
+            for (int j = ptr[r]; j < ptr[r + 1]; ++j) out[col[j]] += val[j] * yr;
+          }
+        }
+      }
+      else
+      {
+        // y[row] += A[row][col] * x[col]
+
+        for (int r = 0; r < pnl.aRowCount; ++r)
+        {
+          double s = out[row0 + r];
+          for (int j = ptr[r]; j < ptr[r + 1]; ++j) s += val[j] * in[col[j]];
+          out[row0 + r] = s;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns panel p, either from the panel cache or read from disk into the
+   * read buffer of group grp. If the cache budget allows, a panel read from
+   * disk is copied into the cache.
+   * 
+   * @param grp The panel group.
+   * @param p   The panel.
+   * @return    Panel p.
+   * @throws IOException
+   */
+  private Panel getPanel(int grp, int p) throws IOException
+  {
+    Panel pnl = aCache[p];
+    if (pnl != null) return pnl;
+
+    // see if the panel can be retained in the cache
+
+    boolean cache = false;
+    if (aCacheMemory > 0)
+    {
+      long mem = 4L * (aPnlRowCnt[p] + 1) + 12L * aPnlEntCnt[p];
+      synchronized (aCache)
+      {
+        if (aCachedMemory + mem <= aCacheMemory)
+        {
+          aCachedMemory += mem;
+          cache = true;
+        }
+      }
+    }
+
+    // get the groups read buffer (or a new panel if the panel will be cached)
+
+    if (cache)
+      pnl = new Panel(aPnlRowCnt[p], aPnlEntCnt[p], null);
+    else
+    {
+      pnl = aScratch[grp];
+      if (pnl == null)
+      {
+        pnl = new Panel(aMaxPnlRowCnt, aMaxPnlEntCnt,
+                        ByteBuffer.allocateDirect(aMaxPnlBytes));
+        aScratch[grp] = pnl;
+      }
+    }
+    ByteBuffer bb = pnl.aBuffer;
+    if (bb == null) bb = ByteBuffer.allocate(panelBytes(aPnlRowCnt[p],
+                                                        aPnlEntCnt[p]));
+
+    // read and decode the panel
+
+    long strtTime = System.nanoTime();
+    int rc = aPnlRowCnt[p];
+    int ec = aPnlEntCnt[p];
+    int bytes = panelBytes(rc, ec);
+    readFully(bb, aPnlOffst[p], bytes);
+
+    IntBuffer ib = bb.asIntBuffer();
+    ib.get(pnl.aPtr, 0, rc + 1);
+    ib.get(pnl.aCol, 0, ec);
+    bb.position(4 * (rc + 1 + ec));
+    DoubleBuffer db = bb.asDoubleBuffer();
+    db.get(pnl.aVal, 0, ec);
+
+    pnl.aFirstRow = aPnlRow[p];
+    pnl.aRowCount = rc;
+    pnl.aEntCount = ec;
+
+    aReadTime.addAndGet(System.nanoTime() - strtTime);
+    aPanelReads.incrementAndGet();
+    aBytesRead.addAndGet(bytes);
+
+    if (cache)
+    {
+      pnl.aBuffer = null;
+      aCache[p] = pnl;
+    }
+    return pnl;
+  }
+
+  /**
+   * Reads len bytes at file position pos into bb (positioned at 0 on return
+   * with its limit set to len).
+   * 
+   * @param bb  The buffer to be filled.
+   * @param pos The file position.
+   * @param len The number of bytes to read.
+   * @throws IOException
+   */
+  private void readFully(ByteBuffer bb, long pos, int len) throws IOException
+  {
+    bb.clear();
+    bb.limit(len);
+    while (bb.hasRemaining())
+    {
+      int n = aChannel.read(bb, pos + bb.position());
+      if (n < 0)
+        throw new EOFException("Unexpected end of file \"" + aFileName +
+                               "\" ...");
+    }
+    bb.flip();
+  }
+
+  /**
+   * Returns the number of bytes of a panel with rc rows and ec entries.
+   */
+  private static int panelBytes(int rc, int ec)
+  {
+    return 4 * (rc + 1) + 12 * ec;
+  }
+
+  //***************************************************************************
+  //************** Operator file writers **************************************
+  //***************************************************************************
+
+  /**
+   * Writes an operator file from a row-ordered list of SparseMatrixVector
+   * rows.
+   * 
+   * @param fileName   The operator file to be written.
+   * @param rows       The matrix rows.
+   * @param columns    The number of matrix columns (if <= 0 the largest
+   *                   column index + 1 is used).
+   * @param panelBytes The target panel size (bytes).
+   * @throws IOException
+   */
+  public static void write(String fileName, ArrayList<SparseMatrixVector> rows,
+                           int columns, long panelBytes) throws IOException
+  {
+    Writer w = new Writer(fileName, panelBytes);
+    w.setColumns(columns);
+    for (int i = 0; i < rows.size(); ++i) w.addRow(rows.get(i));
+    w.close();
+  }
+
+  /**
+   * Writes an operator file from the CSR form of a SparseMatrixHuge.
+   * 
+   * @param fileName   The operator file to be written.
+   * @param smh        The sparse matrix.
+   * @param panelBytes The target panel size (bytes).
+   * @throws IOException
+   */
+  public static void write(String fileName, SparseMatrixHuge smh,
+                           long panelBytes) throws IOException
+  {
+    smh.createCSR();
+    Writer w = new Writer(fileName, panelBytes);
+    w.setColumns(smh.getMaxCol());
+    int[]    col = new int [16];
+    double[] val = new double [16];
+    for (int r = 0; r < smh.getMaxRow(); ++r)
+    {
+      int n = smh.getCSRVectorLength(r);
+      if (n > col.length)
+      {
+        col = new int [2 * n];
+        val = new double [2 * n];
+      }
+      for (int j = 0; j < n; ++j)
+      {
+        col[j] = (int) smh.getCSRColumn(r, j);
+        val[j] = smh.getCSRValue(r, j);
+      }
+      w.addRow(col, val, n);
+    }
+    w.close();
+  }
+
+  /**
+   * Converts a sparse matrix file written as a row count followed by that many
+   * SparseMatrixVector rows (the format written by
+   * SparseMatrixVector.writeSparseMatrix(...)) into an operator file. The rows
+   * are streamed so the matrix is never held in memory.
+   * 
+   * @param sparseMatrixFile The input sparse matrix file.
+   * @param fileName         The operator file to be written.
+   * @param columns          The number of matrix columns (if <= 0 the largest
+   *                         column index + 1 is used).
+   * @param panelBytes       The target panel size (bytes).
+   * @throws IOException
+   */
+  public static void convert(String sparseMatrixFile, String fileName,
+                             int columns, long panelBytes) throws IOException
+  {
+    FileInputBuffer fib = new FileInputBuffer(sparseMatrixFile);
+    Writer w = new Writer(fileName, panelBytes);
+    try
+    {
+      w.setColumns(columns);
+      int n = fib.readInt();
+      SparseMatrixVector smv = new SparseMatrixVector();
+      for (int i = 0; i < n; ++i)
+      {
+        smv.readVector(fib);
+        w.addRow(smv);
+      }
+    }
+    finally
+    {
+      fib.close();
+      w.close();
+    }
+  }
+
+  /**
+   * Converts the matrix of a sparse matrix file set written by
+   * gov.sandia.gmp.sparsematrix.SparseMatrix.writeSparseMatrixFiles(...) into
+   * an operator file. The column count is read from the file set's
+   * "sparseMatrixSize" file and the rows are streamed from its "sparseMatrix"
+   * file (the rows of all row sections in row index order, with column
+   * indexes spanning all column sections). The row and column section,
+   * normalization, RHS and uncertainty files are not used. The right hand
+   * side of a solve can be read with
+   * gov.sandia.gmp.sparsematrix.SparseMatrix.readSparseMatrixRHS(...).
+   * 
+   * @param fPath      The directory containing the sparse matrix file set.
+   * @param fileName   The operator file to be written.
+   * @param panelBytes The target panel size (bytes).
+   * @throws IOException
+   */
+  public static void convertSparseMatrixFiles(String fPath, String fileName,
+                                              long panelBytes)
+         throws IOException
+  {
+    String f = fPath + File.separator + "sparseMatrix";
+
+    // read the row and column counts from the size file (rows, columns,
+    // entries, observations, grid nodes)
+
+    FileInputBuffer fib = new FileInputBuffer(f + "Size");
+    long rows, cols;
+    try
+    {
+      rows = fib.readLong();
+      cols = fib.readLong();
+    }
+    finally
+    {
+      fib.close();
+    }
+    if ((rows > Integer.MAX_VALUE) || (cols > Integer.MAX_VALUE))
+      throw new IOException("Error: Sparse matrix \"" + f + "\" size (" + rows +
+                            " x " + cols + ") exceeds the operator limit ...");
+
+    convert(f, fileName, (int) cols, panelBytes);
+
+    // verify that the matrix file agrees with the size file
+
+    SparseMatrixFileOperator op = new SparseMatrixFileOperator(fileName);
+    try
+    {
+      if (op.rows() != rows)
+        throw new IOException("Error: Sparse matrix \"" + f + "\" contains " +
+                              op.rows() + " rows but its size file specifies " +
+                              rows + " ...");
+    }
+    finally
+    {
+      op.close();
+    }
+  }
+
+  /**
+   * Writes an operator file one row at a time. Rows are buffered into a panel
+   * which is written when it reaches the target panel size. The panel index
+   * is written by close().
+   */
+  public static class Writer implements Closeable
+  {
+    private RandomAccessFile aWRAF;
+    private FileChannel      aWChannel;
+    private long             aPanelBytes;
+    private long             aPos       = 8;
+    private int              aRowCount  = 0;
+    private int              aColumns   = 0;
+    private int              aMaxCol    = -1;
+    private long             aEntCount  = 0;
+
+    private int              aPnlRow    = 0;
+    private ArrayListInt     aPtr       = new ArrayListInt();
+    private ArrayListInt     aCol       = new ArrayListInt();
+    private ArrayListDouble  aVal       = new ArrayListDouble();
+
+    private ArrayList<long[]> aIndex    = new ArrayList<long[]>();
+    private ByteBuffer        aBuf      = null;
+
+    /**
+     * Creates a new operator file (an existing file is replaced).
+     * 
+     * @param fileName   The operator file.
+     * @param panelBytes The target panel size (bytes).
+     * @throws IOException
+     */
+    public Writer(String fileName, long panelBytes) throws IOException
+    {
+      File f = new File(fileName);
+      if (f.exists() && !f.delete())
+        throw new IOException("Cannot replace file \"" + fileName + "\" ...");
+
+      aPanelBytes = Math.max(1024, Math.min(panelBytes, Integer.MAX_VALUE / 2));
+      aWRAF       = new RandomAccessFile(f, "rw");
+      aWChannel   = aWRAF.getChannel();
+      ByteBuffer bb = ByteBuffer.allocate(8);
+      bb.putInt(FILE_ID).putInt(VERSION).flip();
+      writeFully(bb, 0);
+      aPtr.add(0);
+    }
+
+    /**
+     * Sets the number of matrix columns. If not set (or <= 0) the largest
+     * column index + 1 is used.
+     * 
+     * @param columns The number of matrix columns.
+     */
+    public void setColumns(int columns)
+    {
+      aColumns = columns;
+    }
+
+    /**
+     * Adds the next matrix row.
+     * 
+     * @param smv The next matrix row.
+     * @throws IOException
+     */
+    public void addRow(SparseMatrixVector smv) throws IOException
+    {
+      addRow(smv.getIndexArray(), smv.getValueArray(), smv.size());
+    }
+
+    /**
+     * Adds the next matrix row.
+     * 
+     * @param col The column indices of the row entries.
+     * @param val The row entry values.
+     * @param n   The number of row entries.
+     * @throws IOException
+     */
+    public void addRow(int[] col, double[] val, int n) throws IOException
+    {
+      // write the current panel if this row would exceed the panel size
+
+      int rc = aPtr.size() - 1;
+      if ((rc > 0) && (panelBytes(rc + 1, aCol.size() + n) > aPanelBytes))
+        writePanel();
+
+      for (int j = 0; j < n; ++j)
+      {
+        if (col[j] > aMaxCol) aMaxCol = col[j];
+        aCol.add(col[j]);
+        aVal.add(val[j]);
+      }
+      aPtr.add(aCol.size());
+      ++aRowCount;
+      aEntCount += n;
+    }
+
+    /**
+     * Writes the last panel, the panel index, and the trailer and closes the
+     * file.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+      if (aWRAF == null) return;
+
+      try
+      {
+        if (aPtr.size() > 1) writePanel();
+
+        int cols = (aColumns > 0) ? aColumns : aMaxCol + 1;
+        if (cols <= aMaxCol)
+          throw new IOException("Column index " + aMaxCol +
+                                " exceeds column count " + cols + " ...");
+        ByteBuffer bb = ByteBuffer.allocate(20 + 20 * aIndex.size() + 8);
+        bb.putInt(aRowCount).putInt(cols).putLong(aEntCount)
+          .putInt(aIndex.size());
+        for (long[] e : aIndex)
+          bb.putLong(e[0]).putInt((int) e[1]).putInt((int) e[2])
+            .putInt((int) e[3]);
+        bb.putLong(aPos);
+        bb.flip();
+        writeFully(bb, aPos);
+      }
+      finally
+      {
+        aWRAF.close();
+        aWRAF = null;
+        aWChannel = null;
+      }
+    }
+
+    /**
+     * Writes the current panel and starts a new one.
+     * 
+     * @throws IOException
+     */
+    private void writePanel() throws IOException
+    {
+      int rc = aPtr.size() - 1;
+      int ec = aCol.size();
+      int bytes = panelBytes(rc, ec);
+      if ((aBuf == null) || (aBuf.capacity() < bytes))
+        aBuf = ByteBuffer.allocate(bytes);
+
+      aBuf.clear();
+      IntBuffer ib = aBuf.asIntBuffer();
+      ib.put(aPtr.getArray(), 0, rc + 1);
+      ib.put(aCol.getArray(), 0, ec);
+      aBuf.position(4 * (rc + 1 + ec));
+      aBuf.asDoubleBuffer().put(aVal.getArray(), 0, ec);
+      aBuf.position(0);
+      aBuf.limit(bytes);
+      writeFully(aBuf, aPos);
+
+      aIndex.add(new long [] {aPos, aPnlRow, rc, ec});
+      aPos += bytes;
+      aPnlRow += rc;
+
+      aPtr.clear();
+      aCol.clear();
+      aVal.clear();
+      aPtr.add(0);
+    }
+
+    /**
+     * Writes the remaining bytes of bb at file position pos.
+     */
+    private void writeFully(ByteBuffer bb, long pos) throws IOException
+    {
+      long p = pos;
+      while (bb.hasRemaining()) p += aWChannel.write(bb, p);
+    }
+  }
+}
@@ -359,6 +359,12 @@ public class MatrixBlock implements Serializable
    */
   private static long                aIOCatchSleep       = 1;
 
+  /**
+   * If true blocks are read through a memory-mapped MatrixBlockMappedFile
+   * (bulk copies from the mapped regions) instead of the FileInputBuffer.
+   */
+  private static boolean             aMappedIO           = false;
+
   /**
    * Standard constructor.
    * 
@@ -609,6 +615,28 @@ public class MatrixBlock implements Serializable
     aIOCatchSleep = ioFailSleepTime;
   }
 
+  /**
+   * Turns memory-mapped block reads on (true) or off (false). Mapped reads
+   * bulk copy each sub-block row from a MatrixBlockMappedFile and avoid the
+   * per-value DataInputStream overhead of the FileInputBuffer.
+   * 
+   * @param mappedIO The new memory-mapped read setting.
+   */
+  public static void setMappedIO(boolean mappedIO)
+  {
+    aMappedIO = mappedIO;
+  }
+
+  /**
+   * Returns true if blocks are read through a memory-mapped file.
+   * 
+   * @return True if blocks are read through a memory-mapped file.
+   */
+  public static boolean isMappedIO()
+  {
+    return aMappedIO;
+  }
+
   /**
    * Returns the amount of time this MatrixBlock waited for an IO request to
    * complete. This will be zero unless the MatrixBlock is the derived class
@@ -2264,9 +2292,18 @@ public class MatrixBlock implements Serializable
    */
   public synchronized void readBlock(String pthFilHdr) throws IOException
   {
-    // set read start time and path and create file input buffer
+    // save the read start time and use the memory mapped read if mapped IO
+    // is enabled
 
     long strtTime = (new Date()).getTime();
+    if (aMappedIO)
+    {
+      readBlockMapped(pthFilHdr, strtTime);
+      return;
+    }
+
+    // create file input buffer
+
     FileInputBuffer fib = new FileInputBuffer(getPathFileName(pthFilHdr,
                                               aBlkRow, aBlkCol));
 
@@ -2323,26 +2360,7 @@ public class MatrixBlock implements Serializable
   {
     // make sure MatrixBlockDefinition matches input sizes
 
-    if (rnme != aMtrxBlkDefn.size())
-    {
-      String s = "Error: MatrixBlockDefinition size (" + aMtrxBlkDefn.size() +
-                 ") is not equal to input size (" + rnme + ") ...";
-      throw new IOException(s);
-    }
-    if (rnbe != aMtrxBlkDefn.blockSize())
-    {
-      String s = "Error: MatrixBlockDefinition block size (" +
-                 aMtrxBlkDefn.blockSize() +
-                 ") is not equal to input block size (" + rnbe + ") ...";
-      throw new IOException(s);
-    }
-    if (rnsbe != aMtrxBlkDefn.subBlockSizeBasis())
-    {
-      String s = "Error: MatrixBlockDefinition sub-block size (" +
-                 aMtrxBlkDefn.subBlockSizeBasis() +
-                 ") is not equal to input sub-block size (" + rnsbe + ") ...";
-      throw new IOException(s);
-    }
+    checkBlockSizes(aMtrxBlkDefn, rnme, rnbe, rnsbe);
 
     // set limits
 
@@ -2439,11 +2457,60 @@ public class MatrixBlock implements Serializable
       }      
     }
 
-    // close input file, set time, add block as observer of the matrix
-    // block definitions, and subdivide if current sub-block size is not
-    // requested.
+    // close input file and finish
 
     fib.close();
+    completeRead(strtTime);
+  }
+
+  /**
+   * Reads this block from a memory-mapped block file. The file header is
+   * validated by the MatrixBlockMappedFile and each stored sub-block is bulk
+   * copied into a newly allocated sub-block array. The result is identical to
+   * the FileInputBuffer read.
+   * 
+   * @param pthFilHdr The block file path of the form "path/header".
+   * @param strtTime  The start time of the read.
+   * @throws IOException
+   */
+  private void readBlockMapped(String pthFilHdr, long strtTime)
+          throws IOException
+  {
+    MatrixBlockMappedFile mbf = new MatrixBlockMappedFile(pthFilHdr, aBlkRow,
+                                                          aBlkCol,
+                                                          aMtrxBlkDefn);
+    try
+    {
+      aCurrSubBlkSize = mbf.getSubBlockSize();
+      int nbsb = mbf.getBlockSubBlocks();
+      int nsbe = mbf.getSubBlockElements();
+      aSubBlks = new double [nbsb][nbsb][nsbe][nsbe];
+      for (int i = 0; i < nbsb; ++i)
+      {
+        for (int j = 0; j < nbsb; ++j) mbf.copySubBlock(i, j, aSubBlks[i][j]);
+      }
+    }
+    finally
+    {
+      mbf.close();
+    }
+
+    completeRead(strtTime);
+  }
+
+  /**
+   * Completes a block read. Sets the read time and count, adds this block as
+   * an observer of the matrix block definition, subdivides if the current
+   * sub-block size is not the requested size, and increments the data load
+   * and memory allocation.
+   * 
+   * @param strtTime The start time of the read.
+   */
+  private void completeRead(long strtTime)
+  {
+    // set time, add block as observer of the matrix block definitions, and
+    // subdivide if current sub-block size is not requested.
+
     aReadTime = (new Date()).getTime() - strtTime;
     ++aReadCount;
     aMtrxBlkDefn.addObserver(this);
@@ -2457,6 +2524,42 @@ public class MatrixBlock implements Serializable
     defineMemoryAllocation();
   }
 
+  /**
+   * Throws an IOException if the input block file sizes do not match the
+   * input MatrixBlockDefinition.
+   * 
+   * @param mbd   The MatrixBlockDefinition to be matched.
+   * @param rnme  The number of matrix element rows read from the file.
+   * @param rnbe  The number of block element rows read from the file.
+   * @param rnsbe The number of sub-block element rows (basis) read from the
+   *              file.
+   * @throws IOException
+   */
+  static void checkBlockSizes(MatrixBlockDefinition mbd, int rnme, int rnbe,
+                              int rnsbe) throws IOException
+  {
+    if (rnme != mbd.size())
+    {
+      String s = "Error: MatrixBlockDefinition size (" + mbd.size() +
+                 ") is not equal to input size (" + rnme + ") ...";
+      throw new IOException(s);
+    }
+    if (rnbe != mbd.blockSize())
+    {
+      String s = "Error: MatrixBlockDefinition block size (" +
+                 mbd.blockSize() +
+                 ") is not equal to input block size (" + rnbe + ") ...";
+      throw new IOException(s);
+    }
+    if (rnsbe != mbd.subBlockSizeBasis())
+    {
+      String s = "Error: MatrixBlockDefinition sub-block size (" +
+                 mbd.subBlockSizeBasis() +
+                 ") is not equal to input sub-block size (" + rnsbe + ") ...";
+      throw new IOException(s);
+    }
+  }
+
   /**
    * Writes this blocks diagonal to the destination file path (aDstPath) using
    * the error catch mechanism to avoid time-out errors. If the block is not a
@@ -0,0 +1,713 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.numerical.matrixblock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import gov.sandia.gmp.util.filebuffer.FileBuffer;
+
+/**
+ * Read-only, memory-mapped access to a MatrixBlock file written by
+ * MatrixBlock.writeBlock(...). The block file is a sequence of FileBuffer
+ * chunks, each of which is an int byte count followed by that many bytes of
+ * big-endian data. Since a FileOutputBuffer never splits a value across a
+ * chunk boundary the de-chunked (logical) byte stream can be addressed
+ * directly once the chunk offsets are known.
+ * 
+ * On construction the chunk headers are scanned (one small read per chunk),
+ * the file is mapped into one or more regions no larger than aMaxRegionSize,
+ * and the logical offset of every stored sub-block is computed from the
+ * owning MatrixBlockDefinition and the sub-block size stored in the file
+ * header. The sub-blocks can then be accessed in two ways:
+ * 
+ *   // bulk copy into the in-core sub-block array (used by MatrixBlock)
+ * 
+ *     copySubBlock(si, sj, sblk);
+ * 
+ *   // random access views that read directly from the mapped file
+ * 
+ *     SubBlockView v = getSubBlockView(si, sj);
+ *     double cij = v.get(i, j);
+ * 
+ * Views never allocate sub-block storage which allows very large covariance
+ * blocks to be evaluated without first reading them into a double[][][][]
+ * array. As with MatrixBlock the stored representation is the transposed
+ * block so diagonal blocks contain only the upper triangular sub-blocks.
+ * Views of the empty (lower) half of a diagonal block are returned as the
+ * transposed view of the corresponding upper sub-block. All element and view
+ * access uses absolute gets (or private duplicates) of the mapped regions so
+ * a single MatrixBlockMappedFile can be shared by any number of threads.
+ * 
+ * The mapping is released when the regions are garbage collected (Java
+ * provides no public unmap). Calling close() releases the file channel and
+ * all region references held by this object.
+ */
+public class MatrixBlockMappedFile implements Closeable
+{
+  /**
+   * The maximum size of a single mapped region. Regions are always split on
+   * chunk boundaries.
+   */
+  private static long                aMaxRegionSize    = 1L << 30;
+
+  /**
+   * The byte size of the block file header (matrix element rows, block
+   * element rows, sub-block element rows basis, and stored sub-block size).
+   */
+  private static final int           HEADER_SIZE       = 4 * FileBuffer.INT_SIZE;
+
+  /**
+   * The block file name.
+   */
+  private String                     aFileName         = "";
+
+  /**
+   * The read-only file channel of the mapped block file.
+   */
+  private FileChannel                aChannel          = null;
+
+  /**
+   * The mapped regions of the block file.
+   */
+  private MappedByteBuffer[]         aRegions          = null;
+
+  /**
+   * The logical (de-chunked) byte offset of the start of each chunk.
+   */
+  private long[]                     aChunkLogical     = null;
+
+  /**
+   * The byte size of each chunk.
+   */
+  private int[]                      aChunkSize        = null;
+
+  /**
+   * The region index containing each chunk.
+   */
+  private int[]                      aChunkRegion      = null;
+
+  /**
+   * The byte offset within its region of the data of each chunk.
+   */
+  private int[]                      aChunkRegionOffst = null;
+
+  /**
+   * The total number of logical (de-chunked) bytes in the file.
+   */
+  private long                       aLogicalSize      = 0;
+
+  /**
+   * The block row of the mapped block.
+   */
+  private int                        aBlkRow           = -1;
+
+  /**
+   * The block column of the mapped block.
+   */
+  private int                        aBlkCol           = -1;
+
+  /**
+   * The sub-block size with which the file was written.
+   */
+  private int                        aSubBlkSize       = 0;
+
+  /**
+   * The number of sub-block rows (and columns) in the block.
+   */
+  private int                        aNumBlkSubBlks    = 0;
+
+  /**
+   * The number of element rows (and columns) in a full sub-block.
+   */
+  private int                        aNumSubBlkElems   = 0;
+
+  /**
+   * The logical byte offset of each stored sub-block (si, sj). Sub-blocks that
+   * are not stored (empty) are set to -1.
+   */
+  private long[][]                   aSubBlkOffst      = null;
+
+  /**
+   * The number of stored element columns of each sub-block column. This is
+   * less than aNumSubBlkElems only for the last sub-block of the last block.
+   */
+  private int[]                      aSubBlkCols       = null;
+
+  /**
+   * True if the mapped block is a diagonal block.
+   */
+  private boolean                    aDiagonal         = false;
+
+  /**
+   * Maps the block file of block (blkRow, blkCol) stored at the input path
+   * file header ("path/header") and validates its header against the input
+   * MatrixBlockDefinition.
+   * 
+   * @param pthFilHdr The block file path of the form "path/header".
+   * @param blkRow    The block row.
+   * @param blkCol    The block column.
+   * @param mbd       The MatrixBlockDefinition that defines the block.
+   * @throws IOException
+   */
+  public MatrixBlockMappedFile(String pthFilHdr, int blkRow, int blkCol,
+                               MatrixBlockDefinition mbd)
+         throws IOException
+  {
+    aFileName = MatrixBlock.getPathFileName(pthFilHdr, blkRow, blkCol);
+    aBlkRow   = blkRow;
+    aBlkCol   = blkCol;
+    aDiagonal = (blkRow == blkCol);
+
+    // open the channel, index the chunks, and map the file
+
+    RandomAccessFile raf = new RandomAccessFile(new File(aFileName), "r");
+    aChannel = raf.getChannel();
+    try
+    {
+      mapChunks();
+      validateHeader(mbd);
+      buildSubBlockOffsets(mbd);
+    }
+    catch (IOException ex)
+    {
+      close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Sets the maximum mapped region size.
+   * 
+   * @param sze The new maximum mapped region size (bytes).
+   */
+  public static void setMaxRegionSize(long sze)
+  {
+    aMaxRegionSize = sze;
+  }
+
+  /**
+   * Scans the chunk headers of the file and maps the file in regions that
+   * hold complete chunks.
+   * 
+   * @throws IOException
+   */
+  private void mapChunks() throws IOException
+  {
+    // scan all chunk headers and record their logical and file offsets
+
+    long fileSize = aChannel.size();
+    ArrayList<long[]> chunks = new ArrayList<long[]>();
+    ByteBuffer bb = ByteBuffer.allocate(FileBuffer.INT_SIZE);
+    long pos = 0;
+    while (pos < fileSize)
+    {
+      bb.clear();
+      while (bb.hasRemaining())
+      {
+        if (aChannel.read(bb, pos + bb.position()) < 0)
+          throw new IOException("Error: Unexpected end of file reading " +
+                                "chunk header at " + pos + " in file \"" +
+                                aFileName + "\" ...");
+      }
+      bb.flip();
+      int n = bb.getInt();
+      if ((n < 0) || (pos + FileBuffer.INT_SIZE + n > fileSize))
+        throw new IOException("Error: Invalid chunk size (" + n + ") at " +
+                              pos + " in file \"" + aFileName + "\" ...");
+
+      chunks.add(new long[] {pos + FileBuffer.INT_SIZE, n});
+      pos += FileBuffer.INT_SIZE + n;
+    }
+
+    // build chunk arrays and assign chunks to regions
+
+    int nc = chunks.size();
+    aChunkLogical     = new long [nc];
+    aChunkSize        = new int  [nc];
+    aChunkRegion      = new int  [nc];
+    aChunkRegionOffst = new int  [nc];
+    ArrayList<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+    long rgnStrt = 0;
+    int  rgnChunk = 0;
+    aLogicalSize = 0;
+    for (int i = 0; i <= nc; ++i)
+    {
+      // close the current region if this chunk would overflow it (or all
+      // chunks have been assigned)
+
+      long chnkEnd = (i < nc) ? chunks.get(i)[0] + chunks.get(i)[1] : 0;
+      if ((i == nc) || ((i > rgnChunk) && (chnkEnd - rgnStrt > aMaxRegionSize)))
+      {
+        if (i > rgnChunk)
+        {
+          long[] last = chunks.get(i - 1);
+          long rgnEnd = last[0] + last[1];
+          regions.add(aChannel.map(FileChannel.MapMode.READ_ONLY, rgnStrt,
+                                   rgnEnd - rgnStrt));
+          rgnStrt = rgnEnd;
+          rgnChunk = i;
+        }
+        if (i == nc) break;
+      }
+
+      long[] chunk = chunks.get(i);
+      aChunkLogical[i]     = aLogicalSize;
+      aChunkSize[i]        = (int) chunk[1];
+      aChunkRegion[i]      = regions.size();
+      aChunkRegionOffst[i] = (int) (chunk[0] - rgnStrt);
+      aLogicalSize        += chunk[1];
+    }
+    aRegions = regions.toArray(new MappedByteBuffer [regions.size()]);
+  }
+
+  /**
+   * Validates the file header against the input MatrixBlockDefinition and
+   * stores the sub-block size with which the file was written.
+   * 
+   * @param mbd The MatrixBlockDefinition that defines this block.
+   * @throws IOException
+   */
+  private void validateHeader(MatrixBlockDefinition mbd) throws IOException
+  {
+    if (aLogicalSize < HEADER_SIZE)
+      throw new IOException("Error: File \"" + aFileName +
+                            "\" is too small to contain a block header ...");
+
+    int rnme  = getInt(0);
+    int rnbe  = getInt(FileBuffer.INT_SIZE);
+    int rnsbe = getInt(2 * FileBuffer.INT_SIZE);
+    aSubBlkSize = getInt(3 * FileBuffer.INT_SIZE);
+    MatrixBlock.checkBlockSizes(mbd, rnme, rnbe, rnsbe);
+    if (!mbd.isSubBlockSizeValid(aSubBlkSize))
+      throw new IOException("Error: Invalid stored sub-block size (" +
+                            aSubBlkSize + ") in file \"" + aFileName +
+                            "\" ...");
+  }
+
+  /**
+   * Computes the logical offset of every stored sub-block. The order follows
+   * MatrixBlock.writeBlock(...) exactly.
+   * 
+   * @param mbd The MatrixBlockDefinition that defines this block.
+   * @throws IOException
+   */
+  private void buildSubBlockOffsets(MatrixBlockDefinition mbd)
+          throws IOException
+  {
+    int nbsb     = mbd.blockSubBlocks(aSubBlkSize);
+    int nbsbLast = mbd.getBlockSubBlockRows(aBlkRow, aSubBlkSize);
+    int nsbe     = mbd.subBlockSize(aSubBlkSize);
+
+    aNumBlkSubBlks  = nbsb;
+    aNumSubBlkElems = nsbe;
+    aSubBlkOffst    = new long [nbsb][nbsb];
+    aSubBlkCols     = new int [nbsb];
+    for (int i = 0; i < nbsb; ++i)
+    {
+      Arrays.fill(aSubBlkOffst[i], -1);
+      aSubBlkCols[i] = (i < nbsbLast) ?
+                       mbd.getBlockSubBlockElementRows(aBlkRow, i, aSubBlkSize) : 0;
+    }
+
+    long pos = HEADER_SIZE;
+    if (aDiagonal)
+    {
+      // upper triangular diagonal sub-blocks followed by the off-diagonal
+      // sub-blocks of each sub-block row
+
+      for (int i = 0; i < nbsbLast; ++i)
+      {
+        int nr = aSubBlkCols[i];
+        aSubBlkOffst[i][i] = pos;
+        pos += (long) FileBuffer.DOUBLE_SIZE * nr * (nr + 1) / 2;
+        for (int j = i + 1; j < nbsbLast; ++j)
+        {
+          aSubBlkOffst[i][j] = pos;
+          pos += (long) FileBuffer.DOUBLE_SIZE * nsbe * aSubBlkCols[j];
+        }
+      }
+    }
+    else
+    {
+      for (int i = 0; i < nbsb; ++i)
+      {
+        for (int j = 0; j < nbsbLast; ++j)
+        {
+          aSubBlkOffst[i][j] = pos;
+          pos += (long) FileBuffer.DOUBLE_SIZE * nsbe * aSubBlkCols[j];
+        }
+      }
+    }
+
+    if (pos != aLogicalSize)
+      throw new IOException("Error: File \"" + aFileName + "\" contains " +
+                            aLogicalSize + " data bytes but the block " +
+                            "definition requires " + pos + " ...");
+  }
+
+  /**
+   * Returns the index of the chunk containing the input logical offset.
+   * 
+   * @param pos The logical byte offset.
+   * @return The index of the chunk containing pos.
+   */
+  private int findChunk(long pos)
+  {
+    int lo = 0, hi = aChunkLogical.length - 1;
+    while (lo < hi)
+    {
+      int mid = (lo + hi + 1) >>> 1;
+      if (aChunkLogical[mid] <= pos)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the int at the input logical offset.
+   * 
+   * @param pos The logical byte offset.
+   * @return The int at pos.
+   */
+  private int getInt(long pos)
+  {
+    int c = findChunk(pos);
+    return aRegions[aChunkRegion[c]].getInt(aChunkRegionOffst[c] +
+                                            (int) (pos - aChunkLogical[c]));
+  }
+
+  /**
+   * Returns the double at the input logical offset.
+   * 
+   * @param pos The logical byte offset.
+   * @return The double at pos.
+   */
+  private double getDouble(long pos)
+  {
+    int c = findChunk(pos);
+    return aRegions[aChunkRegion[c]].getDouble(aChunkRegionOffst[c] +
+                                               (int) (pos - aChunkLogical[c]));
+  }
+
+  /**
+   * Bulk reads len doubles beginning at the input logical offset into the
+   * array a starting at index offst. The read may span several chunks.
+   * 
+   * @param pos   The logical byte offset of the first double.
+   * @param a     The destination array.
+   * @param offst The first destination index.
+   * @param len   The number of doubles to read.
+   */
+  private void getDoubles(long pos, double[] a, int offst, int len)
+  {
+    while (len > 0)
+    {
+      // get the chunk containing pos and the number of doubles it holds
+      // beyond pos
+
+      int c = findChunk(pos);
+      int cpos = (int) (pos - aChunkLogical[c]);
+      int n = Math.min(len, (aChunkSize[c] - cpos) / FileBuffer.DOUBLE_SIZE);
+
+      // read them through a private duplicate so that concurrent readers do
+      // not share position state
+
+      ByteBuffer bb = aRegions[aChunkRegion[c]].duplicate();
+      bb.position(aChunkRegionOffst[c] + cpos);
+      DoubleBuffer db = bb.asDoubleBuffer();
+      db.get(a, offst, n);
+
+      pos   += (long) n * FileBuffer.DOUBLE_SIZE;
+      offst += n;
+      len   -= n;
+    }
+  }
+
+  /**
+   * Returns the sub-block size with which the file was written.
+   * 
+   * @return The sub-block size with which the file was written.
+   */
+  public int getSubBlockSize()
+  {
+    return aSubBlkSize;
+  }
+
+  /**
+   * Returns the number of sub-block rows (and columns) of the stored block.
+   * 
+   * @return The number of sub-block rows (and columns) of the stored block.
+   */
+  public int getBlockSubBlocks()
+  {
+    return aNumBlkSubBlks;
+  }
+
+  /**
+   * Returns the number of element rows (and columns) of a stored sub-block.
+   * 
+   * @return The number of element rows (and columns) of a stored sub-block.
+   */
+  public int getSubBlockElements()
+  {
+    return aNumSubBlkElems;
+  }
+
+  /**
+   * Returns the block file name.
+   * 
+   * @return The block file name.
+   */
+  public String getFileName()
+  {
+    return aFileName;
+  }
+
+  /**
+   * Returns true if sub-block si, sj is stored in the file.
+   * 
+   * @param si The sub-block row.
+   * @param sj The sub-block column.
+   * @return True if sub-block si, sj is stored in the file.
+   */
+  public boolean isSubBlockStored(int si, int sj)
+  {
+    return (aSubBlkOffst[si][sj] >= 0);
+  }
+
+  /**
+   * Copies the stored entries of sub-block si, sj into the input sub-block
+   * array sblk (sized [nsbe][nsbe]). Diagonal sub-blocks of diagonal blocks
+   * fill only the upper triangular entries, exactly as a FileInputBuffer
+   * read does. Entries that are not stored are not modified.
+   * 
+   * @param si   The sub-block row.
+   * @param sj   The sub-block column.
+   * @param sblk The sub-block array to be filled.
+   */
+  public void copySubBlock(int si, int sj, double[][] sblk)
+  {
+    long pos = aSubBlkOffst[si][sj];
+    if (pos < 0) return;
+
+    if (aDiagonal && (si == sj))
+    {
+      int nr = aSubBlkCols[si];
+      for (int i = 0; i < nr; ++i)
+      {
+        getDoubles(pos, sblk[i], i, nr - i);
+        pos += (long) FileBuffer.DOUBLE_SIZE * (nr - i);
+      }
+    }
+    else
+    {
+      int nc = aSubBlkCols[sj];
+      for (int i = 0; i < aNumSubBlkElems; ++i)
+      {
+        getDoubles(pos, sblk[i], 0, nc);
+        pos += (long) FileBuffer.DOUBLE_SIZE * nc;
+      }
+    }
+  }
+
+  /**
+   * Returns a view of sub-block si, sj that reads its elements directly from
+   * the mapped file. For diagonal blocks the empty lower sub-blocks (sj < si)
+   * are returned as the transposed view of sub-block sj, si and diagonal
+   * sub-blocks are returned symmetric.
+   * 
+   * @param si The sub-block row.
+   * @param sj The sub-block column.
+   * @return A view of sub-block si, sj.
+   */
+  public SubBlockView getSubBlockView(int si, int sj)
+  {
+    if (aDiagonal && (sj < si))
+      return new SubBlockView(sj, si, true);
+    else
+      return new SubBlockView(si, sj, false);
+  }
+
+  /**
+   * Returns the element i, j of sub-block si, sj. Equivalent to
+   * getSubBlockView(si, sj).get(i, j).
+   * 
+   * @param si The sub-block row.
+   * @param sj The sub-block column.
+   * @param i  The sub-block element row.
+   * @param j  The sub-block element column.
+   * @return The element i, j of sub-block si, sj.
+   */
+  public double getSubBlockElement(int si, int sj, int i, int j)
+  {
+    return getSubBlockView(si, sj).get(i, j);
+  }
+
+  /**
+   * Closes the file channel and releases all mapped region references.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    aRegions = null;
+    if (aChannel != null)
+    {
+      aChannel.close();
+      aChannel = null;
+    }
+  }
+
+  /**
+   * A read-only view of a single stored sub-block. Element access reads the
+   * mapped file directly.
+   */
+  public class SubBlockView
+  {
+    /**
+     * The stored sub-block row.
+     */
+    private int     aSI;
+
+    /**
+     * The stored sub-block column.
+     */
+    private int     aSJ;
+
+    /**
+     * True if this view is the transpose of the stored sub-block.
+     */
+    private boolean aTrnsp;
+
+    /**
+     * The logical offset of the stored sub-block (-1 if empty).
+     */
+    private long    aOffst;
+
+    /**
+     * Creates a view of stored sub-block si, sj.
+     * 
+     * @param si    The stored sub-block row.
+     * @param sj    The stored sub-block column.
+     * @param trnsp True if the view is the transpose of the stored sub-block.
+     */
+    private SubBlockView(int si, int sj, boolean trnsp)
+    {
+      aSI    = si;
+      aSJ    = sj;
+      aTrnsp = trnsp;
+      aOffst = aSubBlkOffst[si][sj];
+    }
+
+    /**
+     * Returns true if the viewed sub-block has no stored entries.
+     * 
+     * @return True if the viewed sub-block has no stored entries.
+     */
+    public boolean isEmpty()
+    {
+      return (aOffst < 0);
+    }
+
+    /**
+     * Returns element i, j of this view. Entries outside the stored region
+     * are zero.
+     * 
+     * @param i The element row.
+     * @param j The element column.
+     * @return Element i, j of this view.
+     */
+    public double get(int i, int j)
+    {
+      if (aOffst < 0) return 0.0;
+      if (aTrnsp)
+      {
+        int t = i; i = j; j = t;
+      }
+
+      if (aDiagonal && (aSI == aSJ))
+      {
+        // packed upper triangular ... use symmetry for the lower half
+
+        int nr = aSubBlkCols[aSI];
+        if (j < i)
+        {
+          int t = i; i = j; j = t;
+        }
+        if (j >= nr) return 0.0;
+        long k = (long) i * nr - (long) i * (i - 1) / 2 + (j - i);
+        return getDouble(aOffst + k * FileBuffer.DOUBLE_SIZE);
+      }
+      else
+      {
+        int nc = aSubBlkCols[aSJ];
+        if (j >= nc) return 0.0;
+        long k = (long) i * nc + j;
+        return getDouble(aOffst + k * FileBuffer.DOUBLE_SIZE);
+      }
+    }
+
+    /**
+     * Reads row i of this view into the input array (length >= nsbe). Entries
+     * outside the stored region are set to zero.
+     * 
+     * @param i   The element row.
+     * @param row The destination array.
+     */
+    public void getRow(int i, double[] row)
+    {
+      if ((aOffst >= 0) && !aTrnsp && !(aDiagonal && (aSI == aSJ)))
+      {
+        // contiguous stored row ... bulk read
+
+        int nc = aSubBlkCols[aSJ];
+        getDoubles(aOffst + (long) i * nc * FileBuffer.DOUBLE_SIZE, row, 0, nc);
+        for (int j = nc; j < aNumSubBlkElems; ++j) row[j] = 0.0;
+      }
+      else
+      {
+        for (int j = 0; j < aNumSubBlkElems; ++j) row[j] = get(i, j);
+      }
+    }
+  }
+}
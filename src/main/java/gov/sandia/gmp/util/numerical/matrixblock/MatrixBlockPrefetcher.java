@@ -0,0 +1,581 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.numerical.matrixblock;
+
+import static gov.sandia.gmp.util.globals.Globals.NL;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads MatrixBlocks ahead of their use on one or more background threads
+ * subject to a bounded memory budget. A client schedules the blocks that a
+ * list of tasks will need, in the order the tasks will run, by calling
+ * schedule(row, col) once per expected use. Background threads load the
+ * scheduled blocks in order as long as the memory reserved by loaded (and
+ * loading) blocks stays within the budget. Consumers call
+ * 
+ *   MatrixBlock mb = prefetcher.acquire(row, col);
+ *   ... use mb (getLockedBlock(...) / releaseLock(...)) ...
+ *   prefetcher.release(row, col);
+ * 
+ * where acquire waits for an in-flight read, reads the block on the calling
+ * thread if it has not yet been started, and returns the shared block. Each
+ * scheduled use must be matched by exactly one release (whether or not the
+ * block was actually acquired). When the last scheduled use of a block is
+ * released the block is unloaded and its memory is returned to the budget,
+ * which in turn allows the next scheduled blocks to be read. A block that is
+ * still locked (getLockedBlock(...) without releaseLock(...)) when its last
+ * use is released keeps its memory reserved until a later prefetcher call
+ * finds it unlocked and unloads it.
+ * 
+ * The first block is always allowed to load even if it exceeds the budget so
+ * that the prefetcher can never deadlock. A single MatrixBlock instance is
+ * shared by all consumers of a block so the block is read from disk once
+ * while it is resident.
+ * 
+ * All blocks are read with the MatrixBlock readBlockCatch() function and so
+ * honor the MatrixBlock mapped IO setting. Block paths are obtained from the
+ * MatrixBlockFileServer for the input file header (e.g. "ginv").
+ */
+public class MatrixBlockPrefetcher
+{
+  /**
+   * The load state of a scheduled block.
+   */
+  private enum LoadState
+  {
+    QUEUED, LOADING, LOADED, FAILED;
+  }
+
+  /**
+   * A scheduled block, its remaining use count, and its load state.
+   */
+  private class BlockEntry
+  {
+    private int          aRow       = -1;
+    private int          aCol       = -1;
+    private MatrixBlock  aBlock     = null;
+    private int          aUses      = 0;
+    private long         aMemory    = 0;
+    private LoadState    aState     = LoadState.QUEUED;
+    private IOException  aError     = null;
+
+    private BlockEntry(int row, int col)
+    {
+      aRow    = row;
+      aCol    = col;
+      aMemory = getBlockMemoryEstimate();
+    }
+  }
+
+  /**
+   * The matrix block definition of all blocks read by this prefetcher.
+   */
+  private MatrixBlockDefinition          aMtrxBlkDefn   = null;
+
+  /**
+   * The file servers that define the path of each block.
+   */
+  private MatrixBlockFileServer          aFileServers   = null;
+
+  /**
+   * The block file header (e.g. "ginv").
+   */
+  private String                         aFileHeader    = "";
+
+  /**
+   * The maximum memory (bytes) that may be reserved by resident and loading
+   * blocks.
+   */
+  private long                           aMemoryBudget  = 0;
+
+  /**
+   * The memory (bytes) currently reserved by resident and loading blocks.
+   */
+  private long                           aReservedMem   = 0;
+
+  /**
+   * The maximum number of concurrent background reads.
+   */
+  private int                            aReadThreads   = 1;
+
+  /**
+   * The number of background reads currently in progress.
+   */
+  private int                            aActiveReads   = 0;
+
+  /**
+   * All scheduled blocks associated with their block index.
+   */
+  private HashMap<Integer, BlockEntry>   aEntries       = null;
+
+  /**
+   * Scheduled blocks that have not yet been read in schedule order.
+   */
+  private ArrayDeque<BlockEntry>         aQueue         = null;
+
+  /**
+   * Released blocks that were still locked by a consumer when their last use
+   * was released. Their memory remains reserved until they are unlocked and
+   * unloaded by unloadReleased().
+   */
+  private ArrayList<BlockEntry>          aReleased      = null;
+
+  /**
+   * The background read thread pool.
+   */
+  private ExecutorService                aExecutor      = null;
+
+  /**
+   * The number of blocks read by the background threads.
+   */
+  private long                           aPrefetchCount = 0;
+
+  /**
+   * The number of blocks read by a consumer thread (not prefetched).
+   */
+  private long                           aDemandCount   = 0;
+
+  /**
+   * The number of acquire calls satisfied by a resident block without waiting.
+   */
+  private long                           aHitCount      = 0;
+
+  /**
+   * The total time (msec) consumers spent waiting in acquire().
+   */
+  private long                           aWaitTime      = 0;
+
+  /**
+   * The total time (msec) spent reading blocks.
+   */
+  private long                           aReadTime      = 0;
+
+  /**
+   * True once shutdown() has been called.
+   */
+  private boolean                        aShutdown      = false;
+
+  /**
+   * Standard constructor.
+   * 
+   * @param mbd          The matrix block definition of all blocks read.
+   * @param fileServers  The file servers that define the path of each block.
+   * @param fileHeader   The block file header (e.g. "ginv").
+   * @param memoryBudget The maximum memory (bytes) reserved by resident and
+   *                     loading blocks.
+   * @param readThreads  The number of background read threads (>= 1).
+   */
+  public MatrixBlockPrefetcher(MatrixBlockDefinition mbd,
+                               MatrixBlockFileServer fileServers,
+                               String fileHeader, long memoryBudget,
+                               int readThreads)
+  {
+    aMtrxBlkDefn  = mbd;
+    aFileServers  = fileServers;
+    aFileHeader   = fileHeader;
+    aMemoryBudget = memoryBudget;
+    aReadThreads  = Math.max(1, readThreads);
+    aEntries      = new HashMap<Integer, BlockEntry>();
+    aQueue        = new ArrayDeque<BlockEntry>();
+    aReleased     = new ArrayList<BlockEntry>();
+    aExecutor     = Executors.newFixedThreadPool(aReadThreads,
+                                                 new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "MatrixBlockPrefetcher");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Returns the in-core memory estimate (bytes) of a single block read with
+   * the current sub-block size.
+   * 
+   * @return The in-core memory estimate (bytes) of a single block.
+   */
+  public long getBlockMemoryEstimate()
+  {
+    long n = aMtrxBlkDefn.blockSize();
+    return 8 * n * n;
+  }
+
+  /**
+   * Schedules one use of block (row, col). If the block is not yet scheduled
+   * it is added to the end of the read queue.
+   * 
+   * @param row The block row.
+   * @param col The block column.
+   */
+  public synchronized void schedule(int row, int col)
+  {
+    int indx = MatrixBlock.getBlockIndex(row, col);
+    BlockEntry e = aEntries.get(indx);
+    if (e == null)
+    {
+      e = new BlockEntry(row, col);
+      aEntries.put(indx, e);
+      aQueue.add(e);
+    }
+    ++e.aUses;
+    dispatch();
+  }
+
+  /**
+   * Returns the shared MatrixBlock (row, col) with its data loaded. If the
+   * block is being read by a background thread this function waits for the
+   * read to complete. If the block was scheduled but not yet started, or was
+   * not scheduled at all, it is read on the calling thread.
+   * 
+   * @param row The block row.
+   * @param col The block column.
+   * @return The loaded MatrixBlock (row, col).
+   * @throws IOException
+   */
+  public MatrixBlock acquire(int row, int col) throws IOException
+  {
+    long strtTime = System.currentTimeMillis();
+    BlockEntry e;
+    boolean readHere = false;
+    synchronized (this)
+    {
+      // get the entry ... create an unscheduled single use if necessary
+
+      int indx = MatrixBlock.getBlockIndex(row, col);
+      e = aEntries.get(indx);
+      if (e == null)
+      {
+        e = new BlockEntry(row, col);
+        e.aUses = 1;
+        aEntries.put(indx, e);
+        aQueue.add(e);
+      }
+
+      // read on this thread if the read has not been started ... otherwise
+      // wait for the background read to complete
+
+      if (e.aState == LoadState.QUEUED)
+      {
+        aQueue.remove(e);
+        e.aState = LoadState.LOADING;
+        aReservedMem += e.aMemory;
+        ++aDemandCount;
+        readHere = true;
+      }
+      else if (e.aState == LoadState.LOADED)
+        ++aHitCount;
+      else
+      {
+        while (e.aState == LoadState.LOADING)
+        {
+          try
+          {
+            wait();
+          }
+          catch (InterruptedException ex)
+          {
+            throw new IOException(ex);
+          }
+        }
+      }
+    }
+
+    if (readHere) load(e);
+
+    synchronized (this)
+    {
+      aWaitTime += System.currentTimeMillis() - strtTime;
+      if (e.aState == LoadState.FAILED)
+        throw new IOException("Error: Read failed for Block " + row + "," +
+                              col + " ...", e.aError);
+      return e.aBlock;
+    }
+  }
+
+  /**
+   * Releases one scheduled use of block (row, col). When no uses remain the
+   * block is unloaded and its memory returned to the budget.
+   * 
+   * @param row The block row.
+   * @param col The block column.
+   */
+  public synchronized void release(int row, int col)
+  {
+    int indx = MatrixBlock.getBlockIndex(row, col);
+    BlockEntry e = aEntries.get(indx);
+    if (e == null) return;
+
+    if (--e.aUses <= 0)
+    {
+      if (e.aState == LoadState.QUEUED)
+      {
+        // never read ... just remove it from the queue
+
+        aQueue.remove(e);
+        aEntries.remove(indx);
+      }
+      else if (e.aState != LoadState.LOADING)
+      {
+        // loaded (or failed) ... unload and return memory to the budget
+
+        aEntries.remove(indx);
+        unload(e);
+      }
+      // else the loader will unload it when it completes
+    }
+    dispatch();
+  }
+
+  /**
+   * Unloads the input entry and returns its memory to the budget. If the
+   * block is still locked by a consumer it is added to the released list
+   * and its memory remains reserved until unloadReleased() finds it
+   * unlocked. Must be called while synchronized.
+   * 
+   * @param e The entry to be unloaded.
+   */
+  private void unload(BlockEntry e)
+  {
+    if ((e.aBlock != null) && e.aBlock.isLocked())
+    {
+      aReleased.add(e);
+      return;
+    }
+
+    if (e.aBlock != null) e.aBlock.unLoad();
+    e.aBlock = null;
+    aReservedMem -= e.aMemory;
+    notifyAll();
+  }
+
+  /**
+   * Unloads all released blocks that are no longer locked and returns their
+   * memory to the budget. Must be called while synchronized.
+   */
+  private void unloadReleased()
+  {
+    for (int i = aReleased.size() - 1; i >= 0; --i)
+    {
+      BlockEntry e = aReleased.get(i);
+      if (!e.aBlock.isLocked())
+      {
+        aReleased.remove(i);
+        unload(e);
+      }
+    }
+  }
+
+  /**
+   * Starts background reads of queued blocks while read threads are
+   * available and the memory budget permits. Must be called while
+   * synchronized.
+   */
+  private void dispatch()
+  {
+    unloadReleased();
+    while (!aShutdown && (aActiveReads < aReadThreads) && !aQueue.isEmpty())
+    {
+      BlockEntry e = aQueue.peek();
+      if ((aReservedMem > 0) &&
+          (aReservedMem + e.aMemory > aMemoryBudget)) break;
+
+      aQueue.poll();
+      e.aState = LoadState.LOADING;
+      aReservedMem += e.aMemory;
+      ++aActiveReads;
+      final BlockEntry fe = e;
+      aExecutor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          load(fe);
+          synchronized (MatrixBlockPrefetcher.this)
+          {
+            ++aPrefetchCount;
+            --aActiveReads;
+            dispatch();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads the block of the input entry and notifies all waiting consumers.
+   * 
+   * @param e The entry to be read.
+   */
+  private void load(BlockEntry e)
+  {
+    long strtTime = System.currentTimeMillis();
+    MatrixBlock mb = new MatrixBlock(e.aRow, e.aCol, aMtrxBlkDefn);
+    IOException err = null;
+    try
+    {
+      String fp = aFileServers.getPath(aFileHeader, e.aRow, e.aCol) +
+                  File.separator + aFileHeader;
+      mb.setSourcePathFileHeader(fp, aFileHeader);
+      mb.readBlockCatch();
+    }
+    catch (IOException ex)
+    {
+      err = ex;
+    }
+
+    synchronized (this)
+    {
+      aReadTime += System.currentTimeMillis() - strtTime;
+      e.aBlock = mb;
+      e.aError = err;
+      e.aState = (err == null) ? LoadState.LOADED : LoadState.FAILED;
+
+      // if all uses were released while loading unload now
+
+      if (e.aUses <= 0)
+      {
+        aEntries.remove(MatrixBlock.getBlockIndex(e.aRow, e.aCol));
+        unload(e);
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * Stops all background reads. Blocks that are currently being read
+   * complete normally. Resident blocks remain available until released.
+   */
+  public synchronized void shutdown()
+  {
+    aShutdown = true;
+    aQueue.clear();
+    aExecutor.shutdown();
+  }
+
+  /**
+   * Returns the number of blocks read by the background threads.
+   * 
+   * @return The number of blocks read by the background threads.
+   */
+  public synchronized long getPrefetchCount()
+  {
+    return aPrefetchCount;
+  }
+
+  /**
+   * Returns the number of blocks read by consumer threads.
+   * 
+   * @return The number of blocks read by consumer threads.
+   */
+  public synchronized long getDemandReadCount()
+  {
+    return aDemandCount;
+  }
+
+  /**
+   * Returns the total number of block reads (prefetched and demand).
+   * 
+   * @return The total number of block reads.
+   */
+  public synchronized long getBlockReadCount()
+  {
+    return aPrefetchCount + aDemandCount;
+  }
+
+  /**
+   * Returns the number of acquire calls satisfied by a resident block.
+   * 
+   * @return The number of acquire calls satisfied by a resident block.
+   */
+  public synchronized long getHitCount()
+  {
+    return aHitCount;
+  }
+
+  /**
+   * Returns the total time (msec) consumers spent in acquire().
+   * 
+   * @return The total time (msec) consumers spent in acquire().
+   */
+  public synchronized long getWaitTime()
+  {
+    return aWaitTime;
+  }
+
+  /**
+   * Returns the total time (msec) spent reading blocks.
+   * 
+   * @return The total time (msec) spent reading blocks.
+   */
+  public synchronized long getReadTime()
+  {
+    return aReadTime;
+  }
+
+  /**
+   * Returns the memory (bytes) currently reserved by resident and loading
+   * blocks.
+   * 
+   * @return The memory (bytes) currently reserved.
+   */
+  public synchronized long getReservedMemory()
+  {
+    return aReservedMem;
+  }
+
+  /**
+   * Returns a summary of the prefetcher counters.
+   * 
+   * @param hdr A header prepended to each line.
+   * @return A summary of the prefetcher counters.
+   */
+  public synchronized String toString(String hdr)
+  {
+    return hdr + "Block Reads (prefetched) = " + aPrefetchCount + NL +
+           hdr + "Block Reads (demand)     = " + aDemandCount + NL +
+           hdr + "Resident Block Hits      = " + aHitCount + NL +
+           hdr + "Consumer Wait Time (s)   = " + (aWaitTime / 1000.0) + NL +
+           hdr + "Block Read Time (s)      = " + (aReadTime / 1000.0) + NL;
+  }
+}
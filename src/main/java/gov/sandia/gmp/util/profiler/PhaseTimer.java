@@ -0,0 +1,451 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.profiler;
+
+import static gov.sandia.gmp.util.globals.Globals.NL;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low overhead, always-on timing of the major processing phases of PCalc,
+ * the predictors and RayUncertainty (bucket reads, predictor batches,
+ * individual rays, covariance block reads, sink writes and parallel tasks).
+ * Unlike the sampling Profiler, which follows a single thread and takes a
+ * full stack trace at every sample, PhaseTimer is updated directly by the
+ * code that performs each phase, from whatever thread it runs on, at the
+ * cost of two calls to System.nanoTime() and a few uncontended LongAdder
+ * increments per phase.
+ * 
+ * <p>Two kinds of information are accumulated:
+ * <ul>
+ * <li>per-phase counters (count, number of items processed, total and
+ * maximum elapsed time), which are always maintained while the timer is
+ * enabled, and
+ * <li>an optional, bounded log of individual phase events (phase, thread,
+ * start time, duration and item count) which, when a capacity greater than
+ * zero is set, retains the most recent events so that a timeline can be
+ * written to a file with writeEvents() and analyzed offline.
+ * </ul>
+ * 
+ * <p>Usage:
+ * <pre>
+ *   long t = PhaseTimer.start();
+ *   ... do the work ...
+ *   PhaseTimer.stop(PhaseTimer.Phase.SINK_WRITE, t, nItems);
+ * </pre>
+ * 
+ * <p>The timer is enabled by default and can be turned off with the system
+ * property gmp.phasetimer=false. The event log capacity is set with the
+ * system property gmp.phasetimer.events (default 0, no events retained).
+ */
+public final class PhaseTimer
+{
+  /**
+   * The phases that are timed.
+   */
+  public enum Phase
+  {
+    /**
+     * Retrieval of the next Bucket from a PCalc DataSource.
+     */
+    BUCKET_READ,
+
+    /**
+     * Computation of a set of predictions by a single predictor.
+     */
+    PREDICTOR_BATCH,
+
+    /**
+     * Computation of a single prediction (ray).
+     */
+    RAY,
+
+    /**
+     * Read of a covariance matrix block by a RayUncertainty task.
+     */
+    BLOCK_READ,
+
+    /**
+     * Output of a Bucket to a PCalc DataSink.
+     */
+    SINK_WRITE,
+
+    /**
+     * Execution of a ParallelTask by a ParallelBroker.
+     */
+    PARALLEL_TASK
+  }
+
+  /**
+   * A single recorded phase event.
+   */
+  public static final class Event
+  {
+    public final Phase  phase;
+    public final String thread;
+    public final long   startTime;
+    public final long   duration;
+    public final long   items;
+
+    private Event(Phase phase, String thread, long startTime, long duration,
+                  long items)
+    {
+      this.phase     = phase;
+      this.thread    = thread;
+      this.startTime = startTime;
+      this.duration  = duration;
+      this.items     = items;
+    }
+  }
+
+  /**
+   * Enabled flag. If false start() returns 0 and stop() does nothing.
+   */
+  private static volatile boolean aEnabled =
+      !"false".equalsIgnoreCase(System.getProperty("gmp.phasetimer", "true"));
+
+  /**
+   * Number of times each phase was stopped.
+   */
+  private static final LongAdder[] aCount     = newAdders();
+
+  /**
+   * Number of items (rays, points, bytes, ...) processed by each phase.
+   */
+  private static final LongAdder[] aItems     = newAdders();
+
+  /**
+   * Total elapsed time in nanoseconds spent in each phase.
+   */
+  private static final LongAdder[] aTotalTime = newAdders();
+
+  /**
+   * Maximum elapsed time in nanoseconds of a single occurrence of each phase.
+   */
+  private static final AtomicLong[] aMaxTime  = new AtomicLong[Phase.values().length];
+  static
+  {
+    for (int i = 0; i < aMaxTime.length; ++i) aMaxTime[i] = new AtomicLong();
+  }
+
+  /**
+   * Wall clock time (msec) and System.nanoTime() at class load. Used to
+   * convert event start times to epoch milliseconds on output.
+   */
+  private static final long aEpochMsec = System.currentTimeMillis();
+  private static final long aEpochNsec = System.nanoTime();
+
+  /**
+   * Ring buffer of the most recent events, or null if events are not
+   * being retained.
+   */
+  private static volatile AtomicReferenceArray<Event> aEvents =
+      newEvents(Integer.getInteger("gmp.phasetimer.events", 0));
+
+  /**
+   * Total number of events offered to the ring buffer since it was created.
+   */
+  private static final AtomicLong aEventCount = new AtomicLong();
+
+  /**
+   * Static class only.
+   */
+  private PhaseTimer()
+  {
+  }
+
+  /**
+   * Returns an array of new LongAdders, one per phase.
+   * 
+   * @return An array of new LongAdders, one per phase.
+   */
+  private static LongAdder[] newAdders()
+  {
+    LongAdder[] a = new LongAdder[Phase.values().length];
+    for (int i = 0; i < a.length; ++i) a[i] = new LongAdder();
+    return a;
+  }
+
+  /**
+   * Returns a new event ring buffer of the input capacity or null if the
+   * capacity is not positive.
+   * 
+   * @param capacity The ring buffer capacity.
+   * @return A new event ring buffer or null.
+   */
+  private static AtomicReferenceArray<Event> newEvents(int capacity)
+  {
+    return capacity > 0 ? new AtomicReferenceArray<Event>(capacity) : null;
+  }
+
+  /**
+   * Returns true if the timer is enabled.
+   * 
+   * @return True if the timer is enabled.
+   */
+  public static boolean isEnabled()
+  {
+    return aEnabled;
+  }
+
+  /**
+   * Enables or disables the timer.
+   * 
+   * @param enabled The new enabled state.
+   */
+  public static void setEnabled(boolean enabled)
+  {
+    aEnabled = enabled;
+  }
+
+  /**
+   * Sets the number of most recent events retained for output by
+   * writeEvents(). A capacity of 0 turns event retention off. Any
+   * previously retained events are discarded.
+   * 
+   * @param capacity The number of events to retain.
+   */
+  public static synchronized void setEventCapacity(int capacity)
+  {
+    aEvents = newEvents(capacity);
+    aEventCount.set(0);
+  }
+
+  /**
+   * Returns the number of events that can be retained (0 if event retention
+   * is off).
+   * 
+   * @return The number of events that can be retained.
+   */
+  public static int getEventCapacity()
+  {
+    AtomicReferenceArray<Event> events = aEvents;
+    return events == null ? 0 : events.length();
+  }
+
+  /**
+   * Returns the start time of a phase to be passed to stop(), or 0 if the
+   * timer is disabled.
+   * 
+   * @return The start time of a phase.
+   */
+  public static long start()
+  {
+    return aEnabled ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Records the end of a phase that processed a single item.
+   * 
+   * @param phase The phase that ended.
+   * @param startTime The value returned by start() when the phase began.
+   */
+  public static void stop(Phase phase, long startTime)
+  {
+    stop(phase, startTime, 1);
+  }
+
+  /**
+   * Records the end of a phase.
+   * 
+   * @param phase The phase that ended.
+   * @param startTime The value returned by start() when the phase began.
+   * @param items The number of items processed by the phase.
+   */
+  public static void stop(Phase phase, long startTime, long items)
+  {
+    if (!aEnabled || startTime == 0L) return;
+
+    long dt = System.nanoTime() - startTime;
+    int i = phase.ordinal();
+    aCount[i].increment();
+    aItems[i].add(items);
+    aTotalTime[i].add(dt);
+
+    AtomicLong max = aMaxTime[i];
+    long m = max.get();
+    while (dt > m && !max.compareAndSet(m, dt)) m = max.get();
+
+    AtomicReferenceArray<Event> events = aEvents;
+    if (events != null)
+    {
+      long n = aEventCount.getAndIncrement();
+      events.set((int) (n % events.length()),
+                 new Event(phase, Thread.currentThread().getName(),
+                           startTime, dt, items));
+    }
+  }
+
+  /**
+   * Returns the number of times the input phase was recorded.
+   * 
+   * @param phase The phase.
+   * @return The number of times the input phase was recorded.
+   */
+  public static long getCount(Phase phase)
+  {
+    return aCount[phase.ordinal()].sum();
+  }
+
+  /**
+   * Returns the number of items processed by the input phase.
+   * 
+   * @param phase The phase.
+   * @return The number of items processed by the input phase.
+   */
+  public static long getItems(Phase phase)
+  {
+    return aItems[phase.ordinal()].sum();
+  }
+
+  /**
+   * Returns the total time (nsec) spent in the input phase, summed over
+   * all threads.
+   * 
+   * @param phase The phase.
+   * @return The total time (nsec) spent in the input phase.
+   */
+  public static long getTotalTime(Phase phase)
+  {
+    return aTotalTime[phase.ordinal()].sum();
+  }
+
+  /**
+   * Returns the longest single occurrence (nsec) of the input phase.
+   * 
+   * @param phase The phase.
+   * @return The longest single occurrence (nsec) of the input phase.
+   */
+  public static long getMaxTime(Phase phase)
+  {
+    return aMaxTime[phase.ordinal()].get();
+  }
+
+  /**
+   * Resets all counters and discards all retained events.
+   */
+  public static synchronized void reset()
+  {
+    for (int i = 0; i < aCount.length; ++i)
+    {
+      aCount[i].reset();
+      aItems[i].reset();
+      aTotalTime[i].reset();
+      aMaxTime[i].set(0);
+    }
+    setEventCapacity(getEventCapacity());
+  }
+
+  /**
+   * Returns the retained events, oldest first.
+   * 
+   * @return The retained events, oldest first.
+   */
+  public static Event[] getEvents()
+  {
+    AtomicReferenceArray<Event> events = aEvents;
+    if (events == null) return new Event[0];
+
+    long n = aEventCount.get();
+    int cap = events.length();
+    int size = (int) Math.min(n, cap);
+    Event[] result = new Event[size];
+    int k = 0;
+    for (long i = n - size; i < n; ++i)
+    {
+      Event e = events.get((int) (i % cap));
+      if (e != null) result[k++] = e;
+    }
+    if (k < size)
+    {
+      Event[] r = new Event[k];
+      System.arraycopy(result, 0, r, 0, k);
+      result = r;
+    }
+    return result;
+  }
+
+  /**
+   * Writes the retained events, oldest first, to the input file as tab
+   * separated columns: phase, thread, start time (epoch msec), duration
+   * (msec) and item count.
+   * 
+   * @param f The output file.
+   * @throws IOException
+   */
+  public static void writeEvents(File f) throws IOException
+  {
+    BufferedWriter output = new BufferedWriter(new FileWriter(f));
+    try
+    {
+      output.write("phase\tthread\tstart_msec\tduration_msec\titems" + NL);
+      for (Event e : getEvents())
+        output.write(String.format("%s\t%s\t%.3f\t%.6f\t%d%n", e.phase,
+            e.thread, aEpochMsec + (e.startTime - aEpochNsec) * 1e-6,
+            e.duration * 1e-6, e.items));
+    }
+    finally
+    {
+      output.close();
+    }
+  }
+
+  /**
+   * Returns a formatted table of the counters of all phases that have been
+   * recorded at least once.
+   * 
+   * @return A formatted table of the phase counters.
+   */
+  public static String getSummary()
+  {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append(String.format("%-16s %10s %12s %12s %12s %12s%n", "Phase",
+        "Count", "Items", "Total (s)", "Mean (ms)", "Max (ms)"));
+    for (Phase p : Phase.values())
+    {
+      long n = getCount(p);
+      if (n == 0) continue;
+
+      long t = getTotalTime(p);
+      sb.append(String.format("%-16s %10d %12d %12.3f %12.3f %12.3f%n", p,
+          n, getItems(p), t * 1e-9, t * 1e-6 / n, getMaxTime(p) * 1e-6));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,706 @@
+/**
+ * Copyright 2009 Sandia Corporation. Under the terms of Contract
+ * DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+ * retains certain rights in this software.
+ * 
+ * BSD Open Source License.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Sandia National Laboratories nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package gov.sandia.gmp.util.vtk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an unstructured grid to a vtk file without requiring the caller to
+ * hold the points, cells or point data in memory. Each section is supplied
+ * by a callback that fills one chunk of elements at a time. Chunks are
+ * evaluated concurrently on a small thread pool, encoded into byte buffers
+ * and written to the file, in order, through a FileChannel. At most a few
+ * chunks per thread are in memory at any time.
+ * <p>
+ * If the output file name ends with '.vtu' the file is written in the VTK XML
+ * UnstructuredGrid format with raw appended data, otherwise the legacy binary
+ * vtk format is written. For the XML format each data array can optionally be
+ * compressed with zlib, in blocks of one chunk, which ParaView reads directly
+ * (compressor="vtkZLibDataCompressor"). Compression is performed by the
+ * worker threads that evaluate the chunks.
+ * <p>
+ * Sections must be written in the order points, cells, point data, which is
+ * the order required by the legacy format. Typical usage:
+ * <br>VTKStreamWriter w = new VTKStreamWriter(new File("model.vtu"), "GeoTess");
+ * <br>w.writePoints(nPoints, pointSource);
+ * <br>w.writeCells(nTriangles, VTKCellType.VTK_TRIANGLE, triangleSource);
+ * <br>w.writePointData("vp", vpSource);
+ * <br>w.close();
+ */
+public class VTKStreamWriter implements Closeable
+{
+	/**
+	 * Supplies double values, nComponents per element, for a range of elements.
+	 */
+	public interface DoubleSource
+	{
+		/**
+		 * Fill values with the components of elements first to first+count-1.
+		 * May be called concurrently for different ranges.
+		 */
+		void get(int first, int count, double[] values) throws Exception;
+	}
+
+	/**
+	 * Supplies one float value per element for a range of elements.
+	 */
+	public interface FloatSource
+	{
+		/**
+		 * Fill values with the values of elements first to first+count-1.
+		 * May be called concurrently for different ranges.
+		 */
+		void get(int first, int count, float[] values) throws Exception;
+	}
+
+	/**
+	 * Supplies int values, nComponents per element, for a range of elements.
+	 */
+	public interface IntSource
+	{
+		/**
+		 * Fill values with the components of elements first to first+count-1.
+		 * May be called concurrently for different ranges.
+		 */
+		void get(int first, int count, int[] values) throws Exception;
+	}
+
+	/**
+	 * Encodes a range of elements of a section into a byte buffer.
+	 */
+	private interface Encoder
+	{
+		void encode(int first, int count, ByteBuffer buffer) throws Exception;
+	}
+
+	/**
+	 * Default number of elements evaluated and written per chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 13;
+
+	private final File outputFile;
+
+	private final String title;
+
+	private final boolean xml;
+
+	private final ByteOrder byteOrder;
+
+	/**
+	 * The channel that receives the legacy output, or the appended data of the
+	 * XML output.
+	 */
+	private RandomAccessFile dataFile;
+
+	private FileChannel channel;
+
+	/**
+	 * For XML output, the temporary file that receives the appended data.
+	 */
+	private File appendedFile;
+
+	/**
+	 * For XML output, the DataArray elements of the PointData, Points and Cells
+	 * sections.
+	 */
+	private StringBuilder xmlPointData = new StringBuilder();
+	private StringBuilder xmlPoints = new StringBuilder();
+	private StringBuilder xmlCells = new StringBuilder();
+
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private boolean compress = false;
+
+	private ExecutorService threadPool;
+
+	private int nPoints = -1;
+
+	private int nCells = -1;
+
+	private boolean pointDataStarted = false;
+
+	/**
+	 * Open a vtk file for output. If the file name ends with '.vtu' the VTK XML
+	 * format is written, otherwise the legacy binary format.
+	 * 
+	 * @param outputFile the output file
+	 * @param title the title written to the legacy header
+	 * @throws IOException
+	 */
+	public VTKStreamWriter(File outputFile, String title) throws IOException
+	{
+		this.outputFile = outputFile;
+		this.title = title;
+		this.xml = outputFile.getName().toLowerCase().trim().endsWith(".vtu");
+		this.byteOrder = xml ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+		if (xml)
+		{
+			File dir = outputFile.getAbsoluteFile().getParentFile();
+			appendedFile = File.createTempFile("vtu", ".tmp", dir);
+			appendedFile.deleteOnExit();
+			dataFile = new RandomAccessFile(appendedFile, "rw");
+		}
+		else
+		{
+			dataFile = new RandomAccessFile(outputFile, "rw");
+			dataFile.setLength(0);
+		}
+		channel = dataFile.getChannel();
+
+		if (!xml)
+			writeString(String.format("# vtk DataFile Version 2.0%n%s%nBINARY%n"
+					+ "DATASET UNSTRUCTURED_GRID%n", title));
+	}
+
+	/**
+	 * Returns true if the output is written in the VTK XML (.vtu) format.
+	 * 
+	 * @return true if the output is written in the VTK XML (.vtu) format.
+	 */
+	public boolean isXML()
+	{
+		return xml;
+	}
+
+	/**
+	 * Set the number of threads used to evaluate and encode chunks. Must be
+	 * called before the first section is written.
+	 * 
+	 * @param nThreads the number of threads. Values &lt; 1 are treated as 1.
+	 * @return a reference to this
+	 */
+	public VTKStreamWriter setThreads(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+		return this;
+	}
+
+	/**
+	 * Set the number of elements evaluated and written per chunk. For
+	 * compressed XML output this is also the compression block size.
+	 * 
+	 * @param chunkSize the number of elements per chunk
+	 * @return a reference to this
+	 */
+	public VTKStreamWriter setChunkSize(int chunkSize)
+	{
+		this.chunkSize = Math.max(1, chunkSize);
+		return this;
+	}
+
+	/**
+	 * Specify whether the data arrays of XML (.vtu) output are compressed with
+	 * zlib. Ignored for legacy output.
+	 * 
+	 * @param compress if true data arrays are compressed.
+	 * @return a reference to this
+	 */
+	public VTKStreamWriter setCompression(boolean compress)
+	{
+		this.compress = compress;
+		return this;
+	}
+
+	/**
+	 * Write the 3-component positions of all the points.
+	 * 
+	 * @param nPoints the number of points
+	 * @param source supplies x, y, z of each point
+	 * @throws IOException
+	 */
+	public void writePoints(int nPoints, final DoubleSource source)
+			throws IOException
+	{
+		if (this.nPoints >= 0)
+			throw new IOException("Points have already been written.");
+		this.nPoints = nPoints;
+
+		if (xml)
+			xmlPoints.append(dataArray("Float64", null, 3, writeXmlArray(nPoints, 24,
+					doubleEncoder(3, source))));
+		else
+		{
+			writeString(String.format("POINTS %d double%n", nPoints));
+			writeArray(nPoints, 24, doubleEncoder(3, source));
+		}
+	}
+
+	/**
+	 * Write the connectivity of a set of cells that are all of the same type.
+	 * 
+	 * @param nCells the number of cells
+	 * @param cellType the type of all the cells. Must have a fixed number of
+	 * points.
+	 * @param source supplies the point indices of each cell,
+	 * cellType.getNPoints() per cell.
+	 * @throws IOException
+	 */
+	public void writeCells(int nCells, VTKCellType cellType,
+			final IntSource source) throws IOException
+	{
+		if (nPoints < 0)
+			throw new IOException("Points must be written before cells.");
+		if (this.nCells >= 0)
+			throw new IOException("Cells have already been written.");
+		if (cellType.getNPoints() < 1)
+			throw new IOException(cellType + " does not have a fixed number of points.");
+		this.nCells = nCells;
+
+		final int size = cellType.getNPoints();
+		final int index = cellType.getIndex();
+		if (xml)
+		{
+			xmlCells.append(dataArray("Int32", "connectivity", 1, writeXmlArray(nCells,
+					4 * size, intEncoder(size, source))));
+			xmlCells.append(dataArray("Int32", "offsets", 1, writeXmlArray(nCells, 4,
+					new Encoder()
+					{
+						@Override
+						public void encode(int first, int count, ByteBuffer buffer)
+						{
+							for (int i = first; i < first + count; ++i)
+								buffer.putInt((i + 1) * size);
+						}
+					})));
+			xmlCells.append(dataArray("UInt8", "types", 1, writeXmlArray(nCells, 1,
+					new Encoder()
+					{
+						@Override
+						public void encode(int first, int count, ByteBuffer buffer)
+						{
+							for (int i = 0; i < count; ++i)
+								buffer.put((byte) index);
+						}
+					})));
+		}
+		else
+		{
+			writeString(String.format("CELLS %d %d%n", nCells, nCells * (size + 1)));
+			writeArray(nCells, 4 * (size + 1), new Encoder()
+			{
+				@Override
+				public void encode(int first, int count, ByteBuffer buffer)
+						throws Exception
+				{
+					int[] values = new int[count * size];
+					source.get(first, count, values);
+					for (int c = 0; c < count; ++c)
+					{
+						buffer.putInt(size);
+						for (int j = 0; j < size; ++j)
+							buffer.putInt(values[c * size + j]);
+					}
+				}
+			});
+
+			writeString(String.format("CELL_TYPES %d%n", nCells));
+			writeArray(nCells, 4, new Encoder()
+			{
+				@Override
+				public void encode(int first, int count, ByteBuffer buffer)
+				{
+					for (int i = 0; i < count; ++i)
+						buffer.putInt(index);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Write one scalar float value for every point.
+	 * 
+	 * @param name the name of the scalar. Spaces are replaced with '_'.
+	 * @param source supplies the value of each point
+	 * @throws IOException
+	 */
+	public void writePointData(String name, final FloatSource source)
+			throws IOException
+	{
+		if (nCells < 0)
+			throw new IOException("Cells must be written before point data.");
+
+		name = name.replaceAll(" ", "_");
+		Encoder encoder = new Encoder()
+		{
+			@Override
+			public void encode(int first, int count, ByteBuffer buffer)
+					throws Exception
+			{
+				float[] values = new float[count];
+				source.get(first, count, values);
+				for (int i = 0; i < count; ++i)
+					buffer.putFloat(values[i]);
+			}
+		};
+
+		if (xml)
+			xmlPointData.append(dataArray("Float32", name, 1, writeXmlArray(nPoints, 4,
+					encoder)));
+		else
+		{
+			if (!pointDataStarted)
+				writeString(String.format("POINT_DATA %d%n", nPoints));
+			pointDataStarted = true;
+			writeString(String.format("SCALARS %s float 1%nLOOKUP_TABLE default%n",
+					name));
+			writeArray(nPoints, 4, encoder);
+		}
+	}
+
+	/**
+	 * Finish writing the file. For XML output, the XML header is written
+	 * followed by the appended data that was accumulated in a temporary file.
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (channel == null)
+			return;
+		try
+		{
+			if (xml)
+				writeXml();
+		}
+		finally
+		{
+			if (threadPool != null)
+				threadPool.shutdownNow();
+			threadPool = null;
+			channel.close();
+			dataFile.close();
+			channel = null;
+			if (appendedFile != null)
+				appendedFile.delete();
+		}
+	}
+
+	/**
+	 * Write the XML header, copy the appended data from the temporary file and
+	 * finish the XML document.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeXml() throws IOException
+	{
+		StringBuilder header = new StringBuilder();
+		header.append("<?xml version=\"1.0\"?>\n");
+		header.append("<VTKFile type=\"UnstructuredGrid\" version=\"1.0\" "
+				+ "byte_order=\"LittleEndian\" header_type=\"UInt64\"");
+		if (compress)
+			header.append(" compressor=\"vtkZLibDataCompressor\"");
+		header.append(">\n");
+		header.append("  <!-- ").append(title.replaceAll("--", "-")).append(" -->\n");
+		header.append("  <UnstructuredGrid>\n");
+		header.append(String.format("    <Piece NumberOfPoints=\"%d\" NumberOfCells=\"%d\">%n",
+				Math.max(0, nPoints), Math.max(0, nCells)));
+		header.append("      <PointData>\n").append(xmlPointData).append("      </PointData>\n");
+		header.append("      <Points>\n").append(xmlPoints).append("      </Points>\n");
+		header.append("      <Cells>\n").append(xmlCells).append("      </Cells>\n");
+		header.append("    </Piece>\n");
+		header.append("  </UnstructuredGrid>\n");
+		header.append("  <AppendedData encoding=\"raw\">\n   _");
+
+		RandomAccessFile out = new RandomAccessFile(outputFile, "rw");
+		try
+		{
+			out.setLength(0);
+			FileChannel outChannel = out.getChannel();
+			outChannel.write(ByteBuffer.wrap(header.toString().getBytes("US-ASCII")));
+
+			long size = channel.size(), position = 0;
+			while (position < size)
+				position += channel.transferTo(position, size - position, outChannel);
+
+			outChannel.write(ByteBuffer.wrap("\n  </AppendedData>\n</VTKFile>\n"
+					.getBytes("US-ASCII")));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Build an XML DataArray element.
+	 */
+	private String dataArray(String type, String name, int nComponents, long offset)
+	{
+		StringBuilder s = new StringBuilder();
+		s.append("        <DataArray type=\"").append(type).append('"');
+		if (name != null)
+			s.append(" Name=\"").append(name).append('"');
+		if (nComponents > 1)
+			s.append(" NumberOfComponents=\"").append(nComponents).append('"');
+		s.append(" format=\"appended\" offset=\"").append(offset).append("\"/>\n");
+		return s.toString();
+	}
+
+	/**
+	 * Write one data array to the appended data of XML output, preceded by its
+	 * header, and return its offset in the appended data. Uncompressed arrays
+	 * are preceded by their size in bytes. Compressed arrays are preceded by
+	 * the number of blocks, the uncompressed block size, the uncompressed size
+	 * of the last partial block (0 if it is full), and the compressed size of
+	 * each block. The header is reserved before the blocks are written and is
+	 * filled in once all the compressed sizes are known.
+	 * 
+	 * @param nElements number of elements in the array
+	 * @param elementSize size of each element, in bytes
+	 * @param encoder the array encoder
+	 * @return the offset of the array in the appended data
+	 * @throws IOException
+	 */
+	private long writeXmlArray(int nElements, int elementSize, Encoder encoder)
+			throws IOException
+	{
+		long offset = channel.position();
+		long nBytes = (long) nElements * elementSize;
+		if (!compress)
+		{
+			ByteBuffer header = ByteBuffer.allocate(8).order(byteOrder);
+			header.putLong(nBytes).flip();
+			writeFully(header);
+			writeArray(nElements, elementSize, encoder);
+			return offset;
+		}
+
+		int nBlocks = (nElements + chunkSize - 1) / chunkSize;
+		ByteBuffer header = ByteBuffer.allocate(8 * (3 + nBlocks)).order(byteOrder);
+		channel.position(offset + header.capacity());
+		long[] blockSizes = writeArray(nElements, elementSize, encoder);
+
+		header.putLong(nBlocks);
+		header.putLong((long) chunkSize * elementSize);
+		header.putLong(nBytes % ((long) chunkSize * elementSize));
+		for (long b : blockSizes)
+			header.putLong(b);
+		header.flip();
+
+		long end = channel.position();
+		channel.position(offset);
+		writeFully(header);
+		channel.position(end);
+		return offset;
+	}
+
+	/**
+	 * Evaluate and write all the elements of a section, in chunks. Chunks are
+	 * encoded (and compressed for compressed XML output) concurrently but
+	 * written in order. No more than 2 chunks per thread are in memory at
+	 * once.
+	 * 
+	 * @param nElements number of elements in the section
+	 * @param elementSize size of each element, in bytes
+	 * @param encoder the section encoder
+	 * @return the number of bytes written for each chunk
+	 * @throws IOException
+	 */
+	private long[] writeArray(final int nElements, final int elementSize,
+			final Encoder encoder) throws IOException
+	{
+		final boolean deflate = xml && compress;
+		int nChunks = (nElements + chunkSize - 1) / chunkSize;
+		long[] chunkBytes = new long[nChunks];
+
+		if (nThreads <= 1 || nChunks <= 1)
+		{
+			for (int c = 0; c < nChunks; ++c)
+			{
+				ByteBuffer b = encodeChunk(c, nElements, elementSize, encoder, deflate);
+				chunkBytes[c] = b.remaining();
+				writeFully(b);
+			}
+			return chunkBytes;
+		}
+
+		if (threadPool == null)
+			threadPool = Executors.newFixedThreadPool(nThreads);
+
+		ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+		int next = 0;
+		try
+		{
+			for (int c = 0; c < nChunks; ++c)
+			{
+				while (next < nChunks && pending.size() < 2 * nThreads)
+				{
+					final int chunk = next++;
+					pending.add(threadPool.submit(new Callable<ByteBuffer>()
+					{
+						@Override
+						public ByteBuffer call() throws Exception
+						{
+							return encodeChunk(chunk, nElements, elementSize, encoder,
+									deflate);
+						}
+					}));
+				}
+				ByteBuffer b = pending.remove().get();
+				chunkBytes[c] = b.remaining();
+				writeFully(b);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		finally
+		{
+			for (Future<ByteBuffer> f : pending)
+				f.cancel(true);
+		}
+		return chunkBytes;
+	}
+
+	/**
+	 * Encode one chunk of a section into a buffer that is ready to be written.
+	 */
+	private ByteBuffer encodeChunk(int chunk, int nElements, int elementSize,
+			Encoder encoder, boolean deflate) throws IOException
+	{
+		int first = chunk * chunkSize;
+		int count = Math.min(chunkSize, nElements - first);
+		ByteBuffer buffer = ByteBuffer.allocate(count * elementSize).order(byteOrder);
+		try
+		{
+			encoder.encode(first, count, buffer);
+		}
+		catch (IOException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IOException(e);
+		}
+		if (buffer.position() != buffer.capacity())
+			throw new IOException(String.format("Encoded %d bytes but expected %d",
+					buffer.position(), buffer.capacity()));
+
+		if (!deflate)
+		{
+			buffer.flip();
+			return buffer;
+		}
+
+		Deflater deflater = new Deflater();
+		try
+		{
+			deflater.setInput(buffer.array(), 0, buffer.capacity());
+			deflater.finish();
+			byte[] out = new byte[buffer.capacity() + buffer.capacity() / 100 + 64];
+			int n = 0;
+			while (!deflater.finished())
+			{
+				if (n == out.length)
+					out = Arrays.copyOf(out, 2 * out.length);
+				n += deflater.deflate(out, n, out.length - n);
+			}
+			return ByteBuffer.wrap(out, 0, n);
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private Encoder doubleEncoder(final int nComponents, final DoubleSource source)
+	{
+		return new Encoder()
+		{
+			@Override
+			public void encode(int first, int count, ByteBuffer buffer)
+					throws Exception
+			{
+				double[] values = new double[count * nComponents];
+				source.get(first, count, values);
+				for (int i = 0; i < values.length; ++i)
+					buffer.putDouble(values[i]);
+			}
+		};
+	}
+
+	private Encoder intEncoder(final int nComponents, final IntSource source)
+	{
+		return new Encoder()
+		{
+			@Override
+			public void encode(int first, int count, ByteBuffer buffer)
+					throws Exception
+			{
+				int[] values = new int[count * nComponents];
+				source.get(first, count, values);
+				for (int i = 0; i < values.length; ++i)
+					buffer.putInt(values[i]);
+			}
+		};
+	}
+
+	private void writeString(String s) throws IOException
+	{
+		writeFully(ByteBuffer.wrap(s.getBytes("US-ASCII")));
+	}
+
+	private void writeFully(ByteBuffer b) throws IOException
+	{
+		while (b.hasRemaining())
+			channel.write(b);
+	}
+
+}